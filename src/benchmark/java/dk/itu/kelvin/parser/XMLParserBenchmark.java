@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Locale;
+
+// I/O utilities
+import java.io.File;
+import java.io.IOException;
+
+// JUnit annotations
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Benchmark of the byte-level scanner of {@link XMLParser} against its SAX
+ * engine.
+ *
+ * <p>
+ * Both engines parse the same generated OSM file a number of times and the
+ * average parse time of each engine is reported. That both engines produce
+ * the same results is tested by {@link ParserTest}.
+ */
+public final class XMLParserBenchmark {
+  /**
+   * The number of nodes in the generated file.
+   */
+  private static final int NODES = 50000;
+
+  /**
+   * The number of timed runs of each engine.
+   */
+  private static final int RUNS = 3;
+
+  /**
+   * Temporary folder for the generated file.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * The generated OSM file.
+   */
+  private static File file;
+
+  /**
+   * Generate the OSM file used by the benchmark.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @BeforeClass
+  public static void generate() throws IOException {
+    XMLParserBenchmark.file = FOLDER.newFile("benchmark.osm");
+    ParserTest.write(XMLParserBenchmark.file, NODES);
+  }
+
+  /**
+   * Parse the generated file using the specified engine.
+   *
+   * @param sax Whether or not to use the SAX engine.
+   * @return    The parser used for parsing the file.
+   *
+   * @throws Exception In case of an error during parsing.
+   */
+  private static XMLParser parse(final boolean sax) throws Exception {
+    XMLParser parser = new XMLParser();
+    parser.sax(sax);
+    parser.parse(XMLParserBenchmark.file);
+
+    return parser;
+  }
+
+  /**
+   * Time the parsing of the generated file using the specified engine.
+   *
+   * @param sax Whether or not to use the SAX engine.
+   * @return    The average number of milliseconds spent parsing the file.
+   *
+   * @throws Exception In case of an error during parsing.
+   */
+  private static double time(final boolean sax) throws Exception {
+    // Warm up the engine before timing it.
+    XMLParserBenchmark.parse(sax);
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < RUNS; i++) {
+      XMLParserBenchmark.parse(sax);
+    }
+
+    return (System.nanoTime() - start) / 1e6 / RUNS;
+  }
+
+  /**
+   * Benchmark the scanner against the SAX engine.
+   *
+   * @throws Exception In case of an error during parsing.
+   */
+  @Test
+  public void benchmark() throws Exception {
+    double sax = XMLParserBenchmark.time(true);
+    double scanner = XMLParserBenchmark.time(false);
+
+    System.out.println(String.format(Locale.ROOT,
+      "XMLParser: SAX %.1f ms, scanner %.1f ms (%.1fx) for %d nodes",
+      sax, scanner, sax / scanner, NODES
+    ));
+  }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// JUnit annotations
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+
+// Utilities
+import dk.itu.kelvin.util.PointTree;
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Models
+import dk.itu.kelvin.model.Node;
+
+/**
+ * Benchmark of the nearest neighbour searches of {@link PointTree} against a
+ * brute force search of the points of interest of an {@link ElementStore}.
+ *
+ * <p>
+ * Both searches look up the closest point of interest and the closest
+ * {@link #K} points of interest of the same type for a number of random
+ * points, and the average time per lookup of each search is reported. That
+ * both searches find the same points of interest is tested by
+ * {@code PointTreeTest}.
+ */
+public final class PointTreeBenchmark {
+  /**
+   * The number of points of interest in the element store.
+   */
+  private static final int POIS = 100000;
+
+  /**
+   * The number of points of interest to look up in k-nearest searches.
+   */
+  private static final int K = 10;
+
+  /**
+   * The number of lookups of each search.
+   */
+  private static final int LOOKUPS = 200;
+
+  /**
+   * The types of points of interest in the element store.
+   */
+  private static final String[] AMENITIES = {
+    "cafe", "restaurant", "bar", "pharmacy", "atm"
+  };
+
+  /**
+   * The element store holding the points of interest.
+   */
+  private static ElementStore elements;
+
+  /**
+   * The point tree of the points of interest.
+   */
+  private static PointTree<Node> tree;
+
+  /**
+   * The points to look up points of interest near.
+   */
+  private static List<SpatialIndex.Point> points;
+
+  /**
+   * Generate the points of interest and the points used by the benchmark.
+   */
+  @BeforeClass
+  public static void generate() {
+    Random random = new Random(42);
+
+    PointTreeBenchmark.elements = new ElementStore();
+
+    for (int i = 0; i < POIS; i++) {
+      Node node = new Node(
+        random.nextFloat() * 10000, random.nextFloat() * 10000
+      );
+      node.tag("amenity", AMENITIES[i % AMENITIES.length]);
+
+      PointTreeBenchmark.elements.add(node);
+    }
+
+    PointTreeBenchmark.tree = new PointTree<>(
+      PointTreeBenchmark.elements.pois()
+    );
+
+    PointTreeBenchmark.points = new ArrayList<>(LOOKUPS);
+
+    for (int i = 0; i < LOOKUPS; i++) {
+      PointTreeBenchmark.points.add(new SpatialIndex.Point(
+        random.nextFloat() * 10000, random.nextFloat() * 10000
+      ));
+    }
+  }
+
+  /**
+   * Compute the squared distance between a point of interest and a point.
+   *
+   * @param node  The point of interest.
+   * @param point The point.
+   * @return      The squared distance between the point of interest and the
+   *              point.
+   */
+  private static double distance(
+    final Node node,
+    final SpatialIndex.Point point
+  ) {
+    double dx = node.x() - point.x();
+    double dy = node.y() - point.y();
+
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Find the closest point of interest by scanning all points of interest.
+   *
+   * @param point The point to look up points of interest near.
+   * @return      The closest point of interest.
+   */
+  private static Node scan(final SpatialIndex.Point point) {
+    Node nearest = null;
+    double best = Double.POSITIVE_INFINITY;
+
+    for (Node node: PointTreeBenchmark.elements.pois()) {
+      double distance = PointTreeBenchmark.distance(node, point);
+
+      if (distance < best) {
+        nearest = node;
+        best = distance;
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Find the {@link #K} closest points of interest of a type by scanning all
+   * points of interest.
+   *
+   * @param point   The point to look up points of interest near.
+   * @param amenity The type of points of interest.
+   * @return        The closest points of interest, closest first.
+   */
+  private static List<Node> scan(
+    final SpatialIndex.Point point,
+    final String amenity
+  ) {
+    List<Node> nearest = new ArrayList<>(K + 1);
+
+    for (Node node: PointTreeBenchmark.elements.pois()) {
+      if (!amenity.equals(node.tag("amenity"))) {
+        continue;
+      }
+
+      double distance = PointTreeBenchmark.distance(node, point);
+
+      if (
+        nearest.size() == K
+        && distance >= PointTreeBenchmark.distance(nearest.get(K - 1), point)
+      ) {
+        continue;
+      }
+
+      int i = nearest.size();
+
+      while (
+        i > 0
+        && PointTreeBenchmark.distance(nearest.get(i - 1), point) > distance
+      ) {
+        i--;
+      }
+
+      nearest.add(i, node);
+
+      if (nearest.size() > K) {
+        nearest.remove(K);
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Look up the closest point of interest and the closest points of interest
+   * of a type for all points.
+   *
+   * @param brute Whether or not to scan all points of interest.
+   * @return      The number of points of interest found.
+   */
+  private static int lookup(final boolean brute) {
+    int found = 0;
+
+    for (int i = 0; i < LOOKUPS; i++) {
+      SpatialIndex.Point point = PointTreeBenchmark.points.get(i);
+      String amenity = AMENITIES[i % AMENITIES.length];
+
+      if (brute) {
+        found += (PointTreeBenchmark.scan(point) != null) ? 1 : 0;
+        found += PointTreeBenchmark.scan(point, amenity).size();
+      }
+      else {
+        found += (PointTreeBenchmark.tree.nearest(point) != null) ? 1 : 0;
+        found += PointTreeBenchmark.tree.nearest(point, K, (node) -> {
+          return amenity.equals(node.tag("amenity"));
+        }).size();
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Time the lookups of the specified search.
+   *
+   * @param brute Whether or not to scan all points of interest.
+   * @return      The average number of microseconds spent per lookup.
+   */
+  private static double time(final boolean brute) {
+    // Warm up the search before timing it.
+    PointTreeBenchmark.lookup(brute);
+
+    long start = System.nanoTime();
+
+    assertEquals(LOOKUPS * (K + 1), PointTreeBenchmark.lookup(brute));
+
+    return (System.nanoTime() - start) / 1e3 / LOOKUPS;
+  }
+
+  /**
+   * Benchmark the point tree against a brute force search.
+   */
+  @Test
+  public void benchmark() {
+    double brute = PointTreeBenchmark.time(true);
+    double tree = PointTreeBenchmark.time(false);
+
+    System.out.println(String.format(Locale.ROOT,
+      "PointTree: brute force %.1f us, tree %.1f us (%.1fx) per lookup"
+      + " among %d points of interest",
+      brute, tree, brute / tree, POIS
+    ));
+  }
+}
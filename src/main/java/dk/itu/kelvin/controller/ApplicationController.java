@@ -12,6 +12,7 @@ import javafx.scene.layout.StackPane;
 
 // JavaFX controls
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 
 // JavaFX animations
 import javafx.animation.RotateTransition;
@@ -60,6 +61,12 @@ public final class ApplicationController {
   @FXML
   private Label loadIcon;
 
+  /**
+   * The loading progress bar.
+   */
+  @FXML
+  private ProgressBar loadProgress;
+
   /**
    * Initialize a new application controller.
    *
@@ -88,6 +95,9 @@ public final class ApplicationController {
     ApplicationController.instance.stackPane.getChildren().remove(
       this.loadIcon
     );
+    ApplicationController.instance.stackPane.getChildren().remove(
+      this.loadProgress
+    );
 
     ApplicationController.addIcon();
     Platform.runLater(() -> {
@@ -118,6 +128,9 @@ public final class ApplicationController {
         ApplicationController.instance.loadIcon
       );
     }
+    ApplicationController.instance.stackPane.getChildren().remove(
+      ApplicationController.instance.loadProgress
+    );
     ApplicationController.instance.chart.setDisable(false);
   }
 
@@ -132,7 +145,27 @@ public final class ApplicationController {
         ApplicationController.instance.loadIcon
       );
     }
+    if (!ApplicationController.instance.stackPane.getChildren().contains(
+      ApplicationController.instance.loadProgress
+    )) {
+      ApplicationController.instance.stackPane.getChildren().add(
+        ApplicationController.instance.loadProgress
+      );
+    }
+    ApplicationController.instance.loadProgress.setProgress(
+      ProgressBar.INDETERMINATE_PROGRESS
+    );
     ApplicationController.instance.rotateIcon();
     ApplicationController.instance.chart.setDisable(true);
   }
+
+  /**
+   * Sets the progress shown by the loading progress bar.
+   *
+   * @param progress The progress between 0 and 1, or a negative value if the
+   *                 progress is unknown.
+   */
+  public static void setProgress(final double progress) {
+    ApplicationController.instance.loadProgress.setProgress(progress);
+  }
 }
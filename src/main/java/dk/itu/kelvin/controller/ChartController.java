@@ -13,6 +13,14 @@ import java.io.File;
 // JavaFX application utilities
 import javafx.application.Platform;
 
+// JavaFX animations
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+
+// JavaFX utilities
+import javafx.util.Duration;
+
 // JavaFX layout
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.HBox;
@@ -36,6 +44,7 @@ import javafx.scene.control.Label;
 import javafx.fxml.FXML;
 
 // Utilities
+import dk.itu.kelvin.util.CoordinateTable;
 import dk.itu.kelvin.util.Graph;
 import dk.itu.kelvin.util.SpatialIndex;
 import dk.itu.kelvin.util.ShortestPath;
@@ -45,6 +54,8 @@ import dk.itu.kelvin.math.Geometry;
 
 // Parser
 import dk.itu.kelvin.parser.Parser;
+import dk.itu.kelvin.parser.Progress;
+import dk.itu.kelvin.parser.XMLParser;
 
 // Layout
 import dk.itu.kelvin.layout.Chart;
@@ -57,7 +68,9 @@ import dk.itu.kelvin.model.Node;
 import dk.itu.kelvin.model.BoundingBox;
 
 // Stores
+import dk.itu.kelvin.store.ChangeTracker;
 import dk.itu.kelvin.store.ElementStore;
+import dk.itu.kelvin.store.TileCache;
 
 /**
  * Chart controller class.
@@ -68,6 +81,18 @@ public final class ChartController {
    */
   private static ChartController instance;
 
+  /**
+   * The minimum number of milliseconds between refreshes of the chart while a
+   * map is being loaded.
+   */
+  private static final long REFRESH_INTERVAL = 1000;
+
+  /**
+   * The number of milliseconds between updates of the progress bar while a
+   * map is being loaded.
+   */
+  private static final double PROGRESS_INTERVAL = 100;
+
   /**
    * Default zoom step factor.
    */
@@ -118,6 +143,23 @@ public final class ChartController {
    */
   private static ElementStore elementStore;
 
+  /**
+   * The handle of the map being loaded, if any.
+   */
+  private static Parser.Handle loading;
+
+  /**
+   * The change tracker of the current map, if it has been loaded from an OSM
+   * file while tracking changes.
+   */
+  private static ChangeTracker tracker;
+
+  /**
+   * Whether or not to track the elements of the OSM files loaded from now on,
+   * so that change files can be applied to them.
+   */
+  private static boolean tracking;
+
   /**
    * Polyline to represent the route.render().
    */
@@ -293,22 +335,6 @@ public final class ChartController {
     );
   }
 
-  /**
-   * Store all POI nodes in ElementStore.
-   * @param parser for parsing data.
-   */
-  private static void storePoi(final Parser parser) {
-    for (Node n : parser.nodes()) {
-      if (n.tag("amenity") != null) {
-        ChartController.instance.elementStore.add(n);
-      }
-
-      if (n.tag("shop") != null) {
-        ChartController.instance.elementStore.add(n);
-      }
-    }
-  }
-
   /**
    * Sets the text of scaleIndicator.
    * @param text the text to be set in scale.
@@ -611,8 +637,16 @@ public final class ChartController {
    * Clears map by removing all children from layers.
    */
   public static void clearMap() {
+    // Abort the map being loaded, if any, so it doesn't keep hogging CPU and
+    // memory in the background.
+    if (ChartController.loading != null) {
+      ChartController.loading.cancel();
+      ChartController.loading = null;
+    }
+
     ChartController.instance.chart.clear();
     ChartController.elementStore = null;
+    ChartController.tracker = null;
   }
 
   /**
@@ -624,22 +658,41 @@ public final class ChartController {
 
     Parser parser = Parser.probe(file);
     ChartController.elementStore = new ElementStore();
-    parser.read(file, () -> {
-      // Get all addresses from parser.
-      for (Address address: parser.addresses()) {
-        AddressController.addAddress(address);
-      }
 
-      // Sets all POI from initialized nodes.
-      ChartController.instance.storePoi(parser);
+    // Tracking keeps the IDs of all elements and the coordinates of all nodes
+    // around for as long as the map is shown, so it's only done on request.
+    if (ChartController.tracking) {
+      ChartController.tracker = new ChangeTracker(
+        ChartController.elementStore,
+        AddressController.getAddressStore(),
+        (node) -> {
+          return ChartController.poi(node);
+        }
+      );
+    }
+
+    Loader loader = new Loader(
+      ChartController.elementStore, ChartController.tracker
+    );
+
+    // Elements are streamed into the element store while parsing and the chart
+    // is refreshed every now and then to show whatever has arrived so far.
+    Timeline progress = new Timeline();
 
+    ChartController.loading = parser.read(file, loader, () -> {
       Platform.runLater(() -> {
-        for (Way l: parser.land()) {
-          ChartController.instance.elementStore.addLand(l);
+        progress.stop();
+
+        // Another map has been loaded in the meantime.
+        if (!loader.current()) {
+          return;
         }
+
+        ChartController.loading = null;
+
         // Adds land around entire bounds if parser doesn't have any coastlines.
-        if (parser.land().isEmpty()) {
-          BoundingBox tempBounds = parser.bounds();
+        if (!loader.land && loader.bounds != null) {
+          BoundingBox tempBounds = loader.bounds;
           Way defaultLand = new Way();
           defaultLand.add(new Node(tempBounds.minX(), tempBounds.minY()));
           defaultLand.add(new Node(tempBounds.maxX(), tempBounds.minY()));
@@ -651,27 +704,118 @@ public final class ChartController {
           ChartController.instance.elementStore.addLand(defaultLand);
         }
 
-        for (Way w: parser.ways()) {
-          ChartController.instance.elementStore.add(w);
-        }
+        ChartController.instance.chart.refresh();
 
-        for (Relation r: parser.relations()) {
-          ChartController.instance.elementStore.add(r);
-        }
+        // Sets the chart active after load.
+        ApplicationController.removeIcon();
+      });
+    });
 
-        ChartController.instance.elementStore.add(parser.bounds());
+    // Poll the progress of the parser and show it in the progress bar.
+    Progress current = ChartController.loading.progress();
 
-        ChartController.instance.chart.elementStore(
-          ChartController.elementStore
-        );
-        ChartController.instance.chart.bounds(parser.bounds());
+    progress.getKeyFrames().add(new KeyFrame(
+      Duration.millis(PROGRESS_INTERVAL), (e) -> {
+        ApplicationController.setProgress(current.fraction());
+      }
+    ));
+    progress.setCycleCount(Animation.INDEFINITE);
+    progress.play();
+  }
 
-        // Sets the chart active after load.
+  /**
+   * Set whether or not to track the elements of the OSM files loaded from now
+   * on, so that change files can be applied to them.
+   *
+   * <p>
+   * Turning tracking off also stops tracking the current map, letting go of
+   * the IDs and coordinates kept for it.
+   *
+   * @param tracking A boolean indicating whether or not to track changes.
+   */
+  public static void track(final boolean tracking) {
+    ChartController.tracking = tracking;
+
+    if (!tracking) {
+      ChartController.tracker = null;
+    }
+  }
+
+  /**
+   * Check if change files can be applied to the current map.
+   *
+   * @return A boolean indicating whether or not the current map has been
+   *         loaded from an OSM file while tracking changes.
+   */
+  public static boolean tracked() {
+    return ChartController.tracker != null;
+  }
+
+  /**
+   * Apply an OsmChange file to the current map.
+   *
+   * <p>
+   * Only maps loaded from OSM files while tracking changes can be changed, as
+   * map files don't carry the IDs of their elements.
+   *
+   * @param file The change file to apply.
+   */
+  public static void applyChanges(final File file) {
+    ChangeTracker tracker = ChartController.tracker;
+
+    if (tracker == null || ChartController.loading != null) {
+      return;
+    }
+
+    ApplicationController.addIcon();
+
+    Parser parser = new XMLParser();
+
+    parser.read(file, tracker, () -> {
+      // A malformed or cancelled change file is left out entirely rather than
+      // applied halfway.
+      if (parser.handle().succeeded()) {
+        tracker.commit();
+      }
+      else {
+        tracker.discard();
+      }
+
+      Platform.runLater(() -> {
+        ChartController.instance.chart.refresh();
         ApplicationController.removeIcon();
       });
     });
   }
 
+  /**
+   * Check if a tagged node is a point of interest.
+   *
+   * @param node  The node to check.
+   * @return      A boolean indicating whether or not the node is a point of
+   *              interest.
+   */
+  private static boolean poi(final Node node) {
+    return node.tag("amenity") != null || node.tag("shop") != null;
+  }
+
+  /**
+   * Show the tiles of the current element store from a tile cache.
+   *
+   * @param tiles The pre-generated tiles of the current element store.
+   */
+  public static void loadTiles(final TileCache tiles) {
+    ChartController.instance.chart.tiles(tiles);
+    ChartController.instance.chart.refresh();
+  }
+
+  /**
+   * Refresh the chart to pick up elements added to the current element store.
+   */
+  public static void refresh() {
+    ChartController.instance.chart.refresh();
+  }
+
   /**
    * Gets the element store and returns it.
    * @return the element store.
@@ -698,7 +842,195 @@ public final class ChartController {
     final BoundingBox bounds
   ) {
     ChartController.elementStore = elementStore;
+    ChartController.tracker = null;
     ChartController.instance.chart.elementStore(ChartController.elementStore);
     ChartController.instance.chart.bounds(bounds);
   }
+
+  /**
+   * The {@link Loader} class streams the elements of a map being parsed into
+   * an element store and an address store.
+   */
+  private static final class Loader implements Parser.Sink {
+    /**
+     * The element store to stream elements into.
+     */
+    private final ElementStore store;
+
+    /**
+     * The change tracker to register the stored elements with, if tracking.
+     */
+    private final ChangeTracker tracker;
+
+    /**
+     * The bounds of the map.
+     */
+    private BoundingBox bounds;
+
+    /**
+     * Whether or not any land polygons have been received.
+     */
+    private boolean land;
+
+    /**
+     * The time of the last refresh of the chart.
+     */
+    private long refreshed;
+
+    /**
+     * Initialize a new loader.
+     *
+     * @param store   The element store to stream elements into.
+     * @param tracker The change tracker to register the stored elements with,
+     *                or {@code null} if not tracking.
+     */
+    public Loader(final ElementStore store, final ChangeTracker tracker) {
+      this.store = store;
+      this.tracker = tracker;
+    }
+
+    /**
+     * Receive the bounds of the map.
+     *
+     * <p>
+     * The chart is switched over to the new element store as soon as the
+     * bounds are known, so that it can start rendering the elements that
+     * follow.
+     *
+     * @param bounds The bounds of the map.
+     */
+    @Override
+    public void onBounds(final BoundingBox bounds) {
+      this.bounds = bounds;
+      this.store.add(bounds);
+
+      Platform.runLater(() -> {
+        if (!this.current()) {
+          return;
+        }
+
+        ChartController.instance.chart.elementStore(this.store);
+        ChartController.instance.chart.bounds(bounds);
+      });
+    }
+
+    /**
+     * Receive a tagged node, keeping it if it's a point of interest.
+     *
+     * @param id    The ID of the node.
+     * @param node  The node.
+     */
+    @Override
+    public void onNode(final long id, final Node node) {
+      if (ChartController.poi(node)) {
+        this.store.add(node);
+        this.refresh();
+
+        if (this.tracker != null) {
+          this.tracker.track(id, node);
+        }
+      }
+    }
+
+    /**
+     * Receive a way.
+     *
+     * @param id  The ID of the way.
+     * @param way The way.
+     */
+    @Override
+    public void onWay(final long id, final Way way) {
+      this.store.add(way);
+      this.refresh();
+
+      if (this.tracker != null) {
+        this.tracker.track(id, way);
+      }
+    }
+
+    /**
+     * Receive a relation.
+     *
+     * @param id        The ID of the relation.
+     * @param relation  The relation.
+     */
+    @Override
+    public void onRelation(final long id, final Relation relation) {
+      this.store.add(relation);
+      this.refresh();
+
+      if (this.tracker != null) {
+        this.tracker.track(id, relation);
+      }
+    }
+
+    /**
+     * Receive an address.
+     *
+     * @param id      The ID of the node carrying the address.
+     * @param address The address.
+     */
+    @Override
+    public void onAddress(final long id, final Address address) {
+      if (this.current()) {
+        AddressController.addAddress(address);
+
+        if (this.tracker != null) {
+          this.tracker.track(id, address);
+        }
+      }
+    }
+
+    /**
+     * Receive a land polygon.
+     *
+     * @param land The land polygon.
+     */
+    @Override
+    public void onLand(final Way land) {
+      this.land = true;
+      this.store.addLand(land);
+    }
+
+    /**
+     * Receive the coordinates of all nodes of the map, handing them over to
+     * the change tracker if tracking. Otherwise they're let go of right away.
+     *
+     * @param locations The coordinates of all nodes of the map.
+     */
+    @Override
+    public void onLocations(final CoordinateTable locations) {
+      if (this.tracker != null) {
+        this.tracker.track(locations);
+      }
+    }
+
+    /**
+     * Check if the loader is still loading the current map, i.e. that no
+     * other map has been loaded or cleared in the meantime.
+     *
+     * @return A boolean indicating whether or not the loader is loading the
+     *         current map.
+     */
+    private boolean current() {
+      return ChartController.elementStore == this.store;
+    }
+
+    /**
+     * Refresh the chart if enough time has passed since the last refresh.
+     */
+    private void refresh() {
+      long now = System.currentTimeMillis();
+
+      if (now - this.refreshed < REFRESH_INTERVAL) {
+        return;
+      }
+
+      this.refreshed = now;
+
+      Platform.runLater(() -> {
+        ChartController.instance.chart.refresh();
+      });
+    }
+  }
 }
@@ -4,11 +4,22 @@
 package dk.itu.kelvin.controller;
 
 // I/O utilities
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// General utilities
+import java.util.List;
+
+// JavaFX animation utilities
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+
+// JavaFX utilities
+import javafx.util.Duration;
 
 // JavaFX stage utilities
 import javafx.application.Platform;
@@ -16,20 +27,29 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 // JavaFX Scene utilities
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
 import javafx.scene.control.MenuBar;
+import javafx.scene.control.MenuItem;
 import javafx.scene.text.TextAlignment;
 
 // JavaFX Geometry
 import javafx.geometry.Pos;
 
-// Kelvin Models
-import dk.itu.kelvin.model.BoundingBox;
-
 // Kelvin Stores
 import dk.itu.kelvin.store.AddressStore;
 import dk.itu.kelvin.store.ElementStore;
+import dk.itu.kelvin.store.MapFile;
+import dk.itu.kelvin.store.RegionStore;
+import dk.itu.kelvin.store.Store;
+import dk.itu.kelvin.store.TileCache;
+
+// Models
+import dk.itu.kelvin.model.BoundingBox;
+
+// Threading
+import dk.itu.kelvin.thread.TaskQueue;
 
 // JavaFX FXML
 import javafx.fxml.FXML;
@@ -64,17 +84,68 @@ public final class MenuController {
    */
   private static final String DEFAULT_BIN =  "defaultMap.bin";
 
+  /**
+   * The extension of the pre-generated tiles of a bin file, which replaces the
+   * extension of the bin file.
+   */
+  private static final String TILES = ".tiles";
+
+  /**
+   * The share of the maximum heap size that the regions of a map may take up.
+   */
+  private static final int REGION_BUDGET = 4;
+
+  /**
+   * The number of milliseconds between updates of the progress bar while a
+   * map is being saved.
+   */
+  private static final double PROGRESS_INTERVAL = 100;
+
+  /**
+   * The token of the default map being loaded, if any.
+   */
+  private static Object startup;
+
+  /**
+   * The time from the start of the last load of the default map to the first
+   * frame showing it, in nanoseconds, or 0 if not yet shown.
+   */
+  private static volatile long firstFrameTime;
+
+  /**
+   * The time from the start of the last load of the default map to it being
+   * fully loaded, in nanoseconds, or 0 if not yet loaded.
+   */
+  private static volatile long loadTime;
+
   /**
    * About PopOver.
    */
   private PopOver about;
 
+  /**
+   * The save of the current map, if running.
+   */
+  private Store.Handle saving;
+
   /**
    * Main system MenuBar.
    */
   @FXML
   private MenuBar mainMenuBar;
 
+  /**
+   * The menu item for saving the current map.
+   */
+  @FXML
+  private MenuItem saveMenuItem;
+
+  /**
+   * The menu item for tracking changes to the OSM files loaded.
+   */
+  @FXML
+  private CheckMenuItem trackMenuItem;
+
   /**
    * Initialize a new menu controller.
    *
@@ -98,14 +169,16 @@ public final class MenuController {
   }
 
   /**
-   * Choose an .OSM, .XML, .PBF file to be loaded.
+   * Choose an .OSM, .XML, .PBF file, possibly compressed, to be loaded.
    */
   @FXML
   private void pickFile() {
     FileChooser filechooser = new FileChooser();
     filechooser.setTitle("Select file to load");
     filechooser.getExtensionFilters().add(
-      new FileChooser.ExtensionFilter("All Files", "*.osm", "*.xml", "*.pbf")
+      new FileChooser.ExtensionFilter(
+        "All Files", "*.osm", "*.xml", "*.pbf", "*.osm.gz", "*.osm.bz2"
+      )
     );
     File file = filechooser.showOpenDialog(new Stage());
 
@@ -115,29 +188,147 @@ public final class MenuController {
     }
   }
 
+  /**
+   * Choose an .OSC file, possibly compressed, to apply to the current map.
+   */
+  @FXML
+  private void pickChanges() {
+    if (!ChartController.tracked()) {
+      this.showError(
+        "Changes can't be applied to this map",
+        "Turn on \"Track changes\" and open the OSM file again first."
+      );
+      return;
+    }
+
+    FileChooser filechooser = new FileChooser();
+    filechooser.setTitle("Select changes to apply");
+    filechooser.getExtensionFilters().add(
+      new FileChooser.ExtensionFilter(
+        "OsmChange Files", "*.osc", "*.osc.gz", "*.osc.bz2"
+      )
+    );
+    File file = filechooser.showOpenDialog(new Stage());
+
+    if (file != null && file.exists()) {
+      ChartController.applyChanges(file);
+    }
+  }
+
+  /**
+   * Turn tracking of the elements of the OSM files loaded from now on on or
+   * off.
+   */
+  @FXML
+  private void toggleTracking() {
+    ChartController.track(this.trackMenuItem.isSelected());
+  }
+
+  /**
+   * Choose one or more .bin files to be loaded as the regions of one map.
+   */
+  @FXML
+  private void pickRegions() {
+    FileChooser filechooser = new FileChooser();
+    filechooser.setTitle("Select regions to load");
+    filechooser.getExtensionFilters().add(
+      new FileChooser.ExtensionFilter("Map Files", "*.bin")
+    );
+    List<File> files = filechooser.showOpenMultipleDialog(new Stage());
+
+    if (files == null || files.isEmpty()) {
+      return;
+    }
+
+    ApplicationController.addIcon();
+
+    MenuController.clearMap();
+
+    // The regions are read in the background, as the default map is, and
+    // only the swap of the stores is done on the UI thread.
+    TaskQueue.run(() -> {
+      RegionStore regions = new RegionStore(
+        Runtime.getRuntime().maxMemory() / REGION_BUDGET
+      );
+
+      try {
+        for (File file: files) {
+          regions.add(file);
+        }
+      }
+      catch (IOException | RuntimeException ex) {
+        Platform.runLater(() -> {
+          ApplicationController.removeIcon();
+          this.showError("The regions could not be loaded", ex.getMessage());
+        });
+        return;
+      }
+
+      Platform.runLater(() -> {
+        ChartController.loadBinMap(regions.elements(), regions.bounds());
+        AddressController.setAddressStore(regions.addresses());
+
+        // Region stores can't be saved as a single map file; their regions
+        // are map files already.
+        this.saveMenuItem.setDisable(true);
+        ApplicationController.removeIcon();
+      });
+    });
+  }
+
   /**
    * Saves current map file as bin.
+   *
+   * <p>
+   * The map is captured on the UI thread but written in the background so
+   * that the UI stays responsive while saving. It is written as a plain map
+   * file rather than through {@link ElementStore#save} so that it can be
+   * mapped when loaded again. Should saving fail, the reason is shown to the
+   * user and the last saved map is left as it was.
    */
   @FXML
   private void saveBin() {
-    File file = new File(CURRENT_BIN);
+    if (this.saving != null) {
+      return;
+    }
+
     ApplicationController.addIcon();
 
-    Platform.runLater(() -> {
-      try (ObjectOutputStream out = new ObjectOutputStream(
-        new FileOutputStream(file))
-      ) {
-        out.writeObject(ChartController.getBounds());
-        out.writeObject(ChartController.getElementStore());
-        out.writeObject(AddressController.getAddressStore());
-        out.close();
+    MapFile map = new MapFile(
+      ChartController.getBounds(),
+      ChartController.getElementStore(),
+      AddressController.getAddressStore()
+    );
+
+    Timeline progress = new Timeline();
+
+    // The callback is run on the task queue, but the handle is only looked at
+    // once back on the UI thread, by which time it has been assigned.
+    this.saving = map.save(new File(CURRENT_BIN), () -> {
+      Platform.runLater(() -> {
+        progress.stop();
+
+        Exception error = this.saving.error();
+        this.saving = null;
 
         ApplicationController.removeIcon();
-      } catch (Exception e) {
-        ApplicationController.removeIcon();
-        throw new RuntimeException(e);
-      }
+
+        if (error != null) {
+          this.showError("The map could not be saved", error.getMessage());
+        }
+      });
     });
+
+    // Poll the progress of the save and show it in the progress bar.
+    Store.Handle current = this.saving;
+
+    progress.getKeyFrames().add(new KeyFrame(
+      Duration.millis(PROGRESS_INTERVAL), (e) -> {
+        ApplicationController.setProgress(current.fraction());
+      }
+    ));
+    progress.setCycleCount(Animation.INDEFINITE);
+    progress.play();
   }
 
   /**
@@ -158,33 +349,130 @@ public final class MenuController {
 
   /**
    * Static method for loading the default map that can't be changed.
+   *
+   * <p>
+   * The map is read in the background and handed to the chart in stages so
+   * that the window stays responsive: the bounds and the land are shown as
+   * soon as they've been read, after which the chart is refreshed as the
+   * remaining elements arrive. The addresses are handed to the address
+   * controller once all of them have been read.
+   *
+   * <p>
+   * The time from the start of the load to the first frame showing the map,
+   * and to the map being fully loaded, is recorded and can be read through
+   * {@link #firstFrameTime()} and {@link #loadTime()}.
    */
   public static void loadDefault() {
     ApplicationController.addIcon();
 
     MenuController.clearMap();
 
-    Platform.runLater(() -> {
-      try (
-        ObjectInputStream in = new ObjectInputStream(
-          Main.class.getResourceAsStream(DEFAULT_BIN)
-        );
-      ) {
-        BoundingBox bounds = (BoundingBox) in.readObject();
-        ElementStore elementStore = (ElementStore) in.readObject();
-        AddressStore addressStore = (AddressStore) in.readObject();
-        in.close();
-
-        ChartController.loadBinMap(elementStore, bounds);
-        AddressController.setAddressStore(addressStore);
-        ApplicationController.removeIcon();
+    Object token = new Object();
+    MenuController.startup = token;
+    MenuController.firstFrameTime = 0;
+    MenuController.loadTime = 0;
+
+    long started = System.nanoTime();
+
+    TaskQueue.run(() -> {
+      try (InputStream in = new BufferedInputStream(
+        Main.class.getResourceAsStream(DEFAULT_BIN)
+      )) {
+        MapFile.read(in, new MapFile.Listener() {
+          @Override
+          public void onLand(
+            final BoundingBox bounds,
+            final ElementStore elements
+          ) {
+            Platform.runLater(() -> {
+              if (MenuController.startup != token) {
+                return;
+              }
+
+              ChartController.loadBinMap(elements, bounds);
+              MenuController.firstFrame(started);
+            });
+          }
+
+          @Override
+          public void onElements(final ElementStore elements) {
+            Platform.runLater(() -> {
+              if (MenuController.startup != token) {
+                return;
+              }
+
+              ChartController.refresh();
+            });
+          }
+
+          @Override
+          public void onAddresses(final AddressStore addresses) {
+            Platform.runLater(() -> {
+              if (MenuController.startup != token) {
+                return;
+              }
+
+              MenuController.startup = null;
+
+              AddressController.setAddressStore(addresses);
+              ApplicationController.removeIcon();
+
+              MenuController.loadTime = System.nanoTime() - started;
+            });
+          }
+        });
       } catch (Exception e) {
-        ApplicationController.removeIcon();
-        throw new RuntimeException(e);
+        Platform.runLater(() -> {
+          ApplicationController.removeIcon();
+        });
+        throw e;
       }
     });
   }
 
+  /**
+   * Get the time from the start of the last load of the default map to the
+   * first frame showing it.
+   *
+   * @return  The time to the first frame in nanoseconds, or 0 if the default
+   *          map hasn't been shown yet.
+   */
+  public static long firstFrameTime() {
+    return MenuController.firstFrameTime;
+  }
+
+  /**
+   * Get the time from the start of the last load of the default map to it
+   * being fully loaded.
+   *
+   * @return  The time to the map being loaded in nanoseconds, or 0 if the
+   *          default map hasn't been fully loaded yet.
+   */
+  public static long loadTime() {
+    return MenuController.loadTime;
+  }
+
+  /**
+   * Record the time from the specified start to the next frame, once the
+   * chart has been handed the first elements of a map.
+   *
+   * <p>
+   * Animation timers are called at the start of every pulse, before the
+   * scene is rendered, so the first call marks the frame showing the map.
+   *
+   * @param started The time at which the load started, in nanoseconds.
+   */
+  private static void firstFrame(final long started) {
+    new AnimationTimer() {
+      @Override
+      public void handle(final long now) {
+        this.stop();
+
+        MenuController.firstFrameTime = System.nanoTime() - started;
+      }
+    }.start();
+  }
+
   /**
    * Loads a map from binary file based on filename.
    * @param filename a String for representing the file directory.
@@ -199,16 +487,20 @@ public final class MenuController {
 
     MenuController.clearMap();
     Platform.runLater(() -> {
-      try (ObjectInputStream in = new ObjectInputStream(
-        new FileInputStream(file))
-      ) {
-        BoundingBox bounds = (BoundingBox) in.readObject();
-        ElementStore elementStore = (ElementStore) in.readObject();
-        AddressStore addressStore = (AddressStore) in.readObject();
-        in.close();
-
-        ChartController.loadBinMap(elementStore, bounds);
-        AddressController.setAddressStore(addressStore);
+      try {
+        MapFile map = MapFile.map(file);
+
+        ChartController.loadBinMap(map.elements(), map.bounds());
+        AddressController.setAddressStore(map.addresses());
+
+        // Use the pre-generated tiles of the map, unless they're older than
+        // the map itself.
+        File tiles = new File(filename.replaceFirst("\\.bin$", "") + TILES);
+
+        if (tiles.exists() && tiles.lastModified() >= file.lastModified()) {
+          ChartController.loadTiles(TileCache.map(tiles));
+        }
+
         ApplicationController.removeIcon();
       } catch (Exception e) {
         ApplicationController.removeIcon();
@@ -221,6 +513,11 @@ public final class MenuController {
    * Calls methods for resetting all relevant data when loading new map file.
    */
   private static void clearMap() {
+    // Any default map being loaded is superseded.
+    MenuController.startup = null;
+
+    MenuController.instance.saveMenuItem.setDisable(false);
+
     AddressController.resetUI();
 
     AddressController.clearAddresses();
@@ -236,6 +533,36 @@ public final class MenuController {
     stage.close();
   }
 
+  /**
+   * Show an error to the user below the menu bar.
+   *
+   * @param message The message describing what failed.
+   * @param reason  The reason it failed.
+   */
+  private void showError(final String message, final String reason) {
+    PopOver popOver = new PopOver();
+    VBox vbox = new VBox();
+    vbox.getStyleClass().add("aboutVBox");
+
+    Label header = new Label(message);
+    header.getStyleClass().add("header");
+
+    Label details = new Label(reason);
+    details.setTextAlignment(TextAlignment.CENTER);
+    details.setWrapText(true);
+
+    vbox.getChildren().addAll(header, details);
+    vbox.setAlignment(Pos.CENTER);
+    vbox.setPrefWidth(500);
+
+    popOver.setContentNode(vbox);
+    popOver.setArrowLocation(PopOver.ArrowLocation.TOP_CENTER);
+    popOver.setCornerRadius(2);
+    popOver.setArrowSize(6);
+    popOver.setAutoHide(true);
+    popOver.show(this.mainMenuBar);
+  }
+
   /**
    * About menu showing information about the software and creators.
    */
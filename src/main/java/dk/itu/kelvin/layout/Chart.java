@@ -42,6 +42,7 @@ import dk.itu.kelvin.model.Node;
 
 // Stores
 import dk.itu.kelvin.store.ElementStore;
+import dk.itu.kelvin.store.TileCache;
 
 /**
  * Chart class for handling which elements to display and where.
@@ -71,13 +72,18 @@ public final class Chart extends Group {
   /**
    * The size of each tile in the chart.
    */
-  private static int tileSize = 256;
+  private static int tileSize = TileCache.TILE_SIZE;
 
   /**
    * Stores all elements.
    */
   private ElementStore elementStore;
 
+  /**
+   * The pre-generated tiles of the element store, if any.
+   */
+  private TileCache tiles;
+
   /**
    * Keep track of the tiles currently showing.
    */
@@ -161,6 +167,25 @@ public final class Chart extends Group {
    */
   public void elementStore(final ElementStore elementStore) {
     this.elementStore = elementStore;
+    this.tiles = null;
+  }
+
+  /**
+   * Set the pre-generated tiles of the element store.
+   *
+   * <p>
+   * Tiles are then read from the cache rather than searched for in the
+   * element store. The cache is only used if its tiles are of the same size
+   * as those of the chart.
+   *
+   * @param tiles The pre-generated tiles of the element store.
+   */
+  public void tiles(final TileCache tiles) {
+    if (tiles != null && tiles.tileSize() != Chart.tileSize) {
+      return;
+    }
+
+    this.tiles = tiles;
   }
 
   /**
@@ -583,17 +608,25 @@ public final class Chart extends Group {
     int x = anchor.x;
     int y = anchor.y;
 
-    List<Element> elements = this.elementStore.find()
-      .types("land", "way", "relation", "transportWay")
-      .bounds(x, y, x + this.tileSize, y + this.tileSize)
-      .get();
+    List<Element> elements;
+
+    // Cached tiles are sorted already.
+    if (this.tiles != null) {
+      elements = this.tiles.tile(x, y);
+    }
+    else {
+      elements = this.elementStore.find()
+        .types("land", "way", "relation", "transportWay")
+        .bounds(x, y, x + this.tileSize, y + this.tileSize)
+        .get();
+
+      Collections.sort(elements, Element.COMPARATOR);
+    }
 
     if (elements.isEmpty()) {
       return;
     }
 
-    Collections.sort(elements, Element.COMPARATOR);
-
     Group group = new Group();
     group.setClip(new Rectangle(x, y, this.tileSize, this.tileSize));
     group.setCache(true);
@@ -622,6 +655,22 @@ public final class Chart extends Group {
     this.landLayer.getChildren().remove(group);
   }
 
+  /**
+   * Discard all rendered tiles and render the visible ones anew.
+   *
+   * <p>
+   * This is used for picking up elements added to the element store after the
+   * tiles were rendered, such as when elements are streamed into the store
+   * while a map is being loaded.
+   */
+  public void refresh() {
+    this.landLayer.getChildren().clear();
+    this.metaLayer.getChildren().clear();
+    this.showing.clear();
+    this.showingPOI.clear();
+    this.layoutTiles();
+  }
+
   /**
    * Removes children from layers and sets collections to null.
    */
@@ -631,6 +680,7 @@ public final class Chart extends Group {
     this.showing.clear();
     this.showingPOI.clear();
     this.elementStore = new ElementStore();
+    this.tiles = null;
     this.currentTags.clear();
   }
 
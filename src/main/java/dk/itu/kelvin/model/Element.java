@@ -109,6 +109,19 @@ public abstract class Element<T extends Node> implements Serializable {
     return this.tags.get(key);
   }
 
+  /**
+   * Check if the element has any tags.
+   *
+   * <p>
+   * Unlike {@link #tags()}, this doesn't allocate a map of tags for elements
+   * that have none.
+   *
+   * @return A boolean indicating whether or not the element has any tags.
+   */
+  public final boolean isTagged() {
+    return this.tags != null && !this.tags.isEmpty();
+  }
+
   /**
    * Get a map of tags for the element.
    *
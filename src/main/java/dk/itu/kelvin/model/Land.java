@@ -5,8 +5,14 @@ package dk.itu.kelvin.model;
 
 // General utilities
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+// I/O utilities
+import java.io.Serializable;
+
+// Fast utils
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 // JavaFX scene utilities
 import javafx.scene.Group;
@@ -20,21 +26,33 @@ import dk.itu.kelvin.math.Geometry.Point;
  * Calculation and merging of coastlines to land polyLines.
  *
  * <p>
- * Initially all coastlines are put in a {@link List}.
+ * Coastlines arrive as fragments, in no particular order, that must be
+ * stitched together into longer coastlines. Open fragments are kept in
+ * {@link Chain chains} indexed by the coordinates of their start and end
+ * nodes, so an incoming fragment is joined with the chains ending where it
+ * starts and starting where it ends using two hash lookups, no matter how many
+ * fragments have been added so far. Joining chains links them together
+ * rather than copying their nodes; the nodes are only copied into a single
+ * way once a chain is complete. OSM coastlines are consistently oriented with
+ * land to the left, so fragments are only joined end-to-start.
+ *
+ * <p>
+ * Chains that close on themselves become islands right away. The remaining
+ * open chains are closed against the {@link BoundingBox} only once all
+ * fragments have arrived, that is when the coastlines are first requested.
  * Then {@link Geometry.Line} line segments are created from the bounds of
- * {@link BoundingBox}. Coastlines are iterated through, each coastline is
- * check if it's already closed(starting point = ending point). If it's open we
- * iterate though the nodes until we until we find a note that's outside the
- * BoundingBox then make a line segment from the two points. Then we check if
- * the line segments intersect with any of the bounds that we made to line
- * segments, if the intersect we add the intersection point to the nodes list.
- * We then render the points to polyLines representing the Land segments.
+ * {@link BoundingBox}. For each open coastline we iterate though the nodes
+ * until we find a node that's outside the BoundingBox then make a line segment
+ * from the two points. Then we check if the line segments intersect with any
+ * of the bounds that we made to line segments, if the intersect we add the
+ * intersection point to the nodes list. We then render the points to
+ * polyLines representing the Land segments.
  */
 public final class Land extends Element<Group> {
   /**
    * UID for identifying serialized objects.
    */
-  private static final long serialVersionUID = 81;
+  private static final long serialVersionUID = 82;
 
   /**
    * Bounds of the land element.
@@ -42,10 +60,32 @@ public final class Land extends Element<Group> {
   private BoundingBox bounds;
 
   /**
-   * Coastlines contained within the land element.
+   * Completed coastlines contained within the land element.
    */
   private List<Way> coastlines = new ArrayList<>();
 
+  /**
+   * Open chains of coastline fragments mapped to the coordinates of their
+   * start nodes.
+   */
+  private Map<Long, Chain> starts = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * Open chains of coastline fragments mapped to the coordinates of their end
+   * nodes.
+   */
+  private Map<Long, Chain> ends = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * Open chains that share their start or end node with another open chain
+   * and therefore couldn't be indexed.
+   *
+   * <p>
+   * This only happens with broken data, but the chains are kept around so
+   * they still end up as land.
+   */
+  private List<Chain> strays = new ArrayList<>();
+
   /**
    * Initialize a land instance with initial bounds.
    *
@@ -58,9 +98,27 @@ public final class Land extends Element<Group> {
   /**
    * Get a list of merged coastlines.
    *
+   * <p>
+   * Any coastlines that are still open are closed against the bounds of the
+   * land, so this method should only be called once all coastlines have been
+   * added.
+   *
    * @return A list of merged coastlines.
    */
   public List<Way> coastlines() {
+    List<Chain> open = new ArrayList<>(this.starts.values());
+    open.addAll(this.strays);
+
+    this.starts.clear();
+    this.ends.clear();
+    this.strays.clear();
+
+    for (Chain chain: open) {
+      Way coastline = chain.way();
+      this.close(coastline);
+      this.complete(coastline);
+    }
+
     return this.coastlines;
   }
 
@@ -143,33 +201,83 @@ public final class Land extends Element<Group> {
       return;
     }
 
-    Way coastline = new Way();
-    coastline.append(way);
+    // The ends of a packed way are only decoded once.
+    Node start = way.start();
+    Node end = way.end();
+
+    if (start == null || start.equals(end)) {
+      Way coastline = new Way();
+      coastline.append(way);
+      this.complete(coastline);
+      return;
+    }
+
+    Chain chain = new Chain(way, start, end);
 
-    Iterator<Way> i = this.coastlines.iterator();
+    // Join the chain ending where the new fragment starts, if any.
+    Chain before = this.ends.remove(Land.key(chain.start));
 
-    while (i.hasNext()) {
-      Way next = i.next();
+    if (before != null) {
+      this.starts.remove(Land.key(before.start));
+      chain = before.concat(chain);
+    }
 
-      if (coastline.endsIn(next)) {
-        coastline.append(next);
-        i.remove();
-      }
-      else if (coastline.startsIn(next)) {
-        next.append(coastline);
-        coastline = next;
-        i.remove();
+    // Join the chain starting where the new fragment ends, if any.
+    if (!chain.isClosed()) {
+      Chain after = this.starts.remove(Land.key(chain.end));
+
+      if (after != null) {
+        this.ends.remove(Land.key(after.end));
+        chain = chain.concat(after);
       }
     }
 
-    this.close(coastline);
+    if (chain.isClosed()) {
+      this.complete(chain.way());
+      return;
+    }
+
+    Chain previous = this.starts.put(Land.key(chain.start), chain);
+
+    if (previous != null) {
+      this.ends.remove(Land.key(previous.end));
+      this.strays.add(previous);
+    }
+
+    previous = this.ends.put(Land.key(chain.end), chain);
+
+    if (previous != null) {
+      this.starts.remove(Land.key(previous.start));
+      this.strays.add(previous);
+    }
+  }
 
+  /**
+   * Tag the specified coastline as land and add it to the completed
+   * coastlines.
+   *
+   * @param coastline The coastline to complete.
+   */
+  private void complete(final Way coastline) {
     coastline.tag("land", "yes");
     coastline.tag("layer", "-9999");
 
     this.coastlines.add(coastline);
   }
 
+  /**
+   * Get the hash key of the coordinates of the specified node.
+   *
+   * @param node  The node to get the key of.
+   * @return      The key of the coordinates of the node.
+   */
+  private static long key(final Node node) {
+    return (
+      ((long) Float.floatToIntBits(node.x()) << 32)
+      | (Float.floatToIntBits(node.y()) & 0xFFFFFFFFL)
+    );
+  }
+
   /**
    * Close the specified coastline, merging it with the bounding box of the
    * land mass where possible.
@@ -177,7 +285,7 @@ public final class Land extends Element<Group> {
    * @param coastline The coastline to close.
    */
   private void close(final Way coastline) {
-    if (coastline == null || coastline.isClosed()) {
+    if (coastline == null || coastline.isClosed() || this.bounds == null) {
       return;
     }
 
@@ -269,4 +377,125 @@ public final class Land extends Element<Group> {
 
     return group;
   }
+
+  /**
+   * The {@link Chain} class describes a chain of coastline fragments where
+   * each fragment starts where the previous one ends.
+   *
+   * <p>
+   * The fragments are kept in a singly linked list so that two chains can be
+   * joined in constant time.
+   */
+  private static final class Chain implements Serializable {
+    /**
+     * UID for identifying serialized objects.
+     */
+    private static final long serialVersionUID = 1;
+
+    /**
+     * The start node of the chain.
+     */
+    private Node start;
+
+    /**
+     * The end node of the chain.
+     */
+    private Node end;
+
+    /**
+     * The first link of the chain.
+     */
+    private Link first;
+
+    /**
+     * The last link of the chain.
+     */
+    private Link last;
+
+    /**
+     * Initialize a new chain consisting of a single fragment.
+     *
+     * @param way   The fragment.
+     * @param start The start node of the fragment.
+     * @param end   The end node of the fragment.
+     */
+    public Chain(final Way way, final Node start, final Node end) {
+      this.start = start;
+      this.end = end;
+      this.first = new Link(way);
+      this.last = this.first;
+    }
+
+    /**
+     * Check if the chain is closed.
+     *
+     * @return A boolean indicating whether or not the chain is closed.
+     */
+    public boolean isClosed() {
+      return Land.key(this.start) == Land.key(this.end);
+    }
+
+    /**
+     * Append another chain to the chain.
+     *
+     * @param chain The chain to append; must start where the chain ends.
+     * @return      The current {@link Chain} instance for chaining.
+     */
+    public Chain concat(final Chain chain) {
+      this.last.next = chain.first;
+      this.last = chain.last;
+      this.end = chain.end;
+
+      return this;
+    }
+
+    /**
+     * Copy the nodes of the fragments of the chain into a single way.
+     *
+     * @return A way containing the nodes of the chain.
+     */
+    public Way way() {
+      Way way = new Way();
+
+      for (Link link = this.first; link != null; link = link.next) {
+        List<Node> nodes = link.way.nodes();
+
+        // Each fragment starts with the node that the previous one ends with.
+        for (int i = link == this.first ? 0 : 1; i < nodes.size(); i++) {
+          way.add(nodes.get(i));
+        }
+      }
+
+      return way;
+    }
+  }
+
+  /**
+   * The {@link Link} class describes a single fragment of a {@link Chain}.
+   */
+  private static final class Link implements Serializable {
+    /**
+     * UID for identifying serialized objects.
+     */
+    private static final long serialVersionUID = 1;
+
+    /**
+     * The fragment.
+     */
+    private final Way way;
+
+    /**
+     * The next link of the chain.
+     */
+    private Link next;
+
+    /**
+     * Initialize a new link.
+     *
+     * @param way The fragment.
+     */
+    public Link(final Way way) {
+      this.way = way;
+    }
+  }
 }
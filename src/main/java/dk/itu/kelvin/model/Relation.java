@@ -36,13 +36,24 @@ public final class Relation extends Element<Group>
   /**
    * UID for identifying serialized objects.
    */
-  private static final long serialVersionUID = 48;
+  private static final long serialVersionUID = 49;
 
   /**
    * The members of the relation.
    */
   private List<Element> members;
 
+  /**
+   * The roles of the members of the relation.
+   *
+   * <p>
+   * Members are shared between the relations, and the ways and nodes, that
+   * reference them, so their roles are kept alongside the membership rather
+   * than on the members themselves. The role of the i'th member is stored at
+   * position i.
+   */
+  private List<String> roles;
+
   /**
    * The smallest x-coordinate of the relation.
    */
@@ -105,6 +116,16 @@ public final class Relation extends Element<Group>
    * @param element The element to add to the relation.
    */
   public void add(final Element element) {
+    this.add(element, null);
+  }
+
+  /**
+   * Add an element with the specified role to the relation.
+   *
+   * @param element The element to add to the relation.
+   * @param role    The role of the element within the relation, if any.
+   */
+  public void add(final Element element, final String role) {
     if (element == null) {
       return;
     }
@@ -113,6 +134,10 @@ public final class Relation extends Element<Group>
       this.members = new ArrayList<>();
     }
 
+    if (this.roles == null) {
+      this.roles = new ArrayList<>();
+    }
+
     boolean empty = this.members.isEmpty();
 
     if (element instanceof Node) {
@@ -134,6 +159,7 @@ public final class Relation extends Element<Group>
     }
 
     this.members.add(element);
+    this.roles.add(role);
   }
 
   /**
@@ -149,6 +175,21 @@ public final class Relation extends Element<Group>
     return this.members;
   }
 
+  /**
+   * Get the role of the member at the specified index.
+   *
+   * @param index The index of the member.
+   * @return      The role of the member or {@code null} if the member has no
+   *              role.
+   */
+  public String role(final int index) {
+    if (this.roles == null) {
+      return null;
+    }
+
+    return this.roles.get(index);
+  }
+
   /**
    * Get the actual distance to the specified point from the relation.
    *
@@ -240,16 +281,17 @@ public final class Relation extends Element<Group>
         continue;
       }
 
-      Way way = (Way) element;
+      float[] coordinates = ((Way) element).coordinates();
 
-      for (int i = 0; i < way.nodes().size(); i++) {
-        Node node = way.nodes().get(i);
+      for (int i = 0; i < coordinates.length; i += 2) {
+        float x = coordinates[i];
+        float y = coordinates[i + 1];
 
         if (i == 0) {
-          path.getElements().add(new MoveTo(node.x(), node.y()));
+          path.getElements().add(new MoveTo(x, y));
         }
         else {
-          path.getElements().add(new LineTo(node.x(), node.y()));
+          path.getElements().add(new LineTo(x, y));
         }
       }
     }
@@ -5,6 +5,7 @@ package dk.itu.kelvin.model;
 
 // General utilities
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -17,6 +18,7 @@ import java.util.regex.Matcher;
 import javafx.scene.shape.Polyline;
 
 // Utilities
+import dk.itu.kelvin.util.CoordinateCodec;
 import dk.itu.kelvin.util.Graph;
 import dk.itu.kelvin.util.RectangleTree;
 import dk.itu.kelvin.util.SpatialIndex;
@@ -28,6 +30,12 @@ import dk.itu.kelvin.math.Geometry;
 /**
  * A way is an ordered list of 2 to 2,000 nodes.
  *
+ * <p>
+ * Once complete, a way can be {@link #pack() packed}, after which its nodes
+ * are kept as an array of coordinates encoded by the {@link CoordinateCodec}
+ * relative to the bounds of the way, and decoded whenever they're asked for.
+ * Only the coordinates of the nodes are kept, which is all that ways need.
+ *
  * @see <a href="http://wiki.openstreetmap.org/wiki/Way">
  *      http://wiki.openstreetmap.org/wiki/Way</a>
  */
@@ -47,6 +55,16 @@ public final class Way extends Element<Polyline>
    */
   private List<Node> nodes;
 
+  /**
+   * The encoded coordinates of the nodes of the way if packed.
+   */
+  private byte[] geometry;
+
+  /**
+   * The number of nodes of the way if packed.
+   */
+  private int size;
+
   /**
    * The smallest x-coordinate of the way.
    */
@@ -67,6 +85,41 @@ public final class Way extends Element<Polyline>
    */
   private float maxY;
 
+  /**
+   * Initialize a new, empty way.
+   */
+  public Way() {
+    super();
+  }
+
+  /**
+   * Initialize a new packed way.
+   *
+   * @param minX      The smallest x-coordinate of the way.
+   * @param minY      The smallest y-coordinate of the way.
+   * @param maxX      The largest x-coordinate of the way.
+   * @param maxY      The largest y-coordinate of the way.
+   * @param size      The number of nodes of the way.
+   * @param geometry  The coordinates of the nodes of the way, encoded by the
+   *                  {@link CoordinateCodec} relative to the smallest
+   *                  coordinates of the way.
+   */
+  public Way(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY,
+    final int size,
+    final byte[] geometry
+  ) {
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.size = size;
+    this.geometry = geometry;
+  }
+
   /**
    * Get the smallest x-coordinate of the way.
    *
@@ -109,7 +162,17 @@ public final class Way extends Element<Polyline>
    * @return The initial node of the way.
    */
   public Node start() {
-    if (this.nodes == null) {
+    if (this.geometry != null) {
+      float[] coordinates = new float[2];
+
+      CoordinateCodec.decode(
+        this.geometry, 1, this.minX, this.minY, coordinates
+      );
+
+      return new Node(coordinates[0], coordinates[1]);
+    }
+
+    if (this.nodes == null || this.nodes.isEmpty()) {
       return null;
     }
 
@@ -119,14 +182,50 @@ public final class Way extends Element<Polyline>
   /**
    * Get the last node of the way.
    *
+   * <p>
+   * The coordinates of a packed way are stored relative to each other, so
+   * finding its last node means decoding all of them.
+   *
    * @return The last node of the way.
    */
   public Node end() {
-    if (this.nodes == null) {
+    float[] ends = this.ends();
+
+    if (ends == null) {
+      return null;
+    }
+
+    return new Node(ends[2], ends[3]);
+  }
+
+  /**
+   * Get the coordinates of the initial and the last node of the way.
+   *
+   * <p>
+   * The coordinates of a packed way are decoded once, rather than once for
+   * each node.
+   *
+   * @return The x- and y-coordinates of the initial node followed by those of
+   *         the last node, or {@code null} if the way has no nodes.
+   */
+  private float[] ends() {
+    if (this.geometry != null) {
+      float[] coordinates = this.coordinates();
+      int n = coordinates.length;
+
+      return new float[] {
+        coordinates[0], coordinates[1], coordinates[n - 2], coordinates[n - 1]
+      };
+    }
+
+    if (this.nodes == null || this.nodes.isEmpty()) {
       return null;
     }
 
-    return this.nodes.get(this.nodes.size() - 1);
+    Node start = this.nodes.get(0);
+    Node end = this.nodes.get(this.nodes.size() - 1);
+
+    return new float[] {start.x(), start.y(), end.x(), end.y()};
   }
 
   /**
@@ -135,14 +234,13 @@ public final class Way extends Element<Polyline>
    * @return Boolean indicating whether or not the way is closed.
    */
   public boolean isClosed() {
-    Node start = this.start();
-    Node end = this.end();
+    float[] ends = this.ends();
 
-    if (start == null || end == null) {
+    if (ends == null) {
       return false;
     }
 
-    return start.x() == end.x() && start.y() == end.y();
+    return ends[0] == ends[2] && ends[1] == ends[3];
   }
 
   /**
@@ -168,14 +266,15 @@ public final class Way extends Element<Polyline>
     }
 
     Node start = this.start();
+    float[] ends = way.ends();
 
-    if (start == null || way.start() == null) {
+    if (start == null || ends == null) {
       return false;
     }
 
     return (
-      (start.x() == way.start().x() && start.y() == way.start().y())
-      || (start.x() == way.end().x() && start.y() == way.end().y())
+      (start.x() == ends[0] && start.y() == ends[1])
+      || (start.x() == ends[2] && start.y() == ends[3])
     );
   }
 
@@ -193,23 +292,84 @@ public final class Way extends Element<Polyline>
     }
 
     Node end = this.end();
+    float[] ends = way.ends();
 
-    if (end == null || way.end() == null) {
+    if (end == null || ends == null) {
       return false;
     }
 
     return (
-      (end.x() == way.start().x() && end.y() == way.start().y())
-      || (end.x() == way.end().x() && end.y() == way.end().y())
+      (end.x() == ends[0] && end.y() == ends[1])
+      || (end.x() == ends[2] && end.y() == ends[3])
     );
   }
 
+  /**
+   * Get the number of nodes contained within the way.
+   *
+   * @return The number of nodes contained within the way.
+   */
+  public int size() {
+    if (this.geometry != null) {
+      return this.size;
+    }
+
+    return this.nodes == null ? 0 : this.nodes.size();
+  }
+
+  /**
+   * Check if the way contains a node at the coordinates of the specified node.
+   *
+   * <p>
+   * Unlike looking the node up among the {@link #nodes()} of the way, the
+   * coordinates of a packed way are compared without creating a node for
+   * each of them.
+   *
+   * @param node  The node to look for.
+   * @return      A boolean indicating whether or not the way contains the
+   *              node.
+   */
+  public boolean contains(final Node node) {
+    if (node == null) {
+      return false;
+    }
+
+    if (this.geometry == null) {
+      return this.nodes != null && this.nodes.contains(node);
+    }
+
+    float[] coordinates = this.coordinates();
+
+    for (int i = 0; i < coordinates.length; i += 2) {
+      if (coordinates[i] == node.x() && coordinates[i + 1] == node.y()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * Get the nodes contained within the way.
    *
+   * <p>
+   * The nodes of a packed way are decoded anew on every call and can't be
+   * modified through the returned list.
+   *
    * @return The nodes contained within the way.
    */
   public List<Node> nodes() {
+    if (this.geometry != null) {
+      float[] coordinates = this.coordinates();
+      List<Node> nodes = new ArrayList<>(this.size);
+
+      for (int i = 0; i < coordinates.length; i += 2) {
+        nodes.add(new Node(coordinates[i], coordinates[i + 1]));
+      }
+
+      return Collections.unmodifiableList(nodes);
+    }
+
     if (this.nodes == null) {
       this.nodes = new ArrayList<>();
     }
@@ -227,6 +387,8 @@ public final class Way extends Element<Polyline>
       return;
     }
 
+    this.unpack();
+
     if (this.nodes == null) {
       this.nodes = new ArrayList<>();
     }
@@ -256,6 +418,146 @@ public final class Way extends Element<Polyline>
     }
   }
 
+  /**
+   * Move a node of the way to a new location, replacing every occurrence of
+   * the node and recomputing the bounds of the way.
+   *
+   * @param from  The node to move.
+   * @param to    The node to replace it with.
+   * @return      A boolean indicating whether or not the way contained the
+   *              node.
+   */
+  public boolean move(final Node from, final Node to) {
+    if (from == null || to == null) {
+      return false;
+    }
+
+    boolean packed = this.unpack();
+
+    if (this.nodes == null) {
+      return false;
+    }
+
+    boolean moved = false;
+
+    for (int i = 0; i < this.nodes.size(); i++) {
+      if (from.equals(this.nodes.get(i))) {
+        this.nodes.set(i, to);
+        moved = true;
+      }
+    }
+
+    if (moved) {
+      List<Node> nodes = this.nodes;
+      this.nodes = null;
+      this.add(nodes);
+    }
+
+    if (packed) {
+      this.pack();
+    }
+
+    return moved;
+  }
+
+  /**
+   * Pack the nodes of the way into an array of encoded coordinates, dropping
+   * the node objects.
+   *
+   * <p>
+   * Ways whose coordinates don't lie on the grid of the
+   * {@link CoordinateCodec} are left as they are. Adding nodes to a packed way
+   * unpacks it again.
+   *
+   * @return A boolean indicating whether or not the way is packed.
+   */
+  public boolean pack() {
+    if (this.geometry != null) {
+      return true;
+    }
+
+    if (this.nodes == null || this.nodes.isEmpty()) {
+      return false;
+    }
+
+    float[] coordinates = new float[2 * this.nodes.size()];
+
+    for (int i = 0; i < this.nodes.size(); i++) {
+      coordinates[2 * i] = this.nodes.get(i).x();
+      coordinates[2 * i + 1] = this.nodes.get(i).y();
+    }
+
+    byte[] geometry = CoordinateCodec.encode(
+      coordinates, this.nodes.size(), this.minX, this.minY
+    );
+
+    if (geometry == null) {
+      return false;
+    }
+
+    this.size = this.nodes.size();
+    this.geometry = geometry;
+    this.nodes = null;
+
+    return true;
+  }
+
+  /**
+   * Get the encoded coordinates of the nodes of the way.
+   *
+   * @return The coordinates of the nodes of the way encoded by the
+   *         {@link CoordinateCodec} relative to the smallest coordinates of
+   *         the way, or {@code null} if the way isn't packed.
+   */
+  public byte[] geometry() {
+    return this.geometry;
+  }
+
+  /**
+   * Get the coordinates of the nodes of the way.
+   *
+   * @return The coordinates of the nodes of the way, with the coordinates of
+   *         the i'th node at positions {@code 2i} and {@code 2i + 1}.
+   */
+  public float[] coordinates() {
+    if (this.geometry != null) {
+      float[] coordinates = new float[2 * this.size];
+
+      CoordinateCodec.decode(
+        this.geometry, this.size, this.minX, this.minY, coordinates
+      );
+
+      return coordinates;
+    }
+
+    int n = this.nodes == null ? 0 : this.nodes.size();
+    float[] coordinates = new float[2 * n];
+
+    for (int i = 0; i < n; i++) {
+      coordinates[2 * i] = this.nodes.get(i).x();
+      coordinates[2 * i + 1] = this.nodes.get(i).y();
+    }
+
+    return coordinates;
+  }
+
+  /**
+   * Unpack the nodes of a packed way.
+   *
+   * @return A boolean indicating whether or not the way was packed.
+   */
+  private boolean unpack() {
+    if (this.geometry == null) {
+      return false;
+    }
+
+    this.nodes = new ArrayList<>(this.nodes());
+    this.geometry = null;
+    this.size = 0;
+
+    return true;
+  }
+
   /**
    * Append the nodes of another way to the current way.
    *
@@ -278,13 +580,15 @@ public final class Way extends Element<Polyline>
   public double distance(final SpatialIndex.Point point) {
     double distance = Double.POSITIVE_INFINITY;
 
-    if (point == null || this.nodes == null) {
+    if (point == null) {
       return distance;
     }
 
-    for (Node node: this.nodes) {
+    float[] coordinates = this.coordinates();
+
+    for (int i = 0; i < coordinates.length; i += 2) {
       double estimate = Geometry.distance(
-        point, new Geometry.Point(node.x(), node.y())
+        point, new Geometry.Point(coordinates[i], coordinates[i + 1])
       );
 
       if (estimate < distance) {
@@ -382,13 +686,16 @@ public final class Way extends Element<Polyline>
       polyline.getStyleClass().add(tag.getKey() + "-" + tag.getValue());
     }
 
-    if (this.nodes != null) {
-      for (Node node: this.nodes) {
-        polyline.getPoints().add((double) node.x());
-        polyline.getPoints().add((double) node.y());
-      }
+    float[] coordinates = this.coordinates();
+    Double[] points = new Double[coordinates.length];
+
+    for (int i = 0; i < coordinates.length; i++) {
+      points[i] = (double) coordinates[i];
     }
 
+    // Add the points in one go to avoid a change event per point.
+    polyline.getPoints().addAll(points);
+
     return polyline;
   }
 }
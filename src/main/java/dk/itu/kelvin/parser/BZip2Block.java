@@ -0,0 +1,641 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Arrays;
+
+// I/O utilities
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Bzip2 block decoder class.
+ *
+ * <p>
+ * A bzip2 stream consists of a sequence of blocks that are compressed
+ * independently of each other. Each block starts with a 48-bit magic number
+ * and carries everything needed for decompressing it, but since blocks are
+ * bit-aligned rather than byte-aligned, they can only be located by scanning
+ * the stream for the magic number. The block decoder decompresses a single
+ * such block, which makes it possible to decompress the blocks of a stream in
+ * parallel.
+ *
+ * <p>
+ * Decompression undoes the stages of the bzip2 compressor in reverse order:
+ * Huffman coding, run-length coding of zeros, move-to-front coding, the
+ * Burrows-Wheeler transform and finally the initial run-length coding.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Bzip2">
+ *      https://en.wikipedia.org/wiki/Bzip2</a>
+ */
+final class BZip2Block {
+  /**
+   * The magic number starting every block.
+   */
+  static final long BLOCK_MAGIC = 0x314159265359L;
+
+  /**
+   * The magic number ending every stream.
+   */
+  static final long STREAM_MAGIC = 0x177245385090L;
+
+  /**
+   * The maximum number of bytes of a block prior to the initial run-length
+   * coding, which corresponds to the largest block size level of 9.
+   */
+  private static final int MAX_BLOCK_SIZE = 900000;
+
+  /**
+   * The number of symbols coded with each selected Huffman table.
+   */
+  private static final int GROUP_SIZE = 50;
+
+  /**
+   * The maximum number of Huffman tables.
+   */
+  private static final int MAX_GROUPS = 6;
+
+  /**
+   * The minimum number of Huffman tables.
+   */
+  private static final int MIN_GROUPS = 2;
+
+  /**
+   * The maximum number of selectors that are actually used.
+   */
+  private static final int MAX_SELECTORS = 18002;
+
+  /**
+   * The maximum length of a Huffman code.
+   */
+  private static final int MAX_CODE_LENGTH = 20;
+
+  /**
+   * The maximum size of the Huffman alphabet.
+   */
+  private static final int MAX_ALPHABET_SIZE = 258;
+
+  /**
+   * The run-length symbol denoting a run bit of 1.
+   */
+  private static final int RUN_A = 0;
+
+  /**
+   * The run-length symbol denoting a run bit of 2.
+   */
+  private static final int RUN_B = 1;
+
+  /**
+   * Lookup table of the CRC used by bzip2.
+   *
+   * <p>
+   * Unlike the CRC of zip and gzip, bzip2 uses the non-reflected variant of
+   * the CRC-32 polynomial.
+   */
+  private static final int[] CRC_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int c = i << 24;
+
+      for (int j = 0; j < 8; j++) {
+        c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04C11DB7 : c << 1;
+      }
+
+      CRC_TABLE[i] = c;
+    }
+  }
+
+  /**
+   * The compressed data.
+   */
+  private final byte[] data;
+
+  /**
+   * The bit position of the end of the block within the compressed data.
+   */
+  private final long end;
+
+  /**
+   * The bit position of the next unread bit within the compressed data.
+   */
+  private long position;
+
+  /**
+   * Buffer of unread bits, right-aligned.
+   */
+  private long bits;
+
+  /**
+   * The number of unread bits in the bit buffer.
+   */
+  private int count;
+
+  /**
+   * Initialize a new block decoder.
+   *
+   * @param data  The compressed data.
+   * @param start The bit position of the block magic within the data.
+   * @param end   The bit position of the end of the block within the data.
+   */
+  private BZip2Block(final byte[] data, final long start, final long end) {
+    this.data = data;
+    this.position = start;
+    this.end = end;
+  }
+
+  /**
+   * Decompress a single block.
+   *
+   * @param data  The compressed data.
+   * @param start The bit position of the block magic within the data.
+   * @param end   The bit position of the end of the block within the data.
+   * @return      The decompressed block.
+   *
+   * @throws IOException In case the block is truncated or corrupt. A block
+   *                     that ends prematurely results in an
+   *                     {@link EOFException}.
+   */
+  static byte[] decode(
+    final byte[] data,
+    final long start,
+    final long end
+  ) throws IOException {
+    return new BZip2Block(data, start, end).decode();
+  }
+
+  /**
+   * Decompress the block.
+   *
+   * @return The decompressed block.
+   *
+   * @throws IOException In case the block is truncated or corrupt.
+   */
+  private byte[] decode() throws IOException {
+    if (this.read(24) != BLOCK_MAGIC >>> 24 || this.read(24) != 0x265359) {
+      throw new IOException("Invalid block magic");
+    }
+
+    int crc = (int) this.read(32);
+
+    if (this.read(1) != 0) {
+      throw new IOException("Randomised blocks are not supported");
+    }
+
+    int origin = (int) this.read(24);
+
+    // The symbols in use, mapped from their sequence number to their value.
+    byte[] symbols = new byte[256];
+    int used = 0;
+
+    int ranges = (int) this.read(16);
+
+    for (int i = 0; i < 16; i++) {
+      if ((ranges & (0x8000 >>> i)) == 0) {
+        continue;
+      }
+
+      int range = (int) this.read(16);
+
+      for (int j = 0; j < 16; j++) {
+        if ((range & (0x8000 >>> j)) != 0) {
+          symbols[used++] = (byte) (16 * i + j);
+        }
+      }
+    }
+
+    if (used == 0) {
+      throw new IOException("No symbols in use");
+    }
+
+    int alphabetSize = used + 2;
+
+    int groups = (int) this.read(3);
+
+    if (groups < MIN_GROUPS || groups > MAX_GROUPS) {
+      throw new IOException("Invalid number of Huffman tables");
+    }
+
+    byte[] selectors = this.selectors(groups);
+
+    HuffmanTable[] tables = new HuffmanTable[groups];
+
+    for (int t = 0; t < groups; t++) {
+      tables[t] = this.table(alphabetSize);
+    }
+
+    int[] tt = new int[MAX_BLOCK_SIZE];
+    int size = this.symbols(tt, symbols, used, selectors, tables);
+
+    if (origin >= size) {
+      throw new IOException("Invalid origin pointer");
+    }
+
+    byte[] output = this.output(tt, size, origin);
+
+    if (this.crc(output) != crc) {
+      throw new IOException("Block checksum mismatch");
+    }
+
+    return output;
+  }
+
+  /**
+   * Read the selectors of the block, telling which Huffman table to use for
+   * each group of symbols.
+   *
+   * @param groups  The number of Huffman tables.
+   * @return        The selectors of the block.
+   *
+   * @throws IOException In case the block is truncated or corrupt.
+   */
+  private byte[] selectors(final int groups) throws IOException {
+    int n = (int) this.read(15);
+
+    if (n < 1) {
+      throw new IOException("Invalid number of selectors");
+    }
+
+    byte[] mtf = new byte[groups];
+
+    for (int i = 0; i < groups; i++) {
+      mtf[i] = (byte) i;
+    }
+
+    byte[] selectors = new byte[Math.min(n, MAX_SELECTORS)];
+
+    for (int i = 0; i < n; i++) {
+      int j = 0;
+
+      while (this.read(1) != 0) {
+        if (++j >= groups) {
+          throw new IOException("Invalid selector");
+        }
+      }
+
+      // Selectors are move-to-front coded.
+      byte selector = mtf[j];
+      System.arraycopy(mtf, 0, mtf, 1, j);
+      mtf[0] = selector;
+
+      // Some encoders write more selectors than can ever be used; these are
+      // simply ignored.
+      if (i < selectors.length) {
+        selectors[i] = selector;
+      }
+    }
+
+    return selectors;
+  }
+
+  /**
+   * Read a delta-coded Huffman table.
+   *
+   * @param alphabetSize  The size of the alphabet of the table.
+   * @return              The Huffman table.
+   *
+   * @throws IOException In case the block is truncated or corrupt.
+   */
+  private HuffmanTable table(final int alphabetSize) throws IOException {
+    int[] lengths = new int[alphabetSize];
+
+    int length = (int) this.read(5);
+
+    for (int i = 0; i < alphabetSize; i++) {
+      while (true) {
+        if (length < 1 || length > MAX_CODE_LENGTH) {
+          throw new IOException("Invalid code length");
+        }
+
+        if (this.read(1) == 0) {
+          break;
+        }
+
+        length += this.read(1) == 0 ? 1 : -1;
+      }
+
+      lengths[i] = length;
+    }
+
+    return new HuffmanTable(lengths);
+  }
+
+  /**
+   * Read the Huffman coded symbols of the block, undoing the run-length coding
+   * of zeros and the move-to-front coding.
+   *
+   * @param tt        The array to write the resulting bytes to, one per
+   *                  element in the lowest 8 bits.
+   * @param symbols   The symbols in use.
+   * @param used      The number of symbols in use.
+   * @param selectors The selectors of the block.
+   * @param tables    The Huffman tables of the block.
+   * @return          The number of resulting bytes.
+   *
+   * @throws IOException In case the block is truncated or corrupt.
+   */
+  private int symbols(
+    final int[] tt,
+    final byte[] symbols,
+    final int used,
+    final byte[] selectors,
+    final HuffmanTable[] tables
+  ) throws IOException {
+    int endOfBlock = used + 1;
+
+    byte[] mtf = new byte[256];
+
+    for (int i = 0; i < 256; i++) {
+      mtf[i] = (byte) i;
+    }
+
+    int size = 0;
+    int group = 0;
+    int remaining = 0;
+    HuffmanTable table = null;
+
+    int run = 0;
+    int weight = 1;
+
+    while (true) {
+      if (remaining == 0) {
+        if (group >= selectors.length) {
+          throw new IOException("Ran out of selectors");
+        }
+
+        table = tables[selectors[group++]];
+        remaining = GROUP_SIZE;
+      }
+
+      remaining--;
+
+      int symbol = table.decode(this);
+
+      if (symbol == RUN_A || symbol == RUN_B) {
+        run += (symbol == RUN_A ? 1 : 2) * weight;
+        weight <<= 1;
+
+        if (run > tt.length) {
+          throw new IOException("Block overflow");
+        }
+
+        continue;
+      }
+
+      // A run of zeros has ended; emit the symbol at the front of the
+      // move-to-front list that many times.
+      if (run > 0) {
+        if (size + run > tt.length) {
+          throw new IOException("Block overflow");
+        }
+
+        int b = symbols[mtf[0] & 0xFF] & 0xFF;
+        Arrays.fill(tt, size, size + run, b);
+        size += run;
+
+        run = 0;
+        weight = 1;
+      }
+
+      if (symbol == endOfBlock) {
+        return size;
+      }
+
+      if (size >= tt.length) {
+        throw new IOException("Block overflow");
+      }
+
+      // Move the symbol at the specified index to the front.
+      int index = symbol - 1;
+      byte value = mtf[index];
+      System.arraycopy(mtf, 0, mtf, 1, index);
+      mtf[0] = value;
+
+      tt[size++] = symbols[value & 0xFF] & 0xFF;
+    }
+  }
+
+  /**
+   * Undo the Burrows-Wheeler transform and the initial run-length coding.
+   *
+   * @param tt      The bytes of the transformed block, one per element in the
+   *                lowest 8 bits.
+   * @param size    The number of bytes of the transformed block.
+   * @param origin  The position of the original string within the sorted
+   *                rotations.
+   * @return        The decompressed block.
+   */
+  private byte[] output(final int[] tt, final int size, final int origin) {
+    int[] counts = new int[256];
+
+    for (int i = 0; i < size; i++) {
+      counts[tt[i] & 0xFF]++;
+    }
+
+    int[] offsets = new int[256];
+
+    for (int i = 1; i < 256; i++) {
+      offsets[i] = offsets[i - 1] + counts[i - 1];
+    }
+
+    // Link every position to the position of its successor, keeping the byte
+    // at the position in the lowest 8 bits.
+    for (int i = 0; i < size; i++) {
+      int b = tt[i] & 0xFF;
+      tt[offsets[b]++] |= i << 8;
+    }
+
+    byte[] output = new byte[size + size / 4 + 16];
+    int n = 0;
+
+    int position = tt[origin] >>> 8;
+    int previous = -1;
+    int repeats = 0;
+
+    for (int i = 0; i < size; i++) {
+      int entry = tt[position];
+      int b = entry & 0xFF;
+      position = entry >>> 8;
+
+      // Four repeated bytes are followed by the number of additional
+      // repeats.
+      if (repeats == 4) {
+        if (n + b > output.length) {
+          output = Arrays.copyOf(output, 2 * output.length + b);
+        }
+
+        Arrays.fill(output, n, n + b, (byte) previous);
+        n += b;
+        repeats = 0;
+        previous = -1;
+        continue;
+      }
+
+      if (b == previous) {
+        repeats++;
+      }
+      else {
+        repeats = 1;
+        previous = b;
+      }
+
+      if (n == output.length) {
+        output = Arrays.copyOf(output, 2 * output.length);
+      }
+
+      output[n++] = (byte) b;
+    }
+
+    return n == output.length ? output : Arrays.copyOf(output, n);
+  }
+
+  /**
+   * Compute the bzip2 CRC of a decompressed block.
+   *
+   * @param output  The decompressed block.
+   * @return        The CRC of the block.
+   */
+  private int crc(final byte[] output) {
+    int crc = 0xFFFFFFFF;
+
+    for (byte b: output) {
+      crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+    }
+
+    return ~crc;
+  }
+
+  /**
+   * Read the specified number of bits.
+   *
+   * @param n The number of bits to read, at most 32.
+   * @return  The bits read, right-aligned.
+   *
+   * @throws IOException In case the end of the block was reached.
+   */
+  private long read(final int n) throws IOException {
+    while (this.count < n) {
+      if (this.position >= this.end) {
+        throw new EOFException("Truncated block");
+      }
+
+      int index = (int) (this.position >>> 3);
+      int offset = (int) (this.position & 7);
+
+      // Pull in the rest of the current byte.
+      int available = 8 - offset;
+      this.bits = (this.bits << available)
+        | (this.data[index] & (0xFF >>> offset));
+      this.count += available;
+      this.position += available;
+    }
+
+    this.count -= n;
+
+    return (this.bits >>> this.count) & ((1L << n) - 1);
+  }
+
+  /**
+   * The {@link HuffmanTable} class describes a canonical Huffman table for
+   * decoding symbols.
+   */
+  private static final class HuffmanTable {
+    /**
+     * The length of the shortest code.
+     */
+    private int minLength = MAX_CODE_LENGTH;
+
+    /**
+     * The length of the longest code.
+     */
+    private int maxLength;
+
+    /**
+     * The largest code of each length.
+     */
+    private final int[] limit = new int[MAX_CODE_LENGTH + 2];
+
+    /**
+     * The offset of the codes of each length within the permutation.
+     */
+    private final int[] base = new int[MAX_CODE_LENGTH + 2];
+
+    /**
+     * The symbols ordered by code.
+     */
+    private final int[] permutation = new int[MAX_ALPHABET_SIZE];
+
+    /**
+     * Initialize a new Huffman table from the lengths of its codes.
+     *
+     * @param lengths The lengths of the codes of each symbol.
+     */
+    public HuffmanTable(final int[] lengths) {
+      for (int length: lengths) {
+        this.minLength = Math.min(this.minLength, length);
+        this.maxLength = Math.max(this.maxLength, length);
+      }
+
+      int p = 0;
+
+      for (int i = this.minLength; i <= this.maxLength; i++) {
+        for (int j = 0; j < lengths.length; j++) {
+          if (lengths[j] == i) {
+            this.permutation[p++] = j;
+          }
+        }
+      }
+
+      for (int length: lengths) {
+        this.base[length + 1]++;
+      }
+
+      for (int i = 1; i < this.base.length; i++) {
+        this.base[i] += this.base[i - 1];
+      }
+
+      int code = 0;
+
+      for (int i = this.minLength; i <= this.maxLength; i++) {
+        code += this.base[i + 1] - this.base[i];
+        this.limit[i] = code - 1;
+        code <<= 1;
+      }
+
+      for (int i = this.minLength + 1; i <= this.maxLength; i++) {
+        this.base[i] = ((this.limit[i - 1] + 1) << 1) - this.base[i];
+      }
+    }
+
+    /**
+     * Decode the next symbol of a block.
+     *
+     * @param block The block to read bits from.
+     * @return      The decoded symbol.
+     *
+     * @throws IOException In case the block is truncated or corrupt.
+     */
+    public int decode(final BZip2Block block) throws IOException {
+      int length = this.minLength;
+      int code = (int) block.read(length);
+
+      while (code > this.limit[length]) {
+        if (++length > this.maxLength) {
+          throw new IOException("Invalid Huffman code");
+        }
+
+        code = (code << 1) | (int) block.read(1);
+      }
+
+      int index = code - this.base[length];
+
+      if (index < 0 || index >= this.permutation.length) {
+        throw new IOException("Invalid Huffman code");
+      }
+
+      return this.permutation[index];
+    }
+  }
+}
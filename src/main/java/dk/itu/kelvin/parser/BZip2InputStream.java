@@ -0,0 +1,609 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Arrays;
+
+// Concurrency utilities
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// I/O utilities
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Parallel bzip2 input stream class.
+ *
+ * <p>
+ * The stream decompresses the blocks of a bzip2 stream in parallel. A splitter
+ * thread scans the compressed input for the magic numbers delimiting blocks
+ * and hands off each block to a pool of workers, which decompress the blocks
+ * independently of each other using {@link BZip2Block}. The decompressed
+ * blocks are then served in the order in which they appear in the input.
+ *
+ * <p>
+ * As the magic numbers may, in rare cases, also occur by chance within the
+ * compressed data of a block, a block that turns out to be truncated is joined
+ * with the following part of the input and decompressed again.
+ *
+ * <p>
+ * Concatenated streams, such as those produced by parallel bzip2 compressors,
+ * are supported.
+ */
+final class BZip2InputStream extends InputStream {
+  /**
+   * The number of worker threads used for decompressing blocks.
+   */
+  private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of blocks that may be in flight between the splitter
+   * and the reader of the stream at any given time.
+   *
+   * <p>
+   * Each decompressed block may take up to about a megabyte, so the number of
+   * blocks waiting to be read is bounded to keep memory usage in check.
+   */
+  private static final int PIPELINE_CAPACITY = 2 * WORKERS;
+
+  /**
+   * The number of milliseconds to wait for the pipeline before checking
+   * whether the other end is still alive.
+   */
+  private static final int PIPELINE_TIMEOUT = 100;
+
+  /**
+   * The number of compressed bytes read from the input at a time.
+   */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Bit mask of the 48 bits of a magic number.
+   */
+  private static final long MAGIC_MASK = (1L << 48) - 1;
+
+  /**
+   * Lookup table of the bytes that may occur at a fixed position within a
+   * 64-bit window containing a magic number at any bit alignment.
+   *
+   * <p>
+   * The table allows the splitter to rule out the vast majority of positions
+   * with a single lookup rather than checking all eight bit alignments.
+   */
+  private static final boolean[] CANDIDATES = new boolean[256];
+
+  static {
+    for (int shift = 0; shift < 8; shift++) {
+      CANDIDATES[(int) (BZip2Block.BLOCK_MAGIC >>> (8 - shift)) & 0xFF] = true;
+      CANDIDATES[(int) (BZip2Block.STREAM_MAGIC >>> (8 - shift)) & 0xFF] = true;
+    }
+  }
+
+  /**
+   * Marker signalling the end of the pipeline to the reader of the stream.
+   */
+  private static final Segment END = new Segment(null, 0, 0, 0, false);
+
+  /**
+   * The compressed input.
+   */
+  private final InputStream input;
+
+  /**
+   * The worker threads decompressing blocks.
+   */
+  private final ExecutorService workers = Executors.newFixedThreadPool(
+    WORKERS
+  );
+
+  /**
+   * The splitter thread scanning the input for blocks.
+   */
+  private final ExecutorService splitter =
+    Executors.newSingleThreadExecutor();
+
+  /**
+   * The segments of the input in the order in which they appear.
+   */
+  private final BlockingQueue<Segment> segments = new ArrayBlockingQueue<>(
+    PIPELINE_CAPACITY
+  );
+
+  /**
+   * The pending result of the splitter.
+   */
+  private final Future<?> split;
+
+  /**
+   * The current decompressed block.
+   */
+  private byte[] block = new byte[0];
+
+  /**
+   * The position of the next unread byte within the current block.
+   */
+  private int offset;
+
+  /**
+   * Whether or not the end of the stream has been reached.
+   */
+  private boolean done;
+
+  /**
+   * Initialize a new parallel bzip2 input stream.
+   *
+   * @param input The compressed input.
+   */
+  BZip2InputStream(final InputStream input) {
+    this.input = input;
+    this.split = this.splitter.submit(() -> {
+      this.split();
+
+      return null;
+    });
+  }
+
+  /**
+   * Read the next byte of the stream.
+   *
+   * @return The next byte of the stream or -1 if the end of the stream has
+   *         been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public int read() throws IOException {
+    if (!this.fill()) {
+      return -1;
+    }
+
+    return this.block[this.offset++] & 0xFF;
+  }
+
+  /**
+   * Read a number of bytes of the stream.
+   *
+   * @param bytes   The array to read the bytes into.
+   * @param offset  The offset within the array to read the bytes into.
+   * @param length  The maximum number of bytes to read.
+   * @return        The number of bytes read or -1 if the end of the stream
+   *                has been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public int read(
+    final byte[] bytes,
+    final int offset,
+    final int length
+  ) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!this.fill()) {
+      return -1;
+    }
+
+    int n = Math.min(length, this.block.length - this.offset);
+
+    System.arraycopy(this.block, this.offset, bytes, offset, n);
+    this.offset += n;
+
+    return n;
+  }
+
+  /**
+   * Get the number of bytes that can be read without blocking.
+   *
+   * @return The number of bytes left in the current block.
+   */
+  @Override
+  public int available() {
+    return this.block.length - this.offset;
+  }
+
+  /**
+   * Close the stream, stopping all threads.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    this.done = true;
+    this.splitter.shutdownNow();
+    this.workers.shutdownNow();
+    this.segments.clear();
+    this.input.close();
+  }
+
+  /**
+   * Make sure that there are unread bytes in the current block, moving on to
+   * the next block if needed.
+   *
+   * @return A boolean indicating whether or not there are unread bytes.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private boolean fill() throws IOException {
+    while (this.offset >= this.block.length) {
+      if (this.done) {
+        return false;
+      }
+
+      byte[] next = this.next();
+
+      if (next == null) {
+        this.done = true;
+        return false;
+      }
+
+      this.block = next;
+      this.offset = 0;
+    }
+
+    return true;
+  }
+
+  /**
+   * Get the next decompressed block of the stream.
+   *
+   * @return The next decompressed block or {@code null} if the end of the
+   *         stream has been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private byte[] next() throws IOException {
+    while (true) {
+      Segment segment = this.take();
+
+      if (segment == END) {
+        return null;
+      }
+
+      // Skip the trailers and headers between concatenated streams.
+      if (!segment.block) {
+        continue;
+      }
+
+      try {
+        return segment.result.get();
+      }
+      catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
+      catch (ExecutionException ex) {
+        if (!(ex.getCause() instanceof EOFException)) {
+          throw BZip2InputStream.unwrap(ex.getCause());
+        }
+
+        return this.join(segment);
+      }
+    }
+  }
+
+  /**
+   * Join a truncated block with the following segments of the input until it
+   * can be decompressed.
+   *
+   * @param segment The truncated block.
+   * @return        The decompressed block.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private byte[] join(final Segment segment) throws IOException {
+    Segment joined = segment;
+
+    while (true) {
+      Segment next = this.take();
+
+      if (next == END) {
+        throw new EOFException("Truncated bzip2 stream");
+      }
+
+      // The following segment was never a block in its own right.
+      if (next.result != null) {
+        next.result.cancel(true);
+      }
+
+      joined = joined.join(next);
+
+      try {
+        return BZip2Block.decode(joined.data, joined.start, joined.end);
+      }
+      catch (EOFException ex) {
+        continue;
+      }
+    }
+  }
+
+  /**
+   * Take the next segment off the pipeline, waiting for one to become
+   * available if needed.
+   *
+   * @return The next segment of the input.
+   *
+   * @throws IOException In case the splitter failed while waiting.
+   */
+  private Segment take() throws IOException {
+    try {
+      while (true) {
+        Segment segment = this.segments.poll(
+          PIPELINE_TIMEOUT, TimeUnit.MILLISECONDS
+        );
+
+        if (segment != null) {
+          return segment;
+        }
+
+        // If the splitter has stopped without ending the pipeline then no one
+        // is going to fill it. Bail out with whatever went wrong.
+        if (this.split.isDone() && this.segments.isEmpty()) {
+          this.split.get();
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException ex) {
+      throw BZip2InputStream.unwrap(ex.getCause());
+    }
+  }
+
+  /**
+   * Scan the compressed input for magic numbers, splitting it into segments
+   * and handing off the blocks among them to the workers.
+   *
+   * <p>
+   * This method is invoked by the splitter thread.
+   *
+   * @throws Exception In case of an exception during splitting.
+   */
+  private void split() throws Exception {
+    byte[] buffer = new byte[2 * CHUNK_SIZE];
+
+    // The offset of the buffer within the input.
+    long base = 0;
+
+    // The number of bytes in the buffer.
+    int length = 0;
+
+    // The last 64 bits of input.
+    long window = 0;
+
+    // The bit position of the magic number starting the current segment.
+    long start = -1;
+
+    // Whether or not the current segment is a block.
+    boolean block = false;
+
+    while (true) {
+      if (length + CHUNK_SIZE > buffer.length) {
+        // Discard the bytes preceding the current segment.
+        int discard = start < 0 ? length : (int) ((start >>> 3) - base);
+
+        System.arraycopy(buffer, discard, buffer, 0, length - discard);
+        base += discard;
+        length -= discard;
+
+        if (length + CHUNK_SIZE > buffer.length) {
+          buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+      }
+
+      int n = this.input.read(buffer, length, CHUNK_SIZE);
+
+      if (n < 0) {
+        break;
+      }
+
+      for (int i = length; i < length + n; i++) {
+        window = (window << 8) | (buffer[i] & 0xFF);
+
+        if (!CANDIDATES[(int) (window >>> 8) & 0xFF]) {
+          continue;
+        }
+
+        for (int shift = 0; shift < 8; shift++) {
+          long magic = (window >>> shift) & MAGIC_MASK;
+
+          if (
+            magic != BZip2Block.BLOCK_MAGIC
+            && magic != BZip2Block.STREAM_MAGIC
+          ) {
+            continue;
+          }
+
+          long position = 8 * (base + i + 1) - shift - 48;
+
+          if (position < 0) {
+            continue;
+          }
+
+          if (start >= 0) {
+            this.emit(buffer, base, start, position, block);
+          }
+
+          start = position;
+          block = magic == BZip2Block.BLOCK_MAGIC;
+          break;
+        }
+      }
+
+      length += n;
+    }
+
+    if (start < 0) {
+      throw new IOException("Not a bzip2 stream");
+    }
+
+    this.emit(buffer, base, start, 8 * (base + length), block);
+    this.enqueue(END);
+  }
+
+  /**
+   * Cut a segment out of the buffer of the splitter and add it to the
+   * pipeline.
+   *
+   * @param buffer  The buffer of the splitter.
+   * @param base    The offset of the buffer within the input.
+   * @param start   The bit position of the start of the segment.
+   * @param end     The bit position of the end of the segment.
+   * @param block   Whether or not the segment is a block.
+   *
+   * @throws Exception In case the reader of the stream went away while
+   *                   waiting.
+   */
+  private void emit(
+    final byte[] buffer,
+    final long base,
+    final long start,
+    final long end,
+    final boolean block
+  ) throws Exception {
+    long first = start >>> 3;
+    long last = (end + 7) >>> 3;
+
+    Segment segment = new Segment(
+      Arrays.copyOfRange(buffer, (int) (first - base), (int) (last - base)),
+      first,
+      start - 8 * first,
+      end - 8 * first,
+      block
+    );
+
+    if (block) {
+      segment.result = this.workers.submit(() -> {
+        return BZip2Block.decode(segment.data, segment.start, segment.end);
+      });
+    }
+
+    this.enqueue(segment);
+  }
+
+  /**
+   * Add a segment to the pipeline, waiting for room to become available if
+   * the pipeline is full.
+   *
+   * @param segment The segment to add to the pipeline.
+   *
+   * @throws Exception In case the reader of the stream went away while
+   *                   waiting.
+   */
+  private void enqueue(final Segment segment) throws Exception {
+    while (
+      !this.segments.offer(segment, PIPELINE_TIMEOUT, TimeUnit.MILLISECONDS)
+    ) {
+      if (this.done) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Unwrap the cause of a failed task as an I/O exception.
+   *
+   * @param cause The cause of the failure.
+   * @return      The cause as an I/O exception.
+   */
+  private static IOException unwrap(final Throwable cause) {
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+
+    return new IOException(cause);
+  }
+
+  /**
+   * The {@link Segment} class describes a part of the compressed input that
+   * starts with a magic number.
+   */
+  private static final class Segment {
+    /**
+     * The bytes of the segment.
+     */
+    private final byte[] data;
+
+    /**
+     * The offset of the bytes of the segment within the input.
+     */
+    private final long offset;
+
+    /**
+     * The bit position of the start of the segment within its bytes.
+     */
+    private final long start;
+
+    /**
+     * The bit position of the end of the segment within its bytes.
+     */
+    private final long end;
+
+    /**
+     * Whether or not the segment is a block.
+     */
+    private final boolean block;
+
+    /**
+     * The pending result of decompressing the segment if it's a block.
+     */
+    private Future<byte[]> result;
+
+    /**
+     * Initialize a new segment.
+     *
+     * @param data    The bytes of the segment.
+     * @param offset  The offset of the bytes of the segment within the input.
+     * @param start   The bit position of the start of the segment within its
+     *                bytes.
+     * @param end     The bit position of the end of the segment within its
+     *                bytes.
+     * @param block   Whether or not the segment is a block.
+     */
+    public Segment(
+      final byte[] data,
+      final long offset,
+      final long start,
+      final long end,
+      final boolean block
+    ) {
+      this.data = data;
+      this.offset = offset;
+      this.start = start;
+      this.end = end;
+      this.block = block;
+    }
+
+    /**
+     * Join the segment with the segment immediately following it.
+     *
+     * @param next  The segment immediately following the segment.
+     * @return      The joined segment.
+     */
+    public Segment join(final Segment next) {
+      int shared = (int) (next.offset - this.offset);
+
+      byte[] data = Arrays.copyOf(this.data, shared + next.data.length);
+      System.arraycopy(next.data, 0, data, shared, next.data.length);
+
+      return new Segment(
+        data,
+        this.offset,
+        this.start,
+        8L * shared + next.end,
+        this.block
+      );
+    }
+  }
+}
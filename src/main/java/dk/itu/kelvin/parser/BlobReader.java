@@ -0,0 +1,561 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// I/O utilities
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// ZIP utilities
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Protocol Buffers
+import com.google.protobuf.CodedInputStream;
+
+// Protocol Buffer File entities
+import crosby.binary.Fileformat.BlobHeader;
+
+/**
+ * Blob reader class for framing the blobs of a PBF file.
+ *
+ * <p>
+ * A PBF file is a sequence of blobs, each prefixed by the length of its header
+ * and its header. The reader walks the file one blob at a time, exposing the
+ * type of the blob and its still encoded bytes. Decoding is left to the caller
+ * so that it can take place on a different thread than the reading.
+ *
+ * @see <a href="http://wiki.openstreetmap.org/wiki/PBF_Format#File_format">
+ *      http://wiki.openstreetmap.org/wiki/PBF_Format#File_format</a>
+ */
+abstract class BlobReader implements Closeable {
+  /**
+   * Field number of the uncompressed data of a blob.
+   */
+  private static final int BLOB_RAW = 1;
+
+  /**
+   * Field number of the zlib compressed data of a blob.
+   */
+  private static final int BLOB_ZLIB_DATA = 3;
+
+  /**
+   * Wire type of varint encoded protobuf fields.
+   */
+  private static final int WIRE_VARINT = 0;
+
+  /**
+   * Wire type of 64-bit protobuf fields.
+   */
+  private static final int WIRE_FIXED64 = 1;
+
+  /**
+   * Wire type of length delimited protobuf fields.
+   */
+  private static final int WIRE_LENGTH_DELIMITED = 2;
+
+  /**
+   * Wire type of 32-bit protobuf fields.
+   */
+  private static final int WIRE_FIXED32 = 5;
+
+  /**
+   * The size of the buffer used when inflating compressed blobs.
+   */
+  private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The type of the current blob.
+   */
+  private String type;
+
+  /**
+   * The encoded bytes of the current blob.
+   */
+  private ByteBuffer blob;
+
+  /**
+   * The number of bytes of the file taken up by the current blob.
+   */
+  private int size;
+
+  /**
+   * Open a blob reader for the specified file.
+   *
+   * @param file    The file to read.
+   * @param mapped  Whether or not to memory map the file rather than reading
+   *                it through a stream.
+   * @return        A blob reader for the specified file.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public static BlobReader open(
+    final File file,
+    final boolean mapped
+  ) throws IOException {
+    if (mapped) {
+      return new Mapped(file);
+    }
+    else {
+      return new Stream(file);
+    }
+  }
+
+  /**
+   * Advance to the next blob of the file.
+   *
+   * @return A boolean indicating whether or not a blob was read. If not, the
+   *         end of the file has been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public abstract boolean next() throws IOException;
+
+  /**
+   * Get the type of the current blob.
+   *
+   * @return The type of the current blob.
+   */
+  public final String type() {
+    return this.type;
+  }
+
+  /**
+   * Get the encoded bytes of the current blob.
+   *
+   * <p>
+   * The returned buffer is owned by the caller and remains valid after the
+   * reader has advanced to the next blob.
+   *
+   * @return The encoded bytes of the current blob.
+   */
+  public final ByteBuffer blob() {
+    return this.blob;
+  }
+
+  /**
+   * Get the number of bytes of the file taken up by the current blob,
+   * including its header.
+   *
+   * @return The number of bytes taken up by the current blob.
+   */
+  public final int size() {
+    return this.size;
+  }
+
+  /**
+   * Set the current blob.
+   *
+   * @param header  The header of the blob.
+   * @param blob    The encoded bytes of the blob.
+   */
+  protected final void blob(final BlobHeader header, final ByteBuffer blob) {
+    this.type = header.getType();
+    this.blob = blob;
+    this.size = 4 + header.getSerializedSize() + blob.remaining();
+  }
+
+  /**
+   * Get a stream of the decompressed data contained within an encoded blob.
+   *
+   * <p>
+   * The blob is scanned in place, so neither the blob itself nor its raw or
+   * compressed data are copied into intermediate arrays.
+   *
+   * <p>
+   * Compressed data is inflated using the specified inflater, which is reset
+   * first. As the returned stream inflates the data as it's read, the
+   * inflater mustn't be used for anything else until the stream has been read.
+   * The inflater is left for the caller to end.
+   *
+   * <p>
+   * The time spent inflating the data is attributed to the
+   * {@link Progress.Phase#INFLATE} phase of the specified progress.
+   *
+   * @param blob      The encoded bytes of the blob.
+   * @param inflater  The inflater to inflate compressed data with.
+   * @param progress  The progress to record to.
+   * @return          A stream of the decompressed data of the blob or
+   *                  {@code null} if the blob uses an unsupported
+   *                  compression.
+   *
+   * @throws IOException In case the blob is malformed.
+   */
+  public static CodedInputStream data(
+    final ByteBuffer blob,
+    final Inflater inflater,
+    final Progress progress
+  ) throws IOException {
+    ByteBuffer buffer = blob.duplicate();
+
+    while (buffer.hasRemaining()) {
+      int tag = (int) BlobReader.varint(buffer);
+      int field = tag >>> 3;
+
+      switch (tag & 0x7) {
+        case WIRE_VARINT:
+          BlobReader.varint(buffer);
+          break;
+
+        case WIRE_FIXED64:
+          BlobReader.skip(buffer, 8);
+          break;
+
+        case WIRE_FIXED32:
+          BlobReader.skip(buffer, 4);
+          break;
+
+        case WIRE_LENGTH_DELIMITED:
+          int length = (int) BlobReader.varint(buffer);
+
+          if (field != BLOB_RAW && field != BLOB_ZLIB_DATA) {
+            BlobReader.skip(buffer, length);
+            break;
+          }
+
+          if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Truncated blob");
+          }
+
+          ByteBuffer data = buffer.slice();
+          data.limit(length);
+
+          InputStream input = new Input(data);
+
+          if (field == BLOB_ZLIB_DATA) {
+            inflater.reset();
+
+            input = new MeteredInputStream(new InflaterInputStream(
+              input, inflater, INFLATE_BUFFER_SIZE
+            ), progress, Progress.Phase.INFLATE, false);
+          }
+
+          return CodedInputStream.newInstance(input);
+
+        default:
+          throw new IOException("Malformed blob");
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Read a varint from the specified buffer.
+   *
+   * @param buffer  The buffer to read from.
+   * @return        The read varint.
+   *
+   * @throws IOException In case the varint is malformed.
+   */
+  private static long varint(final ByteBuffer buffer) throws IOException {
+    long value = 0L;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        throw new EOFException();
+      }
+
+      byte b = buffer.get();
+
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Malformed varint");
+  }
+
+  /**
+   * Skip the specified number of bytes in the specified buffer.
+   *
+   * @param buffer  The buffer to skip bytes in.
+   * @param bytes   The number of bytes to skip.
+   *
+   * @throws IOException In case the buffer holds too few bytes.
+   */
+  private static void skip(
+    final ByteBuffer buffer,
+    final int bytes
+  ) throws IOException {
+    if (bytes < 0 || bytes > buffer.remaining()) {
+      throw new EOFException();
+    }
+
+    buffer.position(buffer.position() + bytes);
+  }
+
+  /**
+   * Blob reader that reads blobs through a buffered stream, copying each of
+   * them into an array of its own.
+   */
+  private static final class Stream extends BlobReader {
+    /**
+     * The stream to read blobs from.
+     */
+    private final DataInputStream stream;
+
+    /**
+     * Initialize a new stream blob reader.
+     *
+     * @param file The file to read.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public Stream(final File file) throws IOException {
+      this.stream = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file))
+      );
+    }
+
+    /**
+     * Advance to the next blob of the file.
+     *
+     * @return A boolean indicating whether or not a blob was read.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public boolean next() throws IOException {
+      int headerLength;
+
+      // The first piece of data in the stream is an int that represents the
+      // length of the next blob header. Running out of data here means that
+      // we've reached the end of the file.
+      try {
+        headerLength = this.stream.readInt();
+      }
+      catch (EOFException ex) {
+        return false;
+      }
+
+      byte[] headerBytes = new byte[headerLength];
+      this.stream.readFully(headerBytes);
+
+      BlobHeader header = BlobHeader.parseFrom(headerBytes);
+
+      byte[] blobBytes = new byte[header.getDatasize()];
+      this.stream.readFully(blobBytes);
+
+      this.blob(header, ByteBuffer.wrap(blobBytes));
+
+      return true;
+    }
+
+    /**
+     * Close the reader.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public void close() throws IOException {
+      this.stream.close();
+    }
+  }
+
+  /**
+   * Blob reader that maps the file into memory and hands out slices of the
+   * mapping rather than copies of the blobs.
+   *
+   * <p>
+   * Files larger than what can be addressed by a single buffer are mapped in
+   * windows that are moved forward as the reader progresses. A blob never
+   * spans more than 32 MiB so a window always fits the entire blob.
+   */
+  private static final class Mapped extends BlobReader {
+    /**
+     * The maximum size of a mapped window.
+     */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    /**
+     * The channel of the mapped file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of the mapped file.
+     */
+    private final long size;
+
+    /**
+     * The currently mapped window of the file.
+     */
+    private ByteBuffer window;
+
+    /**
+     * The file offset at which the current window starts.
+     */
+    private long windowStart;
+
+    /**
+     * The file offset of the next blob.
+     */
+    private long position;
+
+    /**
+     * Initialize a new mapped blob reader.
+     *
+     * @param file The file to read.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public Mapped(final File file) throws IOException {
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      this.size = this.channel.size();
+    }
+
+    /**
+     * Advance to the next blob of the file.
+     *
+     * @return A boolean indicating whether or not a blob was read.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public boolean next() throws IOException {
+      if (this.position >= this.size) {
+        return false;
+      }
+
+      ByteBuffer buffer = this.map(this.position, 4);
+      int headerLength = buffer.getInt();
+
+      ByteBuffer headerBuffer = this.map(this.position + 4, headerLength);
+
+      BlobHeader header = BlobHeader.parseFrom(
+        CodedInputStream.newInstance(new Input(headerBuffer))
+      );
+
+      long blobStart = this.position + 4 + headerLength;
+
+      this.blob(header, this.map(blobStart, header.getDatasize()));
+
+      this.position = blobStart + header.getDatasize();
+
+      return true;
+    }
+
+    /**
+     * Get a slice of the file, moving the mapped window if needed.
+     *
+     * @param offset  The file offset of the slice.
+     * @param length  The length of the slice.
+     * @return        A slice of the mapped file.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    private ByteBuffer map(
+      final long offset,
+      final int length
+    ) throws IOException {
+      if (length < 0 || offset + length > this.size) {
+        throw new EOFException();
+      }
+
+      if (
+        this.window == null
+        || offset < this.windowStart
+        || offset + length > this.windowStart + this.window.capacity()
+      ) {
+        this.windowStart = offset;
+        this.window = this.channel.map(
+          FileChannel.MapMode.READ_ONLY,
+          offset,
+          Math.min(WINDOW_SIZE, this.size - offset)
+        );
+      }
+
+      ByteBuffer slice = this.window.duplicate();
+      slice.position((int) (offset - this.windowStart));
+      slice.limit(slice.position() + length);
+
+      return slice.slice();
+    }
+
+    /**
+     * Close the reader.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    public void close() throws IOException {
+      this.channel.close();
+    }
+  }
+
+  /**
+   * Input stream reading directly from a byte buffer.
+   */
+  private static final class Input extends InputStream {
+    /**
+     * The buffer to read from.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Initialize a new byte buffer input stream.
+     *
+     * @param buffer The buffer to read from.
+     */
+    public Input(final ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @return The read byte or -1 if the end of the buffer has been reached.
+     */
+    @Override
+    public int read() {
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+
+      return this.buffer.get() & 0xFF;
+    }
+
+    /**
+     * Read a number of bytes into the specified array.
+     *
+     * @param bytes   The array to read bytes into.
+     * @param offset  The offset in the array to start at.
+     * @param length  The maximum number of bytes to read.
+     * @return        The number of bytes read or -1 if the end of the buffer
+     *                has been reached.
+     */
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+
+      int n = Math.min(length, this.buffer.remaining());
+
+      this.buffer.get(bytes, offset, n);
+
+      return n;
+    }
+
+    /**
+     * Get the number of bytes left in the buffer.
+     *
+     * @return The number of bytes left in the buffer.
+     */
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+  }
+}
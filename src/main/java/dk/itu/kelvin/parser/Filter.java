@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+// Models
+import dk.itu.kelvin.model.BoundingBox;
+
+/**
+ * Import filter class.
+ *
+ * <p>
+ * An import filter tells a {@link Parser} which parts of a file to keep. The
+ * filter is evaluated by the parser before allocating any elements, so that
+ * importing a small slice of a large file is both faster and lighter on memory
+ * than importing the whole file.
+ *
+ * <p>
+ * An element is kept if all of the following hold:
+ *
+ * <ul>
+ * <li>The type of the element is one of the accepted types.</li>
+ * <li>The element lies within the bounding box of the filter, if any. Nodes
+ * must lie within the box whereas ways must intersect it.</li>
+ * <li>The element has at least one tag whose key is on the allow list, if the
+ * allow list isn't empty.</li>
+ * <li>The element has no tag whose key is on the deny list.</li>
+ * </ul>
+ *
+ * <p>
+ * Addresses are only subject to the type of and bounding box of the filter as
+ * they're not map features in their own right. Coastlines are only subject to
+ * the types of the filter as leaving out parts of a coastline would break the
+ * land polygons.
+ */
+public final class Filter {
+  /**
+   * The types of elements accepted by the filter.
+   */
+  private final Set<Type> types = EnumSet.allOf(Type.class);
+
+  /**
+   * The tag keys of which elements must have at least one.
+   */
+  private final Set<String> allow = new HashSet<>();
+
+  /**
+   * The tag keys of which elements must have none.
+   */
+  private final Set<String> deny = new HashSet<>();
+
+  /**
+   * The bounding box of the filter or {@code null} if unbounded.
+   */
+  private BoundingBox bounds;
+
+  /**
+   * Set the types of elements accepted by the filter.
+   *
+   * @param types The types of elements accepted by the filter.
+   * @return      The current {@link Filter} instance for chaining.
+   */
+  public Filter types(final Type... types) {
+    this.types.clear();
+    this.types.addAll(Arrays.asList(types));
+
+    return this;
+  }
+
+  /**
+   * Add tag keys to the allow list of the filter.
+   *
+   * @param keys  The tag keys to allow.
+   * @return      The current {@link Filter} instance for chaining.
+   */
+  public Filter allow(final String... keys) {
+    this.allow.addAll(Arrays.asList(keys));
+
+    return this;
+  }
+
+  /**
+   * Add tag keys to the deny list of the filter.
+   *
+   * @param keys  The tag keys to deny.
+   * @return      The current {@link Filter} instance for chaining.
+   */
+  public Filter deny(final String... keys) {
+    this.deny.addAll(Arrays.asList(keys));
+
+    return this;
+  }
+
+  /**
+   * Set the bounding box of the filter.
+   *
+   * @param bounds  The bounding box of the filter or {@code null} to remove
+   *                the bounding box.
+   * @return        The current {@link Filter} instance for chaining.
+   */
+  public Filter bounds(final BoundingBox bounds) {
+    this.bounds = bounds;
+
+    return this;
+  }
+
+  /**
+   * Set the bounding box of the filter.
+   *
+   * @param minX  The smallest x-coordinate of the bounding box.
+   * @param minY  The smallest y-coordinate of the bounding box.
+   * @param maxX  The largest x-coordinate of the bounding box.
+   * @param maxY  The largest y-coordinate of the bounding box.
+   * @return      The current {@link Filter} instance for chaining.
+   */
+  public Filter bounds(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY
+  ) {
+    return this.bounds(new BoundingBox(minX, minY, maxX, maxY));
+  }
+
+  /**
+   * Check if the filter accepts elements of the specified type.
+   *
+   * @param type  The type of element to check.
+   * @return      A boolean indicating whether or not the filter accepts
+   *              elements of the specified type.
+   */
+  public boolean accepts(final Type type) {
+    return this.types.contains(type);
+  }
+
+  /**
+   * Check if the filter has a bounding box.
+   *
+   * @return A boolean indicating whether or not the filter has a bounding box.
+   */
+  public boolean bounded() {
+    return this.bounds != null;
+  }
+
+  /**
+   * Check if the bounding box of the filter contains the specified point.
+   *
+   * @param x The x-coordinate of the point.
+   * @param y The y-coordinate of the point.
+   * @return  A boolean indicating whether or not the bounding box of the filter
+   *          contains the point. Always {@code true} if the filter is
+   *          unbounded.
+   */
+  public boolean contains(final float x, final float y) {
+    return this.bounds == null || this.bounds.contains(x, y);
+  }
+
+  /**
+   * Check if the bounding box of the filter intersects the specified box.
+   *
+   * @param minX  The smallest x-coordinate of the box.
+   * @param minY  The smallest y-coordinate of the box.
+   * @param maxX  The largest x-coordinate of the box.
+   * @param maxY  The largest y-coordinate of the box.
+   * @return      A boolean indicating whether or not the bounding box of the
+   *              filter intersects the box. Always {@code true} if the filter
+   *              is unbounded.
+   */
+  public boolean intersects(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY
+  ) {
+    if (this.bounds == null) {
+      return true;
+    }
+
+    return (
+      minX <= this.bounds.maxX()
+      && maxX >= this.bounds.minX()
+      && minY <= this.bounds.maxY()
+      && maxY >= this.bounds.minY()
+    );
+  }
+
+  /**
+   * Clip the specified bounds to the bounding box of the filter.
+   *
+   * @param bounds  The bounds to clip.
+   * @return        The intersection of the bounds and the bounding box of the
+   *                filter.
+   */
+  public BoundingBox clip(final BoundingBox bounds) {
+    if (this.bounds == null || bounds == null) {
+      return bounds;
+    }
+
+    return new BoundingBox(
+      Math.max(bounds.minX(), this.bounds.minX()),
+      Math.max(bounds.minY(), this.bounds.minY()),
+      Math.min(bounds.maxX(), this.bounds.maxX()),
+      Math.min(bounds.maxY(), this.bounds.maxY())
+    );
+  }
+
+  /**
+   * Check if the filter looks at tag keys at all.
+   *
+   * <p>
+   * Parsers can use this to avoid decoding tags up front when there is no need
+   * to.
+   *
+   * @return A boolean indicating whether or not the filter has an allow or a
+   *         deny list.
+   */
+  public boolean keyed() {
+    return !this.allow.isEmpty() || !this.deny.isEmpty();
+  }
+
+  /**
+   * Check if the filter accepts elements with the specified tag keys.
+   *
+   * @param keys  The tag keys of the element.
+   * @param n     The number of tag keys to look at.
+   * @return      A boolean indicating whether or not the filter accepts
+   *              elements with the specified tag keys.
+   */
+  public boolean accepts(final String[] keys, final int n) {
+    boolean allowed = this.allow.isEmpty();
+
+    for (int i = 0; i < n; i++) {
+      if (this.deny.contains(keys[i])) {
+        return false;
+      }
+
+      if (!allowed && this.allow.contains(keys[i])) {
+        allowed = true;
+      }
+    }
+
+    return allowed;
+  }
+
+  /**
+   * The {@link Type} enumerator describes the type of an element.
+   */
+  public enum Type {
+    /**
+     * A node element.
+     */
+    NODE,
+
+    /**
+     * A way element.
+     */
+    WAY,
+
+    /**
+     * A relation element.
+     */
+    RELATION;
+  }
+}
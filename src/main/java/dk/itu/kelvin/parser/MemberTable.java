@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Models
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Relation;
+
+/**
+ * Member table class.
+ *
+ * <p>
+ * The member table defers resolving the members of relations until all
+ * elements of a file have been parsed. While parsing, relations are added to
+ * the table along with references to their members, which are kept in
+ * primitive arrays in the order they appear in the file. Once parsing is done,
+ * the references are sorted by type and ID and resolved in a single sweep, so
+ * that every distinct member is only looked up once, after which the members
+ * are added to their relations in their original order.
+ *
+ * <p>
+ * As members are resolved after the fact, relations may reference elements
+ * that appear later in the file, including other relations.
+ */
+final class MemberTable {
+  /**
+   * The initial capacity of the table.
+   */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The number of elements below which insertion sort is used rather than
+   * quicksort.
+   */
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  /**
+   * The types of elements that members may reference.
+   */
+  private static final Filter.Type[] TYPES = Filter.Type.values();
+
+  /**
+   * The IDs of the relations in the table.
+   */
+  private long[] ids = new long[INITIAL_CAPACITY];
+
+  /**
+   * The relations in the table.
+   */
+  private List<Relation> relations = new ArrayList<>();
+
+  /**
+   * The index of the first member of each relation; the members of the i'th
+   * relation are found between {@code offsets[i]} and {@code offsets[i + 1]}.
+   */
+  private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+  /**
+   * The IDs of the elements referenced by members.
+   */
+  private long[] refs = new long[INITIAL_CAPACITY];
+
+  /**
+   * The ordinals of the types of the elements referenced by members.
+   */
+  private byte[] types = new byte[INITIAL_CAPACITY];
+
+  /**
+   * The roles of members.
+   */
+  private String[] roles = new String[INITIAL_CAPACITY];
+
+  /**
+   * The number of members in the table.
+   */
+  private int members;
+
+  /**
+   * Get the number of relations in the table.
+   *
+   * @return The number of relations in the table.
+   */
+  public int size() {
+    return this.relations.size();
+  }
+
+  /**
+   * Get the ID of the relation at the specified index.
+   *
+   * @param index The index of the relation.
+   * @return      The ID of the relation.
+   */
+  public long id(final int index) {
+    return this.ids[index];
+  }
+
+  /**
+   * Get the relation at the specified index.
+   *
+   * @param index The index of the relation.
+   * @return      The relation.
+   */
+  public Relation relation(final int index) {
+    return this.relations.get(index);
+  }
+
+  /**
+   * Add a relation to the table.
+   *
+   * <p>
+   * Subsequent members are added to this relation until another relation is
+   * added.
+   *
+   * @param id        The ID of the relation.
+   * @param relation  The relation.
+   */
+  public void add(final long id, final Relation relation) {
+    int n = this.relations.size();
+
+    if (n == this.ids.length) {
+      int capacity = 2 * this.ids.length;
+
+      this.ids = Arrays.copyOf(this.ids, capacity);
+      this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+    }
+
+    this.ids[n] = id;
+    this.offsets[n] = this.members;
+    this.offsets[n + 1] = this.members;
+    this.relations.add(relation);
+  }
+
+  /**
+   * Add a member to the last added relation.
+   *
+   * @param type  The type of the referenced element.
+   * @param ref   The ID of the referenced element.
+   * @param role  The role of the member, if any.
+   */
+  public void add(final Filter.Type type, final long ref, final String role) {
+    int n = this.relations.size();
+
+    if (n == 0) {
+      return;
+    }
+
+    if (this.members == this.refs.length) {
+      int capacity = 2 * this.refs.length;
+
+      this.refs = Arrays.copyOf(this.refs, capacity);
+      this.types = Arrays.copyOf(this.types, capacity);
+      this.roles = Arrays.copyOf(this.roles, capacity);
+    }
+
+    this.refs[this.members] = ref;
+    this.types[this.members] = (byte) type.ordinal();
+    this.roles[this.members] = role;
+    this.members++;
+
+    this.offsets[n] = this.members;
+  }
+
+  /**
+   * Resolve the members of all relations in the table and add them to their
+   * relations.
+   *
+   * <p>
+   * Members that can't be resolved, typically because the referenced element
+   * was filtered out or lies outside the file, are left out.
+   *
+   * @param resolver The resolver to look up referenced elements with.
+   */
+  public void resolve(final Resolver resolver) {
+    int n = this.members;
+
+    // Sort a copy of the references, keeping track of where each of them
+    // came from.
+    long[] refs = Arrays.copyOf(this.refs, n);
+    byte[] types = Arrays.copyOf(this.types, n);
+    int[] order = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+
+    sort(refs, types, order, 0, n - 1);
+
+    Element[] elements = new Element[n];
+    Element element = null;
+
+    for (int i = 0; i < n; i++) {
+      // Only look up the first of several references to the same element.
+      if (i == 0 || refs[i] != refs[i - 1] || types[i] != types[i - 1]) {
+        element = resolver.resolve(TYPES[types[i]], refs[i]);
+      }
+
+      elements[order[i]] = element;
+    }
+
+    for (int i = 0; i < this.relations.size(); i++) {
+      Relation relation = this.relations.get(i);
+
+      for (int j = this.offsets[i]; j < this.offsets[i + 1]; j++) {
+        relation.add(elements[j], this.roles[j]);
+      }
+    }
+
+    // The references are no longer needed once resolved.
+    this.refs = new long[0];
+    this.types = new byte[0];
+    this.roles = new String[0];
+    this.members = 0;
+  }
+
+  /**
+   * Compare the references at the specified indices by type and ID.
+   *
+   * @param refs  The IDs of the references.
+   * @param types The types of the references.
+   * @param i     The first index.
+   * @param j     The second index.
+   * @return      A negative integer, zero, or a positive integer as the first
+   *              reference is less than, equal to, or greater than the second.
+   */
+  private static int compare(
+    final long[] refs,
+    final byte[] types,
+    final int i,
+    final int j
+  ) {
+    if (types[i] != types[j]) {
+      return types[i] - types[j];
+    }
+
+    return Long.compare(refs[i], refs[j]);
+  }
+
+  /**
+   * Sort the references between the specified indices by type and ID.
+   *
+   * @param refs  The IDs of the references.
+   * @param types The types of the references.
+   * @param order The original indices of the references.
+   * @param lo    The lowest index to sort, inclusive.
+   * @param hi    The highest index to sort, inclusive.
+   */
+  private static void sort(
+    final long[] refs,
+    final byte[] types,
+    final int[] order,
+    final int lo,
+    final int hi
+  ) {
+    int l = lo;
+    int h = hi;
+
+    // Recurse on the smaller partition and loop on the larger one to keep the
+    // depth of the stack logarithmic.
+    while (h - l > INSERTION_SORT_THRESHOLD) {
+      int p = l + (h - l) / 2;
+      long pivotRef = refs[p];
+      byte pivotType = types[p];
+
+      int i = l;
+      int j = h;
+
+      while (i <= j) {
+        while (
+          types[i] < pivotType
+          || (types[i] == pivotType && refs[i] < pivotRef)
+        ) {
+          i++;
+        }
+
+        while (
+          types[j] > pivotType
+          || (types[j] == pivotType && refs[j] > pivotRef)
+        ) {
+          j--;
+        }
+
+        if (i <= j) {
+          swap(refs, types, order, i++, j--);
+        }
+      }
+
+      if (j - l < h - i) {
+        sort(refs, types, order, l, j);
+        l = i;
+      }
+      else {
+        sort(refs, types, order, i, h);
+        h = j;
+      }
+    }
+
+    for (int i = l + 1; i <= h; i++) {
+      for (int j = i; j > l && compare(refs, types, j - 1, j) > 0; j--) {
+        swap(refs, types, order, j - 1, j);
+      }
+    }
+  }
+
+  /**
+   * Swap the references at the specified indices.
+   *
+   * @param refs  The IDs of the references.
+   * @param types The types of the references.
+   * @param order The original indices of the references.
+   * @param i     The first index.
+   * @param j     The second index.
+   */
+  private static void swap(
+    final long[] refs,
+    final byte[] types,
+    final int[] order,
+    final int i,
+    final int j
+  ) {
+    long ref = refs[i];
+    refs[i] = refs[j];
+    refs[j] = ref;
+
+    byte type = types[i];
+    types[i] = types[j];
+    types[j] = type;
+
+    int index = order[i];
+    order[i] = order[j];
+    order[j] = index;
+  }
+
+  /**
+   * The {@link Resolver} interface describes a lookup of parsed elements by
+   * type and ID.
+   */
+  @FunctionalInterface
+  interface Resolver {
+    /**
+     * Look up the element of the specified type and ID.
+     *
+     * @param type  The type of the element.
+     * @param id    The ID of the element.
+     * @return      The element or {@code null} if no such element has been
+     *              parsed.
+     */
+    Element resolve(Filter.Type type, long id);
+  }
+}
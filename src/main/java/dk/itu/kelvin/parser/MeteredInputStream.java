@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// I/O utilities
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Metered input stream class.
+ *
+ * <p>
+ * The metered input stream attributes the time spent reading from the
+ * underlying stream to a phase of the {@link Progress} of a parser and,
+ * optionally, records the number of bytes read as consumed.
+ */
+final class MeteredInputStream extends FilterInputStream {
+  /**
+   * The progress to record to.
+   */
+  private final Progress progress;
+
+  /**
+   * The phase to attribute reads to.
+   */
+  private final Progress.Phase phase;
+
+  /**
+   * Whether or not to record the bytes read as consumed.
+   */
+  private final boolean consume;
+
+  /**
+   * Initialize a new metered input stream.
+   *
+   * @param input     The underlying stream.
+   * @param progress  The progress to record to.
+   * @param phase     The phase to attribute reads to.
+   * @param consume   Whether or not to record the bytes read as consumed.
+   */
+  MeteredInputStream(
+    final InputStream input,
+    final Progress progress,
+    final Progress.Phase phase,
+    final boolean consume
+  ) {
+    super(input);
+    this.progress = progress;
+    this.phase = phase;
+    this.consume = consume;
+  }
+
+  /**
+   * Read the next byte of the stream.
+   *
+   * @return The next byte of the stream or -1 if the end of the stream has
+   *         been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public int read() throws IOException {
+    Progress.Phase previous = this.progress.enter(this.phase);
+
+    try {
+      int b = super.read();
+
+      if (this.consume && b != -1) {
+        this.progress.consume(1);
+      }
+
+      return b;
+    }
+    finally {
+      this.progress.enter(previous);
+    }
+  }
+
+  /**
+   * Read a number of bytes of the stream.
+   *
+   * @param bytes   The array to read the bytes into.
+   * @param offset  The offset within the array to read the bytes into.
+   * @param length  The maximum number of bytes to read.
+   * @return        The number of bytes read or -1 if the end of the stream
+   *                has been reached.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public int read(
+    final byte[] bytes,
+    final int offset,
+    final int length
+  ) throws IOException {
+    Progress.Phase previous = this.progress.enter(this.phase);
+
+    try {
+      int n = super.read(bytes, offset, length);
+
+      if (this.consume && n > 0) {
+        this.progress.consume(n);
+      }
+
+      return n;
+    }
+    finally {
+      this.progress.enter(previous);
+    }
+  }
+
+  /**
+   * Skip a number of bytes of the stream.
+   *
+   * @param n The number of bytes to skip.
+   * @return  The number of bytes skipped.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public long skip(final long n) throws IOException {
+    long skipped = super.skip(n);
+
+    if (this.consume && skipped > 0) {
+      this.progress.consume(skipped);
+    }
+
+    return skipped;
+  }
+}
@@ -4,27 +4,36 @@
 package dk.itu.kelvin.parser;
 
 // General utilities
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
-// ZIP utilities
-import java.util.zip.InflaterInputStream;
+// Concurrency utilities
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Functional utilities
+import java.util.function.Consumer;
 
 // I/O utilities
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+
+// ZIP utilities
+import java.util.zip.Inflater;
+
+// NIO utilities
+import java.nio.ByteBuffer;
 
 // Fast utils
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
-// Protocol Buffer File entities
-import crosby.binary.Fileformat.Blob;
-import crosby.binary.Fileformat.BlobHeader;
+// Protocol Buffers
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.MessageLite;
 
 // Protocol Buffer OSM entities
 import crosby.binary.Osmformat;
@@ -34,6 +43,11 @@ import crosby.binary.Osmformat.StringTable;
 import crosby.binary.Osmformat.PrimitiveBlock;
 import crosby.binary.Osmformat.PrimitiveGroup;
 
+// Utilities
+import dk.itu.kelvin.util.CoordinateTable;
+import dk.itu.kelvin.util.SparseBitSet;
+import dk.itu.kelvin.util.StringPool;
+
 // Math
 import dk.itu.kelvin.math.Projection;
 import dk.itu.kelvin.math.Mercator;
@@ -57,11 +71,74 @@ import dk.itu.kelvin.model.Way;
  *      https://github.com/scrosby/OSM-binary</a>
  */
 public final class PBFParser extends Parser {
+  /**
+   * The number of worker threads used for decoding blobs.
+   *
+   * <p>
+   * Inflating and decoding blobs is by far the most expensive part of parsing
+   * a PBF file and since each blob is self-contained, the work can be spread
+   * across all available cores.
+   */
+  private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of blobs that may be in flight between the reader and
+   * the merge stage at any given time.
+   *
+   * <p>
+   * Decoded blocks are large, so the number of blocks waiting to be merged is
+   * bounded to keep memory usage in check. If the merge stage falls behind,
+   * the reader will block until it catches up.
+   */
+  private static final int PIPELINE_CAPACITY = 2 * WORKERS;
+
+  /**
+   * The number of milliseconds the reader waits for room in the pipeline
+   * before checking whether the merge stage is still alive.
+   */
+  private static final int PIPELINE_TIMEOUT = 100;
+
+  /**
+   * Marker signalling the end of the pipeline to the merge stage.
+   */
+  private static final Future<MessageLite> END =
+    CompletableFuture.completedFuture(null);
+
   /**
    * Projection to use for the parsed coordinates.
    */
   private final Projection projection = new Mercator();
 
+  /**
+   * Whether or not to memory map the file rather than reading it through a
+   * stream.
+   *
+   * <p>
+   * Mapping the file lets the blobs be decoded straight from the page cache
+   * without first copying each of them onto the heap, which cuts down on both
+   * garbage and system calls when parsing large files.
+   */
+  private boolean mapped = true;
+
+  /**
+   * Whether or not to parse the file in two passes, dropping the coordinates
+   * of nodes that aren't referenced by any way or relation.
+   *
+   * <p>
+   * The first pass only looks at ways and relations and collects the IDs of
+   * the nodes they reference. The second pass then parses the file as usual,
+   * but skips the coordinates of all untagged nodes that weren't referenced.
+   * This trades an extra pass over the file for a much smaller table of node
+   * coordinates, which is what dominates memory usage for large files.
+   */
+  private boolean twoPass;
+
+  /**
+   * The IDs of the nodes referenced by ways and relations, collected during
+   * the first pass of a two-pass parse.
+   */
+  private SparseBitSet referenced;
+
   /**
    * The string table containing all parsed strings.
    *
@@ -78,6 +155,26 @@ public final class PBFParser extends Parser {
    */
   private StringTable stringTable;
 
+  /**
+   * The decoded strings of the current string table.
+   *
+   * <p>
+   * The same few hundred keys and values are referenced over and over within
+   * a block, so each string is decoded only the first time it's referenced
+   * and looked up by index from then on. Strings that are never referenced,
+   * such as user names, are never decoded at all.
+   */
+  private String[] strings;
+
+  /**
+   * Pool of the decoded strings of all blocks.
+   *
+   * <p>
+   * Blocks share most of their strings, so pooling them across blocks lets
+   * the parsed elements share a single instance of each string.
+   */
+  private StringPool pool;
+
   /**
    * The granularity for geographical coordinates.
    *
@@ -131,153 +228,382 @@ public final class PBFParser extends Parser {
   private BoundingBox bounds;
 
   /**
-   * The parsed nodes mapped to their IDs.
+   * The coordinates of all parsed nodes mapped to their IDs.
+   *
+   * <p>
+   * The vast majority of nodes carry no tags and only exist to give shape to
+   * ways. Rather than allocating an object for each of them, their coordinates
+   * are kept in a primitive table for the duration of the parsing and nodes
+   * are only materialized when referenced by a way.
+   */
+  private CoordinateTable locations;
+
+  /**
+   * The parsed tagged nodes mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Node> nodes = new Long2ObjectOpenHashMap<>();
 
   /**
-   * The parsed ways mapped to their IDs.
+   * The parsed ways mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Way> ways = new Long2ObjectOpenHashMap<>();
 
   /**
-   * The parsed relations mapped to their IDs.
+   * The parsed relations mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Relation> relations = new Long2ObjectOpenHashMap<>();
 
   /**
-   * The parsed land.
+   * The parsed relations along with references to their members, which are
+   * resolved once all elements have been parsed.
    */
-  private Land land;
+  private MemberTable members;
 
   /**
-   * The parsed addresses.
+   * The parsed land.
    */
-  private List<Address> addresses = new ArrayList<>();
+  private Land land;
 
   /**
-   * Get the parsed bounds.
+   * Set whether or not to memory map the file rather than reading it through
+   * a stream.
    *
-   * @return The parsed bounds.
+   * @param mapped  A boolean indicating whether or not to memory map the file.
    */
-  public BoundingBox bounds() {
-    return this.bounds;
+  public void mapped(final boolean mapped) {
+    this.mapped = mapped;
   }
 
   /**
-   * Get the parsed land polygons.
+   * Set whether or not to parse the file in two passes, dropping the
+   * coordinates of nodes that aren't referenced by any way or relation.
    *
-   * @return The parsed land polygons.
+   * @param twoPass A boolean indicating whether or not to parse the file in
+   *                two passes.
    */
-  public Collection<Way> land() {
-    return this.land.coastlines();
+  public void twoPass(final boolean twoPass) {
+    this.twoPass = twoPass;
   }
 
   /**
-   * Get the parsed node elements.
+   * Parse an input file.
+   *
+   * <p>
+   * Parsing is done in a pipeline of three stages:
+   *
+   * <ol>
+   * <li>The reader, running on the current thread, frames the encoded bytes of
+   * each blob in the file, either by mapping the file into memory or by
+   * reading it through a stream.</li>
+   * <li>A pool of workers inflates and decodes the framed blobs in parallel.
+   * </li>
+   * <li>The merge stage, running on a thread of its own, consumes the decoded
+   * blocks in the order in which they appear in the file and adds their
+   * elements to the parsed collections.</li>
+   * </ol>
+   *
+   * <p>
+   * Merging blocks in file order is important as ways may only reference nodes
+   * that have already been parsed. The members of relations are resolved once
+   * all blocks have been merged.
+   *
+   * <p>
+   * When parsing in two passes, the pipeline is first run with a merge stage
+   * that only collects the IDs of referenced nodes, after which it is run
+   * again with the regular merge stage.
+   *
+   * @see <a href="http://chaosinmotion.com/blog/?p=766">
+   *      http://chaosinmotion.com/blog/?p=766</a>
+   *
+   * @param file The file to parse.
    *
-   * @return The parsed node elements.
+   * @throws Exception In case of an exception during parsing.
    */
-  public Collection<Node> nodes() {
-    return this.nodes.values();
+  protected void parse(final File file) throws Exception {
+    this.locations = new CoordinateTable(this.offHeap());
+    this.members = new MemberTable();
+    this.pool = new StringPool();
+
+    try {
+      if (this.twoPass) {
+        // The file is consumed twice.
+        this.progress().total(2 * file.length());
+
+        this.referenced = new SparseBitSet();
+        this.run(file, (block) -> this.collect(block));
+      }
+
+      this.run(file, (block) -> this.merge(block));
+
+      // Relations may reference elements anywhere in the file and so can
+      // only be assembled once all elements have been parsed.
+      this.emit(this.members, (type, id) -> this.member(type, id));
+
+      // The land polygons can only be constructed once all coastlines have
+      // been parsed.
+      this.emit(this.land);
+
+      this.sink().onLocations(this.locations);
+    }
+    finally {
+      // The coordinates, references and strings are only needed while
+      // parsing; let GC do its work.
+      this.locations = null;
+      this.members = null;
+      this.referenced = null;
+      this.stringTable = null;
+      this.strings = null;
+      this.pool = null;
+    }
   }
 
   /**
-   * Get the parsed way elements.
+   * Run a pass of the pipeline over an input file.
+   *
+   * @param file  The file to parse.
+   * @param stage The merge stage to pass the decoded blocks to.
    *
-   * @return The parsed way elements.
+   * @throws Exception In case of an exception during parsing.
    */
-  public Collection<Way> ways() {
-    return this.ways.values();
+  private void run(
+    final File file,
+    final Consumer<MessageLite> stage
+  ) throws Exception {
+    ExecutorService workers = Executors.newFixedThreadPool(WORKERS, (task) -> {
+      return new Worker(task);
+    });
+    ExecutorService merger = Executors.newSingleThreadExecutor();
+
+    // The decoded blocks in the order in which they appear in the file.
+    BlockingQueue<Future<MessageLite>> blocks = new ArrayBlockingQueue<>(
+      PIPELINE_CAPACITY
+    );
+
+    Progress progress = this.progress();
+
+    Future<?> merge = merger.submit(() -> {
+      Future<MessageLite> next;
+
+      while ((next = blocks.take()) != END) {
+        // Time spent waiting for the workers isn't attributed to any phase.
+        MessageLite block = next.get();
+
+        progress.enter(Progress.Phase.DECODE);
+        stage.accept(block);
+        progress.enter(null);
+      }
+
+      return null;
+    });
+
+    // Time spent waiting for room in the pipeline isn't attributed to any
+    // phase either.
+    Progress.Phase previous = progress.enter(null);
+
+    // https://docs.oracle.com/javase/tutorial/essential/exceptions/
+    // tryResourceClose.html
+    try (BlobReader reader = BlobReader.open(file, this.mapped)) {
+      while (this.next(reader)) {
+        this.checkCancelled();
+
+        String type = reader.type();
+        ByteBuffer blob = reader.blob();
+
+        progress.consume(reader.size());
+
+        // Hand off the blob to the workers and queue up the pending result for
+        // the merge stage.
+        this.enqueue(blocks, merge, workers.submit(() -> {
+          return this.decode(type, blob);
+        }));
+      }
+
+      this.enqueue(blocks, merge, END);
+
+      // Wait for the merge stage to finish, propagating any exceptions thrown
+      // by either the workers or the merge stage itself.
+      merge.get();
+    }
+    finally {
+      workers.shutdownNow();
+      merger.shutdownNow();
+      progress.enter(previous);
+    }
   }
 
   /**
-   * Get the parsed relation elements.
+   * Advance a blob reader to the next blob, attributing the time spent to the
+   * {@link Progress.Phase#READ} phase.
    *
-   * @return The parsed relation elements.
+   * @param reader  The blob reader to advance.
+   * @return        A boolean indicating whether or not a blob was read.
+   *
+   * @throws Exception In case of an I/O error.
    */
-  public Collection<Relation> relations() {
-    return this.relations.values();
+  private boolean next(final BlobReader reader) throws Exception {
+    Progress.Phase previous = this.progress().enter(Progress.Phase.READ);
+
+    try {
+      return reader.next();
+    }
+    finally {
+      this.progress().enter(previous);
+    }
   }
 
   /**
-   * Get the parsed addresses.
+   * Add a pending block to the pipeline, waiting for room to become available
+   * if the pipeline is full.
    *
-   * @return The parsed addresses.
+   * @param blocks  The pipeline of pending blocks.
+   * @param merge   The merge stage consuming the pipeline.
+   * @param block   The pending block to add to the pipeline.
+   *
+   * @throws Exception In case the merge stage failed while waiting.
    */
-  public Collection<Address> addresses() {
-    return this.addresses;
+  private void enqueue(
+    final BlockingQueue<Future<MessageLite>> blocks,
+    final Future<?> merge,
+    final Future<MessageLite> block
+  ) throws Exception {
+    while (!blocks.offer(block, PIPELINE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+      // If the merge stage has stopped then no one is going to make room in
+      // the pipeline. Bail out with whatever went wrong.
+      if (merge.isDone()) {
+        merge.get();
+      }
+    }
   }
 
   /**
-   * Parse an input file.
+   * Inflate and decode the encoded bytes of a blob.
    *
-   * @see <a href="http://chaosinmotion.com/blog/?p=766">
-   *      http://chaosinmotion.com/blog/?p=766</a>
+   * <p>
+   * This method is invoked by the workers of the pipeline and must therefore
+   * not touch any state of the parser. Compressed blobs are inflated using the
+   * inflater of the calling worker.
    *
-   * @param file The file to parse.
+   * @param type  The type of the blob as specified in its header.
+   * @param blob  The encoded bytes of the blob.
+   * @return      The decoded block or {@code null} if the blob is of a type
+   *              that we can't handle.
    *
-   * @throws Exception In case of an exception during parsing.
+   * @throws Exception In case of an error during decoding.
    */
-  protected void parse(final File file) throws Exception {
-    // https://docs.oracle.com/javase/tutorial/essential/exceptions/
-    // tryResourceClose.html
-    try (
-      DataInputStream dataStream = new DataInputStream(
-        new BufferedInputStream(new FileInputStream(file))
-      );
-    ) {
-      while (dataStream.available() > 0) {
-        // The first piece of data in the stream is an int that represents the
-        // length of the next blob of data.
-        int blobLength = dataStream.readInt();
+  private MessageLite decode(
+    final String type,
+    final ByteBuffer blob
+  ) throws Exception {
+    // Get the data of the blob, inflating it on the fly if it's compressed.
+    CodedInputStream blobData = BlobReader.data(
+      blob, ((Worker) Thread.currentThread()).inflater, this.progress()
+    );
+
+    if (blobData == null) {
+      return null;
+    }
 
-        // Create a byte array for storing the blob header bytes.
-        byte[] blobHeaderBytes = new byte[blobLength];
+    Progress.Phase previous = this.progress().enter(Progress.Phase.DECODE);
+
+    try {
+      return this.decode(type, blobData);
+    }
+    finally {
+      this.progress().enter(previous);
+    }
+  }
+
+  /**
+   * Decode the data of a blob.
+   *
+   * @param type      The type of the blob as specified in its header.
+   * @param blobData  The data of the blob.
+   * @return          The decoded block or {@code null} if the blob is of a
+   *                  type that we can't handle.
+   *
+   * @throws Exception In case of an error during decoding.
+   */
+  private MessageLite decode(
+    final String type,
+    final CodedInputStream blobData
+  ) throws Exception {
+    switch (type) {
+      // http://wiki.openstreetmap.org/wiki/PBF_Format
+      // #Definition_of_the_OSMHeader_fileblock
+      case "OSMHeader":
+        return HeaderBlock.parseFrom(blobData);
+
+      // http://wiki.openstreetmap.org/wiki/PBF_Format
+      // #Definition_of_OSMData_fileblock
+      case "OSMData":
+        return PrimitiveBlock.parseFrom(blobData);
+
+      default:
+        // We can't handle the blob. Move on to the next one.
+        return null;
+    }
+  }
 
-        // Read the blob header bytes from the data stream.
-        dataStream.read(blobHeaderBytes);
+  /**
+   * Merge a decoded block into the parsed elements.
+   *
+   * <p>
+   * This method is invoked by the merge stage of the pipeline, one block at a
+   * time and in the order in which the blocks appear in the file.
+   *
+   * @param block The decoded block to merge.
+   */
+  private void merge(final MessageLite block) {
+    if (block instanceof HeaderBlock) {
+      this.parse((HeaderBlock) block);
+    }
 
-        // Parse the blob header bytes to a blob header object.
-        BlobHeader blobHeader = BlobHeader.parseFrom(blobHeaderBytes);
+    if (block instanceof PrimitiveBlock) {
+      this.parse((PrimitiveBlock) block);
+    }
+  }
 
-        // Create a byte array for sotring blob bytes.
-        byte[] blobBytes = new byte[blobHeader.getDatasize()];
+  /**
+   * Collect the IDs of the nodes referenced by the ways and relations of a
+   * decoded block.
+   *
+   * <p>
+   * This method is invoked by the merge stage of the first pass of a two-pass
+   * parse.
+   *
+   * @param block The decoded block to collect node references from.
+   */
+  private void collect(final MessageLite block) {
+    if (!(block instanceof PrimitiveBlock)) {
+      return;
+    }
 
-        // Read the blob bytes from the data stream.
-        dataStream.read(blobBytes);
+    PrimitiveBlock primitives = (PrimitiveBlock) block;
 
-        // Parse the blob bytes to a blob object.
-        Blob blob = Blob.parseFrom(blobBytes);
+    for (PrimitiveGroup group: primitives.getPrimitivegroupList()) {
+      this.checkCancelled();
 
-        InputStream blobData;
+      for (Osmformat.Way way: group.getWaysList()) {
+        long ref = 0L;
 
-        // If the blob contains data compressed using zlib we need to decompress
-        // the data first.
-        if (blob.hasZlibData()) {
-          blobData = new InflaterInputStream(blob.getZlibData().newInput());
-        }
-        // Otherwise, we can just get the raw data.
-        else {
-          blobData = blob.getRaw().newInput();
+        for (long nextRef: way.getRefsList()) {
+          ref += nextRef;
+          this.referenced.set(ref);
         }
+      }
 
-        switch (blobHeader.getType()) {
-          // http://wiki.openstreetmap.org/wiki/PBF_Format
-          // #Definition_of_the_OSMHeader_fileblock
-          case "OSMHeader":
-            this.parse(HeaderBlock.parseFrom(blobData));
-            break;
+      for (Osmformat.Relation relation: group.getRelationsList()) {
+        long memId = 0L;
 
-          // http://wiki.openstreetmap.org/wiki/PBF_Format
-          // #Definition_of_OSMData_fileblock
-          case "OSMData":
-            this.parse(PrimitiveBlock.parseFrom(blobData));
-            break;
+        for (int i = 0; i < relation.getMemidsCount(); i++) {
+          memId += relation.getMemids(i);
 
-          default:
-            // We can't handle the blob. Move on to the next one.
-            continue;
+          if (relation.getTypes(i) == Osmformat.Relation.MemberType.NODE) {
+            this.referenced.set(memId);
+          }
         }
       }
     }
@@ -290,7 +616,99 @@ public final class PBFParser extends Parser {
    * @return      The string if found.
    */
   private String getString(final int index) {
-    return this.stringTable.getS(index).toStringUtf8();
+    String string = this.strings[index];
+
+    if (string == null) {
+      string = this.pool.get(this.stringTable.getS(index).toStringUtf8());
+      this.strings[index] = string;
+    }
+
+    return string;
+  }
+
+  /**
+   * Materialize the node with the specified ID from the table of parsed node
+   * coordinates.
+   *
+   * @param id  The ID of the node to materialize.
+   * @return    The materialized node or {@code null} if no node with the
+   *            specified ID has been parsed.
+   */
+  private Node node(final long id) {
+    int i = this.locations.find(id);
+
+    if (i < 0) {
+      return null;
+    }
+
+    return new Node(this.locations.x(i), this.locations.y(i));
+  }
+
+  /**
+   * Look up a parsed element referenced by a member of a relation.
+   *
+   * @param type  The type of the element.
+   * @param id    The ID of the element.
+   * @return      The element or {@code null} if no such element has been
+   *              parsed.
+   */
+  private Element member(final Filter.Type type, final long id) {
+    switch (type) {
+      case NODE:
+        Node node = this.nodes.get(id);
+
+        if (node == null) {
+          node = this.node(id);
+        }
+
+        return node;
+      case WAY:
+        return this.ways.get(id);
+      case RELATION:
+        return this.relations.get(id);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Check if the bounding box of the filter intersects the nodes referenced by
+   * a way.
+   *
+   * @param way The way to check.
+   * @return    A boolean indicating whether or not the bounding box of the
+   *            filter intersects the nodes referenced by the way.
+   */
+  private boolean intersects(final Osmformat.Way way) {
+    Filter filter = this.filter();
+
+    if (!filter.bounded()) {
+      return true;
+    }
+
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+
+    long ref = 0L;
+
+    for (long nextRef: way.getRefsList()) {
+      ref += nextRef;
+
+      int i = this.locations.find(ref);
+
+      if (i < 0) {
+        continue;
+      }
+
+      minX = Math.min(minX, this.locations.x(i));
+      minY = Math.min(minY, this.locations.y(i));
+      maxX = Math.max(maxX, this.locations.x(i));
+      maxY = Math.max(maxY, this.locations.y(i));
+    }
+
+    return minX <= maxX && filter.intersects(minX, minY, maxX, maxY);
   }
 
   /**
@@ -349,14 +767,16 @@ public final class PBFParser extends Parser {
    * @param bbox The bounding box to parse.
    */
   private void parse(final HeaderBBox bbox) {
-    this.bounds = new BoundingBox(
+    this.bounds = this.filter().clip(new BoundingBox(
       (float) this.projection.lonToX(.000000001 * bbox.getLeft()),
       (float) this.projection.latToY(.000000001 * bbox.getTop()),
       (float) this.projection.lonToX(.000000001 * bbox.getRight()),
       (float) this.projection.latToY(.000000001 * bbox.getBottom())
-    );
+    ));
 
     this.land = new Land(this.bounds);
+
+    this.sink().onBounds(this.bounds);
   }
 
   /**
@@ -373,6 +793,7 @@ public final class PBFParser extends Parser {
     this.latOffset = block.getLatOffset();
     this.lonOffset = block.getLonOffset();
     this.stringTable = block.getStringtable();
+    this.strings = new String[this.stringTable.getSCount()];
 
     for (PrimitiveGroup group: block.getPrimitivegroupList()) {
       this.parse(group);
@@ -394,14 +815,17 @@ public final class PBFParser extends Parser {
     }
 
     for (Osmformat.Node node: group.getNodesList()) {
+      this.checkCancelled();
       this.parse(node);
     }
 
     for (Osmformat.Way way: group.getWaysList()) {
+      this.checkCancelled();
       this.parse(way);
     }
 
     for (Osmformat.Relation relation: group.getRelationsList()) {
+      this.checkCancelled();
       this.parse(relation);
     }
   }
@@ -434,6 +858,10 @@ public final class PBFParser extends Parser {
    * @param nodes The block of densely formatted nodes to parse.
    */
   private void parse(final Osmformat.DenseNodes nodes) {
+    Filter filter = this.filter();
+
+    boolean accepted = filter.accepts(Filter.Type.NODE);
+
     long nodeId = 0L;
     long lon = 0L;
     long lat = 0L;
@@ -441,14 +869,65 @@ public final class PBFParser extends Parser {
     int keyValCount = nodes.getKeysValsCount();
     int keyValPointer = 0;
 
+    // The tag keys of the current node, only used if the filter needs them.
+    String[] keys = new String[0];
+
     for (int i = 0; i < nodes.getIdCount(); i++) {
+      this.checkCancelled();
+
       nodeId += nodes.getId(i);
       lon += nodes.getLon(i);
       lat += nodes.getLat(i);
 
-      Node node = new Node(
-        (float) this.parseLon(lon), (float) this.parseLat(lat)
-      );
+      float x = (float) this.parseLon(lon);
+      float y = (float) this.parseLat(lat);
+
+      // When parsing in two passes, only keep the coordinates of the nodes
+      // that we know are referenced.
+      if (this.referenced == null || this.referenced.get(nodeId)) {
+        this.locations.put(nodeId, x, y);
+      }
+
+      // If the node is rejected by the filter, skip past its tags without
+      // decoding them.
+      if (!accepted || !filter.contains(x, y)) {
+        while (keyValPointer < keyValCount) {
+          if (nodes.getKeysVals(keyValPointer++) == 0) {
+            break;
+          }
+
+          keyValPointer++;
+        }
+
+        continue;
+      }
+
+      // Whether or not the filter lets us keep the node if it's tagged. This
+      // doesn't apply to addresses.
+      boolean keep = true;
+
+      if (filter.keyed()) {
+        int n = 0;
+
+        for (int j = keyValPointer; j < keyValCount; j += 2) {
+          int keyId = nodes.getKeysVals(j);
+
+          if (keyId == 0) {
+            break;
+          }
+
+          if (n == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * n + 1);
+          }
+
+          keys[n++] = this.getString(keyId);
+        }
+
+        keep = filter.accepts(keys, n);
+      }
+
+      // Only allocate a node object if the node turns out to be tagged.
+      Node node = null;
 
       Address address = null;
 
@@ -487,18 +966,27 @@ public final class PBFParser extends Parser {
             break;
 
           default:
+            if (!keep) {
+              break;
+            }
+
+            if (node == null) {
+              node = new Node(x, y);
+            }
+
             node.tag(k, v);
         }
       }
 
       if (address != null) {
-        address.x(node.x());
-        address.y(node.y());
+        address.x(x);
+        address.y(y);
 
-        this.addresses.add(address);
+        this.sink().onAddress(nodeId, address);
       }
-      else {
+      else if (node != null) {
         this.nodes.put(nodeId, node);
+        this.sink().onNode(nodeId, node);
       }
     }
   }
@@ -525,18 +1013,40 @@ public final class PBFParser extends Parser {
    * @param way The way to parse.
    */
   private void parse(final Osmformat.Way way) {
+    Filter filter = this.filter();
+
+    if (!filter.accepts(Filter.Type.WAY)) {
+      return;
+    }
+
     long wayId = way.getId();
 
-    Way parsedWay = new Way();
+    int n = way.getKeysCount();
+
+    String[] keys = new String[n];
+    String[] values = new String[n];
 
-    for (int i = 0; i < way.getKeysCount(); i++) {
-      int keyId = way.getKeys(i);
-      int valId = way.getVals(i);
+    boolean coastline = false;
 
-      String k = this.getString(keyId);
-      String v = this.getString(valId);
+    for (int i = 0; i < n; i++) {
+      keys[i] = this.getString(way.getKeys(i));
+      values[i] = this.getString(way.getVals(i));
 
-      parsedWay.tag(k, v);
+      if (keys[i].equals("natural") && values[i].equals("coastline")) {
+        coastline = true;
+      }
+    }
+
+    // Coastlines are exempt from the tags and bounds of the filter as they're
+    // needed in full for the land polygons.
+    if (!coastline && !(filter.accepts(keys, n) && this.intersects(way))) {
+      return;
+    }
+
+    Way parsedWay = new Way();
+
+    for (int i = 0; i < n; i++) {
+      parsedWay.tag(keys[i], values[i]);
     }
 
     long ref = 0L;
@@ -544,17 +1054,15 @@ public final class PBFParser extends Parser {
     for (long nextRef: way.getRefsList()) {
       ref += nextRef;
 
-      parsedWay.add(this.nodes.get(ref));
+      parsedWay.add(this.node(ref));
     }
 
-    if (
-      parsedWay.tag("natural") != null
-      && parsedWay.tag("natural").equals("coastline")
-    ) {
+    if (coastline) {
       this.land.add(parsedWay);
     }
 
     this.ways.put(wayId, parsedWay);
+    this.sink().onWay(wayId, parsedWay);
   }
 
   /**
@@ -567,45 +1075,97 @@ public final class PBFParser extends Parser {
    * @param relation The relation to parse.
    */
   private void parse(final Osmformat.Relation relation) {
+    Filter filter = this.filter();
+
+    if (!filter.accepts(Filter.Type.RELATION)) {
+      return;
+    }
+
     long relationId = relation.getId();
 
-    Relation parsedRelation = new Relation();
+    int n = relation.getKeysCount();
+
+    String[] keys = new String[n];
 
-    for (int i = 0; i < relation.getKeysCount(); i++) {
-      int keyId = relation.getKeys(i);
-      int valId = relation.getVals(i);
+    for (int i = 0; i < n; i++) {
+      keys[i] = this.getString(relation.getKeys(i));
+    }
 
-      parsedRelation.tag(this.getString(keyId), this.getString(valId));
+    if (!filter.accepts(keys, n)) {
+      return;
     }
 
+    Relation parsedRelation = new Relation();
+
+    for (int i = 0; i < n; i++) {
+      parsedRelation.tag(keys[i], this.getString(relation.getVals(i)));
+    }
+
+    this.relations.put(relationId, parsedRelation);
+    this.members.add(relationId, parsedRelation);
+
     long memId = 0L;
 
     for (int i = 0; i < relation.getMemidsCount(); i++) {
       memId += relation.getMemids(i);
 
-      Element element;
+      Filter.Type type;
 
       switch (relation.getTypes(i)) {
         case NODE:
-          element = this.nodes.get(memId);
+          type = Filter.Type.NODE;
           break;
         case WAY:
-          element = this.ways.get(memId);
+          type = Filter.Type.WAY;
           break;
         case RELATION:
-          element = this.relations.get(memId);
+          type = Filter.Type.RELATION;
           break;
         default:
           continue;
       }
 
-      if (element == null) {
-        return;
-      }
+      this.members.add(
+        type, memId, this.getString(relation.getRolesSid(i))
+      );
+    }
+  }
 
-      element.tag("role", this.getString(relation.getRolesSid(i)));
+  /**
+   * The {@link Worker} class describes a thread of the worker pool of the
+   * pipeline.
+   *
+   * <p>
+   * Each worker keeps a single inflater that is reset for every blob it
+   * inflates, rather than allocating a new inflater, and with it native zlib
+   * memory, per blob. The inflater is ended once the worker finishes.
+   */
+  private static final class Worker extends Thread {
+    /**
+     * The inflater of the worker.
+     */
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Initialize a new worker.
+     *
+     * @param task The task to run.
+     */
+    Worker(final Runnable task) {
+      super(task);
     }
 
-    this.relations.put(relationId, parsedRelation);
+    /**
+     * Run the task of the worker, ending its inflater once done.
+     */
+    @Override
+    public void run() {
+      try {
+        super.run();
+      }
+      finally {
+        this.inflater.end();
+      }
+    }
   }
 }
@@ -4,10 +4,22 @@
 package dk.itu.kelvin.parser;
 
 // General utilities
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
+// Concurrency utilities
+import java.util.concurrent.CancellationException;
 
 // I/O utilities
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Compression utilities
+import java.util.zip.GZIPInputStream;
 
 // File type utilities
 import javax.activation.FileTypeMap;
@@ -19,9 +31,14 @@ import dk.itu.kelvin.util.function.Callback;
 // Threading
 import dk.itu.kelvin.thread.TaskQueue;
 
+// Utilities
+import dk.itu.kelvin.util.CoordinateTable;
+
 // Models
 import dk.itu.kelvin.model.Address;
 import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Land;
 import dk.itu.kelvin.model.Node;
 import dk.itu.kelvin.model.Relation;
 import dk.itu.kelvin.model.Way;
@@ -38,28 +55,173 @@ public abstract class Parser {
    */
   private static final FileTypeMap TYPES = new MimetypesFileTypeMap();
 
+  /**
+   * The size of the buffers used for reading files.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Whether or not to keep the coordinates of parsed nodes off the heap.
+   */
+  private boolean offHeap;
+
+  /**
+   * The sink receiving the parsed elements.
+   */
+  private Sink sink;
+
+  /**
+   * The collector backing the accessors of the parser when no sink is used.
+   */
+  private Collector collector = new Collector();
+
+  /**
+   * The import filter of the parser.
+   */
+  private Filter filter = new Filter();
+
+  /**
+   * The progress of the current or most recent parse.
+   */
+  private Progress progress = new Progress();
+
+  /**
+   * The handle of the current or most recent parse.
+   */
+  private Handle handle = new Handle(this.progress);
+
+  /**
+   * Set whether or not to keep the coordinates of parsed nodes off the heap.
+   *
+   * <p>
+   * The coordinates of all nodes in a file are kept around for the duration
+   * of the parsing in order to resolve the nodes referenced by ways. For very
+   * large files, keeping them off the heap takes a substantial amount of
+   * pressure off the garbage collector.
+   *
+   * @param offHeap A boolean indicating whether or not to keep the coordinates
+   *                of parsed nodes off the heap.
+   */
+  public final void offHeap(final boolean offHeap) {
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * Check whether or not to keep the coordinates of parsed nodes off the heap.
+   *
+   * @return A boolean indicating whether or not to keep the coordinates of
+   *         parsed nodes off the heap.
+   */
+  protected final boolean offHeap() {
+    return this.offHeap;
+  }
+
+  /**
+   * Set the import filter of the parser.
+   *
+   * <p>
+   * The filter is evaluated while parsing, before any elements are allocated,
+   * and elements rejected by the filter are skipped altogether.
+   *
+   * @param filter The import filter of the parser.
+   */
+  public final void filter(final Filter filter) {
+    this.filter = filter != null ? filter : new Filter();
+  }
+
+  /**
+   * Get the import filter of the parser.
+   *
+   * @return The import filter of the parser.
+   */
+  protected final Filter filter() {
+    return this.filter;
+  }
+
   /**
    * Read and parse an input file.
    *
    * <p>
    * All I/O and parsing takes place on a separate thread and the specified
-   * callback is invoked once the parsing has finished.
+   * callback is invoked once the parsing has finished. The parsed elements are
+   * made available through the accessors of the parser.
    *
    * @param file      The file to read.
    * @param callback  The callback to invoke once the parsing has finished.
+   * @return          A handle for cancelling the parsing.
+   */
+  public final Handle read(final File file, final Callback callback) {
+    return this.read(file, null, callback);
+  }
+
+  /**
+   * Read and parse an input file, streaming the parsed elements to a sink.
+   *
+   * <p>
+   * All I/O and parsing takes place on a separate thread and the elements are
+   * pushed to the sink as soon as they have been parsed, so consumers can get
+   * to work long before the whole file has been read. The specified callback
+   * is invoked once the parsing has finished.
+   *
+   * <p>
+   * When a sink is specified, the parsed elements are not collected and the
+   * accessors of the parser will come up empty.
+   *
+   * <p>
+   * The parsing can be cancelled through the returned handle, in which case
+   * the parser stops at the next element and the callback is invoked as soon
+   * as it has let go of its resources. A parser can only run a single parse
+   * at a time.
+   *
+   * @param file      The file to read.
+   * @param sink      The sink to stream the parsed elements to, or
+   *                  {@code null} to collect the elements in the parser.
+   * @param callback  The callback to invoke once the parsing has finished or
+   *                  has been cancelled.
+   * @return          A handle for cancelling the parsing.
    */
-  public final void read(final File file, final Callback callback) {
+  public final Handle read(
+    final File file,
+    final Sink sink,
+    final Callback callback
+  ) {
+    this.collector = new Collector();
+    this.progress = new Progress();
+    this.handle = new Handle(this.progress);
+    this.sink = new MeteredSink(
+      sink != null ? sink : this.collector, this.progress
+    );
+
+    Handle handle = this.handle;
+
     TaskQueue.run(() -> {
+      handle.attach(Thread.currentThread());
+
+      this.progress.start(file.length());
+      this.progress.enter(Progress.Phase.DECODE);
+
       try {
         this.parse(file);
       }
       catch (Exception ex) {
-        ex.printStackTrace();
+        handle.fail(ex);
+
+        // Whatever went wrong in a cancelled parse was most likely caused by
+        // the cancellation itself.
+        if (!handle.cancelled()) {
+          ex.printStackTrace();
+        }
       }
       finally {
+        handle.detach();
+
+        this.progress.enter(null);
+        this.progress.finish();
         callback.call();
       }
     });
+
+    return handle;
   }
 
   /**
@@ -75,47 +237,235 @@ public abstract class Parser {
    */
   protected abstract void parse(final File file) throws Exception;
 
+  /**
+   * Check if the current parse has been cancelled, bailing out if it has.
+   *
+   * <p>
+   * Subclasses must check for cancellation regularly while parsing, at least
+   * once per element. A {@link CancellationException} is thrown if the parse
+   * has been cancelled.
+   */
+  protected final void checkCancelled() {
+    if (this.handle.cancelled()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Get the sink receiving the parsed elements.
+   *
+   * <p>
+   * Subclasses must push every element to the sink as soon as it has been
+   * parsed, with the exception of relations, which are pushed once their
+   * members have been resolved.
+   *
+   * @return The sink receiving the parsed elements.
+   */
+  protected final Sink sink() {
+    if (this.sink == null) {
+      this.sink = new MeteredSink(this.collector, this.progress);
+    }
+
+    return this.sink;
+  }
+
+  /**
+   * Merge the coastlines of the specified land into land polygons and push
+   * them to the sink.
+   *
+   * <p>
+   * The time spent merging the coastlines is attributed to the
+   * {@link Progress.Phase#LAND} phase.
+   *
+   * @param land The land to emit, or {@code null} if no coastlines were
+   *             parsed.
+   */
+  protected final void emit(final Land land) {
+    if (land == null) {
+      return;
+    }
+
+    Progress.Phase previous = this.progress.enter(Progress.Phase.LAND);
+
+    try {
+      for (Way coastline: land.coastlines()) {
+        this.sink().onLand(coastline);
+      }
+    }
+    finally {
+      this.progress.enter(previous);
+    }
+  }
+
+  /**
+   * Resolve the members of the relations in the specified table and push the
+   * relations to the sink.
+   *
+   * <p>
+   * The time spent resolving the members is attributed to the
+   * {@link Progress.Phase#ASSEMBLE} phase.
+   *
+   * @param members   The table of relations to emit.
+   * @param resolver  The resolver to look up the members of the relations
+   *                  with.
+   */
+  final void emit(
+    final MemberTable members,
+    final MemberTable.Resolver resolver
+  ) {
+    Progress.Phase previous = this.progress.enter(Progress.Phase.ASSEMBLE);
+
+    try {
+      members.resolve(resolver);
+    }
+    finally {
+      this.progress.enter(previous);
+    }
+
+    for (int i = 0; i < members.size(); i++) {
+      this.checkCancelled();
+      this.sink().onRelation(members.id(i), members.relation(i));
+    }
+  }
+
+  /**
+   * Get the progress of the current or most recent parse.
+   *
+   * <p>
+   * The progress is replaced whenever a new file is read, so callers polling
+   * the progress of a parse should hold on to the returned instance.
+   *
+   * @return The progress of the current or most recent parse.
+   */
+  public final Progress progress() {
+    return this.progress;
+  }
+
+  /**
+   * Get the handle of the current or most recent parse.
+   *
+   * <p>
+   * Unlike the handle returned by {@code read}, this is also available to
+   * the callback of a parse, which may be invoked before {@code read} has
+   * returned.
+   *
+   * @return The handle of the current or most recent parse.
+   */
+  public final Handle handle() {
+    return this.handle;
+  }
+
   /**
    * Get the parsed bounds.
    *
    * @return The parsed bounds.
    */
-  public abstract BoundingBox bounds();
+  public final BoundingBox bounds() {
+    return this.collector.bounds;
+  }
 
   /**
    * Get the parsed node elements.
    *
    * @return The parsed node elements.
    */
-  public abstract Collection<Node> nodes();
+  public final Collection<Node> nodes() {
+    return this.collector.nodes;
+  }
 
   /**
    * Get the parsed way elements.
    *
    * @return The parsed way elements.
    */
-  public abstract Collection<Way> ways();
+  public final Collection<Way> ways() {
+    return this.collector.ways;
+  }
 
   /**
    * Get the parsed relation elements.
    *
    * @return The parsed relation elements.
    */
-  public abstract Collection<Relation> relations();
+  public final Collection<Relation> relations() {
+    return this.collector.relations;
+  }
 
   /**
    * Get the parsed land polygons.
    *
    * @return The parsed land polygons.
    */
-  public abstract Collection<Way> land();
+  public final Collection<Way> land() {
+    return this.collector.land;
+  }
 
   /**
    * Get the parsed addresses.
    *
    * @return The parsed addresses.
    */
-  public abstract Collection<Address> addresses();
+  public final Collection<Address> addresses() {
+    return this.collector.addresses;
+  }
+
+  /**
+   * Open an input stream for reading a file, decompressing it on the fly if
+   * it's compressed.
+   *
+   * <p>
+   * Gzip and bzip2 compression are detected from the leading bytes of the
+   * file. Bzip2 blocks are decompressed in parallel as bzip2 is otherwise
+   * slow enough to become the bottleneck of parsing.
+   *
+   * <p>
+   * Reading and decompressing the file is recorded in the progress of the
+   * parser.
+   *
+   * @param file  The file to open.
+   * @return      An input stream of the possibly decompressed contents of the
+   *              file.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  protected final InputStream open(final File file) throws IOException {
+    InputStream input = new BufferedInputStream(new MeteredInputStream(
+      new FileInputStream(file), this.progress, Progress.Phase.READ, true
+    ), BUFFER_SIZE);
+
+    // Peek at the magic number of the file.
+    input.mark(3);
+    int a = input.read();
+    int b = input.read();
+    int c = input.read();
+    input.reset();
+
+    try {
+      if (a == 0x1F && b == 0x8B) {
+        return new MeteredInputStream(
+          new GZIPInputStream(input, BUFFER_SIZE),
+          this.progress,
+          Progress.Phase.INFLATE,
+          false
+        );
+      }
+
+      if (a == 'B' && b == 'Z' && c == 'h') {
+        return new MeteredInputStream(
+          new BZip2InputStream(input),
+          this.progress,
+          Progress.Phase.INFLATE,
+          false
+        );
+      }
+    }
+    catch (IOException ex) {
+      input.close();
+      throw ex;
+    }
+
+    return input;
+  }
 
   /**
    * Return a parser instance that can parse the specified file.
@@ -134,6 +484,10 @@ public abstract class Parser {
 
     switch (type.toLowerCase()) {
       case "application/xml":
+      case "application/gzip":
+      case "application/x-bzip2":
+        // PBF files are compressed internally, so compressed files are
+        // assumed to be XML.
         return new XMLParser();
 
       case "application/octet-stream":
@@ -143,4 +497,575 @@ public abstract class Parser {
         return null;
     }
   }
+
+  /**
+   * The {@link Sink} interface describes a consumer of parsed elements.
+   *
+   * <p>
+   * The callbacks of a sink are invoked sequentially, in the order in which
+   * the elements appear in the file, but not necessarily on the thread that
+   * started the parsing. All callbacks do nothing by default so implementations
+   * only need to override the ones they're interested in.
+   */
+  public interface Sink {
+    /**
+     * Receive the bounds of the file.
+     *
+     * @param bounds The bounds of the file.
+     */
+    default void onBounds(final BoundingBox bounds) {
+      return;
+    }
+
+    /**
+     * Receive a tagged node.
+     *
+     * @param id    The ID of the node.
+     * @param node  The node.
+     */
+    default void onNode(final long id, final Node node) {
+      return;
+    }
+
+    /**
+     * Receive a way.
+     *
+     * @param id  The ID of the way.
+     * @param way The way.
+     */
+    default void onWay(final long id, final Way way) {
+      return;
+    }
+
+    /**
+     * Receive a relation.
+     *
+     * @param id        The ID of the relation.
+     * @param relation  The relation.
+     */
+    default void onRelation(final long id, final Relation relation) {
+      return;
+    }
+
+    /**
+     * Receive an address.
+     *
+     * @param address The address.
+     */
+    default void onAddress(final Address address) {
+      return;
+    }
+
+    /**
+     * Receive an address along with the ID of the node carrying it.
+     *
+     * <p>
+     * By default, the ID is dropped and the address passed on to
+     * {@link #onAddress(Address)}.
+     *
+     * @param id      The ID of the node carrying the address.
+     * @param address The address.
+     */
+    default void onAddress(final long id, final Address address) {
+      this.onAddress(address);
+    }
+
+    /**
+     * Receive the deletion of an element.
+     *
+     * <p>
+     * Deletions only occur in change files. Elements that are modified by a
+     * change file are first deleted and then received anew.
+     *
+     * @param type  The type of the element.
+     * @param id    The ID of the element.
+     */
+    default void onDelete(final Filter.Type type, final long id) {
+      return;
+    }
+
+    /**
+     * Receive the coordinates of all parsed nodes.
+     *
+     * <p>
+     * The coordinates are received at the very end of the parsing and the
+     * table is no longer used by the parser once received.
+     *
+     * @param locations The coordinates of all parsed nodes mapped to their
+     *                  IDs.
+     */
+    default void onLocations(final CoordinateTable locations) {
+      return;
+    }
+
+    /**
+     * Resolve an element referenced by the file but not contained within it.
+     *
+     * <p>
+     * Change files only contain the elements that have changed, so references
+     * to unchanged elements are resolved by the sink.
+     *
+     * @param type  The type of the element.
+     * @param id    The ID of the element.
+     * @return      The element or {@code null} if it's unknown.
+     */
+    default Element resolve(final Filter.Type type, final long id) {
+      return null;
+    }
+
+    /**
+     * Receive a land polygon.
+     *
+     * <p>
+     * Land polygons can only be constructed once all coastlines have been
+     * parsed and are therefore received at the very end of the parsing.
+     *
+     * @param land The land polygon.
+     */
+    default void onLand(final Way land) {
+      return;
+    }
+  }
+
+  /**
+   * The {@link Handle} class describes a parse running in the background.
+   */
+  public static final class Handle {
+    /**
+     * The progress of the parse.
+     */
+    private final Progress progress;
+
+    /**
+     * The thread running the parse, or {@code null} if it's not running.
+     */
+    private Thread thread;
+
+    /**
+     * Whether or not the parse has been cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * The error that caused the parse to fail, if any.
+     */
+    private volatile Exception error;
+
+    /**
+     * Initialize a new handle.
+     *
+     * @param progress The progress of the parse.
+     */
+    private Handle(final Progress progress) {
+      this.progress = progress;
+    }
+
+    /**
+     * Cancel the parse.
+     *
+     * <p>
+     * The parser stops at the next element, interrupting any blocking I/O it
+     * may be waiting for. Cancelling a parse that has already finished has no
+     * effect.
+     */
+    public synchronized void cancel() {
+      this.cancelled = true;
+
+      if (this.thread != null) {
+        this.thread.interrupt();
+      }
+    }
+
+    /**
+     * Check if the parse has been cancelled.
+     *
+     * @return A boolean indicating whether or not the parse has been
+     *         cancelled.
+     */
+    public boolean cancelled() {
+      return this.cancelled;
+    }
+
+    /**
+     * Get the error that caused the parse to fail.
+     *
+     * @return  The error that caused the parse to fail, or {@code null} if it
+     *          hasn't failed.
+     */
+    public Exception error() {
+      return this.error;
+    }
+
+    /**
+     * Check if the parse has run to completion without being cancelled or
+     * failing.
+     *
+     * <p>
+     * Only then have all elements of the file been parsed; callbacks should
+     * check this before making use of elements that only make sense as a
+     * whole, such as the changes of a change file.
+     *
+     * @return A boolean indicating whether or not the parse has succeeded.
+     */
+    public boolean succeeded() {
+      return this.done() && !this.cancelled && this.error == null;
+    }
+
+    /**
+     * Check if the parse has finished, either by running to completion or by
+     * being cancelled.
+     *
+     * @return A boolean indicating whether or not the parse has finished.
+     */
+    public boolean done() {
+      return this.progress.done();
+    }
+
+    /**
+     * Get the progress of the parse.
+     *
+     * @return The progress of the parse.
+     */
+    public Progress progress() {
+      return this.progress;
+    }
+
+    /**
+     * Record the error that caused the parse to fail.
+     *
+     * @param error The error that caused the parse to fail.
+     */
+    private void fail(final Exception error) {
+      this.error = error;
+    }
+
+    /**
+     * Attach the parse to the thread running it.
+     *
+     * @param thread The thread running the parse.
+     */
+    private synchronized void attach(final Thread thread) {
+      this.thread = thread;
+    }
+
+    /**
+     * Detach the parse from the thread that was running it, so that a late
+     * cancellation won't interrupt whatever the thread moves on to.
+     */
+    private synchronized void detach() {
+      this.thread = null;
+
+      // Clear the interrupt status of the thread in case it was interrupted.
+      Thread.interrupted();
+    }
+  }
+
+  /**
+   * The {@link MeteredSink} class describes a sink that counts the elements
+   * passing through it and attributes the time spent in the sink it wraps to
+   * the {@link Progress.Phase#STORE} phase.
+   */
+  private static final class MeteredSink implements Sink {
+    /**
+     * The sink to pass elements on to.
+     */
+    private final Sink sink;
+
+    /**
+     * The progress to record to.
+     */
+    private final Progress progress;
+
+    /**
+     * Initialize a new metered sink.
+     *
+     * @param sink      The sink to pass elements on to.
+     * @param progress  The progress to record to.
+     */
+    public MeteredSink(final Sink sink, final Progress progress) {
+      this.sink = sink;
+      this.progress = progress;
+    }
+
+    /**
+     * Receive the bounds of the file.
+     *
+     * @param bounds The bounds of the file.
+     */
+    @Override
+    public void onBounds(final BoundingBox bounds) {
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onBounds(bounds);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive a tagged node.
+     *
+     * @param id    The ID of the node.
+     * @param node  The node.
+     */
+    @Override
+    public void onNode(final long id, final Node node) {
+      this.progress.increment(Filter.Type.NODE);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onNode(id, node);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive a way.
+     *
+     * @param id  The ID of the way.
+     * @param way The way.
+     */
+    @Override
+    public void onWay(final long id, final Way way) {
+      this.progress.increment(Filter.Type.WAY);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onWay(id, way);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive a relation.
+     *
+     * @param id        The ID of the relation.
+     * @param relation  The relation.
+     */
+    @Override
+    public void onRelation(final long id, final Relation relation) {
+      this.progress.increment(Filter.Type.RELATION);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onRelation(id, relation);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive an address.
+     *
+     * @param address The address.
+     */
+    @Override
+    public void onAddress(final Address address) {
+      this.progress.increment(Filter.Type.NODE);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onAddress(address);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive a land polygon.
+     *
+     * @param land The land polygon.
+     */
+    @Override
+    public void onLand(final Way land) {
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onLand(land);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive an address along with the ID of the node carrying it.
+     *
+     * @param id      The ID of the node carrying the address.
+     * @param address The address.
+     */
+    @Override
+    public void onAddress(final long id, final Address address) {
+      this.progress.increment(Filter.Type.NODE);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onAddress(id, address);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive the deletion of an element.
+     *
+     * @param type  The type of the element.
+     * @param id    The ID of the element.
+     */
+    @Override
+    public void onDelete(final Filter.Type type, final long id) {
+      this.progress.increment(type);
+
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onDelete(type, id);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Receive the coordinates of all parsed nodes.
+     *
+     * @param locations The coordinates of all parsed nodes.
+     */
+    @Override
+    public void onLocations(final CoordinateTable locations) {
+      Progress.Phase previous = this.progress.enter(Progress.Phase.STORE);
+
+      try {
+        this.sink.onLocations(locations);
+      }
+      finally {
+        this.progress.enter(previous);
+      }
+    }
+
+    /**
+     * Resolve an element referenced by the file but not contained within it.
+     *
+     * @param type  The type of the element.
+     * @param id    The ID of the element.
+     * @return      The element or {@code null} if it's unknown.
+     */
+    @Override
+    public Element resolve(final Filter.Type type, final long id) {
+      return this.sink.resolve(type, id);
+    }
+  }
+
+  /**
+   * The {@link Collector} class is a sink that collects the parsed elements in
+   * lists.
+   */
+  private static final class Collector implements Sink {
+    /**
+     * The collected bounds.
+     */
+    private BoundingBox bounds;
+
+    /**
+     * The collected nodes.
+     */
+    private List<Node> nodes = new ArrayList<>();
+
+    /**
+     * The collected ways.
+     */
+    private List<Way> ways = new ArrayList<>();
+
+    /**
+     * The collected relations.
+     */
+    private List<Relation> relations = new ArrayList<>();
+
+    /**
+     * The collected land polygons.
+     */
+    private List<Way> land = new ArrayList<>();
+
+    /**
+     * The collected addresses.
+     */
+    private List<Address> addresses = new ArrayList<>();
+
+    /**
+     * Receive the bounds of the file.
+     *
+     * @param bounds The bounds of the file.
+     */
+    @Override
+    public void onBounds(final BoundingBox bounds) {
+      this.bounds = bounds;
+    }
+
+    /**
+     * Receive a tagged node.
+     *
+     * @param id    The ID of the node.
+     * @param node  The node.
+     */
+    @Override
+    public void onNode(final long id, final Node node) {
+      this.nodes.add(node);
+    }
+
+    /**
+     * Receive a way.
+     *
+     * @param id  The ID of the way.
+     * @param way The way.
+     */
+    @Override
+    public void onWay(final long id, final Way way) {
+      this.ways.add(way);
+    }
+
+    /**
+     * Receive a relation.
+     *
+     * @param id        The ID of the relation.
+     * @param relation  The relation.
+     */
+    @Override
+    public void onRelation(final long id, final Relation relation) {
+      this.relations.add(relation);
+    }
+
+    /**
+     * Receive an address.
+     *
+     * @param address The address.
+     */
+    @Override
+    public void onAddress(final Address address) {
+      this.addresses.add(address);
+    }
+
+    /**
+     * Receive a land polygon.
+     *
+     * @param land The land polygon.
+     */
+    @Override
+    public void onLand(final Way land) {
+      this.land.add(land);
+    }
+  }
 }
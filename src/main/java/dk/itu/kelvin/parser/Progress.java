@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Locale;
+
+// Concurrency utilities
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Import progress class.
+ *
+ * <p>
+ * The progress of a {@link Parser} tells how far along the parser is with
+ * reading a file and where the time has gone so far. It's updated by the
+ * parser while parsing and can be read from any thread at any time, both for
+ * showing progress to the user and for tracking down performance regressions
+ * in headless runs.
+ *
+ * <p>
+ * The time spent in each {@link Phase} is measured per thread and summed
+ * across all threads taking part in the parsing. Phases never overlap on a
+ * single thread; when a phase is entered from within another, such as when
+ * elements are stored while decoding, the time is attributed to the innermost
+ * phase only. As phases may run on several threads at once, the sum of the
+ * phase times may exceed the elapsed time.
+ */
+public final class Progress {
+  /**
+   * The number of nanoseconds in a second.
+   */
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  /**
+   * The total number of bytes to consume, or 0 if unknown.
+   */
+  private volatile long total;
+
+  /**
+   * The number of bytes consumed so far.
+   */
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * The number of parsed elements of each type.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(
+    Filter.Type.values().length
+  );
+
+  /**
+   * The number of nanoseconds spent in each phase.
+   */
+  private final AtomicLongArray nanos = new AtomicLongArray(
+    Phase.values().length
+  );
+
+  /**
+   * The phase clock of each thread taking part in the parsing.
+   */
+  private final ThreadLocal<Clock> clocks = ThreadLocal.withInitial(() -> {
+    return new Clock();
+  });
+
+  /**
+   * The time at which the parsing started, in nanoseconds.
+   */
+  private volatile long started;
+
+  /**
+   * The time at which the parsing finished, in nanoseconds, or 0 if it hasn't
+   * finished yet.
+   */
+  private volatile long finished;
+
+  /**
+   * Get the total number of bytes to consume.
+   *
+   * @return The total number of bytes to consume or 0 if unknown.
+   */
+  public long total() {
+    return this.total;
+  }
+
+  /**
+   * Get the number of bytes consumed so far.
+   *
+   * @return The number of bytes consumed so far.
+   */
+  public long bytes() {
+    return this.bytes.get();
+  }
+
+  /**
+   * Get the fraction of the input consumed so far.
+   *
+   * @return The fraction of the input consumed so far, between 0 and 1, or -1
+   *         if the total size of the input is unknown.
+   */
+  public double fraction() {
+    if (this.finished != 0) {
+      return 1;
+    }
+
+    if (this.total <= 0) {
+      return -1;
+    }
+
+    return Math.min(1, (double) this.bytes.get() / this.total);
+  }
+
+  /**
+   * Get the number of parsed elements of the specified type.
+   *
+   * <p>
+   * Addresses are counted as nodes.
+   *
+   * @param type  The type of elements.
+   * @return      The number of parsed elements of the type.
+   */
+  public long count(final Filter.Type type) {
+    return this.counts.get(type.ordinal());
+  }
+
+  /**
+   * Get the number of parsed elements of the specified type per second of
+   * elapsed time.
+   *
+   * @param type  The type of elements.
+   * @return      The number of parsed elements of the type per second.
+   */
+  public double rate(final Filter.Type type) {
+    long elapsed = this.elapsed();
+
+    if (elapsed <= 0) {
+      return 0;
+    }
+
+    return this.count(type) * NANOS_PER_SECOND / elapsed;
+  }
+
+  /**
+   * Get the number of nanoseconds spent in the specified phase.
+   *
+   * @param phase The phase.
+   * @return      The number of nanoseconds spent in the phase, summed across
+   *              all threads.
+   */
+  public long time(final Phase phase) {
+    return this.nanos.get(phase.ordinal());
+  }
+
+  /**
+   * Get the number of nanoseconds elapsed since the parsing started.
+   *
+   * @return The number of nanoseconds elapsed since the parsing started, up
+   *         until it finished.
+   */
+  public long elapsed() {
+    long started = this.started;
+
+    if (started == 0) {
+      return 0;
+    }
+
+    long finished = this.finished;
+
+    return (finished != 0 ? finished : System.nanoTime()) - started;
+  }
+
+  /**
+   * Check if the parsing has finished.
+   *
+   * @return A boolean indicating whether or not the parsing has finished.
+   */
+  public boolean done() {
+    return this.finished != 0;
+  }
+
+  /**
+   * Get a human-readable report of the progress.
+   *
+   * @return A human-readable report of the progress.
+   */
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+
+    report.append(String.format(Locale.ROOT,
+      "%.1f s, %d of %d bytes",
+      this.elapsed() / NANOS_PER_SECOND, this.bytes(), this.total()
+    ));
+
+    for (Filter.Type type: Filter.Type.values()) {
+      report.append(String.format(Locale.ROOT,
+        ", %d %s (%.0f/s)",
+        this.count(type), type.toString().toLowerCase(), this.rate(type)
+      ));
+    }
+
+    for (Phase phase: Phase.values()) {
+      report.append(String.format(Locale.ROOT,
+        ", %s %.1f s",
+        phase.toString().toLowerCase(), this.time(phase) / NANOS_PER_SECOND
+      ));
+    }
+
+    return report.toString();
+  }
+
+  /**
+   * Mark the start of the parsing.
+   *
+   * @param total The total number of bytes to consume or 0 if unknown.
+   */
+  void start(final long total) {
+    this.total = total;
+    this.started = System.nanoTime();
+  }
+
+  /**
+   * Set the total number of bytes to consume.
+   *
+   * <p>
+   * Parsers that make several passes over a file use this to account for
+   * consuming the file more than once.
+   *
+   * @param total The total number of bytes to consume.
+   */
+  void total(final long total) {
+    this.total = total;
+  }
+
+  /**
+   * Mark the end of the parsing.
+   */
+  void finish() {
+    this.finished = System.nanoTime();
+  }
+
+  /**
+   * Record the consumption of a number of bytes.
+   *
+   * @param bytes The number of bytes consumed.
+   */
+  void consume(final long bytes) {
+    this.bytes.addAndGet(bytes);
+  }
+
+  /**
+   * Record the parsing of an element of the specified type.
+   *
+   * @param type The type of the parsed element.
+   */
+  void increment(final Filter.Type type) {
+    this.counts.incrementAndGet(type.ordinal());
+  }
+
+  /**
+   * Switch the current thread over to the specified phase.
+   *
+   * <p>
+   * The time since the last switch on the current thread is attributed to the
+   * phase that the thread was in. Callers entering a phase temporarily must
+   * switch back to the returned phase when done.
+   *
+   * @param phase The phase to enter, or {@code null} to stop timing the
+   *              current thread.
+   * @return      The phase that the current thread was in, or {@code null} if
+   *              it wasn't being timed.
+   */
+  Phase enter(final Phase phase) {
+    Clock clock = this.clocks.get();
+    long now = System.nanoTime();
+
+    Phase previous = clock.phase;
+
+    if (previous != null) {
+      this.nanos.addAndGet(previous.ordinal(), now - clock.since);
+    }
+
+    clock.phase = phase;
+    clock.since = now;
+
+    return previous;
+  }
+
+  /**
+   * The {@link Phase} enumerator describes a phase of parsing.
+   */
+  public enum Phase {
+    /**
+     * Reading raw bytes from the file.
+     */
+    READ,
+
+    /**
+     * Decompressing the contents of the file.
+     */
+    INFLATE,
+
+    /**
+     * Decoding the contents of the file into elements.
+     */
+    DECODE,
+
+    /**
+     * Resolving the members of relations.
+     */
+    ASSEMBLE,
+
+    /**
+     * Merging coastlines into land polygons.
+     */
+    LAND,
+
+    /**
+     * Handing off parsed elements to the sink of the parser, typically for
+     * inserting them into a store.
+     */
+    STORE;
+  }
+
+  /**
+   * The {@link Clock} class describes the phase of a single thread.
+   */
+  private static final class Clock {
+    /**
+     * The current phase of the thread.
+     */
+    private Phase phase;
+
+    /**
+     * The time at which the thread entered its current phase, in nanoseconds.
+     */
+    private long since;
+  }
+}
@@ -5,15 +5,16 @@ package dk.itu.kelvin.parser;
 
 // General utilities
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 // I/O utilities
 import java.io.File;
+import java.io.InputStream;
 
 // SAX utilities
-import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
 // SAX helpers
@@ -22,6 +23,10 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 // Fast utils
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateTable;
 
 // Math
 import dk.itu.kelvin.math.Projection;
@@ -38,6 +43,19 @@ import dk.itu.kelvin.model.Way;
 
 /**
  * XML parser class.
+ *
+ * <p>
+ * The parser comes with two engines: a dedicated byte-level scanner for the
+ * subset of XML used by OSM files, which is the default, and a general purpose
+ * SAX parser. Both engines drive the same element handlers and produce the
+ * same results.
+ *
+ * <p>
+ * Besides regular OSM files, the parser reads OsmChange files, in which
+ * elements are wrapped in {@code create}, {@code modify} and {@code delete}
+ * blocks. Deleted elements are passed on to {@link Sink#onDelete}, as are
+ * modified elements before being passed on anew, and references to elements
+ * that aren't contained within the file are resolved by the sink.
  */
 public final class XMLParser extends Parser {
   /**
@@ -45,6 +63,11 @@ public final class XMLParser extends Parser {
    */
   private final Projection projection = new Mercator();
 
+  /**
+   * Whether or not to use the SAX engine rather than the byte-level scanner.
+   */
+  private boolean sax;
+
   /**
    * Bounding box.
    */
@@ -56,29 +79,63 @@ public final class XMLParser extends Parser {
   private Land land;
 
   /**
-   * The parsed nodes mapped to their IDs.
+   * The coordinates of all parsed nodes mapped to their IDs.
+   *
+   * <p>
+   * The vast majority of nodes carry no tags and only exist to give shape to
+   * ways. Rather than allocating an object for each of them, their coordinates
+   * are kept in a primitive table for the duration of the parsing and nodes
+   * are only materialized when referenced by a way.
+   */
+  private CoordinateTable locations;
+
+  /**
+   * The parsed tagged nodes mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Node> nodes = new Long2ObjectOpenHashMap<>();
 
   /**
-   * The parsed ways mapped to their IDs.
+   * The parsed ways mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Way> ways = new Long2ObjectOpenHashMap<>();
 
   /**
-   * The parsed relations mapped to their IDs.
+   * The parsed relations mapped to their IDs, for resolving the members of
+   * relations.
    */
   private Map<Long, Relation> relations = new Long2ObjectOpenHashMap<>();
 
   /**
-   * Store addresses.
+   * The parsed relations along with references to their members, which are
+   * resolved once all elements have been parsed.
+   */
+  private MemberTable members;
+
+  /**
+   * The kind of change of the currently active block of an OsmChange file,
+   * being {@code "create"}, {@code "modify"} or {@code "delete"}, or
+   * {@code null} outside of such blocks.
+   */
+  private String change;
+
+  /**
+   * The type of the currently active element or {@code null} if no element is
+   * active.
+   *
+   * <p>
+   * The element object itself is only allocated once the closing tag of the
+   * element is reached and the element has been run through the filter. Until
+   * then, its contents are collected in the buffers below.
    */
-  private List<Address> addresses = new ArrayList<>();
+  private Filter.Type type;
 
   /**
-   * The currently active element.
+   * Whether or not the currently active element has been accepted by the
+   * filter so far.
    */
-  private Element element;
+  private boolean accepted;
 
   /**
    * The currently active element ID.
@@ -91,72 +148,269 @@ public final class XMLParser extends Parser {
   private Address address;
 
   /**
-   * Get the parsed bounds.
+   * The x-coordinate of the currently active node.
+   */
+  private float nodeX;
+
+  /**
+   * The y-coordinate of the currently active node.
+   */
+  private float nodeY;
+
+  /**
+   * The tag keys of the currently active element.
+   */
+  private String[] keys = new String[8];
+
+  /**
+   * The tag values of the currently active element.
+   */
+  private String[] values = new String[8];
+
+  /**
+   * The number of tags of the currently active element.
+   */
+  private int tags;
+
+  /**
+   * The node references of the currently active way or the member references
+   * of the currently active relation.
+   */
+  private LongArrayList refs = new LongArrayList();
+
+  /**
+   * The types of the members of the currently active relation.
+   */
+  private List<Filter.Type> types = new ArrayList<>();
+
+  /**
+   * The roles of the members of the currently active relation.
+   */
+  private List<String> roles = new ArrayList<>();
+
+  /**
+   * Set whether or not to use the general purpose SAX engine rather than the
+   * byte-level scanner.
+   *
+   * <p>
+   * The SAX engine handles any well-formed XML document, whereas the scanner
+   * only handles the subset of XML used by OSM files, but does so several
+   * times faster.
    *
-   * @return The parsed bounds.
+   * @param sax A boolean indicating whether or not to use the SAX engine.
    */
-  public BoundingBox bounds() {
-    return this.bounds;
+  public void sax(final boolean sax) {
+    this.sax = sax;
   }
 
   /**
-   * Get the parsed land polygons.
+   * Read and parse an OSM XML file.
    *
-   * @return The parsed land polygons.
+   * @param file The path to the file to parse.
+   *
+   * @throws Exception In case of an exception during parsing.
    */
-  public Collection<Way> land() {
-    return this.land.coastlines();
+  protected void parse(final File file) throws Exception {
+    this.locations = new CoordinateTable(this.offHeap());
+    this.members = new MemberTable();
+
+    try {
+      if (this.sax) {
+        XMLReader reader = XMLReaderFactory.createXMLReader();
+
+        reader.setContentHandler(new ContentHandler());
+
+        try (InputStream input = this.open(file)) {
+          reader.parse(new InputSource(input));
+        }
+      }
+      else {
+        this.scan(file);
+      }
+
+      // Relations may reference elements anywhere in the file and so can
+      // only be assembled once all elements have been parsed.
+      this.emit(this.members, (type, id) -> this.member(type, id));
+
+      // The land polygons can only be constructed once all coastlines have
+      // been parsed.
+      this.emit(this.land);
+
+      this.sink().onLocations(this.locations);
+    }
+    finally {
+      // The coordinates and members are only needed while parsing; let GC do
+      // its work.
+      this.locations = null;
+      this.members = null;
+    }
   }
 
   /**
-   * Get the parsed node elements.
+   * Scan an OSM XML file using the byte-level scanner.
    *
-   * @return The parsed node elements.
-   */
-  public Collection<Node> nodes() {
-    return this.nodes.values();
+   * @param file The file to scan.
+   *
+   * @throws Exception In case of an exception during scanning.
+   */
+  private void scan(final File file) throws Exception {
+    // https://docs.oracle.com/javase/tutorial/essential/exceptions/
+    // tryResourceClose.html
+    try (XMLScanner scanner = new XMLScanner(this.open(file))) {
+      while (scanner.next()) {
+        String name = scanner.name();
+
+        if (name == null) {
+          continue;
+        }
+
+        if (!scanner.closing()) {
+          this.startElement(name, scanner);
+        }
+
+        // Self-closing tags are both opened and closed.
+        if (scanner.closing() || scanner.empty()) {
+          this.endElement(name);
+        }
+      }
+    }
   }
 
   /**
-   * Get the parsed way elements.
+   * Parse an opening element.
    *
-   * @return The parsed way elements.
+   * @param name        The name of the element.
+   * @param attributes  The attributes of the element.
    */
-  public Collection<Way> ways() {
-    return this.ways.values();
+  private void startElement(final String name, final Attributes attributes) {
+    this.checkCancelled();
+
+    switch (name) {
+      case "bounds":
+        this.startBounds(attributes);
+        break;
+
+      // Change blocks of OsmChange files.
+      case "create":
+      case "modify":
+      case "delete":
+        this.change = name;
+        break;
+
+      // Core elements. These can have elements within them so we also need
+      // to parse the closing tags.
+      case "node":
+        this.startNode(attributes);
+        break;
+      case "way":
+        this.startWay(attributes);
+        break;
+      case "relation":
+        this.startRelation(attributes);
+        break;
+
+      // Sub elements. These are always self-closing so we're only interested
+      // in the start tag.
+      case "tag":
+        this.startTag(attributes);
+        break;
+      case "nd":
+        this.startNd(attributes);
+        break;
+      case "member":
+        this.startMember(attributes);
+        break;
+
+      default:
+        return;
+    }
   }
 
   /**
-   * Get the parsed relation elements.
+   * Parse a closing element.
    *
-   * @return The parsed relation elements.
+   * @param name The name of the element.
    */
-  public Collection<Relation> relations() {
-    return this.relations.values();
+  private void endElement(final String name) {
+    switch (name) {
+      // Core elements. Parse the closing tags of the core elements.
+      case "node":
+        this.endNode();
+        this.clear();
+        break;
+      case "way":
+        this.endWay();
+        this.clear();
+        break;
+      case "relation":
+        this.endRelation();
+        this.clear();
+        break;
+      case "create":
+      case "modify":
+      case "delete":
+        this.change = null;
+        break;
+      default:
+        return;
+    }
   }
 
   /**
-   * Get the parsed addresses.
+   * Materialize the node with the specified ID from the table of parsed node
+   * coordinates.
    *
-   * @return The parsed addresses.
+   * @param id  The ID of the node to materialize.
+   * @return    The materialized node or {@code null} if no node with the
+   *            specified ID has been parsed or is known to the sink.
    */
-  public Collection<Address> addresses() {
-    return this.addresses;
+  private Node node(final long id) {
+    int i = this.locations.find(id);
+
+    if (i < 0) {
+      Element node = this.sink().resolve(Filter.Type.NODE, id);
+
+      return (node instanceof Node) ? (Node) node : null;
+    }
+
+    return new Node(this.locations.x(i), this.locations.y(i));
   }
 
   /**
-   * Read and parse an OSM XML file.
+   * Look up a parsed element referenced by a member of a relation.
    *
-   * @param file The path to the file to parse.
-   *
-   * @throws Exception In case of an exception during parsing.
+   * @param type  The type of the element.
+   * @param id    The ID of the element.
+   * @return      The element or {@code null} if no such element has been
+   *              parsed or is known to the sink.
    */
-  protected void parse(final File file) throws Exception {
-    XMLReader reader = XMLReaderFactory.createXMLReader();
+  private Element member(final Filter.Type type, final long id) {
+    Element element;
+
+    switch (type) {
+      case NODE:
+        element = this.nodes.get(id);
+
+        if (element == null) {
+          element = this.node(id);
+        }
+
+        return element;
+      case WAY:
+        element = this.ways.get(id);
+        break;
+      case RELATION:
+        element = this.relations.get(id);
+        break;
+      default:
+        return null;
+    }
 
-    reader.setContentHandler(new ContentHandler());
+    if (element == null) {
+      element = this.sink().resolve(type, id);
+    }
 
-    reader.parse(file.toURI().toURL().toExternalForm());
+    return element;
   }
 
   /**
@@ -168,7 +422,7 @@ public final class XMLParser extends Parser {
    * @return            The value if found, otherwise null.
    */
   private String getString(final Attributes attributes, final String value) {
-    return attributes.getValue(value);
+    return attributes.getString(value);
   }
 
   /**
@@ -180,7 +434,7 @@ public final class XMLParser extends Parser {
    * @return            The value if found, otherwise null.
    */
   private int getInteger(final Attributes attributes, final String value) {
-    return Integer.parseInt(attributes.getValue(value));
+    return (int) attributes.getLong(value);
   }
 
   /**
@@ -192,7 +446,7 @@ public final class XMLParser extends Parser {
    * @return            The value if found, otherwise null.
    */
   private long getLong(final Attributes attributes, final String value) {
-    return Long.parseLong(attributes.getValue(value));
+    return attributes.getLong(value);
   }
 
   /**
@@ -204,7 +458,7 @@ public final class XMLParser extends Parser {
    * @return            The value if found, otherwise null.
    */
   private float getFloat(final Attributes attributes, final String value) {
-    return Float.parseFloat(attributes.getValue(value));
+    return (float) attributes.getDouble(value);
   }
 
   /**
@@ -216,16 +470,115 @@ public final class XMLParser extends Parser {
    * @return            The value if found, otherwise null.
    */
   private double getDouble(final Attributes attributes, final String value) {
-    return Double.parseDouble(attributes.getValue(value));
+    return attributes.getDouble(value);
   }
 
   /**
    * Clean up after ending an element.
    */
   private void clear() {
-    this.element = null;
+    this.type = null;
+    this.accepted = false;
     this.elementId = 0L;
     this.address = null;
+    this.tags = 0;
+    this.refs.clear();
+    this.types.clear();
+    this.roles.clear();
+  }
+
+  /**
+   * Start an element of the specified type.
+   *
+   * @param type        The type of the element.
+   * @param attributes  Element attributes.
+   */
+  private void start(final Filter.Type type, final Attributes attributes) {
+    this.type = type;
+    this.accepted = this.filter().accepts(type);
+    this.elementId = this.getLong(attributes, "id");
+  }
+
+  /**
+   * Pass on the deletion of the active element to the sink if it's being
+   * deleted or modified by an OsmChange file.
+   *
+   * @return A boolean indicating whether or not the active element has been
+   *         deleted and shouldn't be processed any further.
+   */
+  private boolean deleted() {
+    if (this.change == null || this.change.equals("create")) {
+      return false;
+    }
+
+    this.sink().onDelete(this.type, this.elementId);
+
+    return this.change.equals("delete");
+  }
+
+  /**
+   * Check if the active element is tagged as a coastline.
+   *
+   * @return A boolean indicating whether or not the active element is tagged
+   *         as a coastline.
+   */
+  private boolean coastline() {
+    for (int i = 0; i < this.tags; i++) {
+      if (
+        this.keys[i].equals("natural")
+        && this.values[i].equals("coastline")
+      ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Add the tags of the active element to the specified element.
+   *
+   * @param element The element to add the tags to.
+   */
+  private void tag(final Element element) {
+    for (int i = 0; i < this.tags; i++) {
+      element.tag(this.keys[i], this.values[i]);
+    }
+  }
+
+  /**
+   * Check if the bounding box of the filter intersects the node references of
+   * the active way.
+   *
+   * @return A boolean indicating whether or not the bounding box of the filter
+   *         intersects the node references of the active way.
+   */
+  private boolean intersects() {
+    Filter filter = this.filter();
+
+    if (!filter.bounded()) {
+      return true;
+    }
+
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+
+    for (int i = 0; i < this.refs.size(); i++) {
+      int j = this.locations.find(this.refs.getLong(i));
+
+      if (j < 0) {
+        continue;
+      }
+
+      minX = Math.min(minX, this.locations.x(j));
+      minY = Math.min(minY, this.locations.y(j));
+      maxX = Math.max(maxX, this.locations.x(j));
+      maxY = Math.max(maxY, this.locations.y(j));
+    }
+
+    return minX <= maxX && filter.intersects(minX, minY, maxX, maxY);
   }
 
   /**
@@ -234,14 +587,16 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   private void startBounds(final Attributes attributes) {
-    this.bounds = new BoundingBox(
+    this.bounds = this.filter().clip(new BoundingBox(
       (float) this.projection.lonToX(this.getDouble(attributes, "minlon")),
       (float) this.projection.latToY(this.getDouble(attributes, "maxlat")),
       (float) this.projection.lonToX(this.getDouble(attributes, "maxlon")),
       (float) this.projection.latToY(this.getDouble(attributes, "minlat"))
-    );
+    ));
 
     this.land = new Land(this.bounds);
+
+    this.sink().onBounds(this.bounds);
   }
 
   /**
@@ -250,32 +605,52 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   private void startNode(final Attributes attributes) {
-    this.element = new Node(
-      (float) this.projection.lonToX(this.getDouble(attributes, "lon")),
-      (float) this.projection.latToY(this.getDouble(attributes, "lat"))
+    this.start(Filter.Type.NODE, attributes);
+
+    // Deleted nodes needn't carry coordinates.
+    if ("delete".equals(this.change)) {
+      return;
+    }
+
+    this.nodeX = (float) this.projection.lonToX(
+      this.getDouble(attributes, "lon")
+    );
+    this.nodeY = (float) this.projection.latToY(
+      this.getDouble(attributes, "lat")
     );
 
-    this.elementId = this.getLong(attributes, "id");
+    this.accepted &= this.filter().contains(this.nodeX, this.nodeY);
   }
 
   /**
    * End a node element.
    */
   private void endNode() {
-    if (this.element == null || !(this.element instanceof Node)) {
+    if (this.type != Filter.Type.NODE || this.deleted()) {
       return;
     }
 
-    Node node = (Node) this.element;
+    // The coordinates of all nodes are kept, whether accepted or not, as they
+    // may be referenced by accepted ways.
+    this.locations.put(this.elementId, this.nodeX, this.nodeY);
+
+    if (!this.accepted) {
+      return;
+    }
 
     if (this.address != null) {
-      this.address.x(node.x());
-      this.address.y(node.y());
+      this.address.x(this.nodeX);
+      this.address.y(this.nodeY);
 
-      this.addresses.add(this.address);
+      this.sink().onAddress(this.elementId, this.address);
     }
-    else {
+    else if (this.tags > 0 && this.filter().accepts(this.keys, this.tags)) {
+      Node node = new Node(this.nodeX, this.nodeY);
+
+      this.tag(node);
+
       this.nodes.put(this.elementId, node);
+      this.sink().onNode(this.elementId, node);
     }
   }
 
@@ -285,23 +660,51 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   private void startWay(final Attributes attributes) {
-    this.element = new Way();
-    this.elementId = this.getLong(attributes, "id");
+    this.start(Filter.Type.WAY, attributes);
   }
 
   /**
    * End a way element.
    */
   private void endWay() {
-    if (this.element == null || !(this.element instanceof Way)) {
+    if (this.type != Filter.Type.WAY || this.deleted() || !this.accepted) {
+      return;
+    }
+
+    boolean coastline = this.coastline();
+
+    // Coastlines are exempt from the tags and bounds of the filter as they're
+    // needed in full for the land polygons.
+    if (
+      !coastline
+      && !(this.filter().accepts(this.keys, this.tags) && this.intersects())
+    ) {
       return;
     }
 
-    Way way = (Way) this.element;
+    Way way = new Way();
+
+    this.tag(way);
+
+    for (int i = 0; i < this.refs.size(); i++) {
+      Node node = this.node(this.refs.getLong(i));
+
+      if (node == null) {
+        continue;
+      }
+
+      way.add(node);
+    }
 
     ((ArrayList) way.nodes()).trimToSize();
 
+    // Change files carry no bounds and so no land.
+    if (coastline && this.land != null) {
+      this.land.add(way);
+    }
+
     this.ways.put(this.elementId, way);
+    this.sink().onWay(this.elementId, way);
   }
 
   /**
@@ -310,19 +713,37 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   public void startRelation(final Attributes attributes) {
-    this.element = new Relation();
-    this.elementId = this.getLong(attributes, "id");
+    this.start(Filter.Type.RELATION, attributes);
   }
 
   /**
    * End a relation element.
    */
   public void endRelation() {
-    if (this.element == null || !(this.element instanceof Relation)) {
+    if (
+      this.type != Filter.Type.RELATION
+      || this.deleted()
+      || !this.accepted
+    ) {
+      return;
+    }
+
+    if (!this.filter().accepts(this.keys, this.tags)) {
       return;
     }
 
-    this.relations.put(this.elementId, (Relation) this.element);
+    Relation relation = new Relation();
+
+    this.tag(relation);
+
+    this.relations.put(this.elementId, relation);
+    this.members.add(this.elementId, relation);
+
+    for (int i = 0; i < this.refs.size(); i++) {
+      this.members.add(
+        this.types.get(i), this.refs.getLong(i), this.roles.get(i)
+      );
+    }
   }
 
   /**
@@ -331,22 +752,21 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   private void startTag(final Attributes attributes) {
-    if (this.element == null) {
+    if (this.type == null || !this.accepted) {
       return;
     }
 
     String k = this.getString(attributes, "k");
     String v = this.getString(attributes, "v");
 
-    if (k.startsWith("addr:") && this.address == null) {
-      this.address = new Address();
-    }
-
-    if (this.element instanceof Way) {
-      Way way = (Way) this.element;
+    if (k.startsWith("addr:")) {
+      // Only nodes are turned into addresses.
+      if (this.type != Filter.Type.NODE) {
+        return;
+      }
 
-      if (v.equals("coastline")) {
-        this.land.add(way);
+      if (this.address == null) {
+        this.address = new Address();
       }
     }
 
@@ -365,7 +785,18 @@ public final class XMLParser extends Parser {
         break;
 
       default:
-        this.element.tag(k, v);
+        if (k.startsWith("addr:")) {
+          break;
+        }
+
+        if (this.tags == this.keys.length) {
+          this.keys = Arrays.copyOf(this.keys, 2 * this.tags);
+          this.values = Arrays.copyOf(this.values, 2 * this.tags);
+        }
+
+        this.keys[this.tags] = k;
+        this.values[this.tags] = v;
+        this.tags++;
     }
   }
 
@@ -375,17 +806,11 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   private void startNd(final Attributes attributes) {
-    if (this.element == null || !(this.element instanceof Way)) {
-      return;
-    }
-
-    Node node = this.nodes.get(this.getLong(attributes, "ref"));
-
-    if (node == null) {
+    if (this.type != Filter.Type.WAY || !this.accepted) {
       return;
     }
 
-    ((Way) this.element).add(node);
+    this.refs.add(this.getLong(attributes, "ref"));
   }
 
   /**
@@ -394,38 +819,70 @@ public final class XMLParser extends Parser {
    * @param attributes Element attributes.
    */
   public void startMember(final Attributes attributes) {
-    if (this.element == null || !(this.element instanceof Relation)) {
+    if (this.type != Filter.Type.RELATION || !this.accepted) {
       return;
     }
 
-    Relation relation = (Relation) this.element;
-
-    // Get the reference ID of the member.
-    long ref = this.getLong(attributes, "ref");
-
-    Element element;
+    Filter.Type type;
 
     switch (this.getString(attributes, "type")) {
       case "node":
-        element = this.nodes.get(ref);
+        type = Filter.Type.NODE;
         break;
       case "way":
-        element = this.ways.get(ref);
+        type = Filter.Type.WAY;
         break;
       case "relation":
-        element = this.relations.get(ref);
+        type = Filter.Type.RELATION;
         break;
       default:
         return;
     }
 
-    if (element == null) {
-      return;
-    }
+    // Members are resolved once all elements have been parsed; until then,
+    // only their references are kept.
+    this.refs.add(this.getLong(attributes, "ref"));
+    this.types.add(type);
+    this.roles.add(this.getString(attributes, "role"));
+  }
+
+  /**
+   * The {@link Attributes} interface describes the attributes of an element
+   * as seen by the element handlers of the parser, independently of the
+   * engine used for parsing.
+   */
+  interface Attributes {
+    /**
+     * Look up an attribute by name and return it as a string.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute or {@code null} if not found.
+     */
+    String getString(final String name);
 
-    element.tag("role", this.getString(attributes, "role"));
+    /**
+     * Look up an attribute by name and return it as a long.
+     *
+     * <p>
+     * A {@link NumberFormatException} is thrown if the attribute is missing or
+     * isn't a valid long.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute.
+     */
+    long getLong(final String name);
 
-    relation.add(element);
+    /**
+     * Look up an attribute by name and return it as a double.
+     *
+     * <p>
+     * A {@link NumberFormatException} is thrown if the attribute is missing or
+     * isn't a valid double.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute.
+     */
+    double getDouble(final String name);
   }
 
   /**
@@ -435,7 +892,12 @@ public final class XMLParser extends Parser {
    * This class is simply a proxy between the SAX parser and the XMLParser
    * instance.
    */
-  private class ContentHandler extends DefaultHandler {
+  private class ContentHandler extends DefaultHandler implements Attributes {
+    /**
+     * The SAX attributes of the current element.
+     */
+    private org.xml.sax.Attributes attributes;
+
     /**
      * Parse an opening element of an OSM XML stream.
      *
@@ -454,40 +916,11 @@ public final class XMLParser extends Parser {
       final String uri,
       final String localName,
       final String qName,
-      final Attributes attributes
+      final org.xml.sax.Attributes attributes
     ) {
-      switch (qName.toLowerCase()) {
-        case "bounds":
-          XMLParser.this.startBounds(attributes);
-          break;
+      this.attributes = attributes;
 
-        // Core elements. These can have elements within them so we also need
-        // to parse the closing tags.
-        case "node":
-          XMLParser.this.startNode(attributes);
-          break;
-        case "way":
-          XMLParser.this.startWay(attributes);
-          break;
-        case "relation":
-          XMLParser.this.startRelation(attributes);
-          break;
-
-        // Sub elements. These are always self-closing so we're only interested
-        // in the start tag.
-        case "tag":
-          XMLParser.this.startTag(attributes);
-          break;
-        case "nd":
-          XMLParser.this.startNd(attributes);
-          break;
-        case "member":
-          XMLParser.this.startMember(attributes);
-          break;
-
-        default:
-          return;
-      }
+      XMLParser.this.startElement(qName.toLowerCase(), this);
     }
 
     /**
@@ -507,23 +940,43 @@ public final class XMLParser extends Parser {
       final String localName,
       final String qName
     ) {
-      switch (qName.toLowerCase()) {
-        // Core elements. Parse the closing tags of the core elements.
-        case "node":
-          XMLParser.this.endNode();
-          XMLParser.this.clear();
-          break;
-        case "way":
-          XMLParser.this.endWay();
-          XMLParser.this.clear();
-          break;
-        case "relation":
-          XMLParser.this.endRelation();
-          XMLParser.this.clear();
-          break;
-        default:
-          return;
-      }
+      XMLParser.this.endElement(qName.toLowerCase());
+    }
+
+    /**
+     * Look up an attribute of the current element by name and return it as a
+     * string.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute or {@code null} if not found.
+     */
+    @Override
+    public String getString(final String name) {
+      return this.attributes.getValue(name);
+    }
+
+    /**
+     * Look up an attribute of the current element by name and return it as a
+     * long.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute.
+     */
+    @Override
+    public long getLong(final String name) {
+      return Long.parseLong(this.attributes.getValue(name));
+    }
+
+    /**
+     * Look up an attribute of the current element by name and return it as a
+     * double.
+     *
+     * @param name  The name of the attribute.
+     * @return      The value of the attribute.
+     */
+    @Override
+    public double getDouble(final String name) {
+      return Double.parseDouble(this.attributes.getValue(name));
     }
   }
 }
@@ -0,0 +1,819 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Arrays;
+
+// I/O utilities
+import java.io.IOException;
+import java.io.InputStream;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+/**
+ * XML scanner class.
+ *
+ * <p>
+ * The XML scanner is a streaming tokenizer for the subset of XML used by OSM
+ * files. It works directly on the raw bytes of the input and only recognizes
+ * the elements that the {@link XMLParser} is interested in. Attribute values
+ * are located in place and numeric values are parsed straight from the bytes,
+ * so no strings are allocated except for attributes that are explicitly
+ * requested as strings.
+ *
+ * <p>
+ * The scanner skips comments, processing instructions, document type
+ * declarations and character data, none of which carry information in OSM
+ * files. It assumes that the input is UTF-8 encoded, which OSM files are.
+ */
+final class XMLScanner implements XMLParser.Attributes, AutoCloseable {
+  /**
+   * The initial size of the input buffer.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The names of the elements recognized by the scanner.
+   */
+  private static final String[] NAMES = {
+    "bounds", "node", "way", "relation", "tag", "nd", "member",
+    "create", "modify", "delete"
+  };
+
+  /**
+   * The largest mantissa that can be represented exactly by a double.
+   */
+  private static final long MAX_MANTISSA = 1L << 53;
+
+  /**
+   * Exact powers of ten that can be represented by a double.
+   */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+    1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * The input stream to scan.
+   */
+  private final InputStream input;
+
+  /**
+   * The input buffer.
+   */
+  private byte[] buffer = new byte[BUFFER_SIZE];
+
+  /**
+   * The position of the next unscanned byte in the input buffer.
+   */
+  private int position;
+
+  /**
+   * The number of valid bytes in the input buffer.
+   */
+  private int limit;
+
+  /**
+   * Whether or not the end of the input stream has been reached.
+   */
+  private boolean eof;
+
+  /**
+   * The name of the current element or {@code null} if the current element
+   * isn't recognized by the scanner.
+   */
+  private String name;
+
+  /**
+   * Whether or not the current tag is a closing tag.
+   */
+  private boolean closing;
+
+  /**
+   * Whether or not the current tag is a self-closing tag.
+   */
+  private boolean empty;
+
+  /**
+   * The start and end offsets of the attribute names and values of the
+   * current tag, four offsets per attribute.
+   */
+  private int[] attributes = new int[32];
+
+  /**
+   * The number of attributes of the current tag.
+   */
+  private int count;
+
+  /**
+   * Scratch buffer used for decoding attribute values containing entities.
+   */
+  private byte[] scratch = new byte[256];
+
+  /**
+   * Initialize a new scanner.
+   *
+   * @param input The input stream to scan.
+   */
+  public XMLScanner(final InputStream input) {
+    this.input = input;
+  }
+
+  /**
+   * Advance to the next element tag of the input.
+   *
+   * @return A boolean indicating whether or not a tag was found.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int start = this.find('<', this.position);
+
+      if (start < 0) {
+        return false;
+      }
+
+      this.position = start;
+
+      int end = this.end();
+
+      if (end < 0) {
+        return false;
+      }
+
+      // The tag may have been moved by a refill.
+      start = this.position;
+
+      this.position = end + 1;
+
+      byte first = this.buffer[start + 1];
+
+      // Skip comments, processing instructions, declarations and character
+      // data.
+      if (first == '?' || first == '!') {
+        continue;
+      }
+
+      this.scan(start, end);
+
+      return true;
+    }
+  }
+
+  /**
+   * Get the name of the current element.
+   *
+   * @return The name of the current element or {@code null} if the element
+   *         isn't recognized by the scanner.
+   */
+  public String name() {
+    return this.name;
+  }
+
+  /**
+   * Check if the current tag is a closing tag.
+   *
+   * @return A boolean indicating whether or not the current tag is a closing
+   *         tag.
+   */
+  public boolean closing() {
+    return this.closing;
+  }
+
+  /**
+   * Check if the current tag is a self-closing tag.
+   *
+   * @return A boolean indicating whether or not the current tag is a
+   *         self-closing tag.
+   */
+  public boolean empty() {
+    return this.empty;
+  }
+
+  /**
+   * Look up an attribute of the current tag by name and return it as a string.
+   *
+   * @param name  The name of the attribute.
+   * @return      The value of the attribute or {@code null} if not found.
+   */
+  @Override
+  public String getString(final String name) {
+    int i = this.attribute(name);
+
+    if (i < 0) {
+      return null;
+    }
+
+    int start = this.attributes[i + 2];
+    int end = this.attributes[i + 3];
+
+    for (int j = start; j < end; j++) {
+      if (this.buffer[j] == '&') {
+        return this.decode(start, end);
+      }
+    }
+
+    return new String(this.buffer, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Look up an attribute of the current tag by name and return it as a long.
+   *
+   * @param name  The name of the attribute.
+   * @return      The value of the attribute.
+   */
+  @Override
+  public long getLong(final String name) {
+    int i = this.attribute(name);
+
+    if (i < 0) {
+      throw new NumberFormatException("Missing attribute: " + name);
+    }
+
+    int start = this.attributes[i + 2];
+    int end = this.attributes[i + 3];
+
+    boolean negative = start < end && this.buffer[start] == '-';
+
+    int j = negative ? start + 1 : start;
+
+    if (j == end || end - j > 18) {
+      return Long.parseLong(this.getString(name));
+    }
+
+    long value = 0;
+
+    for (; j < end; j++) {
+      int digit = this.buffer[j] - '0';
+
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(this.getString(name));
+      }
+
+      value = 10 * value + digit;
+    }
+
+    return negative ? -value : value;
+  }
+
+  /**
+   * Look up an attribute of the current tag by name and return it as a double.
+   *
+   * <p>
+   * Plain decimal numbers with no more than 15 significant digits, such as
+   * the coordinates found in OSM files, are parsed in place. Since both the
+   * digits and the power of ten are then exactly representable, a single
+   * division yields the correctly rounded result. Anything else is handed off
+   * to {@link Double#parseDouble(String)}.
+   *
+   * @param name  The name of the attribute.
+   * @return      The value of the attribute.
+   */
+  @Override
+  public double getDouble(final String name) {
+    int i = this.attribute(name);
+
+    if (i < 0) {
+      throw new NumberFormatException("Missing attribute: " + name);
+    }
+
+    int start = this.attributes[i + 2];
+    int end = this.attributes[i + 3];
+
+    boolean negative = start < end && this.buffer[start] == '-';
+
+    long mantissa = 0;
+    int decimals = -1;
+    int digits = 0;
+
+    for (int j = negative ? start + 1 : start; j < end; j++) {
+      byte b = this.buffer[j];
+
+      if (b == '.' && decimals < 0) {
+        decimals = 0;
+        continue;
+      }
+
+      if (b < '0' || b > '9' || mantissa > (MAX_MANTISSA - 9) / 10) {
+        return Double.parseDouble(this.getString(name));
+      }
+
+      mantissa = 10 * mantissa + (b - '0');
+      digits++;
+
+      if (decimals >= 0) {
+        decimals++;
+      }
+    }
+
+    if (digits == 0 || decimals >= POWERS_OF_TEN.length) {
+      return Double.parseDouble(this.getString(name));
+    }
+
+    double value = mantissa;
+
+    if (decimals > 0) {
+      value /= POWERS_OF_TEN[decimals];
+    }
+
+    return negative ? -value : value;
+  }
+
+  /**
+   * Close the scanner and the underlying input stream.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    this.input.close();
+  }
+
+  /**
+   * Find the next occurrence of a byte, reading more input as needed.
+   *
+   * @param b     The byte to look for.
+   * @param from  The position to start looking from.
+   * @return      The position of the byte or -1 if the end of the input was
+   *              reached first.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private int find(final char b, final int from) throws IOException {
+    int i = from;
+
+    while (true) {
+      for (; i < this.limit; i++) {
+        if (this.buffer[i] == b) {
+          return i;
+        }
+      }
+
+      // Nothing before the current position is needed anymore, so throw it
+      // away while refilling.
+      int shift = this.position;
+
+      if (!this.fill()) {
+        return -1;
+      }
+
+      i -= shift;
+    }
+  }
+
+  /**
+   * Find the end of the tag starting at the current position, reading more
+   * input as needed.
+   *
+   * <p>
+   * On return, the tag still starts at the current position of the scanner,
+   * which may however have moved if the buffer was compacted.
+   *
+   * @return The position of the closing angle bracket of the tag or -1 if the
+   *         end of the input was reached first.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private int end() throws IOException {
+    boolean more = true;
+
+    // Make sure that enough of the tag is buffered to tell what kind of tag it
+    // is.
+    while (more && this.limit - this.position < 9) {
+      more = this.fill();
+    }
+
+    int i = this.position + 1;
+
+    // Comments and character data may contain anything, including quotes and
+    // angle brackets, so they need to be terminated by their own markers.
+    if (this.starts(i, "!--")) {
+      return this.find("-->", i + 3);
+    }
+
+    if (this.starts(i, "![CDATA[")) {
+      return this.find("]]>", i + 8);
+    }
+
+    byte quote = 0;
+
+    while (true) {
+      for (; i < this.limit; i++) {
+        byte b = this.buffer[i];
+
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        }
+        else if (b == '"' || b == '\'') {
+          quote = b;
+        }
+        else if (b == '>') {
+          return i;
+        }
+      }
+
+      int shift = this.position;
+
+      if (!this.fill()) {
+        return -1;
+      }
+
+      i -= shift;
+    }
+  }
+
+  /**
+   * Find the end of a sequence terminated by the specified marker, reading
+   * more input as needed.
+   *
+   * @param marker  The marker terminating the sequence.
+   * @param from    The position to start looking from.
+   * @return        The position of the last byte of the marker or -1 if the
+   *                end of the input was reached first.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private int find(final String marker, final int from) throws IOException {
+    int i = from;
+
+    while (true) {
+      for (; i + marker.length() <= this.limit; i++) {
+        if (this.starts(i, marker)) {
+          return i + marker.length() - 1;
+        }
+      }
+
+      int shift = this.position;
+
+      if (!this.fill()) {
+        return -1;
+      }
+
+      i -= shift;
+    }
+  }
+
+  /**
+   * Check if the bytes at the specified position match an ASCII string.
+   *
+   * <p>
+   * Bytes beyond the current limit of the buffer never match.
+   *
+   * @param from    The position to start matching at.
+   * @param string  The string to match.
+   * @return        A boolean indicating whether or not the bytes match.
+   */
+  private boolean starts(final int from, final String string) {
+    if (from + string.length() > this.limit) {
+      return false;
+    }
+
+    for (int i = 0; i < string.length(); i++) {
+      if (this.buffer[from + i] != string.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Read more input into the buffer, discarding everything before the current
+   * position.
+   *
+   * @return A boolean indicating whether or not any input was read.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private boolean fill() throws IOException {
+    if (this.eof) {
+      return false;
+    }
+
+    int remaining = this.limit - this.position;
+
+    if (this.position == 0 && remaining == this.buffer.length) {
+      // A single tag spans the entire buffer; make room for it.
+      this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+    }
+    else {
+      System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+    }
+
+    this.position = 0;
+    this.limit = remaining;
+
+    int read = this.input.read(
+      this.buffer, this.limit, this.buffer.length - this.limit
+    );
+
+    if (read < 0) {
+      this.eof = true;
+      return false;
+    }
+
+    this.limit += read;
+
+    return true;
+  }
+
+  /**
+   * Scan the name and attributes of a tag.
+   *
+   * @param start The position of the opening angle bracket of the tag.
+   * @param end   The position of the closing angle bracket of the tag.
+   */
+  private void scan(final int start, final int end) {
+    int i = start + 1;
+
+    this.closing = this.buffer[i] == '/';
+
+    if (this.closing) {
+      i++;
+    }
+
+    int nameStart = i;
+
+    while (i < end && !this.whitespace(this.buffer[i])) {
+      if (this.buffer[i] == '/') {
+        break;
+      }
+
+      i++;
+    }
+
+    this.name = this.name(nameStart, i);
+    this.empty = this.buffer[end - 1] == '/';
+    this.count = 0;
+
+    // There's no need to look at the attributes of unrecognized or closing
+    // tags.
+    if (this.name == null || this.closing) {
+      return;
+    }
+
+    while (i < end) {
+      while (i < end && this.whitespace(this.buffer[i])) {
+        i++;
+      }
+
+      int keyStart = i;
+
+      while (i < end && this.buffer[i] != '=' && this.buffer[i] != '/') {
+        i++;
+      }
+
+      if (i >= end || this.buffer[i] != '=') {
+        break;
+      }
+
+      int keyEnd = i;
+
+      while (keyEnd > keyStart && this.whitespace(this.buffer[keyEnd - 1])) {
+        keyEnd--;
+      }
+
+      i++;
+
+      while (i < end && this.whitespace(this.buffer[i])) {
+        i++;
+      }
+
+      if (i >= end) {
+        break;
+      }
+
+      byte quote = this.buffer[i++];
+      int valueStart = i;
+
+      while (i < end && this.buffer[i] != quote) {
+        i++;
+      }
+
+      this.attribute(keyStart, keyEnd, valueStart, i);
+
+      i++;
+    }
+  }
+
+  /**
+   * Record the offsets of an attribute of the current tag.
+   *
+   * @param keyStart    The start of the attribute name.
+   * @param keyEnd      The end of the attribute name.
+   * @param valueStart  The start of the attribute value.
+   * @param valueEnd    The end of the attribute value.
+   */
+  private void attribute(
+    final int keyStart,
+    final int keyEnd,
+    final int valueStart,
+    final int valueEnd
+  ) {
+    int i = 4 * this.count;
+
+    if (i == this.attributes.length) {
+      this.attributes = Arrays.copyOf(this.attributes, 2 * i);
+    }
+
+    this.attributes[i] = keyStart;
+    this.attributes[i + 1] = keyEnd;
+    this.attributes[i + 2] = valueStart;
+    this.attributes[i + 3] = valueEnd;
+
+    this.count++;
+  }
+
+  /**
+   * Find an attribute of the current tag by name.
+   *
+   * @param name  The name of the attribute.
+   * @return      The offset of the attribute in the attribute table or -1 if
+   *              not found.
+   */
+  private int attribute(final String name) {
+    for (int i = 0; i < 4 * this.count; i += 4) {
+      int start = this.attributes[i];
+      int end = this.attributes[i + 1];
+
+      if (end - start == name.length() && this.starts(start, name)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Look up the name of a recognized element.
+   *
+   * @param start The start of the element name.
+   * @param end   The end of the element name.
+   * @return      The name of the element or {@code null} if the element isn't
+   *              recognized.
+   */
+  private String name(final int start, final int end) {
+    for (String name: NAMES) {
+      if (end - start == name.length() && this.starts(start, name)) {
+        return name;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Check if a byte is XML whitespace.
+   *
+   * @param b The byte to check.
+   * @return  A boolean indicating whether or not the byte is whitespace.
+   */
+  private boolean whitespace(final byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  /**
+   * Decode an attribute value containing entity references.
+   *
+   * @param start The start of the attribute value.
+   * @param end   The end of the attribute value.
+   * @return      The decoded attribute value.
+   */
+  private String decode(final int start, final int end) {
+    if (this.scratch.length < end - start) {
+      this.scratch = new byte[end - start];
+    }
+
+    int n = 0;
+
+    for (int i = start; i < end; i++) {
+      byte b = this.buffer[i];
+
+      int semicolon = b == '&' ? this.indexOf(';', i, end) : -1;
+
+      if (semicolon < 0) {
+        this.scratch[n++] = b;
+        continue;
+      }
+
+      int code = this.entity(i + 1, semicolon);
+
+      if (code < 0) {
+        this.scratch[n++] = b;
+        continue;
+      }
+
+      n = this.encode(code, n);
+      i = semicolon;
+    }
+
+    return new String(this.scratch, 0, n, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Find a byte within a range of the buffer.
+   *
+   * @param b     The byte to look for.
+   * @param start The start of the range.
+   * @param end   The end of the range.
+   * @return      The position of the byte or -1 if not found.
+   */
+  private int indexOf(final char b, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      if (this.buffer[i] == b) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Resolve an entity reference to a code point.
+   *
+   * @param start The start of the entity name, following the ampersand.
+   * @param end   The end of the entity name, at the semicolon.
+   * @return      The code point of the entity or -1 if unknown.
+   */
+  private int entity(final int start, final int end) {
+    if (this.buffer[start] == '#') {
+      boolean hex = start + 1 < end && this.buffer[start + 1] == 'x';
+      int code = 0;
+
+      for (int i = start + (hex ? 2 : 1); i < end; i++) {
+        int digit = Character.digit(this.buffer[i], hex ? 16 : 10);
+
+        if (digit < 0 || code > Character.MAX_CODE_POINT) {
+          return -1;
+        }
+
+        code = (hex ? 16 : 10) * code + digit;
+      }
+
+      return code <= Character.MAX_CODE_POINT ? code : -1;
+    }
+
+    String name = new String(
+      this.buffer, start, end - start, StandardCharsets.UTF_8
+    );
+
+    switch (name) {
+      case "amp":
+        return '&';
+      case "lt":
+        return '<';
+      case "gt":
+        return '>';
+      case "quot":
+        return '"';
+      case "apos":
+        return '\'';
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * UTF-8 encode a code point into the scratch buffer.
+   *
+   * <p>
+   * The encoded code point is never longer than the entity reference it
+   * replaces, so the scratch buffer never needs to grow.
+   *
+   * @param code  The code point to encode.
+   * @param n     The position in the scratch buffer to encode at.
+   * @return      The position in the scratch buffer following the encoded
+   *              code point.
+   */
+  private int encode(final int code, final int n) {
+    byte[] s = this.scratch;
+    int i = n;
+
+    if (code < 0x80) {
+      s[i++] = (byte) code;
+    }
+    else if (code < 0x800) {
+      s[i++] = (byte) (0xC0 | (code >> 6));
+      s[i++] = (byte) (0x80 | (code & 0x3F));
+    }
+    else if (code < 0x10000) {
+      s[i++] = (byte) (0xE0 | (code >> 12));
+      s[i++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+      s[i++] = (byte) (0x80 | (code & 0x3F));
+    }
+    else {
+      s[i++] = (byte) (0xF0 | (code >> 18));
+      s[i++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+      s[i++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+      s[i++] = (byte) (0x80 | (code & 0x3F));
+    }
+
+    return i;
+  }
+}
@@ -5,12 +5,20 @@ package dk.itu.kelvin.store;
 
 // General utilities
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Collections;
+import java.util.Set;
+
+// I/O utilities
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 // Fast utils
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 
 // Utilities
 import dk.itu.kelvin.util.PrefixTree;
@@ -25,6 +33,10 @@ import dk.itu.kelvin.model.Address;
  * <p>
  * Addresses are stored with an {@link Address} as {@code key} and
  * {@link String} as {@code value}.
+ *
+ * <p>
+ * Additions and searches are synchronized on the store so that addresses can
+ * be streamed into the store while it is being searched.
  */
 public final class AddressStore extends Store<Address, String> {
   /**
@@ -55,7 +67,7 @@ public final class AddressStore extends Store<Address, String> {
    *
    * @param address The address to add to the store.
    */
-  public void add(final Address address) {
+  public synchronized void add(final Address address) {
     if (address == null) {
       return;
     }
@@ -69,7 +81,7 @@ public final class AddressStore extends Store<Address, String> {
    *
    * @param address The address to remove.
    */
-  public void remove(final Address address) {
+  public synchronized void remove(final Address address) {
     if (address == null) {
       return;
     }
@@ -78,13 +90,115 @@ public final class AddressStore extends Store<Address, String> {
     this.addressIndexIsDirty = true;
   }
 
+  /**
+   * Apply a set of changes to the store, updating its search index in place.
+   *
+   * <p>
+   * The list of addresses is compacted in a single pass and only the entries
+   * of the search index keyed by the changed addresses are touched, so the
+   * cost of an update depends on the number of changed addresses rather than
+   * the size of the store. Entries left empty are kept in the index; they
+   * simply yield no results.
+   *
+   * @param removed The addresses to remove.
+   * @param added   The addresses to add.
+   */
+  public synchronized void update(
+    final Collection<Address> removed,
+    final Collection<Address> added
+  ) {
+    boolean indexed = this.addressIndex != null && !this.addressIndexIsDirty;
+
+    if (!removed.isEmpty()) {
+      Set<Address> set = new ReferenceOpenHashSet<>();
+
+      for (Address address: removed) {
+        set.add(address);
+
+        List<Address> entry = indexed
+          ? this.addressIndex.get(this.key(address))
+          : null;
+
+        if (entry != null) {
+          entry.removeIf((found) -> {
+            return found == address;
+          });
+        }
+      }
+
+      this.addresses.removeIf((address) -> {
+        return set.contains(address);
+      });
+    }
+
+    for (Address address: added) {
+      this.addresses.add(address);
+
+      if (!indexed) {
+        continue;
+      }
+
+      String key = this.key(address);
+      List<Address> entry = this.addressIndex.get(key);
+
+      if (entry == null) {
+        entry = new ArrayList<>();
+        this.addressIndex.put(key, entry);
+      }
+
+      entry.add(address);
+    }
+  }
+
+  /**
+   * Get the addresses contained within the store.
+   *
+   * @return The addresses contained within the store.
+   */
+  List<Address> addresses() {
+    return this.addresses;
+  }
+
+  /**
+   * Write the addresses of the store to the specified stream as a map file
+   * without elements.
+   *
+   * @param output  The stream to write the store to.
+   * @param handle  The handle to report the length of the map file to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  void write(
+    final OutputStream output,
+    final Handle handle
+  ) throws IOException {
+    new MapWriter(output, (length) -> {
+      handle.expect(length);
+    }).write(new MapFile(null, new ElementStore(), this));
+  }
+
+  /**
+   * Read the addresses of a map file from the specified stream into the
+   * store.
+   *
+   * @param input The stream to read the store from.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  @Override
+  void read(final InputStream input) throws IOException {
+    new MapReader(input).read(new ElementStore(), this);
+  }
+
   /**
    * Search the store for addresses matching the specified prefix.
    *
    * @param prefix  The prefix to search for.
    * @return        A list of addresses matching the specified prefix.
    */
-  public List<Address> search(final String prefix) {
+  public synchronized List<Address> search(final String prefix) {
     if (this.addressIndex == null || this.addressIndexIsDirty) {
       this.createAddressIndex();
     }
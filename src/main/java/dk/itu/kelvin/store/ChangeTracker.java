@@ -0,0 +1,544 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Map;
+import java.util.Set;
+
+// Functional utilities
+import java.util.function.Predicate;
+
+// Fast utils
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateTable;
+
+// Parser
+import dk.itu.kelvin.parser.Filter;
+import dk.itu.kelvin.parser.Parser;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Change tracker class.
+ *
+ * <p>
+ * The change tracker applies OsmChange files to an element store and an
+ * address store that have been filled from an OSM file. While the OSM file is
+ * being imported, the elements added to the stores are registered with the
+ * tracker along with their IDs using the {@code track} methods. Change files
+ * are then read using the tracker as the sink of an {@link Parser}, after
+ * which {@link #commit()} applies the changes to the stores.
+ *
+ * <p>
+ * The changes of a file, including the IDs and coordinates they introduce,
+ * are buffered until committed so that they can be applied to the stores in
+ * one go, or thrown away using {@link #discard()} should the file turn out to
+ * be malformed or its parsing be cancelled. Elements created and deleted
+ * again within the same file cancel each other out.
+ *
+ * <p>
+ * Land polygons are not tracked and are left as they are by changes.
+ */
+public final class ChangeTracker implements Parser.Sink {
+  /**
+   * The element store to apply changes to.
+   */
+  private final ElementStore elements;
+
+  /**
+   * The address store to apply changes to.
+   */
+  private final AddressStore addresses;
+
+  /**
+   * The filter deciding which tagged nodes are points of interest.
+   */
+  private final Predicate<Node> pois;
+
+  /**
+   * The points of interest of the stores mapped to their IDs.
+   */
+  private final Map<Long, Node> nodeIds = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The addresses of the stores mapped to the IDs of their nodes.
+   */
+  private final Map<Long, Address> addressIds = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The ways of the stores mapped to their IDs.
+   */
+  private final Map<Long, Way> wayIds = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The relations of the stores mapped to their IDs.
+   */
+  private final Map<Long, Relation> relationIds =
+    new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The coordinates of all nodes mapped to their IDs.
+   */
+  private CoordinateTable locations;
+
+  /**
+   * The points of interest created, changed or deleted by the changes read
+   * since the last commit, mapped to their IDs; deleted ones map to
+   * {@code null}.
+   */
+  private final Map<Long, Node> changedNodes = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The addresses created, changed or deleted by the changes read since the
+   * last commit, mapped to the IDs of their nodes; deleted ones map to
+   * {@code null}.
+   */
+  private final Map<Long, Address> changedAddresses =
+    new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The ways created, changed or deleted by the changes read since the last
+   * commit, mapped to their IDs; deleted ones map to {@code null}.
+   */
+  private final Map<Long, Way> changedWays = new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The relations created, changed or deleted by the changes read since the
+   * last commit, mapped to their IDs; deleted ones map to {@code null}.
+   */
+  private final Map<Long, Relation> changedRelations =
+    new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The coordinates of the nodes created or moved by the changes read since
+   * the last commit.
+   */
+  private CoordinateTable changedLocations = new CoordinateTable();
+
+  /**
+   * The elements removed by the changes read since the last commit.
+   */
+  private final Set<Element> removed = new ReferenceOpenHashSet<>();
+
+  /**
+   * The elements added by the changes read since the last commit.
+   */
+  private final Set<Element> added = new ReferenceOpenHashSet<>();
+
+  /**
+   * The addresses removed by the changes read since the last commit.
+   */
+  private final Set<Address> removedAddresses = new ReferenceOpenHashSet<>();
+
+  /**
+   * The addresses added by the changes read since the last commit.
+   */
+  private final Set<Address> addedAddresses = new ReferenceOpenHashSet<>();
+
+  /**
+   * The nodes moved by the changes read since the last commit, mapped to
+   * their new locations.
+   */
+  private final Map<Node, Node> moves = new Object2ObjectLinkedOpenHashMap<>();
+
+  /**
+   * Initialize a new change tracker.
+   *
+   * @param elements  The element store to apply changes to.
+   * @param addresses The address store to apply changes to.
+   * @param pois      The filter deciding which tagged nodes are points of
+   *                  interest and belong in the element store.
+   */
+  public ChangeTracker(
+    final ElementStore elements,
+    final AddressStore addresses,
+    final Predicate<Node> pois
+  ) {
+    this.elements = elements;
+    this.addresses = addresses;
+    this.pois = pois;
+  }
+
+  /**
+   * Register a point of interest that has been added to the element store.
+   *
+   * @param id    The ID of the node.
+   * @param node  The node.
+   */
+  public void track(final long id, final Node node) {
+    this.nodeIds.put(id, node);
+  }
+
+  /**
+   * Register a way that has been added to the element store.
+   *
+   * @param id  The ID of the way.
+   * @param way The way.
+   */
+  public void track(final long id, final Way way) {
+    this.wayIds.put(id, way);
+  }
+
+  /**
+   * Register a relation that has been added to the element store.
+   *
+   * @param id        The ID of the relation.
+   * @param relation  The relation.
+   */
+  public void track(final long id, final Relation relation) {
+    this.relationIds.put(id, relation);
+  }
+
+  /**
+   * Register an address that has been added to the address store.
+   *
+   * @param id      The ID of the node carrying the address.
+   * @param address The address.
+   */
+  public void track(final long id, final Address address) {
+    this.addressIds.put(id, address);
+  }
+
+  /**
+   * Register the coordinates of all imported nodes.
+   *
+   * <p>
+   * The table is taken over by the tracker and kept up to date with the
+   * changes read.
+   *
+   * @param locations The coordinates of all imported nodes.
+   */
+  public void track(final CoordinateTable locations) {
+    this.locations = locations;
+  }
+
+  /**
+   * Receive a tagged node, keeping it if it's a point of interest.
+   *
+   * @param id    The ID of the node.
+   * @param node  The node.
+   */
+  @Override
+  public void onNode(final long id, final Node node) {
+    if (!this.pois.test(node)) {
+      return;
+    }
+
+    this.changedNodes.put(id, node);
+    this.added.add(node);
+  }
+
+  /**
+   * Receive a way.
+   *
+   * @param id  The ID of the way.
+   * @param way The way.
+   */
+  @Override
+  public void onWay(final long id, final Way way) {
+    this.changedWays.put(id, way);
+    this.added.add(way);
+  }
+
+  /**
+   * Receive a relation.
+   *
+   * @param id        The ID of the relation.
+   * @param relation  The relation.
+   */
+  @Override
+  public void onRelation(final long id, final Relation relation) {
+    this.changedRelations.put(id, relation);
+    this.added.add(relation);
+  }
+
+  /**
+   * Receive an address.
+   *
+   * @param id      The ID of the node carrying the address.
+   * @param address The address.
+   */
+  @Override
+  public void onAddress(final long id, final Address address) {
+    this.changedAddresses.put(id, address);
+    this.addedAddresses.add(address);
+  }
+
+  /**
+   * Receive the deletion of an element.
+   *
+   * @param type  The type of the element.
+   * @param id    The ID of the element.
+   */
+  @Override
+  public void onDelete(final Filter.Type type, final long id) {
+    switch (type) {
+      case NODE:
+        this.remove(ChangeTracker.delete(
+          this.nodeIds, this.changedNodes, id
+        ));
+
+        Address address = ChangeTracker.delete(
+          this.addressIds, this.changedAddresses, id
+        );
+
+        if (address != null && !this.addedAddresses.remove(address)) {
+          this.removedAddresses.add(address);
+        }
+        break;
+      case WAY:
+        this.remove(ChangeTracker.delete(this.wayIds, this.changedWays, id));
+        break;
+      case RELATION:
+        this.remove(ChangeTracker.delete(
+          this.relationIds, this.changedRelations, id
+        ));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Receive the coordinates of all nodes contained within a change file,
+   * recording the nodes that have moved.
+   *
+   * @param locations The coordinates of the nodes.
+   */
+  @Override
+  public void onLocations(final CoordinateTable locations) {
+    for (int i = 0; i < locations.size(); i++) {
+      long id = locations.id(i);
+      float x = locations.x(i);
+      float y = locations.y(i);
+
+      int j = this.changedLocations.find(id);
+
+      if (j >= 0) {
+        this.move(this.changedLocations.x(j), this.changedLocations.y(j), x, y);
+        this.changedLocations.set(j, x, y);
+        continue;
+      }
+
+      this.changedLocations.put(id, x, y);
+
+      j = this.locations != null ? this.locations.find(id) : -1;
+
+      if (j >= 0) {
+        this.move(this.locations.x(j), this.locations.y(j), x, y);
+      }
+    }
+  }
+
+  /**
+   * Resolve an element referenced by a change file but not contained within
+   * it.
+   *
+   * @param type  The type of the element.
+   * @param id    The ID of the element.
+   * @return      The element or {@code null} if it's unknown.
+   */
+  @Override
+  public Element resolve(final Filter.Type type, final long id) {
+    switch (type) {
+      case NODE:
+        Node node = ChangeTracker.get(this.nodeIds, this.changedNodes, id);
+
+        if (node != null) {
+          return node;
+        }
+
+        int i = this.changedLocations.find(id);
+
+        if (i >= 0) {
+          return new Node(
+            this.changedLocations.x(i), this.changedLocations.y(i)
+          );
+        }
+
+        i = this.locations != null ? this.locations.find(id) : -1;
+
+        if (i < 0) {
+          return null;
+        }
+
+        return new Node(this.locations.x(i), this.locations.y(i));
+      case WAY:
+        return ChangeTracker.get(this.wayIds, this.changedWays, id);
+      case RELATION:
+        return ChangeTracker.get(this.relationIds, this.changedRelations, id);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Apply the changes read since the last commit to the stores.
+   */
+  public void commit() {
+    this.elements.update(this.removed, this.added);
+
+    for (Map.Entry<Node, Node> move: this.moves.entrySet()) {
+      this.elements.move(move.getKey(), move.getValue());
+    }
+
+    this.addresses.update(this.removedAddresses, this.addedAddresses);
+
+    ChangeTracker.commit(this.nodeIds, this.changedNodes);
+    ChangeTracker.commit(this.addressIds, this.changedAddresses);
+    ChangeTracker.commit(this.wayIds, this.changedWays);
+    ChangeTracker.commit(this.relationIds, this.changedRelations);
+
+    if (this.locations == null) {
+      this.locations = new CoordinateTable();
+    }
+
+    for (int i = 0; i < this.changedLocations.size(); i++) {
+      long id = this.changedLocations.id(i);
+      float x = this.changedLocations.x(i);
+      float y = this.changedLocations.y(i);
+
+      int j = this.locations.find(id);
+
+      if (j >= 0) {
+        this.locations.set(j, x, y);
+      }
+      else {
+        this.locations.put(id, x, y);
+      }
+    }
+
+    this.discard();
+  }
+
+  /**
+   * Throw away the changes read since the last commit, leaving the stores and
+   * the tracked IDs and coordinates as they were.
+   */
+  public void discard() {
+    this.changedNodes.clear();
+    this.changedAddresses.clear();
+    this.changedWays.clear();
+    this.changedRelations.clear();
+    this.changedLocations = new CoordinateTable();
+
+    this.removed.clear();
+    this.added.clear();
+    this.removedAddresses.clear();
+    this.addedAddresses.clear();
+    this.moves.clear();
+  }
+
+  /**
+   * Look up an element by its ID, preferring the changes read since the last
+   * commit over the tracked elements.
+   *
+   * @param <E>     The type of element.
+   * @param tracked The tracked elements mapped to their IDs.
+   * @param changed The changed elements mapped to their IDs.
+   * @param id      The ID of the element.
+   * @return        The element or {@code null} if it's unknown or deleted.
+   */
+  private static <E> E get(
+    final Map<Long, E> tracked,
+    final Map<Long, E> changed,
+    final long id
+  ) {
+    if (changed.containsKey(id)) {
+      return changed.get(id);
+    }
+
+    return tracked.get(id);
+  }
+
+  /**
+   * Record the deletion of an element by its ID.
+   *
+   * @param <E>     The type of element.
+   * @param tracked The tracked elements mapped to their IDs.
+   * @param changed The changed elements mapped to their IDs.
+   * @param id      The ID of the element.
+   * @return        The deleted element or {@code null} if it's unknown or
+   *                already deleted.
+   */
+  private static <E> E delete(
+    final Map<Long, E> tracked,
+    final Map<Long, E> changed,
+    final long id
+  ) {
+    E element = ChangeTracker.get(tracked, changed, id);
+
+    if (element != null) {
+      changed.put(id, null);
+    }
+
+    return element;
+  }
+
+  /**
+   * Merge the changed elements into the tracked elements.
+   *
+   * @param <E>     The type of element.
+   * @param tracked The tracked elements mapped to their IDs.
+   * @param changed The changed elements mapped to their IDs.
+   */
+  private static <E> void commit(
+    final Map<Long, E> tracked,
+    final Map<Long, E> changed
+  ) {
+    for (Map.Entry<Long, E> change: changed.entrySet()) {
+      if (change.getValue() == null) {
+        tracked.remove(change.getKey());
+      }
+      else {
+        tracked.put(change.getKey(), change.getValue());
+      }
+    }
+  }
+
+  /**
+   * Record the move of a node, unless it stays where it is.
+   *
+   * @param fromX The x-coordinate the node moves from.
+   * @param fromY The y-coordinate the node moves from.
+   * @param x     The x-coordinate the node moves to.
+   * @param y     The y-coordinate the node moves to.
+   */
+  private void move(
+    final float fromX,
+    final float fromY,
+    final float x,
+    final float y
+  ) {
+    if (fromX == x && fromY == y) {
+      return;
+    }
+
+    this.moves.put(new Node(fromX, fromY), new Node(x, y));
+  }
+
+  /**
+   * Record the removal of an element, cancelling out its addition if it was
+   * added by the changes read since the last commit.
+   *
+   * @param element The element to remove.
+   */
+  private void remove(final Element element) {
+    if (element == null || this.added.remove(element)) {
+      return;
+    }
+
+    this.removed.add(element);
+  }
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Concurrency utilities
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// I/O utilities
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+// Compression utilities
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Parallel chunked input stream class.
+ *
+ * <p>
+ * The stream reads the compressed chunks written by a
+ * {@link ChunkedOutputStream} and hands off each chunk to a pool of workers,
+ * which decompress the chunks independently of each other and verify their
+ * checksums. The decompressed chunks are then served in the order in which
+ * they appear in the input.
+ *
+ * @see ChunkedOutputStream
+ */
+final class ChunkedInputStream extends InputStream {
+  /**
+   * The number of worker threads used for decompressing chunks.
+   */
+  private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of chunks that may be in flight at any given time.
+   */
+  private static final int PIPELINE_CAPACITY = 2 * WORKERS;
+
+  /**
+   * The number of bytes in the header of a chunk.
+   */
+  private static final int HEADER = 12;
+
+  /**
+   * The compressed input.
+   */
+  private final DataInputStream input;
+
+  /**
+   * The handle to report the number of read bytes to.
+   */
+  private final Store.Handle handle;
+
+  /**
+   * The worker threads decompressing chunks.
+   */
+  private final ExecutorService workers = Executors.newFixedThreadPool(
+    WORKERS
+  );
+
+  /**
+   * The chunks being decompressed in the order in which they appear.
+   */
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  /**
+   * The current decompressed chunk.
+   */
+  private byte[] chunk = new byte[0];
+
+  /**
+   * The offset of the next unread byte within the current chunk.
+   */
+  private int offset;
+
+  /**
+   * Indicates whether or not the end marker has been read.
+   */
+  private boolean ended;
+
+  /**
+   * Initialize a new chunked input stream.
+   *
+   * @param input   The stream to read the compressed chunks from.
+   * @param handle  The handle to report the number of read bytes to.
+   *
+   * @throws IOException In case of an I/O error or if the stream isn't a
+   *                     chunked stream.
+   */
+  ChunkedInputStream(
+    final InputStream input,
+    final Store.Handle handle
+  ) throws IOException {
+    this.input = new DataInputStream(input);
+    this.handle = handle;
+
+    if (this.input.readInt() != ChunkedOutputStream.MAGIC) {
+      throw new IOException("Not a chunked stream");
+    }
+
+    int version = this.input.readInt();
+
+    if (version != ChunkedOutputStream.VERSION) {
+      throw new IOException("Unsupported chunked stream version " + version);
+    }
+
+    this.handle.advance(8);
+  }
+
+  /**
+   * Read the next byte of the stream.
+   *
+   * @return The next byte of the stream or -1 if the end of the stream has
+   *         been reached.
+   *
+   * @throws IOException In case of an I/O error or a corrupt chunk.
+   */
+  @Override
+  public int read() throws IOException {
+    if (!this.fill()) {
+      return -1;
+    }
+
+    return this.chunk[this.offset++] & 0xFF;
+  }
+
+  /**
+   * Read a number of bytes of the stream.
+   *
+   * @param bytes   The array to read the bytes into.
+   * @param offset  The offset within the array to read the bytes into.
+   * @param length  The maximum number of bytes to read.
+   * @return        The number of bytes read or -1 if the end of the stream
+   *                has been reached.
+   *
+   * @throws IOException In case of an I/O error or a corrupt chunk.
+   */
+  @Override
+  public int read(
+    final byte[] bytes,
+    final int offset,
+    final int length
+  ) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!this.fill()) {
+      return -1;
+    }
+
+    int n = Math.min(length, this.chunk.length - this.offset);
+
+    System.arraycopy(this.chunk, this.offset, bytes, offset, n);
+    this.offset += n;
+
+    return n;
+  }
+
+  /**
+   * Get the number of bytes that can be read without blocking.
+   *
+   * @return The number of bytes left in the current chunk.
+   */
+  @Override
+  public int available() {
+    return this.chunk.length - this.offset;
+  }
+
+  /**
+   * Close the stream, stopping all threads.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    this.workers.shutdownNow();
+    this.pending.clear();
+    this.input.close();
+  }
+
+  /**
+   * Make sure that there are unread bytes in the current chunk, moving on to
+   * the next chunk if needed.
+   *
+   * @return A boolean indicating whether or not there are unread bytes.
+   *
+   * @throws IOException In case of an I/O error or a corrupt chunk.
+   */
+  private boolean fill() throws IOException {
+    while (this.offset >= this.chunk.length) {
+      while (!this.ended && this.pending.size() < PIPELINE_CAPACITY) {
+        this.submit();
+      }
+
+      if (this.pending.isEmpty()) {
+        return false;
+      }
+
+      try {
+        this.chunk = this.pending.poll().get();
+      }
+      catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
+      catch (ExecutionException ex) {
+        throw ChunkedInputStream.unwrap(ex.getCause());
+      }
+
+      this.offset = 0;
+    }
+
+    return true;
+  }
+
+  /**
+   * Read the next chunk of the input and hand it off to the workers.
+   *
+   * @throws IOException In case of an I/O error or a corrupt chunk header.
+   */
+  private void submit() throws IOException {
+    int length = this.input.readInt();
+
+    if (length == 0) {
+      this.ended = true;
+      this.handle.advance(4);
+      return;
+    }
+
+    int size = this.input.readInt();
+    int checksum = this.input.readInt();
+
+    if (
+      length < 0
+      || length > ChunkedOutputStream.CHUNK_SIZE
+      || size < 0
+      || size > 2 * ChunkedOutputStream.CHUNK_SIZE
+    ) {
+      throw new IOException("Corrupt chunk header");
+    }
+
+    byte[] data = new byte[size];
+    this.input.readFully(data);
+
+    this.handle.advance(HEADER + size);
+
+    this.pending.add(this.workers.submit(() -> {
+      return ChunkedInputStream.decompress(data, length, checksum);
+    }));
+  }
+
+  /**
+   * Decompress a chunk and verify its checksum.
+   *
+   * @param data      The compressed contents of the chunk.
+   * @param length    The uncompressed length of the chunk.
+   * @param checksum  The expected checksum of the uncompressed contents.
+   * @return          The decompressed chunk.
+   *
+   * @throws IOException If the chunk is corrupt.
+   */
+  private static byte[] decompress(
+    final byte[] data,
+    final int length,
+    final int checksum
+  ) throws IOException {
+    Inflater inflater = new Inflater();
+    inflater.setInput(data);
+
+    byte[] bytes = new byte[length];
+    int n = 0;
+
+    try {
+      while (n < length) {
+        int inflated = inflater.inflate(bytes, n, length - n);
+
+        // Nothing more can be inflated once the input has run out.
+        if (inflated == 0) {
+          break;
+        }
+
+        n += inflated;
+      }
+    }
+    catch (DataFormatException ex) {
+      throw new IOException("Corrupt chunk", ex);
+    }
+    finally {
+      inflater.end();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, n);
+
+    if (n != length || (int) crc.getValue() != checksum) {
+      throw new IOException("Corrupt chunk: checksum mismatch");
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Unwrap the cause of a failed chunk.
+   *
+   * @param cause The cause of the failure.
+   * @return      The cause as an I/O exception.
+   */
+  private static IOException unwrap(final Throwable cause) {
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+
+    return new IOException(cause);
+  }
+}
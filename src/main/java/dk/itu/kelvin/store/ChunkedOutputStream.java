@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Concurrency utilities
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// I/O utilities
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+// Compression utilities
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Parallel chunked output stream class.
+ *
+ * <p>
+ * The stream splits its contents into chunks of {@link #CHUNK_SIZE} bytes and
+ * hands off each chunk to a pool of workers, which compress the chunks
+ * independently of each other. The compressed chunks are written in the order
+ * in which they were handed off.
+ *
+ * <p>
+ * The stream starts with a magic number and the version of the format. Each
+ * chunk then starts with its uncompressed length, its compressed length and
+ * the CRC-32 checksum of its uncompressed contents, followed by its deflated
+ * contents. A chunk with an uncompressed length of 0 marks the end of the
+ * stream.
+ *
+ * @see ChunkedInputStream
+ */
+final class ChunkedOutputStream extends OutputStream {
+  /**
+   * The magic number identifying chunked streams, {@code KCHK} in ASCII.
+   */
+  static final int MAGIC = 0x4B43484B;
+
+  /**
+   * The version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The maximum number of uncompressed bytes in a chunk.
+   */
+  static final int CHUNK_SIZE = 1 << 20;
+
+  /**
+   * The number of worker threads used for compressing chunks.
+   */
+  private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of chunks that may be in flight at any given time.
+   *
+   * <p>
+   * Each chunk takes up to a megabyte before being compressed, so the number
+   * of chunks waiting to be written is bounded to keep memory usage in check.
+   */
+  private static final int PIPELINE_CAPACITY = 2 * WORKERS;
+
+  /**
+   * The compressed output.
+   */
+  private final DataOutputStream output;
+
+  /**
+   * The handle to report the number of written bytes to.
+   */
+  private final Store.Handle handle;
+
+  /**
+   * The worker threads compressing chunks.
+   */
+  private final ExecutorService workers = Executors.newFixedThreadPool(
+    WORKERS
+  );
+
+  /**
+   * The chunks being compressed in the order in which they were handed off.
+   */
+  private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+
+  /**
+   * The current uncompressed chunk.
+   */
+  private byte[] chunk = new byte[CHUNK_SIZE];
+
+  /**
+   * The number of bytes in the current chunk.
+   */
+  private int length;
+
+  /**
+   * Indicates whether or not the stream has been closed.
+   */
+  private boolean closed;
+
+  /**
+   * Initialize a new chunked output stream.
+   *
+   * @param output  The stream to write the compressed chunks to.
+   * @param handle  The handle to report the number of written bytes to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  ChunkedOutputStream(
+    final OutputStream output,
+    final Store.Handle handle
+  ) throws IOException {
+    this.output = new DataOutputStream(output);
+    this.handle = handle;
+
+    this.output.writeInt(MAGIC);
+    this.output.writeInt(VERSION);
+  }
+
+  /**
+   * Write a single byte to the stream.
+   *
+   * @param b The byte to write.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void write(final int b) throws IOException {
+    if (this.length == CHUNK_SIZE) {
+      this.submit();
+    }
+
+    this.chunk[this.length++] = (byte) b;
+  }
+
+  /**
+   * Write a number of bytes to the stream.
+   *
+   * @param bytes   The array containing the bytes to write.
+   * @param offset  The offset within the array of the bytes to write.
+   * @param length  The number of bytes to write.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void write(
+    final byte[] bytes,
+    final int offset,
+    final int length
+  ) throws IOException {
+    int written = 0;
+
+    while (written < length) {
+      if (this.length == CHUNK_SIZE) {
+        this.submit();
+      }
+
+      int n = Math.min(length - written, CHUNK_SIZE - this.length);
+
+      System.arraycopy(bytes, offset + written, this.chunk, this.length, n);
+      this.length += n;
+      written += n;
+    }
+  }
+
+  /**
+   * Flush the compressed chunks written so far.
+   *
+   * <p>
+   * The current chunk is not cut short by flushing as that would hurt the
+   * compression of streams that are flushed often.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void flush() throws IOException {
+    this.output.flush();
+  }
+
+  /**
+   * Close the stream, writing the remaining chunks and the end marker.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    try {
+      if (this.length > 0) {
+        this.submit();
+      }
+
+      while (!this.pending.isEmpty()) {
+        this.next();
+      }
+
+      this.output.writeInt(0);
+      this.output.flush();
+    }
+    finally {
+      this.workers.shutdownNow();
+      this.output.close();
+    }
+  }
+
+  /**
+   * Hand off the current chunk to the workers, first writing the oldest
+   * pending chunk if the pipeline is full.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private void submit() throws IOException {
+    if (this.pending.size() >= PIPELINE_CAPACITY) {
+      this.next();
+    }
+
+    byte[] bytes = this.chunk;
+    int n = this.length;
+
+    this.pending.add(this.workers.submit(() -> {
+      return ChunkedOutputStream.compress(bytes, n);
+    }));
+
+    this.chunk = new byte[CHUNK_SIZE];
+    this.length = 0;
+  }
+
+  /**
+   * Wait for the oldest pending chunk to be compressed and write it.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private void next() throws IOException {
+    Chunk next;
+
+    try {
+      next = this.pending.poll().get();
+    }
+    catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException ex) {
+      throw new IOException(ex.getCause());
+    }
+
+    this.output.writeInt(next.length);
+    this.output.writeInt(next.data.size());
+    this.output.writeInt(next.checksum);
+    next.data.writeTo(this.output);
+
+    this.handle.advance(next.length);
+  }
+
+  /**
+   * Compress a chunk.
+   *
+   * @param bytes   The array containing the chunk.
+   * @param length  The number of bytes in the chunk.
+   * @return        The compressed chunk.
+   */
+  private static Chunk compress(final byte[] bytes, final int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+
+    Deflater deflater = new Deflater();
+    deflater.setInput(bytes, 0, length);
+    deflater.finish();
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream(length / 2);
+    byte[] buffer = new byte[1 << 16];
+
+    while (!deflater.finished()) {
+      data.write(buffer, 0, deflater.deflate(buffer));
+    }
+
+    deflater.end();
+
+    return new Chunk(length, (int) crc.getValue(), data);
+  }
+
+  /**
+   * The {@link Chunk} class describes a compressed chunk.
+   */
+  private static final class Chunk {
+    /**
+     * The uncompressed length of the chunk.
+     */
+    private final int length;
+
+    /**
+     * The CRC-32 checksum of the uncompressed contents of the chunk.
+     */
+    private final int checksum;
+
+    /**
+     * The compressed contents of the chunk.
+     */
+    private final ByteArrayOutputStream data;
+
+    /**
+     * Initialize a new chunk.
+     *
+     * @param length    The uncompressed length of the chunk.
+     * @param checksum  The checksum of the uncompressed contents.
+     * @param data      The compressed contents of the chunk.
+     */
+    Chunk(
+      final int length,
+      final int checksum,
+      final ByteArrayOutputStream data
+    ) {
+      this.length = length;
+      this.checksum = checksum;
+      this.data = data;
+    }
+  }
+}
@@ -5,8 +5,25 @@ package dk.itu.kelvin.store;
 
 // General utilities
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+
+// Functional utilities
+import java.util.function.Predicate;
+
+// I/O utilities
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// Fast utils
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 
 // Utilities
 import dk.itu.kelvin.util.Graph;
@@ -24,6 +41,23 @@ import dk.itu.kelvin.model.Node;
 
 /**
  * Common store for storing all elements in the chart.
+ *
+ * <p>
+ * The store may be filled on one thread while being searched on another, for
+ * example when elements are streamed into the store while parsing a file and
+ * the chart renders whatever has arrived so far. Additions and searches are
+ * therefore synchronized on the store.
+ *
+ * <p>
+ * A store may also be backed by a mapped map file, see
+ * {@link MapFile#map(java.io.File)}. Such a store is read-only; its elements
+ * stay encoded in the file and are only decoded when searched for, while its
+ * routing graphs are read from the file the first time they're used.
+ *
+ * <p>
+ * Finally, a store may present the regions of a {@link RegionStore} as one,
+ * in which case its searches and routing graphs span the regions and load
+ * them as needed. Such a store is read-only too.
  */
 public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
   /**
@@ -31,15 +65,37 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    */
   private static final long serialVersionUID = 3081;
 
+  /**
+   * The factor by which a list must have grown since its index was last
+   * built from scratch for the index to be built anew rather than have the
+   * new elements added to it in place.
+   */
+  private static final int GROWTH = 2;
+
+  /**
+   * The mapped map file backing the store, if any.
+   */
+  private final transient MapBuffer mapped;
+
+  /**
+   * The region store whose regions the store presents, if any.
+   */
+  private final transient RegionStore regions;
+
+  /**
+   * Indicates whether the graphs of a mapped store have been decoded.
+   */
+  private transient boolean graphsLoaded;
+
   /**
    * Graph for all carRoads.
    */
-  private final Graph<Node, Way> carGraph;
+  private Graph<Node, Way> carGraph;
 
   /**
    * Graph for all roads.
    */
-  private final Graph<Node, Way> bicycleGraph;
+  private Graph<Node, Way> bicycleGraph;
 
   /**
    * A list for all land elements.
@@ -146,18 +202,80 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    */
   private transient boolean poiIsDirty;
 
+  /**
+   * The number of elements of each list, in the order of
+   * {@link MapFile.Index}, that have been added to its index.
+   */
+  private int[] indexed = new int[MapFile.Index.values().length];
+
+  /**
+   * The number of elements of each list, in the order of
+   * {@link MapFile.Index}, when its index was last built from scratch; 0 if
+   * its index was read from a map file.
+   */
+  private int[] built = new int[MapFile.Index.values().length];
+
   /**
    * Initialize a new element store.
    */
   public ElementStore() {
-    Properties carProperties = new Properties();
-    carProperties.setProperty("bicycle", "no");
+    this(null, null);
+  }
 
-    Properties bicycleProperties = new Properties();
-    bicycleProperties.setProperty("bicycle", "yes");
+  /**
+   * Initialize a new element store backed by a mapped map file.
+   *
+   * @param mapped The mapped map file backing the store, if any.
+   */
+  ElementStore(final MapBuffer mapped) {
+    this(mapped, null);
+  }
 
-    this.carGraph = new WeightedGraph<>(carProperties);
-    this.bicycleGraph = new WeightedGraph<>(bicycleProperties);
+  /**
+   * Initialize a new element store presenting the regions of a region store.
+   *
+   * @param regions The region store whose regions the store presents.
+   */
+  ElementStore(final RegionStore regions) {
+    this(null, regions);
+  }
+
+  /**
+   * Initialize a new element store.
+   *
+   * @param mapped  The mapped map file backing the store, if any.
+   * @param regions The region store whose regions the store presents, if any.
+   */
+  private ElementStore(final MapBuffer mapped, final RegionStore regions) {
+    this.mapped = mapped;
+    this.regions = regions;
+
+    if (regions != null) {
+      this.carGraph = regions.graph(0);
+      this.bicycleGraph = regions.graph(1);
+      this.landTree = regions.index(MapFile.Index.LAND);
+      this.waysTree = regions.index(MapFile.Index.WAYS);
+      this.roadsTree = regions.index(MapFile.Index.ROADS);
+      this.cyclewaysTree = regions.index(MapFile.Index.CYCLEWAYS);
+      this.transportWaysTree = regions.index(MapFile.Index.TRANSPORT_WAYS);
+      this.relationsTree = regions.index(MapFile.Index.RELATIONS);
+      this.poiTree = regions.index(MapFile.Index.POIS);
+      return;
+    }
+
+    this.carGraph = ElementStore.graph("no");
+    this.bicycleGraph = ElementStore.graph("yes");
+
+    if (mapped != null) {
+      this.bounds = mapped.bounds();
+      this.landTree = mapped.index(MapFile.Index.LAND);
+      this.waysTree = mapped.index(MapFile.Index.WAYS);
+      this.roadsTree = mapped.index(MapFile.Index.ROADS);
+      this.cyclewaysTree = mapped.index(MapFile.Index.CYCLEWAYS);
+      this.transportWaysTree = mapped.index(MapFile.Index.TRANSPORT_WAYS);
+      this.relationsTree = mapped.index(MapFile.Index.RELATIONS);
+      this.poiTree = mapped.index(MapFile.Index.POIS);
+    }
   }
 
   /**
@@ -165,76 +283,138 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    *
    * @param w The element to be added.
    */
-  public void add(final Way w) {
-    String highway = w.tag("highway");
-    String cycleway = w.tag("cycleway");
-    String bicycleRoad = w.tag("bicycle_road");
+  public synchronized void add(final Way w) {
+    this.writable();
+    this.unpackGraphs();
+
+    // The nodes of stored ways are only ever read, so keep them packed.
+    w.pack();
+
+    switch (ElementStore.kind(w)) {
+      case ROAD:
+        this.roads.add(w);
+        this.transportWays.add(w);
+        this.addEdge(w);
+        break;
+      case CYCLEWAY:
+        this.cycleways.add(w);
+        this.transportWays.add(w);
+        this.addEdge(w);
+        break;
+      case WAY:
+        this.ways.add(w);
+        break;
+      default:
+        break;
+    }
+  }
 
-    if (highway != null) {
-      switch (highway) {
-        case "motorway":
-        case "trunk":
-        case "primary":
-        case "secondary":
-        case "tertiary":
-        case "unclassified":
-        case "residential":
-        case "service":
-        case "motorway_link":
-        case "trunk_link":
-        case "primary_link":
-        case "secondary_link":
-        case "tertiary_link":
-        case "living_street":
-        case "road":
-          this.roads.add(w);
-          this.transportWays.add(w);
-          this.addEdge(w);
-          this.roadsIsDirty = true;
-          break;
-        case "cycleway":
-          this.cycleways.add(w);
-          this.transportWays.add(w);
-          this.addEdge(w);
-          this.cyclewaysIsDirty = true;
-          break;
-        default:
-          break;
+  /**
+   * Apply a set of changes to the store, updating its indexes and graphs in
+   * place.
+   *
+   * <p>
+   * Unlike {@link #add(Way)} and friends, which leave the indexes to be
+   * updated on the next search, the changed elements are removed from and
+   * added to the existing indexes and graphs one by one, and the lists of the
+   * store are compacted in a single pass. The cost of an update therefore
+   * depends on the number of changed elements rather than the size of the
+   * store. Only indexes that have been packed into a map file are rebuilt, as
+   * they cannot be changed in place.
+   *
+   * <p>
+   * Land polygons are not affected by updates.
+   *
+   * @param removed The ways, relations and points of interest to remove.
+   * @param added   The ways, relations and points of interest to add.
+   */
+  public synchronized void update(
+    final Collection<? extends Element> removed,
+    final Collection<? extends Element> added
+  ) {
+    this.writable();
+    this.unpack();
+    this.unpackGraphs();
+    this.index();
+
+    if (!removed.isEmpty()) {
+      Set<Element> set = new ReferenceOpenHashSet<>();
+
+      for (Element element: removed) {
+        set.add(element);
+        this.unindex(element);
       }
+
+      Predicate<Element> contained = (element) -> {
+        return set.contains(element);
+      };
+
+      this.ways.removeIf(contained);
+      this.roads.removeIf(contained);
+      this.cycleways.removeIf(contained);
+      this.transportWays.removeIf(contained);
+      this.relations.removeIf(contained);
+      this.pois.removeIf(contained);
     }
-    else if (cycleway != null) {
-      switch (cycleway) {
-        case "lane":
-        case "opposite":
-        case "opposite_lane":
-        case "track":
-        case "opposite_track":
-        case "share_busway":
-        case "shared_lane":
-          this.cycleways.add(w);
-          this.transportWays.add(w);
-          this.addEdge(w);
-          this.cyclewaysIsDirty = true;
-          break;
-        default:
-          break;
+
+    for (Element element: added) {
+      if (element instanceof Way) {
+        this.insert((Way) element);
+      }
+      else if (element instanceof Relation) {
+        this.relations.add((Relation) element);
+        this.relationsTree.add((Relation) element);
+      }
+      else if (element instanceof Node) {
+        this.pois.add((Node) element);
+        this.poiTree.add((Node) element);
       }
     }
-    else if (bicycleRoad != null) {
-      switch (bicycleRoad) {
-        case "yes":
-          this.cycleways.add(w);
-          this.transportWays.add(w);
-          this.addEdge(w);
-          this.cyclewaysIsDirty = true;
-          break;
-        default:
-          break;
+
+    this.indexed();
+  }
+
+  /**
+   * Move a node shared by any number of ways to a new location, updating the
+   * indexes and graphs of the affected ways in place.
+   *
+   * <p>
+   * The bounds of relations whose members are affected by the move are not
+   * updated.
+   *
+   * @param from  The node to move.
+   * @param to    The node to replace it with.
+   */
+  public synchronized void move(final Node from, final Node to) {
+    this.writable();
+    this.unpack();
+    this.unpackGraphs();
+    this.index();
+
+    SpatialIndex.Bounds bounds = new SpatialIndex.Bounds(
+      from.x(), from.y(), from.x(), from.y()
+    );
+
+    Set<Way> affected = new ReferenceOpenHashSet<>();
+
+    for (SpatialIndex<Way> tree: Arrays.asList(
+      this.waysTree, this.transportWaysTree
+    )) {
+      List<Way> found = tree.range(bounds);
+
+      if (found != null) {
+        affected.addAll(found);
       }
     }
-    else {
-      this.ways.add(w);
-      this.waysIsDirty = true;
+
+    for (Way way: affected) {
+      if (!way.contains(from)) {
+        continue;
+      }
+
+      this.unindex(way);
+      way.move(from, to);
+      this.reindex(way);
     }
   }
 
@@ -242,7 +422,9 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    * Accessor to carGraph.
    * @return A graph for to shortest path for cars.
    */
-  public Graph<Node, Way> carGraph() {
+  public synchronized Graph<Node, Way> carGraph() {
+    this.loadGraphs();
+
     return this.carGraph;
   }
 
@@ -250,7 +432,9 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    * Accessor to bicycleGraph.
    * @return A graph for to shortest path for bicycles.
    */
-  public Graph<Node, Way> bycicleGraph() {
+  public synchronized Graph<Node, Way> bycicleGraph() {
+    this.loadGraphs();
+
     return this.bicycleGraph;
   }
 
@@ -259,25 +443,30 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    *
    * @param l the land element to be added.
    */
-  public void addLand(final Way l) {
+  public synchronized void addLand(final Way l) {
+    this.writable();
+
+    l.pack();
     this.land.add(l);
-    this.landIsDirty = true;
   }
 
   /**
    * Adds a relations element to the associated collection.
    * @param r the relation element.
    */
-  public void add(final Relation r) {
+  public synchronized void add(final Relation r) {
+    this.writable();
+
     this.relations.add(r);
-    this.relationsIsDirty = true;
   }
 
   /**
    * Adds bound element to the associated collection.
    * @param b the relation element.
    */
-  public void add(final BoundingBox b) {
+  public synchronized void add(final BoundingBox b) {
+    this.writable();
+
     this.bounds = b;
   }
 
@@ -285,9 +474,10 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    *  Adds POI element to the associated collection.
    * @param n The node object which represent a POI.
    */
-  public void add(final Node n) {
+  public synchronized void add(final Node n) {
+    this.writable();
+
     this.pois.add(n);
-    this.poiIsDirty = true;
   }
 
   /**
@@ -302,44 +492,396 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
    * Return the transportWayTree.
    * @return transportWaysTree.
    */
-  public SpatialIndex<Way> transportWaysTree() {
+  public synchronized SpatialIndex<Way> transportWaysTree() {
     this.index();
 
     return this.transportWaysTree;
   }
 
+  /**
+   * Get the mapped map file backing the store.
+   *
+   * @return The mapped map file backing the store or {@code null} if the
+   *         store isn't mapped.
+   */
+  MapBuffer mapped() {
+    return this.mapped;
+  }
+
+  /**
+   * Get the region store whose regions the store presents.
+   *
+   * @return The region store whose regions the store presents or
+   *         {@code null} if the store doesn't present a region store.
+   */
+  RegionStore regions() {
+    return this.regions;
+  }
+
+  /**
+   * Get the spatial index of the store corresponding to the specified index
+   * of a map file.
+   *
+   * @param <E>   The type of elements of the index.
+   * @param index The index of a map file.
+   * @return      The spatial index of the store.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized <E extends Element> SpatialIndex<E> tree(
+    final MapFile.Index index
+  ) {
+    this.index();
+
+    switch (index) {
+      case LAND:
+        return (SpatialIndex<E>) this.landTree;
+      case WAYS:
+        return (SpatialIndex<E>) this.waysTree;
+      case ROADS:
+        return (SpatialIndex<E>) this.roadsTree;
+      case CYCLEWAYS:
+        return (SpatialIndex<E>) this.cyclewaysTree;
+      case TRANSPORT_WAYS:
+        return (SpatialIndex<E>) this.transportWaysTree;
+      case RELATIONS:
+        return (SpatialIndex<E>) this.relationsTree;
+      case POIS:
+        return (SpatialIndex<E>) this.poiTree;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Get the land elements of the store.
+   *
+   * @return The land elements of the store.
+   */
+  List<Way> land() {
+    return this.land;
+  }
+
+  /**
+   * Get the ways of the store that aren't roads or cycleways.
+   *
+   * @return The ways of the store that aren't roads or cycleways.
+   */
+  List<Way> ways() {
+    return this.ways;
+  }
+
+  /**
+   * Get the roads of the store.
+   *
+   * @return The roads of the store.
+   */
+  List<Way> roads() {
+    return this.roads;
+  }
+
+  /**
+   * Get the cycleways of the store.
+   *
+   * @return The cycleways of the store.
+   */
+  List<Way> cycleways() {
+    return this.cycleways;
+  }
+
+  /**
+   * Get the roads and cycleways of the store.
+   *
+   * @return The roads and cycleways of the store.
+   */
+  List<Way> transportWays() {
+    return this.transportWays;
+  }
+
+  /**
+   * Get the relations of the store.
+   *
+   * @return The relations of the store.
+   */
+  List<Relation> relations() {
+    return this.relations;
+  }
+
+  /**
+   * Get the points of interest of the store.
+   *
+   * @return The points of interest of the store.
+   */
+  List<Node> pois() {
+    return this.pois;
+  }
+
+  /**
+   * Get the bounds of the store.
+   *
+   * @return The bounds of the store.
+   */
+  BoundingBox bounds() {
+    return this.bounds;
+  }
+
+  /**
+   * Check if the store contains no elements.
+   *
+   * @return A boolean indicating whether or not the store is empty.
+   */
+  synchronized boolean isEmpty() {
+    if (this.mapped != null || this.regions != null) {
+      return false;
+    }
+
+    return this.land.isEmpty()
+      && this.ways.isEmpty()
+      && this.transportWays.isEmpty()
+      && this.relations.isEmpty()
+      && this.pois.isEmpty();
+  }
+
+  /**
+   * Mark all indexes of the store as dirty.
+   *
+   * <p>
+   * This must be called whenever the lists of the store have been modified
+   * directly rather than through {@link #add(Way)} and friends.
+   */
+  synchronized void invalidate() {
+    for (MapFile.Index index: MapFile.Index.values()) {
+      this.invalidate(index);
+    }
+  }
+
+  /**
+   * Mark the specified index of the store as dirty.
+   *
+   * <p>
+   * The roads and the transport ways share a flag, so invalidating either
+   * rebuilds both.
+   *
+   * @param index The index to mark as dirty.
+   */
+  synchronized void invalidate(final MapFile.Index index) {
+    switch (index) {
+      case LAND:
+        this.landIsDirty = true;
+        break;
+      case WAYS:
+        this.waysIsDirty = true;
+        break;
+      case ROADS:
+      case TRANSPORT_WAYS:
+        this.roadsIsDirty = true;
+        break;
+      case CYCLEWAYS:
+        this.cyclewaysIsDirty = true;
+        break;
+      case RELATIONS:
+        this.relationsIsDirty = true;
+        break;
+      case POIS:
+        this.poiIsDirty = true;
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Restore the indexes of the store from packed trees rather than rebuilding
+   * them.
+   *
+   * <p>
+   * The lists of the store must hold the elements in the order in which they
+   * were packed.
+   *
+   * @param trees The packed trees, one per list in the order of
+   *              {@link MapFile.Index}.
+   */
+  synchronized void restore(final ByteBuffer trees) {
+    for (MapFile.Index index: MapFile.Index.values()) {
+      this.restore(trees, index);
+    }
+  }
+
+  /**
+   * Restore the specified index of the store from its packed tree rather
+   * than rebuilding it.
+   *
+   * <p>
+   * The list of the index must hold the elements in the order in which they
+   * were packed. As the roads and the transport ways share a flag, the two
+   * must be restored together.
+   *
+   * @param trees The packed trees, one per list in the order of
+   *              {@link MapFile.Index}.
+   * @param index The index to restore.
+   */
+  synchronized void restore(final ByteBuffer trees, final MapFile.Index index) {
+    int offset = PackedIndex.offsets(
+      trees, MapFile.Index.values().length
+    )[index.ordinal()];
+
+    switch (index) {
+      case LAND:
+        this.landTree = PackedIndex.of(trees, offset, this.land);
+        this.packed(this.land, MapFile.Index.LAND);
+        this.landIsDirty = false;
+        break;
+      case WAYS:
+        this.waysTree = PackedIndex.of(trees, offset, this.ways);
+        this.packed(this.ways, MapFile.Index.WAYS);
+        this.waysIsDirty = false;
+        break;
+      case ROADS:
+        this.roadsTree = PackedIndex.of(trees, offset, this.roads);
+        this.packed(this.roads, MapFile.Index.ROADS);
+        this.roadsIsDirty = false;
+        break;
+      case TRANSPORT_WAYS:
+        this.transportWaysTree = PackedIndex.of(
+          trees, offset, this.transportWays
+        );
+        this.packed(this.transportWays, MapFile.Index.TRANSPORT_WAYS);
+        this.roadsIsDirty = false;
+        break;
+      case CYCLEWAYS:
+        this.cyclewaysTree = PackedIndex.of(trees, offset, this.cycleways);
+        this.packed(this.cycleways, MapFile.Index.CYCLEWAYS);
+        this.cyclewaysIsDirty = false;
+        break;
+      case RELATIONS:
+        this.relationsTree = PackedIndex.of(trees, offset, this.relations);
+        this.packed(this.relations, MapFile.Index.RELATIONS);
+        this.relationsIsDirty = false;
+        break;
+      case POIS:
+        this.poiTree = PackedIndex.of(trees, offset, this.pois);
+        this.packed(this.pois, MapFile.Index.POIS);
+        this.poiIsDirty = false;
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Use packed graphs read from a map file as the routing graphs of the
+   * store rather than building them edge by edge.
+   *
+   * <p>
+   * The packed graphs must hold the transport ways of the store. They're
+   * replaced by mutable graphs the first time the store is changed.
+   *
+   * @param graphs The packed graphs; the car graph followed by the bicycle
+   *               graph.
+   */
+  synchronized void restore(final List<PackedGraph> graphs) {
+    this.carGraph = graphs.get(0);
+    this.bicycleGraph = graphs.get(1);
+  }
+
+  /**
+   * Replace routing graphs that have been packed into a map file by mutable
+   * graphs of the transport ways of the store, as packed graphs cannot be
+   * changed in place.
+   *
+   * <p>
+   * This must be called before the transport ways of the store are changed.
+   */
+  synchronized void unpackGraphs() {
+    if (!(this.carGraph instanceof PackedGraph)) {
+      return;
+    }
+
+    this.carGraph = ElementStore.graph("no");
+    this.bicycleGraph = ElementStore.graph("yes");
+
+    for (Way way: this.transportWays) {
+      this.addEdge(way);
+    }
+  }
+
+  /**
+   * Write the elements of the store to the specified stream as a map file.
+   *
+   * @param output  The stream to write the store to.
+   * @param handle  The handle to report the length of the map file to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  void write(
+    final OutputStream output,
+    final Handle handle
+  ) throws IOException {
+    if (this.mapped != null) {
+      handle.expect(this.mapped.length());
+      this.mapped.copy(output);
+      return;
+    }
+
+    new MapWriter(output, (length) -> {
+      handle.expect(length);
+    }).write(new MapFile(this.bounds, this, new AddressStore()));
+  }
+
+  /**
+   * Read the elements of a map file from the specified stream into the store.
+   *
+   * @param input The stream to read the store from.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  @Override
+  synchronized void read(final InputStream input) throws IOException {
+    this.writable();
+
+    new MapReader(input).read(this, new AddressStore());
+  }
+
   /**
    * Finds elements that meet the criteria.
    *
    * @param q  The criteria object to look up elements based on.
    * @return the list of elements that meet the criteria.
    */
-  private List<Element> search(final Query q) {
+  private synchronized List<Element> search(final Query q) {
     this.index();
 
     List<Element> elementList = new ArrayList<>();
 
     for (String s: q.types) {
+      List<? extends Element> found;
+
       switch (s) {
         case "transportWay":
-          elementList.addAll(this.transportWaysTree.range(q.bounds));
+          found = this.transportWaysTree.range(q.bounds);
           break;
         case "way":
-          elementList.addAll(this.waysTree.range(q.bounds));
+          found = this.waysTree.range(q.bounds);
           break;
         case "land":
-          elementList.addAll(this.landTree.range(q.bounds));
+          found = this.landTree.range(q.bounds);
           break;
         case "relation":
-          elementList.addAll(this.relationsTree.range(q.bounds));
+          found = this.relationsTree.range(q.bounds);
           break;
         case "poi":
-          elementList.addAll(this.poiTree.range(q.bounds, (element) -> {
+          found = this.poiTree.range(q.bounds, (element) -> {
             return element.tags().containsValue(q.tag);
-          }));
+          });
           break;
         default:
-          break;
+          found = null;
+      }
+
+      // Indexes emptied by changes return null rather than an empty list.
+      if (found != null) {
+        elementList.addAll(found);
       }
     }
 
@@ -348,43 +890,385 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
 
   /**
    * (Re-)build all indexes if needed.
+   *
+   * <p>
+   * Elements added to the lists of the store since the last search are added
+   * to the existing indexes in place, so that searching a store while it's
+   * being filled only costs as much as the elements added in the meantime.
+   * An index is only built from scratch if it's dirty, or once its list has
+   * grown by {@link #GROWTH} since it was last built, so that the quality of
+   * the index doesn't suffer from too many elements having been added in
+   * place while the total cost of building it stays linear in the size of
+   * the list.
    */
   private void index() {
-    if (this.waysTree == null || this.waysIsDirty) {
+    // The indexes of mapped stores are backed by the mapped file and those of
+    // region stores by the regions.
+    if (this.mapped != null || this.regions != null) {
+      return;
+    }
+
+    if (
+      this.waysTree == null
+      || this.waysIsDirty
+      || !this.grow(this.waysTree, this.ways, MapFile.Index.WAYS)
+    ) {
       this.waysTree = new RectangleTree<>(this.ways);
+      this.built(this.ways, MapFile.Index.WAYS);
       this.waysIsDirty = false;
     }
 
-    if (this.relationsTree == null || this.relationsIsDirty) {
+    if (
+      this.relationsTree == null
+      || this.relationsIsDirty
+      || !this.grow(this.relationsTree, this.relations, MapFile.Index.RELATIONS)
+    ) {
       this.relationsTree = new RectangleTree<>(this.relations);
+      this.built(this.relations, MapFile.Index.RELATIONS);
       this.relationsIsDirty = false;
     }
 
-    if (this.landTree == null || this.landIsDirty) {
+    if (
+      this.landTree == null
+      || this.landIsDirty
+      || !this.grow(this.landTree, this.land, MapFile.Index.LAND)
+    ) {
       this.landTree = new RectangleTree<>(this.land);
+      this.built(this.land, MapFile.Index.LAND);
       this.landIsDirty = false;
     }
 
-    if (this.poiTree == null || this.poiIsDirty) {
+    if (
+      this.poiTree == null
+      || this.poiIsDirty
+      || !this.grow(this.poiTree, this.pois, MapFile.Index.POIS)
+    ) {
       this.poiTree = new PointTree<>(this.pois);
+      this.built(this.pois, MapFile.Index.POIS);
       this.poiIsDirty = false;
     }
 
-    if (this.roadsTree == null || this.roadsIsDirty) {
+    if (
+      this.roadsTree == null
+      || this.roadsIsDirty
+      || !this.grow(this.roadsTree, this.roads, MapFile.Index.ROADS)
+    ) {
       this.roadsTree = new RectangleTree<>(this.roads);
-      this.roadsIsDirty = false;
-
-      this.transportWaysTree = new RectangleTree<>(this.transportWays);
-      this.roadsIsDirty = false;
+      this.built(this.roads, MapFile.Index.ROADS);
     }
 
-    if (this.cyclewaysTree == null || this.cyclewaysIsDirty) {
+    if (
+      this.cyclewaysTree == null
+      || this.cyclewaysIsDirty
+      || !this.grow(this.cyclewaysTree, this.cycleways, MapFile.Index.CYCLEWAYS)
+    ) {
       this.cyclewaysTree = new RectangleTree<>(this.cycleways);
-      this.cyclewaysIsDirty = false;
+      this.built(this.cycleways, MapFile.Index.CYCLEWAYS);
+    }
 
+    // The transport ways are dirty whenever the roads or cycleways are.
+    if (
+      this.transportWaysTree == null
+      || this.roadsIsDirty
+      || this.cyclewaysIsDirty
+      || !this.grow(
+        this.transportWaysTree, this.transportWays, MapFile.Index.TRANSPORT_WAYS
+      )
+    ) {
       this.transportWaysTree = new RectangleTree<>(this.transportWays);
-      this.roadsIsDirty = false;
+      this.built(this.transportWays, MapFile.Index.TRANSPORT_WAYS);
+    }
+
+    this.roadsIsDirty = false;
+    this.cyclewaysIsDirty = false;
+  }
+
+  /**
+   * Add the elements added to a list since it was last indexed to its index
+   * in place, unless the index must be built anew.
+   *
+   * @param <E>   The type of elements of the list.
+   * @param tree  The index of the list.
+   * @param list  The list.
+   * @param index The kind of index.
+   * @return      A boolean indicating whether or not the index is up to date
+   *              with the list; if not, it must be built anew.
+   */
+  private <E> boolean grow(
+    final SpatialIndex<E> tree,
+    final List<E> list,
+    final MapFile.Index index
+  ) {
+    int i = index.ordinal();
+
+    if (list.size() == this.indexed[i]) {
+      return true;
+    }
+
+    if (
+      list.size() < this.indexed[i]
+      || list.size() >= GROWTH * this.built[i]
+    ) {
+      return false;
+    }
+
+    for (E element: list.subList(this.indexed[i], list.size())) {
+      tree.add(element);
     }
+
+    this.indexed[i] = list.size();
+
+    return true;
+  }
+
+  /**
+   * Record that an index has been built from scratch from its list.
+   *
+   * @param list  The list.
+   * @param index The kind of index.
+   */
+  private void built(final List<?> list, final MapFile.Index index) {
+    this.indexed[index.ordinal()] = list.size();
+    this.built[index.ordinal()] = list.size();
+  }
+
+  /**
+   * Record that an index has been read from a map file for its list. Packed
+   * indexes cannot be changed in place, so they are built anew as soon as
+   * their list grows.
+   *
+   * @param list  The list.
+   * @param index The kind of index.
+   */
+  private void packed(final List<?> list, final MapFile.Index index) {
+    this.indexed[index.ordinal()] = list.size();
+    this.built[index.ordinal()] = 0;
+  }
+
+  /**
+   * Record that all indexes are up to date with their lists, after the lists
+   * and indexes have been changed together.
+   */
+  private void indexed() {
+    this.indexed[MapFile.Index.LAND.ordinal()] = this.land.size();
+    this.indexed[MapFile.Index.WAYS.ordinal()] = this.ways.size();
+    this.indexed[MapFile.Index.ROADS.ordinal()] = this.roads.size();
+    this.indexed[MapFile.Index.CYCLEWAYS.ordinal()] = this.cycleways.size();
+    this.indexed[MapFile.Index.TRANSPORT_WAYS.ordinal()] =
+      this.transportWays.size();
+    this.indexed[MapFile.Index.RELATIONS.ordinal()] = this.relations.size();
+    this.indexed[MapFile.Index.POIS.ordinal()] = this.pois.size();
+  }
+
+  /**
+   * Classify a way by the list it belongs in.
+   *
+   * @param way The way to classify.
+   * @return    The kind of the way.
+   */
+  private static Kind kind(final Way way) {
+    String highway = way.tag("highway");
+    String cycleway = way.tag("cycleway");
+    String bicycleRoad = way.tag("bicycle_road");
+
+    if (highway != null) {
+      switch (highway) {
+        case "motorway":
+        case "trunk":
+        case "primary":
+        case "secondary":
+        case "tertiary":
+        case "unclassified":
+        case "residential":
+        case "service":
+        case "motorway_link":
+        case "trunk_link":
+        case "primary_link":
+        case "secondary_link":
+        case "tertiary_link":
+        case "living_street":
+        case "road":
+          return Kind.ROAD;
+        case "cycleway":
+          return Kind.CYCLEWAY;
+        default:
+          return Kind.NONE;
+      }
+    }
+    else if (cycleway != null) {
+      switch (cycleway) {
+        case "lane":
+        case "opposite":
+        case "opposite_lane":
+        case "track":
+        case "opposite_track":
+        case "share_busway":
+        case "shared_lane":
+          return Kind.CYCLEWAY;
+        default:
+          return Kind.NONE;
+      }
+    }
+    else if (bicycleRoad != null) {
+      switch (bicycleRoad) {
+        case "yes":
+          return Kind.CYCLEWAY;
+        default:
+          return Kind.NONE;
+      }
+    }
+    else {
+      return Kind.WAY;
+    }
+  }
+
+  /**
+   * Mark the indexes that have been packed into a map file as dirty, as they
+   * cannot be changed in place.
+   */
+  private void unpack() {
+    this.waysIsDirty |= this.waysTree instanceof PackedIndex;
+    this.roadsIsDirty |= this.roadsTree instanceof PackedIndex;
+    this.roadsIsDirty |= this.transportWaysTree instanceof PackedIndex;
+    this.cyclewaysIsDirty |= this.cyclewaysTree instanceof PackedIndex;
+    this.landIsDirty |= this.landTree instanceof PackedIndex;
+    this.relationsIsDirty |= this.relationsTree instanceof PackedIndex;
+    this.poiIsDirty |= this.poiTree instanceof PackedIndex;
+  }
+
+  /**
+   * Add a way to its lists, indexes and graphs.
+   *
+   * @param way The way to add.
+   */
+  private void insert(final Way way) {
+    way.pack();
+
+    switch (ElementStore.kind(way)) {
+      case ROAD:
+        this.roads.add(way);
+        this.transportWays.add(way);
+        break;
+      case CYCLEWAY:
+        this.cycleways.add(way);
+        this.transportWays.add(way);
+        break;
+      case WAY:
+        this.ways.add(way);
+        break;
+      default:
+        break;
+    }
+
+    this.reindex(way);
+  }
+
+  /**
+   * Add a way already contained within its lists to its indexes and graphs.
+   *
+   * @param way The way to add.
+   */
+  private void reindex(final Way way) {
+    switch (ElementStore.kind(way)) {
+      case ROAD:
+        this.roadsTree.add(way);
+        this.transportWaysTree.add(way);
+        this.addEdge(way);
+        break;
+      case CYCLEWAY:
+        this.cyclewaysTree.add(way);
+        this.transportWaysTree.add(way);
+        this.addEdge(way);
+        break;
+      case WAY:
+        this.waysTree.add(way);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Remove an element from its indexes and graphs, leaving its lists be.
+   *
+   * @param element The element to remove.
+   */
+  private void unindex(final Element element) {
+    if (element instanceof Relation) {
+      this.relationsTree.remove((Relation) element);
+      return;
+    }
+
+    if (element instanceof Node) {
+      this.poiTree.remove((Node) element);
+      return;
+    }
+
+    if (!(element instanceof Way)) {
+      return;
+    }
+
+    Way way = (Way) element;
+
+    switch (ElementStore.kind(way)) {
+      case ROAD:
+        this.roadsTree.remove(way);
+        this.transportWaysTree.remove(way);
+        this.removeEdge(way);
+        break;
+      case CYCLEWAY:
+        this.cyclewaysTree.remove(way);
+        this.transportWaysTree.remove(way);
+        this.removeEdge(way);
+        break;
+      case WAY:
+        this.waysTree.remove(way);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Throw if the store is read-only.
+   */
+  private void writable() {
+    if (this.mapped != null) {
+      throw new UnsupportedOperationException("Mapped stores are read-only");
+    }
+
+    if (this.regions != null) {
+      throw new UnsupportedOperationException("Region stores are read-only");
+    }
+  }
+
+  /**
+   * Read the packed graphs of a mapped store if not already done.
+   */
+  private void loadGraphs() {
+    if (this.mapped == null || this.graphsLoaded) {
+      return;
+    }
+
+    List<PackedGraph> graphs = this.mapped.graphs();
+
+    this.carGraph = graphs.get(0);
+    this.bicycleGraph = graphs.get(1);
+    this.graphsLoaded = true;
+  }
+
+  /**
+   * Create an empty routing graph.
+   *
+   * @param bicycle Whether or not the graph is for bicycles; {@code "yes"}
+   *                or {@code "no"}.
+   * @return        The routing graph.
+   */
+  private static Graph<Node, Way> graph(final String bicycle) {
+    Properties properties = new Properties();
+    properties.setProperty("bicycle", bicycle);
+
+    return new WeightedGraph<>(properties);
   }
 
   /**
@@ -400,6 +1284,41 @@ public final class ElementStore extends Store<Element, SpatialIndex.Bounds> {
     this.bicycleGraph.add(way);
   }
 
+  /**
+   * Remove the edges of a way from the graphs.
+   *
+   * @param way A way whose edges to remove.
+   */
+  private void removeEdge(final Way way) {
+    this.carGraph.remove(way);
+    this.bicycleGraph.remove(way);
+  }
+
+  /**
+   * The kinds of ways, by the list they belong in.
+   */
+  private enum Kind {
+    /**
+     * Roads, which are part of the routing graphs.
+     */
+    ROAD,
+
+    /**
+     * Cycleways, which are part of the routing graphs.
+     */
+    CYCLEWAY,
+
+    /**
+     * All other ways.
+     */
+    WAY,
+
+    /**
+     * Ways that aren't stored.
+     */
+    NONE
+  }
+
   /**
    * The search query object.
    */
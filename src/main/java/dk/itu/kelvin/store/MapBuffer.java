@@ -0,0 +1,637 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+// I/O utilities
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Map buffer class.
+ *
+ * <p>
+ * The map buffer maps the sections of a map file into memory and decodes
+ * single elements on demand using the lookup sections of the file. Elements
+ * are decoded anew every time they're asked for, so nothing but the mapping
+ * itself is kept around between lookups.
+ *
+ * <p>
+ * Only absolute reads are done on the mapped sections, which never touch the
+ * position of the buffers, so a map buffer may be read from several threads
+ * at once.
+ *
+ * @see MapFile
+ */
+final class MapBuffer {
+  /**
+   * The number of bytes of the header of a map file.
+   */
+  private static final int HEADER = 12;
+
+  /**
+   * The number of bytes of the header of a section.
+   */
+  private static final int SECTION_HEADER = 8;
+
+  /**
+   * The number of bytes of a relation member.
+   */
+  private static final int MEMBER = 9;
+
+  /**
+   * The maximum depth of relations to decode; relations nested deeper than
+   * this are left out, which also guards against cyclic relations.
+   */
+  private static final int MAX_DEPTH = 8;
+
+  /**
+   * The kinds of elements that members may reference.
+   */
+  private static final MapFile.Kind[] KINDS = MapFile.Kind.values();
+
+  /**
+   * The mapped file.
+   */
+  private final File file;
+
+  /**
+   * The mapped sections of the file.
+   */
+  private final Map<MapFile.Section, ByteBuffer> sections = new EnumMap<>(
+    MapFile.Section.class
+  );
+
+  /**
+   * The number of nodes of the file.
+   */
+  private final int nodes;
+
+  /**
+   * The number of ways of the file.
+   */
+  private final int ways;
+
+  /**
+   * The offset of each element list within the indexes section.
+   */
+  private final int[] indexes = new int[MapFile.Index.values().length];
+
+  /**
+   * The offset of each packed tree within the trees section.
+   */
+  private final int[] trees;
+
+  /**
+   * Map the specified map file.
+   *
+   * @param file The map file to map.
+   *
+   * @throws IOException In case of an I/O error or if the file doesn't
+   *                     contain a valid map file.
+   */
+  MapBuffer(final File file) throws IOException {
+    this.file = file;
+
+    // The mappings remain valid once the channel has been closed.
+    try (FileChannel channel = FileChannel.open(
+      file.toPath(), StandardOpenOption.READ
+    )) {
+      ByteBuffer header = this.read(channel, 0, HEADER);
+
+      if (header.getInt() != MapFile.MAGIC) {
+        throw new IOException("Not a map file");
+      }
+
+      int version = header.getInt();
+
+      if (version != MapFile.VERSION) {
+        throw new IOException("Unsupported map file version " + version);
+      }
+
+      int count = header.getInt();
+      long position = HEADER;
+
+      for (int i = 0; i < count; i++) {
+        ByteBuffer section = this.read(channel, position, SECTION_HEADER);
+
+        MapFile.Section id = MapFile.Section.of(section.getInt());
+        int length = section.getInt();
+
+        if (length < 0) {
+          throw new IOException("Invalid section length " + length);
+        }
+
+        position += SECTION_HEADER;
+
+        if (position + length > channel.size()) {
+          throw new IOException("Corrupt map file");
+        }
+
+        if (id != null) {
+          this.sections.put(id, channel.map(
+            FileChannel.MapMode.READ_ONLY, position, length
+          ));
+        }
+
+        position += length;
+      }
+    }
+
+    for (MapFile.Section section: MapFile.Section.values()) {
+      if (!this.sections.containsKey(section)) {
+        throw new IOException(
+          "Missing section " + section + "; save the map again to map it"
+        );
+      }
+    }
+
+    try {
+      this.nodes = this.section(MapFile.Section.NODES).getInt(0);
+      this.ways = this.section(MapFile.Section.WAYS).getInt(0);
+
+      ByteBuffer buffer = this.section(MapFile.Section.INDEXES);
+      int offset = 0;
+
+      for (int i = 0; i < this.indexes.length; i++) {
+        this.indexes[i] = offset;
+        offset += 4 + 4 * buffer.getInt(offset);
+      }
+
+      this.trees = PackedIndex.offsets(
+        this.section(MapFile.Section.TREES), this.indexes.length
+      );
+    }
+    catch (IndexOutOfBoundsException ex) {
+      throw new IOException("Corrupt map file", ex);
+    }
+  }
+
+  /**
+   * Read the specified number of bytes from the specified position of a
+   * channel.
+   *
+   * @param channel   The channel to read from.
+   * @param position  The position to read from.
+   * @param length    The number of bytes to read.
+   * @return          The read bytes, flipped for reading.
+   *
+   * @throws IOException In case of an I/O error or if the channel ends early.
+   */
+  private ByteBuffer read(
+    final FileChannel channel,
+    final long position,
+    final int length
+  ) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Corrupt map file");
+      }
+    }
+
+    buffer.flip();
+
+    return buffer;
+  }
+
+  /**
+   * Get the specified section of the file.
+   *
+   * @param section The section to get.
+   * @return        The mapped section.
+   */
+  private ByteBuffer section(final MapFile.Section section) {
+    return this.sections.get(section);
+  }
+
+  /**
+   * Get the bounds of the map.
+   *
+   * @return The bounds of the map or {@code null} if the map has no bounds.
+   */
+  BoundingBox bounds() {
+    ByteBuffer buffer = this.section(MapFile.Section.BOUNDS);
+
+    if (buffer.get(0) == 0) {
+      return null;
+    }
+
+    return new BoundingBox(
+      buffer.getFloat(1),
+      buffer.getFloat(5),
+      buffer.getFloat(9),
+      buffer.getFloat(13)
+    );
+  }
+
+  /**
+   * Get the extent of the map, which is the union of its bounds and the
+   * bounding boxes of its elements.
+   *
+   * <p>
+   * Ways and relations crossing the edge of the bounds of a map are kept in
+   * full, so the elements of a map may reach beyond its bounds.
+   *
+   * @return The extent of the map or {@code null} if the map has neither
+   *         bounds nor elements.
+   */
+  BoundingBox extent() {
+    float[] extent = {
+      Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY,
+      Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY
+    };
+
+    BoundingBox bounds = this.bounds();
+
+    if (bounds != null) {
+      extent[PackedIndex.MIN_X] = bounds.minX();
+      extent[PackedIndex.MIN_Y] = bounds.minY();
+      extent[PackedIndex.MAX_X] = bounds.maxX();
+      extent[PackedIndex.MAX_Y] = bounds.maxY();
+    }
+
+    for (MapFile.Index index: MapFile.Index.values()) {
+      PackedIndex<Element> tree = this.index(index);
+
+      if (tree.isEmpty()) {
+        continue;
+      }
+
+      for (int c = 0; c < 4; c++) {
+        extent[c] = (c < 2)
+          ? Math.min(extent[c], tree.extent(c))
+          : Math.max(extent[c], tree.extent(c));
+      }
+    }
+
+    if (extent[PackedIndex.MIN_X] > extent[PackedIndex.MAX_X]) {
+      return null;
+    }
+
+    return new BoundingBox(extent[0], extent[1], extent[2], extent[3]);
+  }
+
+  /**
+   * Decode the addresses of the map into a new address store.
+   *
+   * @return The addresses of the map.
+   *
+   * @throws IOException If the addresses section is corrupt.
+   */
+  AddressStore addresses() throws IOException {
+    ByteBuffer buffer = this.section(MapFile.Section.ADDRESSES).duplicate();
+    AddressStore addresses = new AddressStore();
+
+    try {
+      int n = buffer.getInt();
+
+      for (int i = 0; i < n; i++) {
+        Address address = new Address();
+
+        address.x(buffer.getFloat());
+        address.y(buffer.getFloat());
+
+        address
+          .street(this.string(buffer.getInt()))
+          .number(this.string(buffer.getInt()))
+          .floor(this.string(buffer.getInt()))
+          .door(this.string(buffer.getInt()))
+          .postcode(this.string(buffer.getInt()))
+          .city(this.string(buffer.getInt()));
+
+        addresses.add(address);
+      }
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+      throw new IOException("Corrupt map file", ex);
+    }
+
+    return addresses;
+  }
+
+  /**
+   * Decode a string of the string table.
+   *
+   * @param index The index of the string or -1 for {@code null}.
+   * @return      The string.
+   */
+  private String string(final int index) {
+    if (index == -1) {
+      return null;
+    }
+
+    ByteBuffer strings = this.section(MapFile.Section.STRINGS);
+
+    int offset = this.section(MapFile.Section.STRING_OFFSETS).getInt(
+      4 * index
+    );
+
+    byte[] bytes = new byte[strings.getInt(offset)];
+
+    ByteBuffer buffer = strings.duplicate();
+    buffer.position(offset + 4);
+    buffer.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decode the tags of an element.
+   *
+   * @param element The element to tag.
+   * @param index   The index of the element within the tag offsets.
+   */
+  private void tag(final Element element, final int index) {
+    int offset = this.section(MapFile.Section.TAG_OFFSETS).getInt(4 * index);
+
+    if (offset == -1) {
+      return;
+    }
+
+    ByteBuffer tags = this.section(MapFile.Section.TAGS);
+
+    int n = tags.getInt(offset);
+
+    for (int i = 0; i < n; i++) {
+      element.tag(
+        this.string(tags.getInt(offset + 4 + 8 * i)),
+        this.string(tags.getInt(offset + 8 + 8 * i))
+      );
+    }
+  }
+
+  /**
+   * Decode an element.
+   *
+   * @param kind  The kind of the element.
+   * @param index The index of the element within its table.
+   * @return      The decoded element.
+   */
+  Element element(final MapFile.Kind kind, final int index) {
+    switch (kind) {
+      case NODE:
+        return this.node(index);
+      case WAY:
+        return this.way(index);
+      default:
+        return this.relation(index, 0);
+    }
+  }
+
+  /**
+   * Decode a node.
+   *
+   * @param index The index of the node.
+   * @return      The decoded node.
+   */
+  Node node(final int index) {
+    Node node = new Node(this.x(index), this.y(index));
+
+    this.tag(node, index);
+
+    return node;
+  }
+
+  /**
+   * Get the x-coordinate of a node without decoding it.
+   *
+   * @param index The index of the node.
+   * @return      The x-coordinate of the node.
+   */
+  private float x(final int index) {
+    return this.section(MapFile.Section.NODES).getFloat(4 + 8 * index);
+  }
+
+  /**
+   * Get the y-coordinate of a node without decoding it.
+   *
+   * @param index The index of the node.
+   * @return      The y-coordinate of the node.
+   */
+  private float y(final int index) {
+    return this.section(MapFile.Section.NODES).getFloat(8 + 8 * index);
+  }
+
+  /**
+   * Decode a way.
+   *
+   * @param index The index of the way.
+   * @return      The decoded way.
+   */
+  Way way(final int index) {
+    ByteBuffer ways = this.section(MapFile.Section.WAYS);
+
+    int offset = this.section(MapFile.Section.WAY_OFFSETS).getInt(4 * index);
+    int n = ways.getInt(offset);
+    int length = ways.getInt(offset + 4);
+
+    Way way;
+
+    if (length >= 0) {
+      byte[] geometry = new byte[length];
+
+      ByteBuffer buffer = ways.duplicate();
+      buffer.position(offset + 8);
+      buffer.get(geometry);
+
+      // The packed coordinates are relative to the bounding box of the way.
+      way = new Way(
+        this.box(MapFile.Kind.WAY, index, PackedIndex.MIN_X),
+        this.box(MapFile.Kind.WAY, index, PackedIndex.MIN_Y),
+        this.box(MapFile.Kind.WAY, index, PackedIndex.MAX_X),
+        this.box(MapFile.Kind.WAY, index, PackedIndex.MAX_Y),
+        n,
+        geometry
+      );
+    }
+    else {
+      way = new Way();
+
+      for (int i = 0; i < n; i++) {
+        way.add(new Node(
+          ways.getFloat(offset + 8 + 8 * i),
+          ways.getFloat(offset + 12 + 8 * i)
+        ));
+      }
+    }
+
+    this.tag(way, this.nodes + index);
+
+    return way;
+  }
+
+  /**
+   * Decode a relation.
+   *
+   * @param index The index of the relation.
+   * @param depth The depth of the relation within the relation being decoded.
+   * @return      The decoded relation.
+   */
+  private Relation relation(final int index, final int depth) {
+    ByteBuffer relations = this.section(MapFile.Section.RELATIONS);
+
+    int offset = this.section(MapFile.Section.RELATION_OFFSETS).getInt(
+      4 * index
+    );
+    int n = relations.getInt(offset);
+
+    Relation relation = new Relation();
+
+    for (int i = 0; i < n; i++) {
+      int member = offset + 4 + MEMBER * i;
+
+      MapFile.Kind kind = KINDS[relations.get(member)];
+      int element = relations.getInt(member + 1);
+      String role = this.string(relations.getInt(member + 5));
+
+      switch (kind) {
+        case NODE:
+          relation.add(this.node(element), role);
+          break;
+        case WAY:
+          relation.add(this.way(element), role);
+          break;
+        default:
+          if (depth < MAX_DEPTH) {
+            relation.add(this.relation(element, depth + 1), role);
+          }
+      }
+    }
+
+    this.tag(relation, this.nodes + this.ways + index);
+
+    return relation;
+  }
+
+  /**
+   * Get a coordinate of the bounding box of an element.
+   *
+   * @param kind        The kind of the element.
+   * @param index       The index of the element within its table.
+   * @param coordinate  The coordinate to get, see {@link PackedIndex#MIN_X}
+   *                    and friends.
+   * @return            The coordinate.
+   */
+  private float box(
+    final MapFile.Kind kind,
+    final int index,
+    final int coordinate
+  ) {
+    switch (kind) {
+      case NODE:
+        return (coordinate % 2 == 0) ? this.x(index) : this.y(index);
+      case WAY:
+        return this.section(MapFile.Section.BOXES).getFloat(
+          16 * index + 4 * coordinate
+        );
+      default:
+        return this.section(MapFile.Section.BOXES).getFloat(
+          16 * (this.ways + index) + 4 * coordinate
+        );
+    }
+  }
+
+  /**
+   * Get the packed index over an element list of the file.
+   *
+   * <p>
+   * The index decodes elements only once their bounding boxes, which are read
+   * straight from the file, match a query.
+   *
+   * @param <E>   The type of elements of the list.
+   * @param index The element list.
+   * @return      The packed index over the list.
+   */
+  <E extends Element> PackedIndex<E> index(final MapFile.Index index) {
+    ByteBuffer entries = this.section(MapFile.Section.INDEXES);
+    int offset = this.indexes[index.ordinal()];
+    int size = entries.getInt(offset);
+
+    MapFile.Kind kind = index.kind();
+
+    return new PackedIndex<>(
+      this.section(MapFile.Section.TREES),
+      this.trees[index.ordinal()],
+      new PackedIndex.Entries<E>() {
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(final int i) {
+          return (E) MapBuffer.this.element(
+            kind, entries.getInt(offset + 4 + 4 * i)
+          );
+        }
+
+        @Override
+        public float box(final int i, final int coordinate) {
+          return MapBuffer.this.box(
+            kind, entries.getInt(offset + 4 + 4 * i), coordinate
+          );
+        }
+      }
+    );
+  }
+
+  /**
+   * Read the routing graphs of the file.
+   *
+   * @return The packed routing graphs; the car graph followed by the bicycle
+   *         graph.
+   */
+  List<PackedGraph> graphs() {
+    return PackedGraph.read(this.section(MapFile.Section.ROUTES), (index) -> {
+      return this.way(index);
+    });
+  }
+
+  /**
+   * Get the length of the mapped file.
+   *
+   * @return The length of the mapped file in bytes.
+   */
+  long length() {
+    return this.file.length();
+  }
+
+  /**
+   * Copy the mapped file to the specified stream.
+   *
+   * @param output The stream to copy the file to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  void copy(final OutputStream output) throws IOException {
+    Files.copy(this.file.toPath(), output);
+    output.flush();
+  }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// I/O utilities
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Functional utilities
+import java.util.function.LongConsumer;
+import dk.itu.kelvin.util.function.Callback;
+
+// Models
+import dk.itu.kelvin.model.BoundingBox;
+
+/**
+ * Map file class.
+ *
+ * <p>
+ * A map file holds everything needed to show a map without parsing the OSM
+ * file it came from: the bounds of the map, its elements and its addresses.
+ * Rather than relying on Java serialization, which is slow, verbose and
+ * breaks whenever a serialized class changes, map files use a dedicated,
+ * versioned binary format.
+ *
+ * <p>
+ * A map file starts with a header consisting of a magic number, the version
+ * of the format and the number of sections in the file. Each section then
+ * starts with its {@link Section} ID and its length in bytes, followed by its
+ * contents. All numbers are big-endian and elements refer to each other, and
+ * to strings, by their index within the section that holds them:
+ *
+ * <ol>
+ * <li>{@link Section#STRINGS}: the distinct strings of the map, as UTF-8.</li>
+ * <li>{@link Section#NODES}: the coordinates of all nodes that aren't part of
+ * a way, such as points of interest.</li>
+ * <li>{@link Section#WAYS}: the coordinates of the nodes of all ways, packed
+ * by the {@link dk.itu.kelvin.util.CoordinateCodec} relative to the bounding
+ * box of each way as stored in {@link Section#BOXES}.</li>
+ * <li>{@link Section#RELATIONS}: the members and roles of all relations.</li>
+ * <li>{@link Section#TAGS}: the tags of all tagged nodes, ways and relations.
+ * </li>
+ * <li>{@link Section#ADDRESSES}: the coordinates and fields of all addresses.
+ * </li>
+ * <li>{@link Section#INDEXES}: the elements making up each spatial index.</li>
+ * <li>{@link Section#BOUNDS}: the bounds of the map.</li>
+ * </ol>
+ *
+ * <p>
+ * These are followed by a number of lookup sections made up of fixed-size
+ * records, which allow single elements to be found and decoded without
+ * decoding the sections above in full:
+ *
+ * <ol>
+ * <li>{@link Section#STRING_OFFSETS}: the offset of each string.</li>
+ * <li>{@link Section#TAG_OFFSETS}: the offset of the tags of each node, way
+ * and relation, or -1 if untagged.</li>
+ * <li>{@link Section#WAY_OFFSETS}: the offset of each way.</li>
+ * <li>{@link Section#RELATION_OFFSETS}: the offset of each relation.</li>
+ * <li>{@link Section#BOXES}: the bounding box of each way and relation.</li>
+ * <li>{@link Section#TREES}: a packed spatial index over each of the element
+ * lists of {@link Section#INDEXES}, whose elements are stored in the order in
+ * which they were packed. Stores read from map files answer queries from
+ * these trees straight away rather than rebuilding their indexes.</li>
+ * <li>{@link Section#ROUTES}: the car and the bicycle routing graphs as
+ * adjacency arrays, see {@link PackedGraph}. Stores read from map files use
+ * these as their graphs straight away rather than adding the edges of the
+ * graphs one by one.</li>
+ * </ol>
+ *
+ * <p>
+ * Readers skip sections they don't know, so sections can be added without
+ * bumping the version of the format. The version is only bumped when the
+ * contents of an existing section change, and map files of other versions
+ * are rejected and have to be created anew from their OSM files.
+ */
+public final class MapFile {
+  /**
+   * The magic number identifying map files, {@code KMAP} in ASCII.
+   */
+  static final int MAGIC = 0x4B4D4150;
+
+  /**
+   * The version of the format.
+   */
+  static final int VERSION = 3;
+
+  /**
+   * The bounds of the map.
+   */
+  private final BoundingBox bounds;
+
+  /**
+   * The elements of the map.
+   */
+  private final ElementStore elements;
+
+  /**
+   * The addresses of the map.
+   */
+  private final AddressStore addresses;
+
+  /**
+   * Initialize a new map file.
+   *
+   * @param bounds    The bounds of the map.
+   * @param elements  The elements of the map.
+   * @param addresses The addresses of the map.
+   */
+  public MapFile(
+    final BoundingBox bounds,
+    final ElementStore elements,
+    final AddressStore addresses
+  ) {
+    this.bounds = bounds;
+    this.elements = elements;
+    this.addresses = addresses;
+  }
+
+  /**
+   * Get the bounds of the map.
+   *
+   * @return The bounds of the map.
+   */
+  public BoundingBox bounds() {
+    return this.bounds;
+  }
+
+  /**
+   * Get the elements of the map.
+   *
+   * @return The elements of the map.
+   */
+  public ElementStore elements() {
+    return this.elements;
+  }
+
+  /**
+   * Get the addresses of the map.
+   *
+   * @return The addresses of the map.
+   */
+  public AddressStore addresses() {
+    return this.addresses;
+  }
+
+  /**
+   * Read a map file from the specified stream.
+   *
+   * <p>
+   * The stream is read to the end but not closed.
+   *
+   * @param input The stream to read the map file from.
+   * @return      The read map file.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  public static MapFile read(final InputStream input) throws IOException {
+    return new MapReader(input).read();
+  }
+
+  /**
+   * Read a map file from the specified stream, telling the specified
+   * listener about the stores as they're filled.
+   *
+   * <p>
+   * The element store is handed to the listener as soon as it holds the
+   * bounds and the land of the map, and may be searched while the remaining
+   * elements are added to it. The stream is read to the end but not closed.
+   *
+   * @param input     The stream to read the map file from.
+   * @param listener  The listener to tell about the stores.
+   * @return          The read map file.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  public static MapFile read(
+    final InputStream input,
+    final Listener listener
+  ) throws IOException {
+    return new MapReader(input, listener).read();
+  }
+
+  /**
+   * Map a map file into memory.
+   *
+   * <p>
+   * The elements of a mapped map file stay encoded in the file and are only
+   * decoded when searched for or when the routing graphs are first used,
+   * keeping the memory used by the element store roughly constant regardless
+   * of the size of the map. Addresses are still read into memory as a whole
+   * as they're needed for building the address index.
+   *
+   * <p>
+   * The returned element store is read-only. The file must not be modified
+   * while mapped; overwrite it by writing to a new file and moving that into
+   * place instead.
+   *
+   * @param file  The map file to map.
+   * @return      The mapped map file.
+   *
+   * @throws IOException In case of an I/O error or if the file doesn't
+   *                     contain a valid map file.
+   */
+  public static MapFile map(final File file) throws IOException {
+    MapBuffer buffer = new MapBuffer(file);
+
+    return new MapFile(
+      buffer.bounds(), new ElementStore(buffer), buffer.addresses()
+    );
+  }
+
+  /**
+   * Write the map file to the specified stream.
+   *
+   * <p>
+   * If the element store of the map file is mapped, the mapped file is copied
+   * to the stream as-is. The stream is flushed but not closed.
+   *
+   * @param output The stream to write the map file to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public void write(final OutputStream output) throws IOException {
+    this.write(output, (length) -> { });
+  }
+
+  /**
+   * Write the map file to the specified stream, reporting its total length
+   * once known.
+   *
+   * @param output  The stream to write the map file to.
+   * @param length  The listener to report the total length of the map file
+   *                to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private void write(
+    final OutputStream output,
+    final LongConsumer length
+  ) throws IOException {
+    MapBuffer buffer = this.elements.mapped();
+
+    if (buffer != null) {
+      length.accept(buffer.length());
+      buffer.copy(output);
+    }
+    else {
+      new MapWriter(output, length).write(this);
+    }
+  }
+
+  /**
+   * Save the map file to the specified file in the background.
+   *
+   * <p>
+   * Unlike {@link Store#save(File, Callback)}, the map file is written
+   * uncompressed so that it can be mapped when loaded again. Like stores, it
+   * is written to a temporary file which is then moved into place, so the
+   * specified file, which may well be the file the map file is mapped from,
+   * is left untouched until the map file has been written in full.
+   *
+   * @param file      The file to save the map file to.
+   * @param callback  The callback to invoke once saving has finished,
+   *                  successfully or not.
+   * @return          A handle for following the progress of the save.
+   */
+  public Store.Handle save(final File file, final Callback callback) {
+    return Store.save(file, callback, (output, handle) -> {
+      this.write(new MeteredOutputStream(output, handle), (length) -> {
+        handle.expect(length);
+      });
+    });
+  }
+
+  /**
+   * The {@link Listener} interface describes a receiver of the stores of a
+   * map file being read.
+   *
+   * <p>
+   * The callbacks are called on the thread reading the map file. All
+   * callbacks do nothing by default so implementations only need to override
+   * the ones they're interested in.
+   */
+  public interface Listener {
+    /**
+     * Receive the element store once it holds the bounds and the land of the
+     * map.
+     *
+     * @param bounds    The bounds of the map, if any.
+     * @param elements  The element store being filled.
+     */
+    default void onLand(
+      final BoundingBox bounds,
+      final ElementStore elements
+    ) {
+      return;
+    }
+
+    /**
+     * Receive notice that another kind of elements, such as the roads or the
+     * points of interest, has been added to the element store.
+     *
+     * @param elements The element store being filled.
+     */
+    default void onElements(final ElementStore elements) {
+      return;
+    }
+
+    /**
+     * Receive the address store once it holds all addresses of the map.
+     *
+     * @param addresses The address store.
+     */
+    default void onAddresses(final AddressStore addresses) {
+      return;
+    }
+  }
+
+  /**
+   * The {@link Section} enumerator describes the sections of a map file.
+   */
+  enum Section {
+    /**
+     * The distinct strings of the map.
+     */
+    STRINGS(1),
+
+    /**
+     * The coordinates of all nodes that aren't part of a way.
+     */
+    NODES(2),
+
+    /**
+     * The packed coordinates of the nodes of all ways.
+     */
+    WAYS(3),
+
+    /**
+     * The members and roles of all relations.
+     */
+    RELATIONS(4),
+
+    /**
+     * The tags of all tagged nodes, ways and relations.
+     */
+    TAGS(5),
+
+    /**
+     * The coordinates and fields of all addresses.
+     */
+    ADDRESSES(6),
+
+    /**
+     * The elements making up each spatial index.
+     */
+    INDEXES(8),
+
+    /**
+     * The bounds of the map.
+     */
+    BOUNDS(9),
+
+    /**
+     * The offset of each string within {@link #STRINGS}.
+     */
+    STRING_OFFSETS(10),
+
+    /**
+     * The offset of the tags of each node, way and relation within
+     * {@link #TAGS}.
+     */
+    TAG_OFFSETS(11),
+
+    /**
+     * The offset of each way within {@link #WAYS}.
+     */
+    WAY_OFFSETS(12),
+
+    /**
+     * The offset of each relation within {@link #RELATIONS}.
+     */
+    RELATION_OFFSETS(13),
+
+    /**
+     * The bounding box of each way and relation.
+     */
+    BOXES(14),
+
+    /**
+     * The packed spatial index over each element list of {@link #INDEXES}.
+     */
+    TREES(15),
+
+    /**
+     * The routing graphs as adjacency arrays.
+     */
+    ROUTES(16);
+
+    /**
+     * The ID of the section as stored in map files.
+     */
+    private final int id;
+
+    /**
+     * Initialize a new section.
+     *
+     * @param id The ID of the section as stored in map files.
+     */
+    Section(final int id) {
+      this.id = id;
+    }
+
+    /**
+     * Get the ID of the section as stored in map files.
+     *
+     * @return The ID of the section.
+     */
+    int id() {
+      return this.id;
+    }
+
+    /**
+     * Look up the section with the specified ID.
+     *
+     * @param id  The ID of the section.
+     * @return    The section with the ID or {@code null} if unknown.
+     */
+    static Section of(final int id) {
+      for (Section section: Section.values()) {
+        if (section.id == id) {
+          return section;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * The {@link Index} enumerator describes the lists of elements making up the
+   * spatial indexes of an element store, in the order in which they're stored
+   * in the {@link Section#INDEXES} section.
+   */
+  enum Index {
+    /**
+     * The land polygons.
+     */
+    LAND(Kind.WAY),
+
+    /**
+     * The ways that aren't roads or cycleways.
+     */
+    WAYS(Kind.WAY),
+
+    /**
+     * The roads.
+     */
+    ROADS(Kind.WAY),
+
+    /**
+     * The cycleways.
+     */
+    CYCLEWAYS(Kind.WAY),
+
+    /**
+     * The roads and cycleways.
+     */
+    TRANSPORT_WAYS(Kind.WAY),
+
+    /**
+     * The relations.
+     */
+    RELATIONS(Kind.RELATION),
+
+    /**
+     * The points of interest.
+     */
+    POIS(Kind.NODE);
+
+    /**
+     * The kind of elements in the list.
+     */
+    private final Kind kind;
+
+    /**
+     * Initialize a new index.
+     *
+     * @param kind The kind of elements in the list.
+     */
+    Index(final Kind kind) {
+      this.kind = kind;
+    }
+
+    /**
+     * Get the kind of elements in the list.
+     *
+     * @return The kind of elements in the list.
+     */
+    Kind kind() {
+      return this.kind;
+    }
+  }
+
+  /**
+   * The {@link Kind} enumerator describes the kinds of elements that members
+   * of relations may reference.
+   */
+  enum Kind {
+    /**
+     * A node.
+     */
+    NODE,
+
+    /**
+     * A way.
+     */
+    WAY,
+
+    /**
+     * A relation.
+     */
+    RELATION;
+  }
+}
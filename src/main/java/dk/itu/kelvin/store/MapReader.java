@@ -0,0 +1,646 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// I/O utilities
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// NIO utilities
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Map reader class.
+ *
+ * <p>
+ * The map reader reads all sections of a map file into memory before decoding
+ * them, so that sections can be decoded in the order in which they depend on
+ * each other regardless of the order in which they were written. Decoding is
+ * done straight from byte buffers with no intermediate objects beyond the
+ * elements themselves.
+ *
+ * <p>
+ * The elements are added to the element store one index at a time, starting
+ * with the land, while holding the lock of the store. The store can therefore
+ * be searched, and the chart can render it, while it's being filled; see
+ * {@link MapFile.Listener}.
+ *
+ * @see MapFile
+ */
+final class MapReader {
+  /**
+   * The sections decoded by the reader.
+   */
+  private static final Set<MapFile.Section> DECODED = EnumSet.of(
+    MapFile.Section.STRINGS,
+    MapFile.Section.NODES,
+    MapFile.Section.WAYS,
+    MapFile.Section.RELATIONS,
+    MapFile.Section.TAGS,
+    MapFile.Section.ADDRESSES,
+    MapFile.Section.INDEXES,
+    MapFile.Section.BOUNDS,
+    MapFile.Section.BOXES,
+    MapFile.Section.TREES,
+    MapFile.Section.ROUTES
+  );
+
+  /**
+   * The stream to read from.
+   */
+  private final DataInputStream input;
+
+  /**
+   * The listener to tell about the stores as they're filled, if any.
+   */
+  private final MapFile.Listener listener;
+
+  /**
+   * The sections of the map file.
+   */
+  private final Map<MapFile.Section, ByteBuffer> sections = new EnumMap<>(
+    MapFile.Section.class
+  );
+
+  /**
+   * The string table of the map file.
+   */
+  private String[] strings;
+
+  /**
+   * The node table of the map file.
+   */
+  private Node[] nodes;
+
+  /**
+   * The way table of the map file.
+   */
+  private Way[] ways;
+
+  /**
+   * The relation table of the map file.
+   */
+  private Relation[] relations;
+
+  /**
+   * Initialize a new map reader.
+   *
+   * @param input The stream to read from.
+   */
+  MapReader(final InputStream input) {
+    this(input, null);
+  }
+
+  /**
+   * Initialize a new map reader telling the specified listener about the
+   * stores as they're filled.
+   *
+   * @param input     The stream to read from.
+   * @param listener  The listener to tell about the stores, if any.
+   */
+  MapReader(final InputStream input, final MapFile.Listener listener) {
+    this.input = new DataInputStream(input);
+    this.listener = listener;
+  }
+
+  /**
+   * Read the map file.
+   *
+   * @return The read map file.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  MapFile read() throws IOException {
+    return this.read(new ElementStore(), new AddressStore());
+  }
+
+  /**
+   * Read the map file into the specified stores.
+   *
+   * <p>
+   * The elements and addresses of the map file are added to whatever the
+   * stores already contain. The packed indexes and routing graphs of the map
+   * file are only used if the element store was empty; otherwise, the indexes
+   * of the store are rebuilt on the next search and the transport ways of the
+   * map file are added to its graphs.
+   *
+   * @param elements  The store to add the elements of the map file to.
+   * @param addresses The store to add the addresses of the map file to.
+   * @return          The read map file.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid map file.
+   */
+  MapFile read(
+    final ElementStore elements,
+    final AddressStore addresses
+  ) throws IOException {
+    if (this.input.readInt() != MapFile.MAGIC) {
+      throw new IOException("Not a map file");
+    }
+
+    int version = this.input.readInt();
+
+    if (version != MapFile.VERSION) {
+      throw new IOException("Unsupported map file version " + version);
+    }
+
+    int count = this.input.readInt();
+
+    for (int i = 0; i < count; i++) {
+      MapFile.Section section = MapFile.Section.of(this.input.readInt());
+      int length = this.input.readInt();
+
+      if (length < 0) {
+        throw new IOException("Invalid section length " + length);
+      }
+
+      // Most lookup sections are only needed when mapping map files, but the
+      // boxes of the ways are needed for decoding their coordinates.
+      if (section == null || !DECODED.contains(section)) {
+        this.skip(length);
+        continue;
+      }
+
+      byte[] bytes = new byte[length];
+      this.input.readFully(bytes);
+      this.sections.put(section, ByteBuffer.wrap(bytes));
+    }
+
+    try {
+      return this.decode(elements, addresses);
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+      throw new IOException("Corrupt map file", ex);
+    }
+  }
+
+  /**
+   * Skip the specified number of bytes of the stream.
+   *
+   * @param length The number of bytes to skip.
+   *
+   * @throws IOException In case of an I/O error or if the stream ends early.
+   */
+  private void skip(final int length) throws IOException {
+    int skipped = 0;
+
+    while (skipped < length) {
+      int n = this.input.skipBytes(length - skipped);
+
+      if (n <= 0) {
+        // Fall back to reading to detect the end of the stream.
+        this.input.readByte();
+        n = 1;
+      }
+
+      skipped += n;
+    }
+  }
+
+  /**
+   * Decode the sections of the map file into the specified stores.
+   *
+   * @param elements  The store to add the elements of the map file to.
+   * @param addresses The store to add the addresses of the map file to.
+   * @return          The decoded map file.
+   *
+   * @throws IOException If a required section is missing.
+   */
+  private MapFile decode(
+    final ElementStore elements,
+    final AddressStore addresses
+  ) throws IOException {
+    this.strings(this.section(MapFile.Section.STRINGS));
+    this.nodes(this.section(MapFile.Section.NODES));
+    this.ways(this.section(MapFile.Section.WAYS));
+    this.relations(this.section(MapFile.Section.RELATIONS));
+    this.tags(this.section(MapFile.Section.TAGS));
+
+    BoundingBox bounds = this.bounds(this.section(MapFile.Section.BOUNDS));
+    ByteBuffer indexes = this.section(MapFile.Section.INDEXES);
+    ByteBuffer trees = this.section(MapFile.Section.TREES);
+    ByteBuffer routes = this.section(MapFile.Section.ROUTES);
+
+    // Map files read into a store that already had elements have their
+    // indexes rebuilt on the first search instead, and the edges of their
+    // routing graphs added to the graphs of the store.
+    if (!elements.isEmpty()) {
+      trees = null;
+      routes = null;
+    }
+
+    // The lists of the INDEXES section are decoded in the order in which
+    // they were written, the land coming first.
+    synchronized (elements) {
+      if (bounds != null) {
+        elements.add(bounds);
+      }
+
+      this.ways(indexes, elements.land());
+      this.index(elements, trees, MapFile.Index.LAND);
+    }
+
+    if (this.listener != null) {
+      this.listener.onLand(bounds, elements);
+    }
+
+    synchronized (elements) {
+      this.ways(indexes, elements.ways());
+      this.index(elements, trees, MapFile.Index.WAYS);
+    }
+
+    this.decoded(elements);
+
+    synchronized (elements) {
+      if (routes == null) {
+        elements.unpackGraphs();
+      }
+
+      int start = elements.transportWays().size();
+
+      this.ways(indexes, elements.roads());
+      this.ways(indexes, elements.cycleways());
+      this.ways(indexes, elements.transportWays());
+      this.index(elements, trees, MapFile.Index.ROADS);
+      this.index(elements, trees, MapFile.Index.CYCLEWAYS);
+      this.index(elements, trees, MapFile.Index.TRANSPORT_WAYS);
+      this.graphs(routes, elements, start);
+    }
+
+    this.decoded(elements);
+
+    synchronized (elements) {
+      int relations = indexes.getInt();
+
+      for (int i = 0; i < relations; i++) {
+        elements.relations().add(this.relations[indexes.getInt()]);
+      }
+
+      this.index(elements, trees, MapFile.Index.RELATIONS);
+    }
+
+    this.decoded(elements);
+
+    synchronized (elements) {
+      int pois = indexes.getInt();
+
+      for (int i = 0; i < pois; i++) {
+        elements.pois().add(this.nodes[indexes.getInt()]);
+      }
+
+      this.index(elements, trees, MapFile.Index.POIS);
+    }
+
+    this.decoded(elements);
+
+    this.addresses(this.section(MapFile.Section.ADDRESSES), addresses);
+
+    if (this.listener != null) {
+      this.listener.onAddresses(addresses);
+    }
+
+    return new MapFile(bounds, elements, addresses);
+  }
+
+  /**
+   * Get the specified section of the map file.
+   *
+   * @param section The section to get.
+   * @return        The contents of the section.
+   *
+   * @throws IOException If the section is missing.
+   */
+  private ByteBuffer section(final MapFile.Section section) throws IOException {
+    ByteBuffer buffer = this.sections.get(section);
+
+    if (buffer == null) {
+      throw new IOException("Missing section " + section);
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#STRINGS} section.
+   *
+   * @param buffer The contents of the section.
+   */
+  private void strings(final ByteBuffer buffer) {
+    byte[] bytes = buffer.array();
+
+    this.strings = new String[buffer.getInt()];
+
+    for (int i = 0; i < this.strings.length; i++) {
+      int length = buffer.getInt();
+
+      this.strings[i] = new String(
+        bytes, buffer.position(), length, StandardCharsets.UTF_8
+      );
+
+      buffer.position(buffer.position() + length);
+    }
+  }
+
+  /**
+   * Look up a string in the string table.
+   *
+   * @param index The index of the string or -1 for {@code null}.
+   * @return      The string.
+   */
+  private String string(final int index) {
+    if (index == -1) {
+      return null;
+    }
+
+    return this.strings[index];
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#NODES} section.
+   *
+   * @param buffer The contents of the section.
+   */
+  private void nodes(final ByteBuffer buffer) {
+    this.nodes = new Node[buffer.getInt()];
+
+    float[] coordinates = new float[2 * this.nodes.length];
+
+    FloatBuffer floats = buffer.asFloatBuffer();
+    floats.get(coordinates);
+
+    for (int i = 0; i < this.nodes.length; i++) {
+      this.nodes[i] = new Node(coordinates[2 * i], coordinates[2 * i + 1]);
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#WAYS} section.
+   *
+   * <p>
+   * The packed coordinates of the ways are taken over as they are, so ways
+   * are read without decoding their nodes.
+   *
+   * @param buffer The contents of the section.
+   *
+   * @throws IOException If a required section is missing.
+   */
+  private void ways(final ByteBuffer buffer) throws IOException {
+    this.ways = new Way[buffer.getInt()];
+
+    FloatBuffer boxes = this.section(MapFile.Section.BOXES).asFloatBuffer();
+
+    for (int i = 0; i < this.ways.length; i++) {
+      int n = buffer.getInt();
+      int length = buffer.getInt();
+
+      if (length >= 0) {
+        byte[] geometry = new byte[length];
+        buffer.get(geometry);
+
+        this.ways[i] = new Way(
+          boxes.get(4 * i),
+          boxes.get(4 * i + 1),
+          boxes.get(4 * i + 2),
+          boxes.get(4 * i + 3),
+          n,
+          geometry
+        );
+
+        continue;
+      }
+
+      Way way = new Way();
+
+      for (int j = 0; j < n; j++) {
+        way.add(new Node(buffer.getFloat(), buffer.getFloat()));
+      }
+
+      this.ways[i] = way;
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#RELATIONS} section.
+   *
+   * @param buffer The contents of the section.
+   */
+  private void relations(final ByteBuffer buffer) {
+    this.relations = new Relation[buffer.getInt()];
+
+    // Relations may be members of relations that come before them, so all
+    // relations are created up front.
+    for (int i = 0; i < this.relations.length; i++) {
+      this.relations[i] = new Relation();
+    }
+
+    MapFile.Kind[] kinds = MapFile.Kind.values();
+
+    for (Relation relation: this.relations) {
+      int n = buffer.getInt();
+
+      for (int j = 0; j < n; j++) {
+        MapFile.Kind kind = kinds[buffer.get()];
+        int index = buffer.getInt();
+        String role = this.string(buffer.getInt());
+
+        switch (kind) {
+          case NODE:
+            relation.add(this.nodes[index], role);
+            break;
+          case WAY:
+            relation.add(this.ways[index], role);
+            break;
+          default:
+            relation.add(this.relations[index], role);
+        }
+      }
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#TAGS} section.
+   *
+   * @param buffer The contents of the section.
+   */
+  private void tags(final ByteBuffer buffer) {
+    this.tags(buffer, this.nodes);
+    this.tags(buffer, this.ways);
+    this.tags(buffer, this.relations);
+  }
+
+  /**
+   * Decode the tags of the tagged elements of the specified table.
+   *
+   * @param buffer    The contents of the section.
+   * @param elements  The table of elements to tag.
+   */
+  private void tags(final ByteBuffer buffer, final Element[] elements) {
+    int tagged = buffer.getInt();
+
+    for (int i = 0; i < tagged; i++) {
+      Element element = elements[buffer.getInt()];
+
+      int n = buffer.getInt();
+
+      for (int j = 0; j < n; j++) {
+        String key = this.string(buffer.getInt());
+        String value = this.string(buffer.getInt());
+
+        element.tag(key, value);
+      }
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#ROUTES} section into the routing graphs
+   * of the element store.
+   *
+   * <p>
+   * The packed graphs are used as they are. Without them, the transport ways
+   * of the map file are added to the graphs of the store one by one, which
+   * is what the graphs are made up of.
+   *
+   * @param buffer    The contents of the section or {@code null} if the
+   *                  graphs must be built edge by edge.
+   * @param elements  The store whose graphs to set or add the edges to.
+   * @param start     The index of the first transport way of the map file
+   *                  within the transport ways of the store.
+   */
+  private void graphs(
+    final ByteBuffer buffer,
+    final ElementStore elements,
+    final int start
+  ) {
+    if (buffer != null) {
+      elements.restore(PackedGraph.read(buffer, (index) -> {
+        return this.ways[index];
+      }));
+
+      return;
+    }
+
+    List<Way> ways = elements.transportWays();
+
+    for (Way way: ways.subList(start, ways.size())) {
+      elements.carGraph().add(way);
+      elements.bycicleGraph().add(way);
+    }
+  }
+
+  /**
+   * Restore or invalidate an index of the element store once its list has
+   * been decoded.
+   *
+   * @param elements  The element store.
+   * @param trees     The packed trees of the map file or {@code null} if the
+   *                  index must be rebuilt.
+   * @param index     The index to restore or invalidate.
+   */
+  private void index(
+    final ElementStore elements,
+    final ByteBuffer trees,
+    final MapFile.Index index
+  ) {
+    if (trees != null) {
+      elements.restore(trees, index);
+    }
+    else {
+      elements.invalidate(index);
+    }
+  }
+
+  /**
+   * Tell the listener, if any, that another kind of elements has been added
+   * to the element store.
+   *
+   * @param elements The element store.
+   */
+  private void decoded(final ElementStore elements) {
+    if (this.listener != null) {
+      this.listener.onElements(elements);
+    }
+  }
+
+  /**
+   * Decode a list of ways from their indexes.
+   *
+   * @param buffer  The contents of the section.
+   * @param ways    The list to add the ways to.
+   */
+  private void ways(final ByteBuffer buffer, final List<Way> ways) {
+    int n = buffer.getInt();
+
+    for (int i = 0; i < n; i++) {
+      ways.add(this.ways[buffer.getInt()]);
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#ADDRESSES} section.
+   *
+   * @param buffer    The contents of the section.
+   * @param addresses The store to add the addresses to.
+   */
+  private void addresses(
+    final ByteBuffer buffer,
+    final AddressStore addresses
+  ) {
+    int n = buffer.getInt();
+
+    for (int i = 0; i < n; i++) {
+      Address address = new Address();
+
+      address.x(buffer.getFloat());
+      address.y(buffer.getFloat());
+
+      address
+        .street(this.string(buffer.getInt()))
+        .number(this.string(buffer.getInt()))
+        .floor(this.string(buffer.getInt()))
+        .door(this.string(buffer.getInt()))
+        .postcode(this.string(buffer.getInt()))
+        .city(this.string(buffer.getInt()));
+
+      addresses.add(address);
+    }
+  }
+
+  /**
+   * Decode the {@link MapFile.Section#BOUNDS} section.
+   *
+   * @param buffer  The contents of the section.
+   * @return        The bounds of the map or {@code null} if the map has no
+   *                bounds.
+   */
+  private BoundingBox bounds(final ByteBuffer buffer) {
+    if (buffer.get() == 0) {
+      return null;
+    }
+
+    return new BoundingBox(
+      buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()
+    );
+  }
+}
@@ -0,0 +1,876 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Concurrency utilities
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Functional utilities
+import java.util.function.LongConsumer;
+
+// I/O utilities
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+// Fast utils
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateCodec;
+import dk.itu.kelvin.util.Graph;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Map writer class.
+ *
+ * <p>
+ * The map writer first assigns an index to every distinct node, way and
+ * relation of the map, after which each section is encoded in terms of these
+ * indexes. Elements shared between several lists of the store, such as a road
+ * that is also a transport way, or between relations, are therefore only
+ * written once and remain shared when read back. The nodes of ways are
+ * written as part of the ways as packed coordinates.
+ *
+ * <p>
+ * Sections that don't refer to strings are encoded in parallel. The sections
+ * that do are encoded one after another as the string table is built up while
+ * encoding them.
+ *
+ * @see MapFile
+ */
+final class MapWriter {
+  /**
+   * The size of the output buffer in bytes.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The number of worker threads used for encoding sections.
+   */
+  private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The stream to write to.
+   */
+  private final DataOutputStream output;
+
+  /**
+   * The listener to report the total length of the map file to.
+   */
+  private final LongConsumer length;
+
+  /**
+   * The distinct strings of the map mapped to their indexes.
+   */
+  private final Object2IntOpenHashMap<String> strings =
+    new Object2IntOpenHashMap<>();
+
+  /**
+   * The distinct strings of the map in order of their indexes.
+   */
+  private final List<String> stringList = new ArrayList<>();
+
+  /**
+   * The distinct nodes of the map mapped to their indexes.
+   */
+  private final Reference2IntOpenHashMap<Node> nodes =
+    new Reference2IntOpenHashMap<>();
+
+  /**
+   * The distinct nodes of the map in order of their indexes.
+   */
+  private final List<Node> nodeList = new ArrayList<>();
+
+  /**
+   * The distinct ways of the map mapped to their indexes.
+   */
+  private final Reference2IntOpenHashMap<Way> ways =
+    new Reference2IntOpenHashMap<>();
+
+  /**
+   * The distinct ways of the map in order of their indexes.
+   */
+  private final List<Way> wayList = new ArrayList<>();
+
+  /**
+   * The distinct relations of the map mapped to their indexes.
+   */
+  private final Reference2IntOpenHashMap<Relation> relations =
+    new Reference2IntOpenHashMap<>();
+
+  /**
+   * The distinct relations of the map in order of their indexes.
+   */
+  private final List<Relation> relationList = new ArrayList<>();
+
+  /**
+   * The offsets of the strings within the string table.
+   */
+  private int[] stringOffsets;
+
+  /**
+   * The offsets of the ways within the {@link MapFile.Section#WAYS} section.
+   */
+  private int[] wayOffsets;
+
+  /**
+   * The offsets of the relations within the
+   * {@link MapFile.Section#RELATIONS} section.
+   */
+  private int[] relationOffsets;
+
+  /**
+   * The offsets of the tags of the nodes, ways and relations within the
+   * {@link MapFile.Section#TAGS} section, or -1 for untagged elements.
+   */
+  private int[][] tagOffsets = new int[3][];
+
+  /**
+   * The packed spatial indexes, encoded along with the element lists they
+   * cover.
+   */
+  private final ByteArrayOutputStream trees = new ByteArrayOutputStream();
+
+  /**
+   * Initialize a new map writer.
+   *
+   * @param output The stream to write to.
+   */
+  MapWriter(final OutputStream output) {
+    this(output, (length) -> { });
+  }
+
+  /**
+   * Initialize a new map writer reporting the total length of the map file
+   * once known, which is after encoding but before writing.
+   *
+   * @param output  The stream to write to.
+   * @param length  The listener to report the total length of the map file
+   *                to.
+   */
+  MapWriter(final OutputStream output, final LongConsumer length) {
+    this.output = new DataOutputStream(
+      new BufferedOutputStream(output, BUFFER_SIZE)
+    );
+    this.length = length;
+  }
+
+  /**
+   * Write the specified map file.
+   *
+   * @param map The map file to write.
+   *
+   * @throws IOException In case of an I/O error or if the map file presents
+   *                     the regions of a region store, whose map files should
+   *                     be written instead.
+   */
+  void write(final MapFile map) throws IOException {
+    ElementStore elements = map.elements();
+    AddressStore addresses = map.addresses();
+
+    if (elements.regions() != null) {
+      throw new IOException("Region stores are written region by region");
+    }
+
+    List<ByteArrayOutputStream> sections = new ArrayList<>();
+    List<MapFile.Section> ids = new ArrayList<>();
+    ByteArrayOutputStream boxes;
+    ByteArrayOutputStream packedRoutes;
+
+    ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+
+    try {
+      synchronized (elements) {
+        this.collect(elements);
+
+        Future<ByteArrayOutputStream> nodes = workers.submit(() -> {
+          return this.nodes();
+        });
+        Future<ByteArrayOutputStream> ways = workers.submit(() -> {
+          return this.ways();
+        });
+
+        // The graphs are got on this thread, which holds the lock of the
+        // store, and only read by the worker.
+        List<Graph<Node, Way>> routing = new ArrayList<>();
+        routing.add(elements.carGraph());
+        routing.add(elements.bycicleGraph());
+
+        Future<ByteArrayOutputStream> routes = workers.submit(() -> {
+          return this.routes(elements, routing);
+        });
+        Future<ByteArrayOutputStream> indexes = workers.submit(() -> {
+          return this.indexes(elements);
+        });
+        Future<ByteArrayOutputStream> pendingBoxes = workers.submit(() -> {
+          return this.boxes();
+        });
+
+        // Strings are collected while encoding the other sections, so the
+        // string table is encoded last but written first.
+        ByteArrayOutputStream relations = this.relations();
+        ByteArrayOutputStream tags = this.tags();
+
+        ids.add(MapFile.Section.NODES);
+        sections.add(MapWriter.await(nodes));
+        ids.add(MapFile.Section.WAYS);
+        sections.add(MapWriter.await(ways));
+        ids.add(MapFile.Section.RELATIONS);
+        sections.add(relations);
+        ids.add(MapFile.Section.TAGS);
+        sections.add(tags);
+        ids.add(MapFile.Section.INDEXES);
+        sections.add(MapWriter.await(indexes));
+
+        boxes = MapWriter.await(pendingBoxes);
+        packedRoutes = MapWriter.await(routes);
+      }
+    }
+    finally {
+      workers.shutdownNow();
+    }
+
+    synchronized (addresses) {
+      ids.add(MapFile.Section.ADDRESSES);
+      sections.add(this.addresses(addresses));
+    }
+
+    ids.add(MapFile.Section.BOUNDS);
+    sections.add(this.bounds(map.bounds()));
+
+    ids.add(0, MapFile.Section.STRINGS);
+    sections.add(0, this.strings());
+
+    // The lookup sections allow elements to be decoded one at a time straight
+    // from a mapped file.
+    ids.add(MapFile.Section.STRING_OFFSETS);
+    sections.add(this.offsets(this.stringOffsets));
+    ids.add(MapFile.Section.TAG_OFFSETS);
+    sections.add(this.offsets(this.tagOffsets));
+    ids.add(MapFile.Section.WAY_OFFSETS);
+    sections.add(this.offsets(this.wayOffsets));
+    ids.add(MapFile.Section.RELATION_OFFSETS);
+    sections.add(this.offsets(this.relationOffsets));
+    ids.add(MapFile.Section.BOXES);
+    sections.add(boxes);
+    ids.add(MapFile.Section.TREES);
+    sections.add(this.trees);
+    ids.add(MapFile.Section.ROUTES);
+    sections.add(packedRoutes);
+
+    long length = 12;
+
+    for (ByteArrayOutputStream section: sections) {
+      length += 8 + section.size();
+    }
+
+    this.length.accept(length);
+
+    this.output.writeInt(MapFile.MAGIC);
+    this.output.writeInt(MapFile.VERSION);
+    this.output.writeInt(sections.size());
+
+    for (int i = 0; i < sections.size(); i++) {
+      ByteArrayOutputStream section = sections.get(i);
+
+      this.output.writeInt(ids.get(i).id());
+      this.output.writeInt(section.size());
+      section.writeTo(this.output);
+    }
+
+    this.output.flush();
+  }
+
+  /**
+   * Wait for a section being encoded by a worker.
+   *
+   * @param section The pending section.
+   * @return        The encoded section.
+   *
+   * @throws IOException In case of an I/O error while encoding the section.
+   */
+  private static ByteArrayOutputStream await(
+    final Future<ByteArrayOutputStream> section
+  ) throws IOException {
+    try {
+      return section.get();
+    }
+    catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+
+      throw new IOException(ex.getCause());
+    }
+  }
+
+  /**
+   * Assign indexes to all elements of the specified store.
+   *
+   * @param elements The store whose elements to assign indexes to.
+   */
+  private void collect(final ElementStore elements) {
+    for (Way way: elements.land()) {
+      this.index(way);
+    }
+
+    for (Way way: elements.ways()) {
+      this.index(way);
+    }
+
+    for (Way way: elements.transportWays()) {
+      this.index(way);
+    }
+
+    for (Way way: elements.roads()) {
+      this.index(way);
+    }
+
+    for (Way way: elements.cycleways()) {
+      this.index(way);
+    }
+
+    for (Relation relation: elements.relations()) {
+      this.index(relation);
+    }
+
+    for (Node node: elements.pois()) {
+      this.index(node);
+    }
+  }
+
+  /**
+   * Assign an index to the specified node, unless it already has one.
+   *
+   * @param node  The node to assign an index to.
+   * @return      The index of the node.
+   */
+  private int index(final Node node) {
+    if (this.nodes.containsKey(node)) {
+      return this.nodes.getInt(node);
+    }
+
+    int index = this.nodeList.size();
+    this.nodes.put(node, index);
+    this.nodeList.add(node);
+
+    return index;
+  }
+
+  /**
+   * Assign an index to the specified way, unless it already has one.
+   *
+   * <p>
+   * The nodes of ways are written as part of the ways themselves and so
+   * aren't assigned indexes.
+   *
+   * @param way The way to assign an index to.
+   * @return    The index of the way.
+   */
+  private int index(final Way way) {
+    if (this.ways.containsKey(way)) {
+      return this.ways.getInt(way);
+    }
+
+    int index = this.wayList.size();
+    this.ways.put(way, index);
+    this.wayList.add(way);
+
+    return index;
+  }
+
+  /**
+   * Assign an index to the specified relation and its members, unless it
+   * already has one.
+   *
+   * @param relation  The relation to assign an index to.
+   * @return          The index of the relation.
+   */
+  private int index(final Relation relation) {
+    if (this.relations.containsKey(relation)) {
+      return this.relations.getInt(relation);
+    }
+
+    int index = this.relationList.size();
+    this.relations.put(relation, index);
+    this.relationList.add(relation);
+
+    for (Element member: relation.members()) {
+      if (member instanceof Node) {
+        this.index((Node) member);
+      }
+      else if (member instanceof Way) {
+        this.index((Way) member);
+      }
+      else if (member instanceof Relation) {
+        this.index((Relation) member);
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * Get the index of the specified string, adding it to the string table if
+   * needed.
+   *
+   * @param string  The string to look up.
+   * @return        The index of the string or -1 if {@code null}.
+   */
+  private int string(final String string) {
+    if (string == null) {
+      return -1;
+    }
+
+    if (this.strings.containsKey(string)) {
+      return this.strings.getInt(string);
+    }
+
+    int index = this.stringList.size();
+    this.strings.put(string, index);
+    this.stringList.add(string);
+
+    return index;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#STRINGS} section.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream strings() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(this.stringList.size());
+
+    this.stringOffsets = new int[this.stringList.size()];
+
+    for (int i = 0; i < this.stringList.size(); i++) {
+      byte[] utf8 = this.stringList.get(i).getBytes(StandardCharsets.UTF_8);
+
+      this.stringOffsets[i] = out.size();
+
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#NODES} section.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream nodes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(this.nodeList.size());
+
+    for (Node node: this.nodeList) {
+      out.writeFloat(node.x());
+      out.writeFloat(node.y());
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#WAYS} section.
+   *
+   * <p>
+   * Each way is written as its number of nodes followed by the length of its
+   * encoded coordinates and the coordinates themselves, as encoded by the
+   * {@link CoordinateCodec} relative to the smallest coordinates of the way.
+   * Ways whose coordinates can't be encoded are written with a length of -1
+   * followed by the plain coordinates.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream ways() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(this.wayList.size());
+
+    this.wayOffsets = new int[this.wayList.size()];
+
+    for (int i = 0; i < this.wayList.size(); i++) {
+      Way way = this.wayList.get(i);
+
+      float[] coordinates = way.coordinates();
+      int n = coordinates.length / 2;
+
+      this.wayOffsets[i] = out.size();
+
+      out.writeInt(n);
+
+      byte[] geometry = way.geometry();
+
+      // Ways added to stores are packed already, so this is only needed for
+      // ways that aren't or can't be packed.
+      if (geometry == null && n > 0) {
+        geometry = CoordinateCodec.encode(
+          coordinates, n, way.minX(), way.minY()
+        );
+      }
+
+      if (geometry != null) {
+        out.writeInt(geometry.length);
+        out.write(geometry);
+        continue;
+      }
+
+      out.writeInt(-1);
+
+      for (float coordinate: coordinates) {
+        out.writeFloat(coordinate);
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#RELATIONS} section.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream relations() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(this.relationList.size());
+
+    this.relationOffsets = new int[this.relationList.size()];
+
+    for (int r = 0; r < this.relationList.size(); r++) {
+      Relation relation = this.relationList.get(r);
+      List<Element> members = relation.members();
+
+      this.relationOffsets[r] = out.size();
+
+      out.writeInt(members.size());
+
+      for (int i = 0; i < members.size(); i++) {
+        Element member = members.get(i);
+
+        if (member instanceof Node) {
+          out.writeByte(MapFile.Kind.NODE.ordinal());
+          out.writeInt(this.nodes.getInt(member));
+        }
+        else if (member instanceof Way) {
+          out.writeByte(MapFile.Kind.WAY.ordinal());
+          out.writeInt(this.ways.getInt(member));
+        }
+        else {
+          out.writeByte(MapFile.Kind.RELATION.ordinal());
+          out.writeInt(this.relations.getInt(member));
+        }
+
+        out.writeInt(this.string(relation.role(i)));
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#TAGS} section.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream tags() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    this.tagOffsets[0] = this.tags(out, this.nodeList);
+    this.tagOffsets[1] = this.tags(out, this.wayList);
+    this.tagOffsets[2] = this.tags(out, this.relationList);
+
+    return bytes;
+  }
+
+  /**
+   * Encode the tags of the tagged elements of the specified table.
+   *
+   * @param out       The stream to encode the tags to.
+   * @param elements  The table of elements whose tags to encode.
+   * @return          The offsets of the tags of the elements within the
+   *                  section, or -1 for untagged elements.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private int[] tags(
+    final DataOutputStream out,
+    final List<? extends Element> elements
+  ) throws IOException {
+    int tagged = 0;
+
+    for (Element element: elements) {
+      if (element.isTagged()) {
+        tagged++;
+      }
+    }
+
+    out.writeInt(tagged);
+
+    int[] offsets = new int[elements.size()];
+
+    for (int i = 0; i < elements.size(); i++) {
+      offsets[i] = -1;
+
+      Element<?> element = elements.get(i);
+
+      if (!element.isTagged()) {
+        continue;
+      }
+
+      Map<String, String> tags = element.tags();
+
+      out.writeInt(i);
+
+      offsets[i] = out.size();
+
+      out.writeInt(tags.size());
+
+      for (Map.Entry<String, String> tag: tags.entrySet()) {
+        out.writeInt(this.string(tag.getKey()));
+        out.writeInt(this.string(tag.getValue()));
+      }
+    }
+
+    return offsets;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#ADDRESSES} section.
+   *
+   * @param addresses The store whose addresses to encode.
+   * @return          The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream addresses(
+    final AddressStore addresses
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(addresses.addresses().size());
+
+    for (Address address: addresses.addresses()) {
+      out.writeFloat(address.x());
+      out.writeFloat(address.y());
+      out.writeInt(this.string(address.street()));
+      out.writeInt(this.string(address.number()));
+      out.writeInt(this.string(address.floor()));
+      out.writeInt(this.string(address.door()));
+      out.writeInt(this.string(address.postcode()));
+      out.writeInt(this.string(address.city()));
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#ROUTES} section.
+   *
+   * @param elements  The store whose graphs to encode.
+   * @param graphs    The car and the bicycle graph of the store.
+   * @return          The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream routes(
+    final ElementStore elements,
+    final List<Graph<Node, Way>> graphs
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    PackedGraph.pack(graphs, elements.transportWays(), (way) -> {
+      return this.ways.getInt(way);
+    }, out);
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#INDEXES} section along with the
+   * {@link MapFile.Section#TREES} section.
+   *
+   * @param elements  The store whose indexes to encode.
+   * @return          The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream indexes(
+    final ElementStore elements
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    DataOutputStream trees = new DataOutputStream(this.trees);
+
+    this.index(out, trees, elements.land(), this.ways);
+    this.index(out, trees, elements.ways(), this.ways);
+    this.index(out, trees, elements.roads(), this.ways);
+    this.index(out, trees, elements.cycleways(), this.ways);
+    this.index(out, trees, elements.transportWays(), this.ways);
+    this.index(out, trees, elements.relations(), this.relations);
+    this.index(out, trees, elements.pois(), this.nodes);
+
+    return bytes;
+  }
+
+  /**
+   * Pack a list of elements into a tree and encode the list as the indexes
+   * of its elements in the order in which they were packed.
+   *
+   * @param <E>       The type of elements to encode.
+   * @param out       The stream to encode the list to.
+   * @param trees     The stream to encode the tree to.
+   * @param elements  The elements to encode.
+   * @param indexes   The indexes of the elements.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private <E extends Element<?>> void index(
+    final DataOutputStream out,
+    final DataOutputStream trees,
+    final List<E> elements,
+    final Reference2IntOpenHashMap<E> indexes
+  ) throws IOException {
+    float[] boxes = new float[4 * elements.size()];
+
+    for (int i = 0; i < elements.size(); i++) {
+      for (int c = 0; c < 4; c++) {
+        boxes[4 * i + c] = PackedIndex.coordinate(elements.get(i), c);
+      }
+    }
+
+    int[] order = PackedIndex.pack(boxes, trees);
+
+    out.writeInt(elements.size());
+
+    for (int i: order) {
+      out.writeInt(indexes.getInt(elements.get(i)));
+    }
+  }
+
+  /**
+   * Encode a lookup section consisting of one or more tables of offsets.
+   *
+   * @param tables  The tables of offsets to encode.
+   * @return        The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream offsets(
+    final int[]... tables
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    for (int[] offsets: tables) {
+      for (int offset: offsets) {
+        out.writeInt(offset);
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#BOXES} section.
+   *
+   * @return The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream boxes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    for (Way way: this.wayList) {
+      out.writeFloat(way.minX());
+      out.writeFloat(way.minY());
+      out.writeFloat(way.maxX());
+      out.writeFloat(way.maxY());
+    }
+
+    for (Relation relation: this.relationList) {
+      out.writeFloat(relation.minX());
+      out.writeFloat(relation.minY());
+      out.writeFloat(relation.maxX());
+      out.writeFloat(relation.maxY());
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encode the {@link MapFile.Section#BOUNDS} section.
+   *
+   * @param bounds  The bounds to encode, if any.
+   * @return        The encoded section.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private ByteArrayOutputStream bounds(
+    final BoundingBox bounds
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeBoolean(bounds != null);
+
+    if (bounds != null) {
+      out.writeFloat(bounds.minX());
+      out.writeFloat(bounds.minY());
+      out.writeFloat(bounds.maxX());
+      out.writeFloat(bounds.maxY());
+    }
+
+    return bytes;
+  }
+}
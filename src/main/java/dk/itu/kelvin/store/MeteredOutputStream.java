@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// I/O utilities
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Metered output stream class.
+ *
+ * <p>
+ * The metered output stream records the number of bytes written to the
+ * underlying stream on the {@link Store.Handle} of a save.
+ */
+final class MeteredOutputStream extends FilterOutputStream {
+  /**
+   * The handle to report the number of written bytes to.
+   */
+  private final Store.Handle handle;
+
+  /**
+   * Initialize a new metered output stream.
+   *
+   * @param output  The underlying stream.
+   * @param handle  The handle to report the number of written bytes to.
+   */
+  MeteredOutputStream(final OutputStream output, final Store.Handle handle) {
+    super(output);
+    this.handle = handle;
+  }
+
+  /**
+   * Write a single byte to the stream.
+   *
+   * @param b The byte to write.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void write(final int b) throws IOException {
+    this.out.write(b);
+    this.handle.advance(1);
+  }
+
+  /**
+   * Write a number of bytes to the stream.
+   *
+   * @param bytes   The array containing the bytes to write.
+   * @param offset  The offset within the array of the bytes to write.
+   * @param length  The number of bytes to write.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Override
+  public void write(
+    final byte[] bytes,
+    final int offset,
+    final int length
+  ) throws IOException {
+    this.out.write(bytes, offset, length);
+    this.handle.advance(length);
+  }
+}
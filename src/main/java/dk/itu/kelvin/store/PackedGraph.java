@@ -0,0 +1,534 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Functional utilities
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+// I/O utilities
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// Fast utils
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2IntRBTreeMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateCodec;
+import dk.itu.kelvin.util.Graph;
+
+// Models
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Packed graph class.
+ *
+ * <p>
+ * The packed graph is a static routing graph laid out as adjacency arrays,
+ * also known as the compressed sparse row format, so that it can be written
+ * to a map file and read back into a handful of primitive arrays rather than
+ * being rebuilt edge by edge. The graphs of a map file share a table of the
+ * coordinates of their nodes, sorted by x- and then y-coordinate, so that a
+ * node is found by a binary search. The links leaving node {@code i} are
+ * then the positions from {@code offsets[i]} up to {@code offsets[i + 1]} of
+ * two parallel arrays holding the node each link leads to and the index of
+ * the way it belongs to.
+ *
+ * <p>
+ * In a map file, the graphs are stored together so that links found in more
+ * than one graph, which is most of them, are only stored once. A packed
+ * section starts with the number of nodes and the length of their
+ * coordinates as encoded by the {@link CoordinateCodec} relative to the
+ * origin, followed by the encoded coordinates. If the coordinates cannot be
+ * encoded, the length is -1 and the coordinates are stored as pairs of
+ * floats instead. Then comes the number of graphs followed by the links of
+ * each node: their number, and for each link the difference between the
+ * index of the node it leads to and that of the node itself, and the index
+ * of its way shifted left by the number of graphs and or'ed with a mask of
+ * the graphs holding the link. All of these are variable-length integers,
+ * seven bits to a byte, the differences being zig-zag encoded.
+ *
+ * <p>
+ * The graph is read-only. Ways are decoded the first time they're reached and
+ * cached from then on. Within the class, {@code Node} refers to the node
+ * interface of {@link Graph}, hence the qualified names of the model.
+ */
+final class PackedGraph implements Graph<dk.itu.kelvin.model.Node, Way> {
+  /**
+   * UID for identifying serialized objects.
+   */
+  private static final long serialVersionUID = 1;
+
+  /**
+   * The maximum number of graphs that can be packed together.
+   */
+  static final int MAX_GRAPHS = 8;
+
+  /**
+   * Order nodes by x- and then y-coordinate.
+   */
+  private static final Comparator<dk.itu.kelvin.model.Node> ORDER = (a, b) -> {
+    return PackedGraph.compare(a.x(), a.y(), b.x(), b.y());
+  };
+
+  /**
+   * The coordinates of the nodes of the graph, as pairs of x- and
+   * y-coordinates sorted by x- and then y-coordinate.
+   */
+  private final float[] nodes;
+
+  /**
+   * The offset of the links of each node within the links of the graph.
+   */
+  private final int[] offsets;
+
+  /**
+   * The node that each link leads to.
+   */
+  private final int[] targets;
+
+  /**
+   * The index of the way that each link belongs to.
+   */
+  private final int[] ways;
+
+  /**
+   * The decoded ways of the graph, by index.
+   */
+  private final transient Int2ObjectOpenHashMap<Way> cache;
+
+  /**
+   * The function decoding a way by its index.
+   */
+  private final transient IntFunction<Way> decoder;
+
+  /**
+   * Initialize a new packed graph.
+   *
+   * @param nodes   The coordinates of the nodes of the graph.
+   * @param offsets The offset of the links of each node.
+   * @param targets The node that each link leads to.
+   * @param ways    The index of the way that each link belongs to.
+   * @param cache   The decoded ways, which may be shared between graphs.
+   * @param decoder The function decoding a way by its index.
+   */
+  private PackedGraph(
+    final float[] nodes,
+    final int[] offsets,
+    final int[] targets,
+    final int[] ways,
+    final Int2ObjectOpenHashMap<Way> cache,
+    final IntFunction<Way> decoder
+  ) {
+    this.nodes = nodes;
+    this.offsets = offsets;
+    this.targets = targets;
+    this.ways = ways;
+    this.cache = cache;
+    this.decoder = decoder;
+  }
+
+  /**
+   * Read the packed graphs of a section.
+   *
+   * <p>
+   * The links of each graph are decoded into arrays of their own in a single
+   * pass over the section.
+   *
+   * @param buffer  The packed section.
+   * @param decoder The function decoding a way by its index.
+   * @return        The packed graphs, in the order in which they were packed.
+   */
+  static List<PackedGraph> read(
+    final ByteBuffer buffer,
+    final IntFunction<Way> decoder
+  ) {
+    ByteBuffer input = buffer.duplicate();
+    input.position(0);
+
+    int n = input.getInt();
+    int length = input.getInt();
+
+    float[] nodes = new float[2 * n];
+
+    if (length >= 0) {
+      byte[] coordinates = new byte[length];
+      input.get(coordinates);
+
+      CoordinateCodec.decode(coordinates, n, 0, 0, nodes);
+    }
+    else {
+      input.asFloatBuffer().get(nodes);
+      input.position(input.position() + 4 * nodes.length);
+    }
+
+    int count = input.getInt();
+
+    int[][] offsets = new int[count][n + 1];
+    IntArrayList[] targets = new IntArrayList[count];
+    IntArrayList[] ways = new IntArrayList[count];
+
+    for (int i = 0; i < count; i++) {
+      targets[i] = new IntArrayList();
+      ways[i] = new IntArrayList();
+    }
+
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < count; j++) {
+        offsets[j][i] = targets[j].size();
+      }
+
+      int links = PackedGraph.varint(input);
+
+      for (int j = 0; j < links; j++) {
+        int difference = PackedGraph.varint(input);
+        int target = i + ((difference >>> 1) ^ -(difference & 1));
+        int link = PackedGraph.varint(input);
+
+        for (int k = 0; k < count; k++) {
+          if ((link & (1 << k)) != 0) {
+            targets[k].add(target);
+            ways[k].add(link >>> count);
+          }
+        }
+      }
+    }
+
+    List<PackedGraph> graphs = new ArrayList<>(count);
+    Int2ObjectOpenHashMap<Way> cache = new Int2ObjectOpenHashMap<>();
+
+    for (int i = 0; i < count; i++) {
+      offsets[i][n] = targets[i].size();
+
+      graphs.add(new PackedGraph(
+        nodes,
+        offsets[i],
+        targets[i].toIntArray(),
+        ways[i].toIntArray(),
+        cache,
+        decoder
+      ));
+    }
+
+    return graphs;
+  }
+
+  /**
+   * Pack a number of graphs made up of the same edges.
+   *
+   * <p>
+   * The links of each node are packed in the order of the nodes they lead
+   * to, so the output only depends on the contents of the graphs.
+   *
+   * @param graphs  The graphs to pack; no more than {@link #MAX_GRAPHS}.
+   * @param edges   The edges of the graphs.
+   * @param index   The function giving the index of a way.
+   * @param out     The stream to write the packed graphs to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  static void pack(
+    final List<Graph<dk.itu.kelvin.model.Node, Way>> graphs,
+    final Collection<Way> edges,
+    final ToIntFunction<Way> index,
+    final DataOutputStream out
+  ) throws IOException {
+    if (graphs.size() > MAX_GRAPHS) {
+      throw new IllegalArgumentException("Too many graphs to pack");
+    }
+
+    Set<dk.itu.kelvin.model.Node> distinct = new ObjectOpenHashSet<>();
+
+    for (Way edge: edges) {
+      distinct.addAll(edge.nodes());
+    }
+
+    dk.itu.kelvin.model.Node[] nodes = distinct.toArray(
+      new dk.itu.kelvin.model.Node[distinct.size()]
+    );
+
+    Arrays.sort(nodes, ORDER);
+
+    Object2IntOpenHashMap<dk.itu.kelvin.model.Node> ids =
+      new Object2IntOpenHashMap<>(nodes.length);
+
+    float[] coordinates = new float[2 * nodes.length];
+
+    for (int i = 0; i < nodes.length; i++) {
+      ids.put(nodes[i], i);
+
+      coordinates[2 * i] = nodes[i].x();
+      coordinates[2 * i + 1] = nodes[i].y();
+    }
+
+    byte[] encoded = CoordinateCodec.encode(
+      coordinates, nodes.length, 0, 0
+    );
+
+    out.writeInt(nodes.length);
+
+    if (encoded != null) {
+      out.writeInt(encoded.length);
+      out.write(encoded);
+    }
+    else {
+      out.writeInt(-1);
+
+      for (float coordinate: coordinates) {
+        out.writeFloat(coordinate);
+      }
+    }
+
+    out.writeInt(graphs.size());
+
+    for (int i = 0; i < nodes.length; i++) {
+      // The links of the node in any graph, by target and way, mapped to a
+      // mask of the graphs holding them.
+      Long2IntRBTreeMap links = new Long2IntRBTreeMap();
+
+      for (int j = 0; j < graphs.size(); j++) {
+        Map<dk.itu.kelvin.model.Node, Way> found = graphs.get(j).neighbours(
+          nodes[i]
+        );
+
+        if (found == null) {
+          continue;
+        }
+
+        for (Map.Entry<dk.itu.kelvin.model.Node, Way> link: found.entrySet()) {
+          long key = ((long) ids.getInt(link.getKey()) << Integer.SIZE)
+            | (index.applyAsInt(link.getValue()) & 0xFFFFFFFFL);
+
+          links.put(key, links.get(key) | (1 << j));
+        }
+      }
+
+      PackedGraph.varint(out, links.size());
+
+      LongIterator keys = links.keySet().iterator();
+
+      while (keys.hasNext()) {
+        long key = keys.nextLong();
+
+        int difference = (int) (key >>> Integer.SIZE) - i;
+        int way = (int) key;
+
+        PackedGraph.varint(out, (difference << 1) ^ (difference >> 31));
+        PackedGraph.varint(out, (way << graphs.size()) | links.get(key));
+      }
+    }
+  }
+
+  /**
+   * Write a variable-length integer, seven bits to a byte.
+   *
+   * @param out   The stream to write the integer to.
+   * @param value The integer to write, taken to be unsigned.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static void varint(
+    final DataOutputStream out,
+    final int value
+  ) throws IOException {
+    int remaining = value;
+
+    while ((remaining & ~0x7F) != 0) {
+      out.writeByte((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+
+    out.writeByte(remaining);
+  }
+
+  /**
+   * Read a variable-length integer, seven bits to a byte.
+   *
+   * @param input The buffer to read the integer from.
+   * @return      The read integer.
+   */
+  private static int varint(final ByteBuffer input) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+
+    do {
+      b = input.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    }
+    while (b < 0);
+
+    return value;
+  }
+
+  /**
+   * Add an edge to the graph, which isn't supported.
+   *
+   * @param edge  The edge to add.
+   * @return      Never.
+   */
+  public boolean add(final Way edge) {
+    throw new UnsupportedOperationException("Packed graphs are read-only");
+  }
+
+  /**
+   * Remove an edge from the graph, which isn't supported.
+   *
+   * @param edge  The edge to remove.
+   * @return      Never.
+   */
+  public boolean remove(final Way edge) {
+    throw new UnsupportedOperationException("Packed graphs are read-only");
+  }
+
+  /**
+   * Get the edges of the graph.
+   *
+   * @return The edges of the graph.
+   */
+  public Collection<Way> edges() {
+    IntOpenHashSet indexes = new IntOpenHashSet();
+
+    for (int way: this.ways) {
+      indexes.add(way);
+    }
+
+    List<Way> edges = new ArrayList<>(indexes.size());
+
+    for (int way: indexes) {
+      edges.add(this.way(way));
+    }
+
+    return edges;
+  }
+
+  /**
+   * Get all edges incident on the specified node.
+   *
+   * @param node  The node whose incident edges to get.
+   * @return      A map of nodes and their associated edges incident on the
+   *              specified node, or {@code null} if no links leave the node.
+   */
+  public Map<dk.itu.kelvin.model.Node, Way> neighbours(
+    final dk.itu.kelvin.model.Node node
+  ) {
+    if (node == null) {
+      return null;
+    }
+
+    int i = this.find(node.x(), node.y());
+
+    if (i < 0 || this.offsets[i] == this.offsets[i + 1]) {
+      return null;
+    }
+
+    Map<dk.itu.kelvin.model.Node, Way> neighbours =
+      new Object2ObjectOpenHashMap<>(this.offsets[i + 1] - this.offsets[i]);
+
+    for (int j = this.offsets[i]; j < this.offsets[i + 1]; j++) {
+      int target = this.targets[j];
+
+      neighbours.put(
+        new dk.itu.kelvin.model.Node(
+          this.nodes[2 * target], this.nodes[2 * target + 1]
+        ),
+        this.way(this.ways[j])
+      );
+    }
+
+    return neighbours;
+  }
+
+  /**
+   * Find a node of the graph by its coordinates.
+   *
+   * @param x The x-coordinate of the node.
+   * @param y The y-coordinate of the node.
+   * @return  The index of the node or -1 if not found.
+   */
+  private int find(final float x, final float y) {
+    int low = 0;
+    int high = this.nodes.length / 2 - 1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+
+      int c = PackedGraph.compare(
+        this.nodes[2 * middle], this.nodes[2 * middle + 1], x, y
+      );
+
+      if (c < 0) {
+        low = middle + 1;
+      }
+      else if (c > 0) {
+        high = middle - 1;
+      }
+      else {
+        return middle;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Compare the coordinates of two nodes by x- and then y-coordinate.
+   *
+   * @param ax  The x-coordinate of the first node.
+   * @param ay  The y-coordinate of the first node.
+   * @param bx  The x-coordinate of the second node.
+   * @param by  The y-coordinate of the second node.
+   * @return    A negative integer, zero, or a positive integer as the first
+   *            node comes before, at or after the second node.
+   */
+  private static int compare(
+    final float ax,
+    final float ay,
+    final float bx,
+    final float by
+  ) {
+    int c = Float.compare(ax, bx);
+
+    return c != 0 ? c : Float.compare(ay, by);
+  }
+
+  /**
+   * Get a way of the graph, decoding it if not already done.
+   *
+   * @param index The index of the way.
+   * @return      The way.
+   */
+  private Way way(final int index) {
+    synchronized (this.cache) {
+      Way way = this.cache.get(index);
+
+      if (way == null) {
+        way = this.decoder.apply(index);
+        this.cache.put(index, way);
+      }
+
+      return way;
+    }
+  }
+}
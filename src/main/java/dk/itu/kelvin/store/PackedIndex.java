@@ -0,0 +1,958 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// I/O utilities
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// Fast utils
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+// Utilities
+import dk.itu.kelvin.util.RectangleTree;
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Functional utilities
+import dk.itu.kelvin.util.function.Filter;
+
+// Math
+import dk.itu.kelvin.math.Epsilon;
+import dk.itu.kelvin.math.Geometry;
+
+// Models
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Packed index class.
+ *
+ * <p>
+ * The packed index is a static rectangle tree packed using the
+ * Sort-Tile-Recursive (STR) algorithm and laid out flat, so that it can be
+ * written to a map file as-is and queried straight from the bytes it was read
+ * or mapped from without rebuilding anything.
+ *
+ * <p>
+ * A packed tree starts with its number of nodes and leaves, followed by one
+ * fixed-size record per node in level order, starting at the root: the
+ * bounding box of the node as four floats followed by the offset and number
+ * of its children. The children of inner nodes are other nodes, while the
+ * children of leaves, which make up the last nodes of the tree, are positions
+ * in the list of elements covered by the tree. The elements must therefore be
+ * stored in the order returned by {@link #pack(float[], DataOutputStream)}.
+ *
+ * @see <a href="http://www.dtic.mil/dtic/tr/fulltext/u2/a324493.pdf">
+ *      http://www.dtic.mil/dtic/tr/fulltext/u2/a324493.pdf</a>
+ *
+ * @param <E> The type of elements stored within the index.
+ */
+final class PackedIndex<E extends Element> implements SpatialIndex<E> {
+  /**
+   * UID for identifying serialized objects.
+   */
+  private static final long serialVersionUID = 1;
+
+  /**
+   * The maximum number of children of a node.
+   */
+  static final int FANOUT = 16;
+
+  /**
+   * The index of the smallest x-coordinate of a bounding box.
+   */
+  static final int MIN_X = 0;
+
+  /**
+   * The index of the smallest y-coordinate of a bounding box.
+   */
+  static final int MIN_Y = 1;
+
+  /**
+   * The index of the largest x-coordinate of a bounding box.
+   */
+  static final int MAX_X = 2;
+
+  /**
+   * The index of the largest y-coordinate of a bounding box.
+   */
+  static final int MAX_Y = 3;
+
+  /**
+   * The number of bytes of the header of a packed tree.
+   */
+  private static final int HEADER = 8;
+
+  /**
+   * The number of bytes of a node record.
+   */
+  private static final int NODE = 24;
+
+  /**
+   * The buffer holding the packed tree.
+   */
+  private final transient ByteBuffer buffer;
+
+  /**
+   * The offset of the first node record within the buffer.
+   */
+  private final int offset;
+
+  /**
+   * The number of nodes of the tree.
+   */
+  private final int nodes;
+
+  /**
+   * The number of leaves of the tree.
+   */
+  private final int leaves;
+
+  /**
+   * The elements covered by the tree.
+   */
+  private final transient Entries<E> entries;
+
+  /**
+   * Initialize a new packed index.
+   *
+   * @param buffer  The buffer holding the packed tree.
+   * @param offset  The offset of the packed tree within the buffer.
+   * @param entries The elements covered by the tree, in the order in which
+   *                they were packed.
+   */
+  PackedIndex(
+    final ByteBuffer buffer,
+    final int offset,
+    final Entries<E> entries
+  ) {
+    this.buffer = buffer;
+    this.nodes = buffer.getInt(offset);
+    this.leaves = buffer.getInt(offset + 4);
+    this.offset = offset + HEADER;
+    this.entries = entries;
+  }
+
+  /**
+   * Initialize a new packed index over a list of elements.
+   *
+   * @param <E>       The type of elements stored within the index.
+   * @param buffer    The buffer holding the packed tree.
+   * @param offset    The offset of the packed tree within the buffer.
+   * @param elements  The elements covered by the tree, in the order in which
+   *                  they were packed.
+   * @return          The packed index.
+   */
+  static <E extends Element> PackedIndex<E> of(
+    final ByteBuffer buffer,
+    final int offset,
+    final List<E> elements
+  ) {
+    return new PackedIndex<>(buffer, offset, new Entries<E>() {
+      @Override
+      public int size() {
+        return elements.size();
+      }
+
+      @Override
+      public E get(final int index) {
+        return elements.get(index);
+      }
+
+      @Override
+      public float box(final int index, final int coordinate) {
+        return PackedIndex.coordinate(elements.get(index), coordinate);
+      }
+    });
+  }
+
+  /**
+   * Find the offsets of a number of packed trees stored back to back.
+   *
+   * @param buffer  The buffer holding the packed trees.
+   * @param count   The number of packed trees.
+   * @return        The offset of each of the packed trees.
+   */
+  static int[] offsets(final ByteBuffer buffer, final int count) {
+    int[] offsets = new int[count];
+    int offset = 0;
+
+    for (int i = 0; i < count; i++) {
+      offsets[i] = offset;
+      offset += HEADER + NODE * buffer.getInt(offset);
+    }
+
+    return offsets;
+  }
+
+  /**
+   * Get the number of elements stored within the index.
+   *
+   * @return The number of elements stored within the index.
+   */
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Check if the index is empty.
+   *
+   * @return A boolean indicating whether or not the index is empty.
+   */
+  public boolean isEmpty() {
+    return this.size() == 0;
+  }
+
+  /**
+   * Get a coordinate of the bounding box of all elements of the index.
+   *
+   * @param coordinate  The coordinate to get, see {@link #MIN_X} and friends.
+   * @return            The coordinate or {@link Float#NaN} if the index is
+   *                    empty.
+   */
+  float extent(final int coordinate) {
+    if (this.nodes == 0) {
+      return Float.NaN;
+    }
+
+    return this.box(0, coordinate);
+  }
+
+  /**
+   * Check if the specified element exists within the index.
+   *
+   * @param element The element to look for.
+   * @return        A boolean indicating whether or not the index contains the
+   *                specified element.
+   */
+  public boolean contains(final E element) {
+    if (element == null) {
+      return false;
+    }
+
+    Bounds bounds = new Bounds(
+      coordinate(element, MIN_X),
+      coordinate(element, MIN_Y),
+      coordinate(element, MAX_X),
+      coordinate(element, MAX_Y)
+    );
+
+    return !this.range(bounds, (found) -> {
+      return element.equals(found);
+    }).isEmpty();
+  }
+
+  /**
+   * Add an element to the index, which isn't supported.
+   *
+   * @param element The element to add.
+   */
+  public void add(final E element) {
+    throw new UnsupportedOperationException("Packed indexes are read-only");
+  }
+
+  /**
+   * Remove an element from the index, which isn't supported.
+   *
+   * @param element The element to remove.
+   * @return        Never.
+   */
+  public boolean remove(final E element) {
+    throw new UnsupportedOperationException("Packed indexes are read-only");
+  }
+
+  /**
+   * Find all elements within the range of the specified bounds.
+   *
+   * @param bounds  The bounds to search for elements within.
+   * @return        A list of elements contained within the range of the
+   *                specified bounds.
+   */
+  public List<E> range(final Bounds bounds) {
+    return this.range(bounds, (element) -> {
+      return true;
+    });
+  }
+
+  /**
+   * Find all elements within the range of the specified bounds that also
+   * match the given filter.
+   *
+   * @param bounds  The bounds to search for elements within.
+   * @param filter  The filter to apply to the elements within range.
+   * @return        A list of elements contained within the range of the
+   *                specified bounds that also match the given filter.
+   */
+  public List<E> range(final Bounds bounds, final Filter<E> filter) {
+    List<E> elements = new ArrayList<>();
+
+    if (this.nodes == 0 || bounds == null || filter == null) {
+      return elements;
+    }
+
+    IntArrayList stack = new IntArrayList();
+    stack.add(0);
+
+    while (!stack.isEmpty()) {
+      int node = stack.removeInt(stack.size() - 1);
+
+      if (!intersects(
+        this.box(node, MIN_X),
+        this.box(node, MIN_Y),
+        this.box(node, MAX_X),
+        this.box(node, MAX_Y),
+        bounds
+      )) {
+        continue;
+      }
+
+      int first = this.first(node);
+      int count = this.count(node);
+
+      if (!this.isLeaf(node)) {
+        // Push the children in reverse to visit them in order.
+        for (int i = first + count - 1; i >= first; i--) {
+          stack.add(i);
+        }
+
+        continue;
+      }
+
+      for (int i = first; i < first + count; i++) {
+        if (!intersects(
+          this.entries.box(i, MIN_X),
+          this.entries.box(i, MIN_Y),
+          this.entries.box(i, MAX_X),
+          this.entries.box(i, MAX_Y),
+          bounds
+        )) {
+          continue;
+        }
+
+        E element = this.entries.get(i);
+
+        if (filter.include(element)) {
+          elements.add(element);
+        }
+      }
+    }
+
+    return elements;
+  }
+
+  /**
+   * Find the element closest to the specified point.
+   *
+   * @param point The point to look for elements near.
+   * @return      The element closest to the specified point.
+   */
+  public E nearest(final Point point) {
+    return this.nearest(point, (element) -> {
+      return true;
+    });
+  }
+
+  /**
+   * Find the element closest to the specified point that also match the given
+   * filter.
+   *
+   * @param point   The point to look for elements near.
+   * @param filter  The filter to apply to the elements.
+   * @return        The element closest to the specified point.
+   */
+  public E nearest(final Point point, final Filter<E> filter) {
+    List<E> nearest = this.nearest(point, 1, filter);
+
+    if (nearest.isEmpty()) {
+      return null;
+    }
+
+    return nearest.get(0);
+  }
+
+  /**
+   * Find the k elements closest to the specified point that also match the
+   * given filter and lie within the specified radius of the point.
+   *
+   * <p>
+   * Nodes and elements are visited best-first in order of the minimum
+   * distance between their bounding boxes and the point. Elements are only
+   * decoded once their bounding box is the closest candidate left, and the
+   * search ends as soon as k candidates whose actual distance is known have
+   * left the queue, or the closest candidate left is beyond the radius.
+   *
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param radius  The maximum distance between the point and the elements.
+   * @param filter  The filter to apply to the elements.
+   * @return        The elements closest to the specified point, closest
+   *                first.
+   */
+  public List<E> nearest(
+    final Point point,
+    final int k,
+    final double radius,
+    final Filter<E> filter
+  ) {
+    List<E> nearest = new ArrayList<>();
+
+    if (this.nodes == 0 || point == null || filter == null || k <= 0) {
+      return nearest;
+    }
+
+    PriorityQueue<Candidate<E>> queue = new PriorityQueue<>(11, (a, b) -> {
+      return Double.compare(a.distance, b.distance);
+    });
+
+    queue.add(new Candidate<E>(
+      this.minimumDistance(0, point), 0, false, null
+    ));
+
+    while (!queue.isEmpty() && nearest.size() < k) {
+      Candidate<E> next = queue.poll();
+
+      if (next.distance > radius) {
+        break;
+      }
+
+      if (next.element != null) {
+        nearest.add(next.element);
+        continue;
+      }
+
+      if (next.entry) {
+        E element = this.entries.get(next.index);
+
+        if (filter.include(element)) {
+          queue.add(new Candidate<E>(
+            distance(element, point), next.index, true, element
+          ));
+        }
+
+        continue;
+      }
+
+      int first = this.first(next.index);
+      int count = this.count(next.index);
+      boolean leaf = this.isLeaf(next.index);
+
+      for (int i = first; i < first + count; i++) {
+        double distance;
+
+        if (leaf) {
+          distance = boxDistance(
+            this.entries.box(i, MIN_X),
+            this.entries.box(i, MIN_Y),
+            this.entries.box(i, MAX_X),
+            this.entries.box(i, MAX_Y),
+            point
+          );
+        }
+        else {
+          distance = this.minimumDistance(i, point);
+        }
+
+        if (distance <= radius) {
+          queue.add(new Candidate<E>(distance, i, leaf, null));
+        }
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Check if the specified node is a leaf.
+   *
+   * @param node  The index of the node.
+   * @return      A boolean indicating whether or not the node is a leaf.
+   */
+  private boolean isLeaf(final int node) {
+    return node >= this.nodes - this.leaves;
+  }
+
+  /**
+   * Get a coordinate of the bounding box of the specified node.
+   *
+   * @param node        The index of the node.
+   * @param coordinate  The coordinate to get.
+   * @return            The coordinate.
+   */
+  private float box(final int node, final int coordinate) {
+    return this.buffer.getFloat(this.offset + NODE * node + 4 * coordinate);
+  }
+
+  /**
+   * Get the offset of the first child of the specified node.
+   *
+   * @param node  The index of the node.
+   * @return      The offset of the first child of the node.
+   */
+  private int first(final int node) {
+    return this.buffer.getInt(this.offset + NODE * node + 16);
+  }
+
+  /**
+   * Get the number of children of the specified node.
+   *
+   * @param node  The index of the node.
+   * @return      The number of children of the node.
+   */
+  private int count(final int node) {
+    return this.buffer.getInt(this.offset + NODE * node + 20);
+  }
+
+  /**
+   * Get the minimum distance between the specified node and a point.
+   *
+   * @param node  The index of the node.
+   * @param point The point.
+   * @return      The minimum distance between the node and the point.
+   */
+  private double minimumDistance(final int node, final Point point) {
+    return boxDistance(
+      this.box(node, MIN_X),
+      this.box(node, MIN_Y),
+      this.box(node, MAX_X),
+      this.box(node, MAX_Y),
+      point
+    );
+  }
+
+  /**
+   * Check if a bounding box intersects the specified bounds.
+   *
+   * @param minX    The smallest x-coordinate of the bounding box.
+   * @param minY    The smallest y-coordinate of the bounding box.
+   * @param maxX    The largest x-coordinate of the bounding box.
+   * @param maxY    The largest y-coordinate of the bounding box.
+   * @param bounds  The bounds.
+   * @return        A boolean indicating whether or not the bounding box
+   *                intersects the bounds.
+   */
+  private static boolean intersects(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY,
+    final Bounds bounds
+  ) {
+    return (
+      Epsilon.lessOrEqual(minX, bounds.max().x())
+      && Epsilon.greaterOrEqual(maxX, bounds.min().x())
+      && Epsilon.lessOrEqual(minY, bounds.max().y())
+      && Epsilon.greaterOrEqual(maxY, bounds.min().y())
+    );
+  }
+
+  /**
+   * Get the minimum distance between a bounding box and the specified point.
+   *
+   * @param minX  The smallest x-coordinate of the bounding box.
+   * @param minY  The smallest y-coordinate of the bounding box.
+   * @param maxX  The largest x-coordinate of the bounding box.
+   * @param maxY  The largest y-coordinate of the bounding box.
+   * @param point The point.
+   * @return      The minimum distance between the bounding box and the point.
+   */
+  static double boxDistance(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY,
+    final Point point
+  ) {
+    double dx = Math.max(0, Math.max(minX - point.x(), point.x() - maxX));
+    double dy = Math.max(0, Math.max(minY - point.y(), point.y() - maxY));
+
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /**
+   * Get the actual distance to the specified point from an element.
+   *
+   * @param element The element to find the distance from.
+   * @param point   The point to find the distance to.
+   * @return        The distance to the specified point from the element.
+   */
+  static double distance(final Element element, final Point point) {
+    if (element instanceof Way) {
+      return ((Way) element).distance(point);
+    }
+
+    if (element instanceof Relation) {
+      return ((Relation) element).distance(point);
+    }
+
+    Node node = (Node) element;
+
+    return Geometry.distance(point, new Geometry.Point(node.x(), node.y()));
+  }
+
+  /**
+   * Get a coordinate of the bounding box of an element.
+   *
+   * @param element     The element.
+   * @param coordinate  The coordinate to get.
+   * @return            The coordinate.
+   */
+  static float coordinate(final Element element, final int coordinate) {
+    if (element instanceof Node) {
+      Node node = (Node) element;
+
+      return (coordinate % 2 == 0) ? node.x() : node.y();
+    }
+
+    RectangleTree.Index index = (RectangleTree.Index) element;
+
+    switch (coordinate) {
+      case MIN_X:
+        return index.minX();
+      case MIN_Y:
+        return index.minY();
+      case MAX_X:
+        return index.maxX();
+      default:
+        return index.maxY();
+    }
+  }
+
+  /**
+   * Pack a tree over the specified bounding boxes.
+   *
+   * <p>
+   * At each level of the tree, the entries of the level are sorted into
+   * vertical slices by the x-coordinate of their centers, each slice is
+   * sorted by the y-coordinate of their centers, and runs of
+   * {@link #FANOUT} entries are then grouped into the nodes of the level
+   * above. This is repeated until a single node, the root, remains.
+   *
+   * @param boxes The bounding boxes to pack, four coordinates per box.
+   * @param out   The stream to write the packed tree to.
+   * @return      The order in which the boxes were packed; the elements of
+   *              the tree must be stored in this order.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  static int[] pack(
+    final float[] boxes,
+    final DataOutputStream out
+  ) throws IOException {
+    int n = boxes.length / 4;
+
+    if (n == 0) {
+      out.writeInt(0);
+      out.writeInt(0);
+
+      return new int[0];
+    }
+
+    int[] order = tile(boxes, n);
+
+    // The levels of the tree from the leaves and up, each consisting of the
+    // boxes, first children and numbers of children of its nodes.
+    List<float[]> levelBoxes = new ArrayList<>();
+    List<int[]> levelFirsts = new ArrayList<>();
+    List<int[]> levelCounts = new ArrayList<>();
+
+    float[] items = permute(boxes, order, 4);
+    int m = n;
+
+    while (true) {
+      int parents = (m + FANOUT - 1) / FANOUT;
+
+      float[] parentBoxes = new float[4 * parents];
+      int[] firsts = new int[parents];
+      int[] counts = new int[parents];
+
+      for (int p = 0; p < parents; p++) {
+        firsts[p] = p * FANOUT;
+        counts[p] = Math.min(FANOUT, m - firsts[p]);
+
+        union(items, firsts[p], counts[p], parentBoxes, p);
+      }
+
+      if (parents > 1) {
+        // Reorder the nodes of the level so that they can be grouped into
+        // the level above.
+        int[] tiles = tile(parentBoxes, parents);
+
+        parentBoxes = permute(parentBoxes, tiles, 4);
+        firsts = permute(firsts, tiles);
+        counts = permute(counts, tiles);
+      }
+
+      levelBoxes.add(parentBoxes);
+      levelFirsts.add(firsts);
+      levelCounts.add(counts);
+
+      if (parents == 1) {
+        break;
+      }
+
+      items = parentBoxes;
+      m = parents;
+    }
+
+    int levels = levelBoxes.size();
+    int[] bases = new int[levels];
+    int nodes = 0;
+
+    for (int j = levels - 1; j >= 0; j--) {
+      bases[j] = nodes;
+      nodes += levelFirsts.get(j).length;
+    }
+
+    out.writeInt(nodes);
+    out.writeInt(levelFirsts.get(0).length);
+
+    for (int j = levels - 1; j >= 0; j--) {
+      float[] nodeBoxes = levelBoxes.get(j);
+      int[] firsts = levelFirsts.get(j);
+      int[] counts = levelCounts.get(j);
+
+      // The children of leaves are entries, which are already absolute.
+      int base = (j == 0) ? 0 : bases[j - 1];
+
+      for (int i = 0; i < firsts.length; i++) {
+        for (int c = 0; c < 4; c++) {
+          out.writeFloat(nodeBoxes[4 * i + c]);
+        }
+
+        out.writeInt(base + firsts[i]);
+        out.writeInt(counts[i]);
+      }
+    }
+
+    return order;
+  }
+
+  /**
+   * Compute the Sort-Tile-Recursive order of the specified bounding boxes.
+   *
+   * @param boxes The bounding boxes, four coordinates per box.
+   * @param n     The number of bounding boxes.
+   * @return      The order of the bounding boxes.
+   */
+  private static int[] tile(final float[] boxes, final int n) {
+    long[] keys = new long[n];
+
+    for (int i = 0; i < n; i++) {
+      keys[i] = key(boxes[4 * i + MIN_X] + boxes[4 * i + MAX_X], i);
+    }
+
+    Arrays.sort(keys);
+
+    int[] order = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      order[i] = (int) keys[i];
+    }
+
+    int leaves = (n + FANOUT - 1) / FANOUT;
+    int slice = FANOUT * (int) Math.ceil(Math.sqrt(leaves));
+
+    for (int start = 0; start < n; start += slice) {
+      int end = Math.min(n, start + slice);
+
+      for (int i = start; i < end; i++) {
+        int j = order[i];
+
+        keys[i] = key(boxes[4 * j + MIN_Y] + boxes[4 * j + MAX_Y], j);
+      }
+
+      Arrays.sort(keys, start, end);
+
+      for (int i = start; i < end; i++) {
+        order[i] = (int) keys[i];
+      }
+    }
+
+    return order;
+  }
+
+  /**
+   * Combine a sort key and an index into a single value that sorts by key.
+   *
+   * @param key   The sort key.
+   * @param index The index.
+   * @return      The combined value; the index is found in its lower half.
+   */
+  private static long key(final float key, final int index) {
+    int bits = Float.floatToIntBits(key);
+
+    // Flip the magnitude of negative floats so they sort as integers.
+    bits ^= (bits >> 31) & 0x7FFFFFFF;
+
+    return ((long) bits << 32) | index;
+  }
+
+  /**
+   * Compute the union of a run of bounding boxes.
+   *
+   * @param boxes The bounding boxes, four coordinates per box.
+   * @param first The first bounding box of the run.
+   * @param count The number of bounding boxes of the run.
+   * @param union The array to store the union in.
+   * @param index The index of the union within its array.
+   */
+  private static void union(
+    final float[] boxes,
+    final int first,
+    final int count,
+    final float[] union,
+    final int index
+  ) {
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+
+    for (int i = first; i < first + count; i++) {
+      minX = Math.min(minX, boxes[4 * i + MIN_X]);
+      minY = Math.min(minY, boxes[4 * i + MIN_Y]);
+      maxX = Math.max(maxX, boxes[4 * i + MAX_X]);
+      maxY = Math.max(maxY, boxes[4 * i + MAX_Y]);
+    }
+
+    union[4 * index + MIN_X] = minX;
+    union[4 * index + MIN_Y] = minY;
+    union[4 * index + MAX_X] = maxX;
+    union[4 * index + MAX_Y] = maxY;
+  }
+
+  /**
+   * Reorder the records of an array.
+   *
+   * @param values  The array to reorder.
+   * @param order   The new order of the records.
+   * @param width   The number of values per record.
+   * @return        The reordered array.
+   */
+  private static float[] permute(
+    final float[] values,
+    final int[] order,
+    final int width
+  ) {
+    float[] permuted = new float[values.length];
+
+    for (int i = 0; i < order.length; i++) {
+      System.arraycopy(
+        values, width * order[i], permuted, width * i, width
+      );
+    }
+
+    return permuted;
+  }
+
+  /**
+   * Reorder an array.
+   *
+   * @param values  The array to reorder.
+   * @param order   The new order of the values.
+   * @return        The reordered array.
+   */
+  private static int[] permute(final int[] values, final int[] order) {
+    int[] permuted = new int[values.length];
+
+    for (int i = 0; i < order.length; i++) {
+      permuted[i] = values[order[i]];
+    }
+
+    return permuted;
+  }
+
+  /**
+   * The {@link Entries} interface describes the elements covered by a packed
+   * tree.
+   *
+   * @param <E> The type of elements.
+   */
+  interface Entries<E> {
+    /**
+     * Get the number of elements.
+     *
+     * @return The number of elements.
+     */
+    int size();
+
+    /**
+     * Get the element at the specified position.
+     *
+     * @param index The position of the element.
+     * @return      The element.
+     */
+    E get(int index);
+
+    /**
+     * Get a coordinate of the bounding box of the element at the specified
+     * position without necessarily getting the element itself.
+     *
+     * @param index       The position of the element.
+     * @param coordinate  The coordinate to get.
+     * @return            The coordinate.
+     */
+    float box(int index, int coordinate);
+  }
+
+  /**
+   * The {@link Candidate} class describes a node or an element waiting to be
+   * visited during a nearest neighbour search.
+   *
+   * @param <E> The type of elements.
+   */
+  private static final class Candidate<E> {
+    /**
+     * The distance to the candidate; the minimum distance to its bounding box
+     * unless the element has been decoded.
+     */
+    private final double distance;
+
+    /**
+     * The index of the node or the position of the element.
+     */
+    private final int index;
+
+    /**
+     * Whether or not the candidate is an element.
+     */
+    private final boolean entry;
+
+    /**
+     * The decoded element, if any.
+     */
+    private final E element;
+
+    /**
+     * Initialize a new candidate.
+     *
+     * @param distance  The distance to the candidate.
+     * @param index     The index of the node or the position of the element.
+     * @param entry     Whether or not the candidate is an element.
+     * @param element   The decoded element, if any.
+     */
+    Candidate(
+      final double distance,
+      final int index,
+      final boolean entry,
+      final E element
+    ) {
+      this.distance = distance;
+      this.index = index;
+      this.entry = entry;
+      this.element = element;
+    }
+  }
+}
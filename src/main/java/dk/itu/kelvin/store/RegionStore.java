@@ -0,0 +1,843 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// I/O utilities
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// Utilities
+import dk.itu.kelvin.util.Graph;
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Functional utilities
+import dk.itu.kelvin.util.function.Filter;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Region store class.
+ *
+ * <p>
+ * The region store shards a map into regions, each of which is a map file of
+ * its own such as the map of a single country. Only the extent and the
+ * addresses of each region are read up front; a region is mapped the first
+ * time a search or a route touches it, and regions that haven't been touched
+ * for the longest are unmapped again once the mapped regions exceed the
+ * memory budget of the store.
+ *
+ * <p>
+ * Regions are mapped rather than read so that touching a region costs no more
+ * than opening its file: searches are answered from the packed indexes of the
+ * region and only decode the elements they find, and the routing graphs of
+ * the region are only decoded once routed through. Searches made on the UI
+ * thread therefore don't stall while a region is loaded.
+ *
+ * <p>
+ * The regions are presented as a single, read-only {@link ElementStore},
+ * whose searches are routed to the regions whose extent intersects the
+ * bounds of the search and whose routing graphs join the graphs of the
+ * regions at the nodes they share. The addresses of all regions are kept in a
+ * single {@link AddressStore}.
+ *
+ * <p>
+ * The memory taken up by a mapped region is estimated from the length of its
+ * map file. Regions touched by a single search are never unmapped by that
+ * same search, so a search spanning more regions than fit within the budget
+ * temporarily exceeds it.
+ */
+public final class RegionStore {
+  /**
+   * The estimated number of bytes of memory taken up by a mapped region per
+   * byte of its map file; the pages of the file once touched, the routing
+   * graphs and the elements decoded from it.
+   */
+  private static final int MEMORY_PER_BYTE = 1;
+
+  /**
+   * The memory budget of the store in bytes.
+   */
+  private final long budget;
+
+  /**
+   * The regions of the store.
+   */
+  private final List<Region> regions = new ArrayList<>();
+
+  /**
+   * The addresses of all regions.
+   */
+  private final AddressStore addresses = new AddressStore();
+
+  /**
+   * The element store presenting the regions as one.
+   */
+  private final ElementStore elements;
+
+  /**
+   * The union of the extents of all regions.
+   */
+  private BoundingBox bounds;
+
+  /**
+   * The estimated memory taken up by the loaded regions in bytes.
+   */
+  private long used;
+
+  /**
+   * The number of searches made so far, used for finding the least recently
+   * used regions.
+   */
+  private long clock;
+
+  /**
+   * Initialize a new region store.
+   *
+   * @param budget The memory budget of the store in bytes.
+   */
+  public RegionStore(final long budget) {
+    this.budget = budget;
+    this.elements = new ElementStore(this);
+  }
+
+  /**
+   * Add a region to the store.
+   *
+   * <p>
+   * The region is mapped in order to read its extent and addresses, but its
+   * elements aren't read until needed.
+   *
+   * @param file  The map file of the region.
+   *
+   * @throws IOException In case of an I/O error or if the file doesn't
+   *                     contain a valid map file.
+   */
+  public synchronized void add(final File file) throws IOException {
+    MapBuffer buffer = new MapBuffer(file);
+
+    BoundingBox extent = buffer.extent();
+
+    if (extent == null) {
+      return;
+    }
+
+    int[] sizes = new int[MapFile.Index.values().length];
+
+    for (MapFile.Index index: MapFile.Index.values()) {
+      sizes[index.ordinal()] = buffer.index(index).size();
+    }
+
+    this.regions.add(new Region(file, extent, sizes));
+
+    for (Address address: buffer.addresses().addresses()) {
+      this.addresses.add(address);
+    }
+
+    if (this.bounds == null) {
+      this.bounds = extent;
+    }
+    else {
+      this.bounds = new BoundingBox(
+        Math.min(this.bounds.minX(), extent.minX()),
+        Math.min(this.bounds.minY(), extent.minY()),
+        Math.max(this.bounds.maxX(), extent.maxX()),
+        Math.max(this.bounds.maxY(), extent.maxY())
+      );
+    }
+  }
+
+  /**
+   * Get the element store presenting the regions as one.
+   *
+   * @return The element store presenting the regions as one.
+   */
+  public ElementStore elements() {
+    return this.elements;
+  }
+
+  /**
+   * Get the addresses of all regions.
+   *
+   * @return The addresses of all regions.
+   */
+  public AddressStore addresses() {
+    return this.addresses;
+  }
+
+  /**
+   * Get the union of the extents of all regions.
+   *
+   * @return The union of the extents of all regions or {@code null} if the
+   *         store has no regions.
+   */
+  public synchronized BoundingBox bounds() {
+    return this.bounds;
+  }
+
+  /**
+   * Get the number of regions of the store.
+   *
+   * @return The number of regions of the store.
+   */
+  public synchronized int size() {
+    return this.regions.size();
+  }
+
+  /**
+   * Get the number of regions currently loaded.
+   *
+   * @return The number of regions currently loaded.
+   */
+  public synchronized int loaded() {
+    int loaded = 0;
+
+    for (Region region: this.regions) {
+      if (region.store != null) {
+        loaded++;
+      }
+    }
+
+    return loaded;
+  }
+
+  /**
+   * Get the estimated memory taken up by the loaded regions.
+   *
+   * @return The estimated memory taken up by the loaded regions in bytes.
+   */
+  public synchronized long used() {
+    return this.used;
+  }
+
+  /**
+   * Get a spatial index spanning the specified index of all regions.
+   *
+   * @param <E>   The type of elements of the index.
+   * @param index The index to span.
+   * @return      The spatial index spanning the regions.
+   */
+  <E extends Element> SpatialIndex<E> index(final MapFile.Index index) {
+    return new Index<>(this, index);
+  }
+
+  /**
+   * Get a graph spanning the specified routing graph of all regions.
+   *
+   * @param graph The index of the graph; 0 for cars and 1 for bicycles.
+   * @return      The graph spanning the regions.
+   */
+  Graph<Node, Way> graph(final int graph) {
+    return new Routes(this, graph);
+  }
+
+  /**
+   * Find all elements of the specified index within the range of the
+   * specified bounds, loading the regions intersecting the bounds.
+   *
+   * @param <E>     The type of elements of the index.
+   * @param index   The index to search.
+   * @param bounds  The bounds to search for elements within.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements within the range of the bounds.
+   */
+  private synchronized <E extends Element> List<E> range(
+    final MapFile.Index index,
+    final SpatialIndex.Bounds bounds,
+    final Filter<E> filter
+  ) {
+    this.clock++;
+
+    List<E> elements = new ArrayList<>();
+
+    for (Region region: this.regions) {
+      if (!region.intersects(bounds)) {
+        continue;
+      }
+
+      SpatialIndex<E> tree = this.load(region).tree(index);
+      List<E> found = tree.range(bounds, filter);
+
+      if (found != null) {
+        elements.addAll(found);
+      }
+    }
+
+    return elements;
+  }
+
+  /**
+   * Find the k elements of the specified index closest to the specified point
+   * and within the specified radius of it.
+   *
+   * <p>
+   * Regions are visited in order of the distance between their extent and
+   * the point, and only loaded if they may contain an element closer than
+   * the k-th closest element found so far.
+   *
+   * @param <E>     The type of elements of the index.
+   * @param index   The index to search.
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param radius  The maximum distance between the point and the elements.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements closest to the point, closest first.
+   */
+  private synchronized <E extends Element> List<E> nearest(
+    final MapFile.Index index,
+    final SpatialIndex.Point point,
+    final int k,
+    final double radius,
+    final Filter<E> filter
+  ) {
+    this.clock++;
+
+    List<Region> regions = new ArrayList<>(this.regions);
+
+    regions.sort((a, b) -> {
+      return Double.compare(a.distance(point), b.distance(point));
+    });
+
+    List<E> nearest = new ArrayList<>();
+
+    for (Region region: regions) {
+      double distance = region.distance(point);
+
+      if (distance > radius) {
+        break;
+      }
+
+      if (
+        nearest.size() == k
+        && distance >= PackedIndex.distance(nearest.get(k - 1), point)
+      ) {
+        break;
+      }
+
+      SpatialIndex<E> tree = this.load(region).tree(index);
+
+      nearest.addAll(tree.nearest(point, k, radius, filter));
+
+      nearest.sort((a, b) -> {
+        return Double.compare(
+          PackedIndex.distance(a, point), PackedIndex.distance(b, point)
+        );
+      });
+
+      if (nearest.size() > k) {
+        nearest.subList(k, nearest.size()).clear();
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Find the neighbours of a node in the specified routing graph, loading the
+   * regions containing the node.
+   *
+   * @param graph The index of the graph; 0 for cars and 1 for bicycles.
+   * @param node  The node whose neighbours to find.
+   * @return      The neighbours of the node or {@code null} if the node isn't
+   *              part of the graph.
+   */
+  private synchronized Map<Node, Way> neighbours(
+    final int graph,
+    final Node node
+  ) {
+    this.clock++;
+
+    Map<Node, Way> neighbours = null;
+    boolean copied = false;
+
+    for (Region region: this.regions) {
+      if (!region.contains(node)) {
+        continue;
+      }
+
+      Map<Node, Way> found = RegionStore.graph(
+        this.load(region), graph
+      ).neighbours(node);
+
+      if (found == null) {
+        continue;
+      }
+
+      // Nodes on the border between regions are joined by merging their
+      // neighbours in each region.
+      if (neighbours == null) {
+        neighbours = found;
+      }
+      else {
+        if (!copied) {
+          neighbours = new HashMap<>(neighbours);
+          copied = true;
+        }
+
+        neighbours.putAll(found);
+      }
+    }
+
+    return neighbours;
+  }
+
+  /**
+   * Get the edges of the specified routing graph of the loaded regions.
+   *
+   * @param graph The index of the graph; 0 for cars and 1 for bicycles.
+   * @return      The edges of the graph of the loaded regions.
+   */
+  private synchronized Collection<Way> edges(final int graph) {
+    List<Way> edges = new ArrayList<>();
+
+    for (Region region: this.regions) {
+      if (region.store != null) {
+        edges.addAll(RegionStore.graph(region.store, graph).edges());
+      }
+    }
+
+    return edges;
+  }
+
+  /**
+   * Get the specified routing graph of an element store.
+   *
+   * @param store The element store.
+   * @param graph The index of the graph; 0 for cars and 1 for bicycles.
+   * @return      The graph.
+   */
+  private static Graph<Node, Way> graph(
+    final ElementStore store,
+    final int graph
+  ) {
+    return graph == 0 ? store.carGraph() : store.bycicleGraph();
+  }
+
+  /**
+   * Get the elements of a region, mapping the region if needed.
+   *
+   * @param region  The region to load.
+   * @return        The elements of the region.
+   */
+  private ElementStore load(final Region region) {
+    region.used = this.clock;
+
+    if (region.store != null) {
+      return region.store;
+    }
+
+    try {
+      region.store = new ElementStore(new MapBuffer(region.file));
+    }
+    catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+
+    this.used += region.memory;
+    this.evict();
+
+    return region.store;
+  }
+
+  /**
+   * Unload the least recently used regions until the loaded regions fit
+   * within the budget, leaving the regions used by the current search.
+   */
+  private void evict() {
+    while (this.used > this.budget) {
+      Region oldest = null;
+
+      for (Region region: this.regions) {
+        if (
+          region.store != null
+          && region.used < this.clock
+          && (oldest == null || region.used < oldest.used)
+        ) {
+          oldest = region;
+        }
+      }
+
+      if (oldest == null) {
+        return;
+      }
+
+      oldest.store = null;
+      this.used -= oldest.memory;
+    }
+  }
+
+  /**
+   * The {@link Region} class describes a single region of a region store.
+   */
+  private static final class Region {
+    /**
+     * The map file of the region.
+     */
+    private final File file;
+
+    /**
+     * The extent of the region.
+     */
+    private final BoundingBox extent;
+
+    /**
+     * The number of elements of each index of the region.
+     */
+    private final int[] sizes;
+
+    /**
+     * The estimated memory taken up by the region when loaded, in bytes.
+     */
+    private final long memory;
+
+    /**
+     * The elements of the region if loaded.
+     */
+    private ElementStore store;
+
+    /**
+     * The search that last used the region.
+     */
+    private long used;
+
+    /**
+     * Initialize a new region.
+     *
+     * @param file    The map file of the region.
+     * @param extent  The extent of the region.
+     * @param sizes   The number of elements of each index of the region.
+     */
+    Region(final File file, final BoundingBox extent, final int[] sizes) {
+      this.file = file;
+      this.extent = extent;
+      this.sizes = sizes;
+      this.memory = MEMORY_PER_BYTE * file.length();
+    }
+
+    /**
+     * Check if the extent of the region intersects the specified bounds.
+     *
+     * @param bounds  The bounds to check.
+     * @return        A boolean indicating whether or not the extent of the
+     *                region intersects the bounds.
+     */
+    boolean intersects(final SpatialIndex.Bounds bounds) {
+      return (
+        this.extent.minX() <= bounds.max().x()
+        && this.extent.maxX() >= bounds.min().x()
+        && this.extent.minY() <= bounds.max().y()
+        && this.extent.maxY() >= bounds.min().y()
+      );
+    }
+
+    /**
+     * Check if the extent of the region contains the specified node.
+     *
+     * @param node  The node to check.
+     * @return      A boolean indicating whether or not the extent of the
+     *              region contains the node.
+     */
+    boolean contains(final Node node) {
+      return this.extent.contains(node);
+    }
+
+    /**
+     * Get the minimum distance between the extent of the region and the
+     * specified point.
+     *
+     * @param point The point.
+     * @return      The minimum distance between the extent and the point.
+     */
+    double distance(final SpatialIndex.Point point) {
+      return PackedIndex.boxDistance(
+        this.extent.minX(),
+        this.extent.minY(),
+        this.extent.maxX(),
+        this.extent.maxY(),
+        point
+      );
+    }
+  }
+
+  /**
+   * The {@link Index} class describes a spatial index spanning an index of
+   * all regions of a region store.
+   *
+   * @param <E> The type of elements stored within the index.
+   */
+  private static final class Index<E extends Element>
+    implements SpatialIndex<E> {
+    /**
+     * UID for identifying serialized objects.
+     */
+    private static final long serialVersionUID = 1;
+
+    /**
+     * The region store.
+     */
+    private final transient RegionStore regions;
+
+    /**
+     * The index of the regions to span.
+     */
+    private final MapFile.Index index;
+
+    /**
+     * Initialize a new index.
+     *
+     * @param regions The region store.
+     * @param index   The index of the regions to span.
+     */
+    Index(final RegionStore regions, final MapFile.Index index) {
+      this.regions = regions;
+      this.index = index;
+    }
+
+    /**
+     * Get the number of elements of the index across all regions.
+     *
+     * @return The number of elements of the index across all regions.
+     */
+    public int size() {
+      synchronized (this.regions) {
+        int size = 0;
+
+        for (Region region: this.regions.regions) {
+          size += region.sizes[this.index.ordinal()];
+        }
+
+        return size;
+      }
+    }
+
+    /**
+     * Check if the index is empty across all regions.
+     *
+     * @return A boolean indicating whether or not the index is empty.
+     */
+    public boolean isEmpty() {
+      return this.size() == 0;
+    }
+
+    /**
+     * Check if any of the loaded regions contains the specified element.
+     *
+     * <p>
+     * Elements are only ever handed out by loaded regions, so the regions
+     * that aren't loaded need not be checked.
+     *
+     * @param element The element to look for.
+     * @return        A boolean indicating whether or not the index contains
+     *                the element.
+     */
+    public boolean contains(final E element) {
+      synchronized (this.regions) {
+        for (Region region: this.regions.regions) {
+          if (
+            region.store != null
+            && region.store.<E>tree(this.index).contains(element)
+          ) {
+            return true;
+          }
+        }
+
+        return false;
+      }
+    }
+
+    /**
+     * Add an element to the index, which isn't supported.
+     *
+     * @param element The element to add.
+     */
+    public void add(final E element) {
+      throw new UnsupportedOperationException("Region indexes are read-only");
+    }
+
+    /**
+     * Remove an element from the index, which isn't supported.
+     *
+     * @param element The element to remove.
+     * @return        Never.
+     */
+    public boolean remove(final E element) {
+      throw new UnsupportedOperationException("Region indexes are read-only");
+    }
+
+    /**
+     * Find all elements within the range of the specified bounds.
+     *
+     * @param bounds  The bounds to search for elements within.
+     * @return        The elements within the range of the bounds.
+     */
+    public List<E> range(final Bounds bounds) {
+      return this.range(bounds, (element) -> {
+        return true;
+      });
+    }
+
+    /**
+     * Find all elements included in the filter and within the range of the
+     * specified bounds.
+     *
+     * @param bounds  The bounds to search for elements within.
+     * @param filter  The filter to apply to the search.
+     * @return        The elements within the range of the bounds.
+     */
+    public List<E> range(final Bounds bounds, final Filter<E> filter) {
+      if (bounds == null || filter == null) {
+        return null;
+      }
+
+      return this.regions.range(this.index, bounds, filter);
+    }
+
+    /**
+     * Find the element closest to the specified point.
+     *
+     * @param point The point to look for elements near.
+     * @return      The element closest to the point.
+     */
+    public E nearest(final Point point) {
+      return this.nearest(point, (element) -> {
+        return true;
+      });
+    }
+
+    /**
+     * Find the element included in the filter closest to the specified
+     * point.
+     *
+     * @param point   The point to look for elements near.
+     * @param filter  The filter to apply to the search.
+     * @return        The element closest to the point.
+     */
+    public E nearest(final Point point, final Filter<E> filter) {
+      List<E> nearest = this.nearest(point, 1, filter);
+
+      if (nearest.isEmpty()) {
+        return null;
+      }
+
+      return nearest.get(0);
+    }
+
+    /**
+     * Find the k elements included in the filter closest to the specified
+     * point and within the specified radius of it.
+     *
+     * @param point   The point to look for elements near.
+     * @param k       The maximum number of elements to find.
+     * @param radius  The maximum distance between the point and the elements.
+     * @param filter  The filter to apply to the search.
+     * @return        The elements closest to the point, closest first.
+     */
+    public List<E> nearest(
+      final Point point,
+      final int k,
+      final double radius,
+      final Filter<E> filter
+    ) {
+      if (point == null || filter == null || k <= 0) {
+        return new ArrayList<>();
+      }
+
+      return this.regions.nearest(this.index, point, k, radius, filter);
+    }
+  }
+
+  /**
+   * The {@link Routes} class describes a routing graph spanning the routing
+   * graphs of all regions of a region store.
+   *
+   * <p>
+   * The graph is read-only. Within the class, {@code Node} refers to the node
+   * interface of {@link Graph}, hence the qualified names of the model.
+   */
+  private static final class Routes implements Graph<Node, Way> {
+    /**
+     * UID for identifying serialized objects.
+     */
+    private static final long serialVersionUID = 1;
+
+    /**
+     * The region store.
+     */
+    private final transient RegionStore regions;
+
+    /**
+     * The index of the graph; 0 for cars and 1 for bicycles.
+     */
+    private final int graph;
+
+    /**
+     * Initialize a new graph.
+     *
+     * @param regions The region store.
+     * @param graph   The index of the graph; 0 for cars and 1 for bicycles.
+     */
+    Routes(final RegionStore regions, final int graph) {
+      this.regions = regions;
+      this.graph = graph;
+    }
+
+    /**
+     * Add an edge to the graph, which isn't supported.
+     *
+     * @param edge  The edge to add.
+     * @return      Never.
+     */
+    public boolean add(final Way edge) {
+      throw new UnsupportedOperationException("Region graphs are read-only");
+    }
+
+    /**
+     * Remove an edge from the graph, which isn't supported.
+     *
+     * @param edge  The edge to remove.
+     * @return      Never.
+     */
+    public boolean remove(final Way edge) {
+      throw new UnsupportedOperationException("Region graphs are read-only");
+    }
+
+    /**
+     * Get the edges of the graphs of the loaded regions.
+     *
+     * @return The edges of the graphs of the loaded regions.
+     */
+    public Collection<Way> edges() {
+      return this.regions.edges(this.graph);
+    }
+
+    /**
+     * Get the neighbours of a node across all regions containing it.
+     *
+     * @param node  The node whose neighbours to get.
+     * @return      The neighbours of the node or {@code null} if the node
+     *              isn't part of the graph.
+     */
+    public Map<dk.itu.kelvin.model.Node, Way> neighbours(
+      final dk.itu.kelvin.model.Node node
+    ) {
+      if (node == null) {
+        return null;
+      }
+
+      return this.regions.neighbours(this.graph, node);
+    }
+  }
+}
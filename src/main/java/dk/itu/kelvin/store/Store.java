@@ -3,16 +3,40 @@
  */
 package dk.itu.kelvin.store;
 
+// General utilities
+import java.util.concurrent.atomic.AtomicLong;
+
 // I/O utilities
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 
+// NIO utilities
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Threading
+import dk.itu.kelvin.thread.TaskQueue;
+
 // Functional utilities
 import dk.itu.kelvin.util.function.Callback;
 
 /**
  * Store class.
  *
+ * <p>
+ * Stores are saved to and loaded from disk in the background on the
+ * {@link TaskQueue}. Saved stores are compressed in chunks which are
+ * compressed and decompressed in parallel, each carrying a checksum of its
+ * contents so that corrupt files are detected when loaded rather than
+ * silently producing a broken store.
+ *
  * @param <E> The type of elements contained within the store.
  * @param <C> The search criteria to use when looking up elements.
  */
@@ -20,20 +44,254 @@ public abstract class Store<E, C> implements Serializable {
   /**
    * Save the current store to the specified file.
    *
+   * <p>
+   * The store is written to a temporary file next to the specified file
+   * which is then moved into place, so the specified file is left untouched
+   * if saving fails.
+   *
    * @param file      The file to save the store to.
-   * @param callback  The callback to invoke once saving has finished.
+   * @param callback  The callback to invoke once saving has finished,
+   *                  successfully or not.
+   * @return          A handle for following the progress of the save.
    */
-  public final void save(final File file, final Callback callback) {
-    throw new UnsupportedOperationException();
+  public final Handle save(final File file, final Callback callback) {
+    return Store.save(file, callback, (output, handle) -> {
+      try (OutputStream chunked = new ChunkedOutputStream(output, handle)) {
+        this.write(chunked, handle);
+      }
+    });
+  }
+
+  /**
+   * Save the contents produced by the specified writer to the specified file
+   * in the background.
+   *
+   * <p>
+   * The contents are written to a temporary file next to the specified file
+   * which is then moved into place, so the specified file is left untouched
+   * if saving fails.
+   *
+   * @param file      The file to save the contents to.
+   * @param callback  The callback to invoke once saving has finished,
+   *                  successfully or not.
+   * @param writer    The writer producing the contents.
+   * @return          A handle for following the progress of the save.
+   */
+  static Handle save(
+    final File file,
+    final Callback callback,
+    final Writer writer
+  ) {
+    Handle handle = new Handle();
+
+    TaskQueue.run(() -> {
+      File temporary = new File(file.getPath() + ".tmp");
+
+      try {
+        try (
+          OutputStream output = new BufferedOutputStream(
+            new FileOutputStream(temporary)
+          )
+        ) {
+          writer.write(output, handle);
+        }
+
+        Files.move(
+          temporary.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE
+        );
+
+        handle.finish(null);
+      }
+      catch (IOException | RuntimeException ex) {
+        temporary.delete();
+        handle.finish(ex);
+      }
+      finally {
+        if (callback != null) {
+          callback.call();
+        }
+      }
+    });
+
+    return handle;
   }
 
   /**
    * Load a store saved to disk into the current store.
    *
    * @param file      The file containing the saved store.
-   * @param callback  The callback to invoke once loading has finished.
+   * @param callback  The callback to invoke once loading has finished,
+   *                  successfully or not.
+   * @return          A handle for following the progress of the load.
+   */
+  public final Handle load(final File file, final Callback callback) {
+    Handle handle = new Handle();
+
+    TaskQueue.run(() -> {
+      handle.expect(file.length());
+
+      try {
+        try (
+          InputStream input = new ChunkedInputStream(
+            new BufferedInputStream(new FileInputStream(file)), handle
+          )
+        ) {
+          this.read(input);
+        }
+
+        handle.finish(null);
+      }
+      catch (IOException | RuntimeException ex) {
+        handle.finish(ex);
+      }
+      finally {
+        if (callback != null) {
+          callback.call();
+        }
+      }
+    });
+
+    return handle;
+  }
+
+  /**
+   * Write the contents of the store to the specified stream.
+   *
+   * @param output  The stream to write the store to.
+   * @param handle  The handle to report the total number of bytes to write
+   *                to, if known in advance.
+   *
+   * @throws IOException In case of an I/O error.
    */
-  public final void load(final File file, final Callback callback) {
-    throw new UnsupportedOperationException();
+  abstract void write(
+    final OutputStream output,
+    final Handle handle
+  ) throws IOException;
+
+  /**
+   * Read the contents of a store from the specified stream into the current
+   * store.
+   *
+   * @param input The stream to read the store from.
+   *
+   * @throws IOException In case of an I/O error or if the stream doesn't
+   *                     contain a valid store.
+   */
+  abstract void read(final InputStream input) throws IOException;
+
+  /**
+   * The {@link Writer} interface describes the writing of the contents of a
+   * file being saved.
+   */
+  @FunctionalInterface
+  interface Writer {
+    /**
+     * Write the contents to the specified stream.
+     *
+     * @param output  The stream to write the contents to.
+     * @param handle  The handle to report the progress of the save to.
+     *
+     * @throws IOException In case of an I/O error.
+     */
+    void write(OutputStream output, Handle handle) throws IOException;
+  }
+
+  /**
+   * The {@link Handle} class describes a running save or load of a store.
+   *
+   * <p>
+   * Progress is measured in bytes: the uncompressed bytes written when saving
+   * and the compressed bytes read when loading.
+   */
+  public static final class Handle {
+    /**
+     * The total number of bytes, or 0 if not yet known.
+     */
+    private volatile long total;
+
+    /**
+     * The number of bytes processed so far.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * The error that caused the save or load to fail, if any.
+     */
+    private volatile Exception error;
+
+    /**
+     * Indicates whether the save or load has finished.
+     */
+    private volatile boolean done;
+
+    /**
+     * Get the fraction of the save or load that has been completed.
+     *
+     * @return  The completed fraction between 0 and 1, or 0 if the total
+     *          isn't yet known.
+     */
+    public double fraction() {
+      if (this.done) {
+        return 1;
+      }
+
+      long total = this.total;
+
+      if (total <= 0) {
+        return 0;
+      }
+
+      return Math.min(1, (double) this.bytes.get() / total);
+    }
+
+    /**
+     * Check if the save or load has finished, successfully or not.
+     *
+     * @return A boolean indicating whether the save or load has finished.
+     */
+    public boolean done() {
+      return this.done;
+    }
+
+    /**
+     * Get the error that caused the save or load to fail.
+     *
+     * @return  The error that caused the save or load to fail, or
+     *          {@code null} if it hasn't failed.
+     */
+    public Exception error() {
+      return this.error;
+    }
+
+    /**
+     * Set the total number of bytes to process.
+     *
+     * @param total The total number of bytes to process.
+     */
+    void expect(final long total) {
+      this.total = total;
+    }
+
+    /**
+     * Record that a number of bytes have been processed.
+     *
+     * @param bytes The number of bytes processed.
+     */
+    void advance(final long bytes) {
+      this.bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Mark the save or load as finished.
+     *
+     * @param error The error that caused the save or load to fail, if any.
+     */
+    void finish(final Exception error) {
+      this.error = error;
+      this.done = true;
+    }
   }
 }
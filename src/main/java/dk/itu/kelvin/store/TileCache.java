@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// I/O utilities
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// Models
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Tile cache class.
+ *
+ * <p>
+ * A tile cache holds the pre-generated contents of the tiles of the chart, so
+ * that showing a tile costs a lookup and a read rather than a search of the
+ * spatial indexes, a sort and the decoding of elements that are mostly
+ * outside the tile. The chart lays out a single grid of square tiles in the
+ * coordinates of the map and scales the tiles rather than laying out new ones
+ * when zooming, so a tile cache holds a single level of tiles of a fixed
+ * size.
+ *
+ * <p>
+ * The contents of each tile are the ways and relations intersecting it, in
+ * the order in which they're drawn. Their coordinates are simplified to
+ * within half a pixel at the largest zoom factor of the chart, and closed
+ * ways are clipped to the tile plus a margin, so that large areas such as
+ * land polygons only take up space in the tiles they're visible in.
+ *
+ * <p>
+ * Tile caches are generated offline from a map file using {@link #main} and
+ * mapped into memory when used. All integers and floats are big-endian:
+ *
+ * <pre>
+ * int    magic        0x4B54494C ("KTIL")
+ * int    version
+ * int    tile size
+ * int    n            the number of strings
+ *        strings      n times: int length, UTF-8 bytes
+ * int    m            the number of tiles
+ *        index        m times: int x, int y, int offset, int length, sorted
+ *                     by x and then y
+ *        tiles        m times: int count, count elements
+ * </pre>
+ *
+ * <p>
+ * Tiles without elements are left out. An element is a byte that is 0 for
+ * ways and 1 for relations, followed by an int count of tags and count pairs
+ * of string indexes. Ways then hold their geometry; relations hold an int
+ * count of members, each of which is the string index of its role, or -1,
+ * followed by its geometry. Geometries are the box of the way as four
+ * floats, the int number of nodes, and the int length of the coordinates
+ * encoded by the {@link dk.itu.kelvin.util.CoordinateCodec} followed by the
+ * encoded coordinates. Coordinates that cannot be encoded, as they don't lie
+ * on the grid of the codec, have a length of -1 and are instead stored as
+ * 2n raw floats, the x- and y-coordinates of each of the n nodes in turn.
+ */
+public final class TileCache {
+  /**
+   * The size of the tiles shown by the chart, and so the default size of the
+   * tiles of a tile cache.
+   */
+  public static final int TILE_SIZE = 256;
+
+  /**
+   * The magic number identifying tile caches.
+   */
+  static final int MAGIC = 0x4B54494C;
+
+  /**
+   * The current version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The tag of ways within the tiles.
+   */
+  static final byte WAY = 0;
+
+  /**
+   * The tag of relations within the tiles.
+   */
+  static final byte RELATION = 1;
+
+  /**
+   * The number of bytes of an entry of the index.
+   */
+  private static final int ENTRY = 16;
+
+  /**
+   * The size of the tiles.
+   */
+  private final int tileSize;
+
+  /**
+   * The string table of the cache.
+   */
+  private final String[] strings;
+
+  /**
+   * The index of the tiles.
+   */
+  private final ByteBuffer index;
+
+  /**
+   * The contents of the tiles.
+   */
+  private final ByteBuffer tiles;
+
+  /**
+   * Initialize a new tile cache.
+   *
+   * @param buffer The contents of the tile cache.
+   *
+   * @throws IOException If the buffer doesn't contain a valid tile cache.
+   */
+  private TileCache(final ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a tile cache");
+      }
+
+      int version = buffer.getInt();
+
+      if (version != VERSION) {
+        throw new IOException("Unsupported tile cache version " + version);
+      }
+
+      this.tileSize = buffer.getInt();
+      this.strings = new String[buffer.getInt()];
+
+      for (int i = 0; i < this.strings.length; i++) {
+        byte[] utf8 = new byte[buffer.getInt()];
+        buffer.get(utf8);
+
+        this.strings[i] = new String(utf8, StandardCharsets.UTF_8);
+      }
+
+      int count = buffer.getInt();
+
+      ByteBuffer index = buffer.slice();
+      index.limit(count * ENTRY);
+
+      buffer.position(buffer.position() + count * ENTRY);
+
+      this.index = index;
+      this.tiles = buffer.slice();
+    }
+    catch (BufferUnderflowException | IllegalArgumentException ex) {
+      throw new IOException("Corrupt tile cache", ex);
+    }
+  }
+
+  /**
+   * Map a tile cache into memory.
+   *
+   * @param file  The tile cache to map.
+   * @return      The mapped tile cache.
+   *
+   * @throws IOException In case of an I/O error or if the file doesn't
+   *                     contain a valid tile cache.
+   */
+  public static TileCache map(final File file) throws IOException {
+    // The mapping remains valid once the channel has been closed.
+    try (FileChannel channel = FileChannel.open(
+      file.toPath(), StandardOpenOption.READ
+    )) {
+      return new TileCache(
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+      );
+    }
+  }
+
+  /**
+   * Generate the tile cache of an element store.
+   *
+   * <p>
+   * The stream is flushed but not closed.
+   *
+   * @param elements  The element store to generate the tiles of.
+   * @param tileSize  The size of the tiles.
+   * @param output    The stream to write the tile cache to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public static void write(
+    final ElementStore elements,
+    final int tileSize,
+    final OutputStream output
+  ) throws IOException {
+    new TileWriter(tileSize).write(elements, output);
+  }
+
+  /**
+   * Generate the tile cache of a map file.
+   *
+   * <p>
+   * Usage: {@code TileCache <map file> <tile cache> [tile size]}.
+   *
+   * @param args The command line arguments.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 2) {
+      throw new IllegalArgumentException(
+        "Usage: TileCache <map file> <tile cache> [tile size]"
+      );
+    }
+
+    int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : TILE_SIZE;
+
+    MapFile map = MapFile.map(new File(args[0]));
+
+    try (OutputStream output = new BufferedOutputStream(
+      new FileOutputStream(args[1])
+    )) {
+      TileCache.write(map.elements(), tileSize, output);
+    }
+  }
+
+  /**
+   * Get the size of the tiles.
+   *
+   * @return The size of the tiles.
+   */
+  public int tileSize() {
+    return this.tileSize;
+  }
+
+  /**
+   * Get the number of tiles of the cache that contain any elements.
+   *
+   * @return The number of tiles of the cache that contain any elements.
+   */
+  public int size() {
+    return this.index.limit() / ENTRY;
+  }
+
+  /**
+   * Get the elements of the tile at the specified anchor, in the order in
+   * which they're drawn.
+   *
+   * <p>
+   * The elements are decoded anew every time they're asked for.
+   *
+   * @param x The x-coordinate of the anchor of the tile.
+   * @param y The y-coordinate of the anchor of the tile.
+   * @return  The elements of the tile.
+   */
+  public List<Element> tile(final int x, final int y) {
+    int low = 0;
+    int high = this.size() - 1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int entry = middle * ENTRY;
+
+      int cx = this.index.getInt(entry);
+      int cy = this.index.getInt(entry + 4);
+
+      int c = cx != x ? Integer.compare(cx, x) : Integer.compare(cy, y);
+
+      if (c < 0) {
+        low = middle + 1;
+      }
+      else if (c > 0) {
+        high = middle - 1;
+      }
+      else {
+        ByteBuffer tile = this.tiles.duplicate();
+        tile.position(this.index.getInt(entry + 8));
+
+        return this.elements(tile);
+      }
+    }
+
+    return Collections.emptyList();
+  }
+
+  /**
+   * Decode the elements of a tile.
+   *
+   * @param buffer  The contents of the tile.
+   * @return        The elements of the tile.
+   */
+  private List<Element> elements(final ByteBuffer buffer) {
+    int n = buffer.getInt();
+
+    List<Element> elements = new ArrayList<>(n);
+
+    for (int i = 0; i < n; i++) {
+      byte kind = buffer.get();
+
+      String[] tags = new String[2 * buffer.getInt()];
+
+      for (int j = 0; j < tags.length; j++) {
+        tags[j] = this.strings[buffer.getInt()];
+      }
+
+      Element element;
+
+      if (kind == WAY) {
+        element = TileCache.way(buffer);
+      }
+      else {
+        Relation relation = new Relation();
+
+        int members = buffer.getInt();
+
+        for (int j = 0; j < members; j++) {
+          int role = buffer.getInt();
+
+          relation.add(
+            TileCache.way(buffer), role >= 0 ? this.strings[role] : null
+          );
+        }
+
+        element = relation;
+      }
+
+      for (int j = 0; j < tags.length; j += 2) {
+        element.tag(tags[j], tags[j + 1]);
+      }
+
+      elements.add(element);
+    }
+
+    return elements;
+  }
+
+  /**
+   * Decode the geometry of a way.
+   *
+   * @param buffer  The contents of the tile.
+   * @return        The way.
+   */
+  private static Way way(final ByteBuffer buffer) {
+    float minX = buffer.getFloat();
+    float minY = buffer.getFloat();
+    float maxX = buffer.getFloat();
+    float maxY = buffer.getFloat();
+
+    int n = buffer.getInt();
+    int length = buffer.getInt();
+
+    if (length >= 0) {
+      byte[] geometry = new byte[length];
+      buffer.get(geometry);
+
+      return new Way(minX, minY, maxX, maxY, n, geometry);
+    }
+
+    Way way = new Way();
+
+    for (int i = 0; i < n; i++) {
+      way.add(new Node(buffer.getFloat(), buffer.getFloat()));
+    }
+
+    return way;
+  }
+}
@@ -0,0 +1,700 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// I/O utilities
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+// Fast utils
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateCodec;
+
+// Models
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * Tile writer class.
+ *
+ * <p>
+ * The tile writer generates the contents of every tile of the chart that
+ * intersects any element of an element store and writes them as a tile
+ * cache. The elements are searched and sorted once, their coordinates
+ * simplified once, and each element is then encoded into the tiles its box
+ * intersects, exactly like the chart would find it when searching the tile.
+ *
+ * @see TileCache
+ */
+final class TileWriter {
+  /**
+   * The types of elements drawn in the tiles, as searched by the chart.
+   */
+  private static final String[] TYPES = {
+    "land", "way", "relation", "transportWay"
+  };
+
+  /**
+   * The largest distance by which simplified coordinates may stray from the
+   * original ones; half a pixel at the largest zoom factor of the chart.
+   */
+  private static final float TOLERANCE = 0.125f;
+
+  /**
+   * The margin around each tile that closed ways are clipped to, as a
+   * fraction of the tile size. The edges introduced by clipping lie within
+   * the margin so that their strokes are hidden by the clip of the tile.
+   */
+  private static final int MARGIN = 16;
+
+  /**
+   * The number of grid cells of the coordinate codec per unit.
+   */
+  private static final double SCALE = 1 << CoordinateCodec.RESOLUTION;
+
+  /**
+   * The size of the tiles.
+   */
+  private final int tileSize;
+
+  /**
+   * The distinct strings of the tiles mapped to their indexes.
+   */
+  private final Object2IntOpenHashMap<String> strings =
+    new Object2IntOpenHashMap<>();
+
+  /**
+   * The distinct strings of the tiles in order of their indexes.
+   */
+  private final List<String> stringList = new ArrayList<>();
+
+  /**
+   * Initialize a new tile writer.
+   *
+   * @param tileSize The size of the tiles.
+   */
+  TileWriter(final int tileSize) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Invalid tile size " + tileSize);
+    }
+
+    this.tileSize = tileSize;
+  }
+
+  /**
+   * Generate the tiles of the specified element store.
+   *
+   * @param store   The element store to generate the tiles of.
+   * @param output  The stream to write the tile cache to.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  void write(
+    final ElementStore store,
+    final OutputStream output
+  ) throws IOException {
+    List<Element> elements = store.find()
+      .types(TYPES)
+      .bounds(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE,
+        Float.MAX_VALUE)
+      .get();
+
+    // The sort is stable, so elements that compare equal keep the order in
+    // which the chart would have found them.
+    Collections.sort(elements, Element.COMPARATOR);
+
+    float[][][] geometries = new float[elements.size()][][];
+    byte[][] records = new byte[elements.size()][];
+
+    // The indexes of the elements of each tile, by the anchor of the tile.
+    Long2ObjectRBTreeMap<IntArrayList> tiles = new Long2ObjectRBTreeMap<>();
+
+    // The chart clips the elements to the bounds of the map, so tiles outside
+    // the bounds are never seen.
+    int[] range = {
+      Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE
+    };
+
+    BoundingBox bounds = store.bounds();
+
+    if (bounds != null) {
+      range = this.range(
+        bounds.minX(), bounds.minY(), bounds.maxX(), bounds.maxY()
+      );
+    }
+
+    for (int i = 0; i < elements.size(); i++) {
+      Element element = elements.get(i);
+
+      float[][] geometry = TileWriter.geometry(element);
+
+      if (geometry == null) {
+        continue;
+      }
+
+      geometries[i] = geometry;
+
+      float[] box = TileWriter.box(geometry);
+      int[] cover = this.range(box[0], box[1], box[2], box[3]);
+
+      int minX = Math.max(cover[0], range[0]);
+      int minY = Math.max(cover[1], range[1]);
+      int maxX = Math.min(cover[2], range[2]);
+      int maxY = Math.min(cover[3], range[3]);
+
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          long key = TileWriter.key(x, y);
+          IntArrayList tile = tiles.get(key);
+
+          if (tile == null) {
+            tile = new IntArrayList();
+            tiles.put(key, tile);
+          }
+
+          tile.add(i);
+        }
+      }
+    }
+
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream indexOut = new DataOutputStream(index);
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    DataOutputStream dataOut = new DataOutputStream(data);
+
+    int count = 0;
+
+    for (Map.Entry<Long, IntArrayList> tile: tiles.entrySet()) {
+      long key = tile.getKey();
+      int x = (int) (key >> Integer.SIZE) * this.tileSize;
+      int y = ((int) key ^ Integer.MIN_VALUE) * this.tileSize;
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      int n = 0;
+
+      for (int i: tile.getValue()) {
+        Element element = elements.get(i);
+        float[][] geometry = geometries[i];
+
+        float[] clip = this.clip(element, geometry, x, y);
+
+        if (clip == null) {
+          if (records[i] == null) {
+            records[i] = this.record(element, geometry);
+          }
+
+          out.write(records[i]);
+          n++;
+          continue;
+        }
+
+        if (clip.length > 0) {
+          out.write(this.record(element, new float[][] {clip}));
+          n++;
+        }
+      }
+
+      if (n == 0) {
+        continue;
+      }
+
+      indexOut.writeInt(x);
+      indexOut.writeInt(y);
+      indexOut.writeInt(dataOut.size());
+      indexOut.writeInt(Integer.BYTES + out.size());
+
+      dataOut.writeInt(n);
+      bytes.writeTo(dataOut);
+
+      count++;
+    }
+
+    DataOutputStream out = new DataOutputStream(output);
+
+    out.writeInt(TileCache.MAGIC);
+    out.writeInt(TileCache.VERSION);
+    out.writeInt(this.tileSize);
+    out.writeInt(this.stringList.size());
+
+    for (String string: this.stringList) {
+      byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+
+    out.writeInt(count);
+    index.writeTo(out);
+    data.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Get the positions in the grid of the tiles intersecting a box.
+   *
+   * <p>
+   * Tiles are searched inclusively, so a box on the edge between two tiles
+   * intersects both.
+   *
+   * @param minX  The smallest x-coordinate of the box.
+   * @param minY  The smallest y-coordinate of the box.
+   * @param maxX  The largest x-coordinate of the box.
+   * @param maxY  The largest y-coordinate of the box.
+   * @return      The smallest positions along the x- and y-axes followed by
+   *              the largest ones.
+   */
+  private int[] range(
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY
+  ) {
+    return new int[] {
+      (int) Math.ceil(minX / this.tileSize) - 1,
+      (int) Math.ceil(minY / this.tileSize) - 1,
+      (int) Math.floor(maxX / this.tileSize),
+      (int) Math.floor(maxY / this.tileSize)
+    };
+  }
+
+  /**
+   * Clip a closed way to the tile at the specified anchor.
+   *
+   * @param element   The element to clip.
+   * @param geometry  The simplified coordinates of the element.
+   * @param x         The x-coordinate of the anchor of the tile.
+   * @param y         The y-coordinate of the anchor of the tile.
+   * @return          The clipped coordinates, an empty array if nothing of
+   *                  the way is left, or {@code null} if the element isn't
+   *                  clipped.
+   */
+  private float[] clip(
+    final Element element,
+    final float[][] geometry,
+    final int x,
+    final int y
+  ) {
+    if (!(element instanceof Way)) {
+      return null;
+    }
+
+    float[] ring = geometry[0];
+    int n = ring.length;
+
+    // Open ways are drawn as open polylines and can't be clipped without
+    // changing how they're filled.
+    if (n < 8 || ring[0] != ring[n - 2] || ring[1] != ring[n - 1]) {
+      return null;
+    }
+
+    float margin = (float) this.tileSize / MARGIN;
+
+    float[] bounds = {
+      x - margin, y - margin, x + this.tileSize + margin,
+      y + this.tileSize + margin
+    };
+
+    float[] box = TileWriter.box(geometry);
+
+    if (
+      box[0] >= bounds[0] && box[1] >= bounds[1]
+      && box[2] <= bounds[2] && box[3] <= bounds[3]
+    ) {
+      return null;
+    }
+
+    // Clip the ring against each edge of the bounds in turn, leaving out the
+    // point closing the ring.
+    float[] points = Arrays.copyOf(ring, n - 2);
+
+    for (int edge = 0; edge < 4 && points.length >= 6; edge++) {
+      points = TileWriter.clip(points, edge % 2, bounds[edge], edge < 2);
+    }
+
+    if (points.length < 6) {
+      return new float[0];
+    }
+
+    float[] clipped = Arrays.copyOf(points, points.length + 2);
+    clipped[points.length] = points[0];
+    clipped[points.length + 1] = points[1];
+
+    return clipped;
+  }
+
+  /**
+   * Clip a ring against a single edge, as per the Sutherland-Hodgman
+   * algorithm.
+   *
+   * @param points  The points of the ring, not closed.
+   * @param axis    0 for a vertical edge and 1 for a horizontal one.
+   * @param edge    The coordinate of the edge.
+   * @param above   Whether the inside lies above the edge rather than below.
+   * @return        The points of the clipped ring, not closed.
+   */
+  private static float[] clip(
+    final float[] points,
+    final int axis,
+    final float edge,
+    final boolean above
+  ) {
+    FloatArrayList clipped = new FloatArrayList(points.length);
+
+    int n = points.length / 2;
+
+    for (int i = 0; i < n; i++) {
+      int current = 2 * i;
+      int previous = 2 * ((i + n - 1) % n);
+
+      boolean inside = above
+        ? points[current + axis] >= edge
+        : points[current + axis] <= edge;
+
+      boolean wasInside = above
+        ? points[previous + axis] >= edge
+        : points[previous + axis] <= edge;
+
+      if (inside != wasInside) {
+        float t = (edge - points[previous + axis])
+          / (points[current + axis] - points[previous + axis]);
+
+        float[] point = new float[2];
+        point[axis] = edge;
+        point[1 - axis] = points[previous + 1 - axis] + t * (
+          points[current + 1 - axis] - points[previous + 1 - axis]
+        );
+
+        clipped.add(TileWriter.snap(point[0]));
+        clipped.add(TileWriter.snap(point[1]));
+      }
+
+      if (inside) {
+        clipped.add(points[current]);
+        clipped.add(points[current + 1]);
+      }
+    }
+
+    return clipped.toFloatArray();
+  }
+
+  /**
+   * Encode an element with the specified coordinates.
+   *
+   * @param element   The element to encode.
+   * @param geometry  The coordinates of the element or of its members.
+   * @return          The encoded element.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private byte[] record(
+    final Element element,
+    final float[][] geometry
+  ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> tags = element.tags();
+
+    out.writeByte(element instanceof Way ? TileCache.WAY : TileCache.RELATION);
+    out.writeInt(tags.size());
+
+    for (Map.Entry<String, String> tag: tags.entrySet()) {
+      out.writeInt(this.string(tag.getKey()));
+      out.writeInt(this.string(tag.getValue()));
+    }
+
+    if (element instanceof Way) {
+      TileWriter.geometry(out, geometry[0]);
+    }
+    else {
+      Relation relation = (Relation) element;
+      List<String> roles = new ArrayList<>();
+
+      for (int i = 0; i < relation.members().size(); i++) {
+        if (relation.members().get(i) instanceof Way) {
+          roles.add(relation.role(i));
+        }
+      }
+
+      out.writeInt(geometry.length);
+
+      for (int i = 0; i < geometry.length; i++) {
+        out.writeInt(this.string(roles.get(i)));
+        TileWriter.geometry(out, geometry[i]);
+      }
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encode the coordinates of a way.
+   *
+   * @param out         The stream to write the coordinates to.
+   * @param coordinates The coordinates of the way.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static void geometry(
+    final DataOutputStream out,
+    final float[] coordinates
+  ) throws IOException {
+    float[] box = TileWriter.box(new float[][] {coordinates});
+    int n = coordinates.length / 2;
+
+    for (float coordinate: box) {
+      out.writeFloat(coordinate);
+    }
+
+    out.writeInt(n);
+
+    byte[] geometry = CoordinateCodec.encode(coordinates, n, box[0], box[1]);
+
+    if (geometry != null) {
+      out.writeInt(geometry.length);
+      out.write(geometry);
+      return;
+    }
+
+    out.writeInt(-1);
+
+    for (float coordinate: coordinates) {
+      out.writeFloat(coordinate);
+    }
+  }
+
+  /**
+   * Get the index of a string within the string table.
+   *
+   * @param string  The string to look up.
+   * @return        The index of the string or -1 if it's {@code null}.
+   */
+  private int string(final String string) {
+    if (string == null) {
+      return -1;
+    }
+
+    if (this.strings.containsKey(string)) {
+      return this.strings.getInt(string);
+    }
+
+    int index = this.stringList.size();
+    this.strings.put(string, index);
+    this.stringList.add(string);
+
+    return index;
+  }
+
+  /**
+   * Get the simplified coordinates of an element.
+   *
+   * <p>
+   * Relations other than multipolygons aren't drawn and, like ways without
+   * nodes, are left out.
+   *
+   * @param element The element.
+   * @return        The coordinates of the way or of the ways of the relation,
+   *                or {@code null} if the element isn't drawn.
+   */
+  private static float[][] geometry(final Element element) {
+    if (element instanceof Way) {
+      float[] coordinates = ((Way) element).coordinates();
+
+      if (coordinates.length == 0) {
+        return null;
+      }
+
+      return new float[][] {TileWriter.simplify(coordinates)};
+    }
+
+    if (!(element instanceof Relation)) {
+      return null;
+    }
+
+    Relation relation = (Relation) element;
+
+    if (!"multipolygon".equals(relation.tag("type"))) {
+      return null;
+    }
+
+    List<float[]> members = new ArrayList<>();
+
+    for (Element member: relation.members()) {
+      if (member instanceof Way) {
+        members.add(TileWriter.simplify(((Way) member).coordinates()));
+      }
+    }
+
+    if (members.isEmpty()) {
+      return null;
+    }
+
+    return members.toArray(new float[members.size()][]);
+  }
+
+  /**
+   * Get the box of the specified coordinates.
+   *
+   * @param geometry  The coordinates.
+   * @return          The smallest x- and y-coordinates followed by the
+   *                  largest ones.
+   */
+  private static float[] box(final float[][] geometry) {
+    float[] box = {
+      Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+      Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+    };
+
+    for (float[] coordinates: geometry) {
+      for (int i = 0; i < coordinates.length; i += 2) {
+        box[0] = Math.min(box[0], coordinates[i]);
+        box[1] = Math.min(box[1], coordinates[i + 1]);
+        box[2] = Math.max(box[2], coordinates[i]);
+        box[3] = Math.max(box[3], coordinates[i + 1]);
+      }
+    }
+
+    return box;
+  }
+
+  /**
+   * Simplify a sequence of coordinates, as per the Douglas-Peucker
+   * algorithm.
+   *
+   * @param coordinates The coordinates to simplify.
+   * @return            The simplified coordinates.
+   */
+  private static float[] simplify(final float[] coordinates) {
+    int n = coordinates.length / 2;
+
+    if (n < 3) {
+      return coordinates;
+    }
+
+    boolean[] keep = new boolean[n];
+    keep[0] = true;
+    keep[n - 1] = true;
+
+    IntArrayList stack = new IntArrayList();
+    stack.add(0);
+    stack.add(n - 1);
+
+    while (!stack.isEmpty()) {
+      int last = stack.removeInt(stack.size() - 1);
+      int first = stack.removeInt(stack.size() - 1);
+
+      double furthest = TOLERANCE;
+      int index = -1;
+
+      for (int i = first + 1; i < last; i++) {
+        double distance = TileWriter.distance(coordinates, i, first, last);
+
+        if (distance > furthest) {
+          furthest = distance;
+          index = i;
+        }
+      }
+
+      if (index < 0) {
+        continue;
+      }
+
+      keep[index] = true;
+
+      stack.add(first);
+      stack.add(index);
+      stack.add(index);
+      stack.add(last);
+    }
+
+    FloatArrayList simplified = new FloatArrayList();
+
+    for (int i = 0; i < n; i++) {
+      if (keep[i]) {
+        simplified.add(coordinates[2 * i]);
+        simplified.add(coordinates[2 * i + 1]);
+      }
+    }
+
+    return simplified.toFloatArray();
+  }
+
+  /**
+   * Get the distance from a point to the segment between two other points.
+   *
+   * @param coordinates The coordinates of the points.
+   * @param point       The index of the point.
+   * @param start       The index of the start of the segment.
+   * @param end         The index of the end of the segment.
+   * @return            The distance from the point to the segment.
+   */
+  private static double distance(
+    final float[] coordinates,
+    final int point,
+    final int start,
+    final int end
+  ) {
+    double x = coordinates[2 * point];
+    double y = coordinates[2 * point + 1];
+    double x1 = coordinates[2 * start];
+    double y1 = coordinates[2 * start + 1];
+    double dx = coordinates[2 * end] - x1;
+    double dy = coordinates[2 * end + 1] - y1;
+
+    double length = dx * dx + dy * dy;
+    double t = 0;
+
+    if (length > 0) {
+      t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / length));
+    }
+
+    return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+  }
+
+  /**
+   * Snap a coordinate introduced by clipping to the grid of the coordinate
+   * codec, so that the coordinates of the tile can still be packed.
+   *
+   * @param coordinate  The coordinate to snap.
+   * @return            The snapped coordinate.
+   */
+  private static float snap(final float coordinate) {
+    return (float) (Math.round(coordinate * SCALE) / SCALE);
+  }
+
+  /**
+   * Get the key of the tile at the specified position in the grid, ordered
+   * by the x-coordinate and then the y-coordinate of the tile.
+   *
+   * @param x The position of the tile along the x-axis.
+   * @param y The position of the tile along the y-axis.
+   * @return  The key of the tile.
+   */
+  private static long key(final int x, final int y) {
+    return ((long) x << Integer.SIZE) | ((y ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// General utilities
+import java.util.Arrays;
+
+/**
+ * Coordinate codec class.
+ *
+ * <p>
+ * The coordinate codec packs a sequence of 2-dimensional coordinates, such as
+ * the nodes of a way, into a compact array of bytes. Coordinates are first
+ * quantised to a fixed grid with a resolution of {@code 2^-RESOLUTION} units,
+ * after which each coordinate is stored as the difference to the previous
+ * one, the first being relative to a given origin. The differences are
+ * written as zig-zag encoded variable-length integers, seven bits to a byte.
+ *
+ * <p>
+ * As the coordinates of a way lie close together, most differences fit in one
+ * or two bytes, compared to the eight bytes taken up by a pair of floats. The
+ * differences of a sequence often share a number of trailing zero bits, for
+ * example when all coordinates are of a magnitude where floats are coarser
+ * than the grid; these bits are shifted out and their number stored in the
+ * first byte.
+ *
+ * <p>
+ * Projected coordinates are usually far enough from the origin of the
+ * projection for every float to lie on the grid, in which case the encoding
+ * is lossless. Sequences containing coordinates that don't lie on the grid
+ * are not encoded at all and are instead left to be stored as they are, so
+ * decoding always gives back the exact coordinates that were encoded.
+ */
+public final class CoordinateCodec {
+  /**
+   * The number of bits of resolution of the grid below the unit.
+   */
+  public static final int RESOLUTION = 10;
+
+  /**
+   * The number of grid cells per unit.
+   */
+  private static final double SCALE = 1 << RESOLUTION;
+
+  /**
+   * The largest number of bytes taken up by a single variable-length integer.
+   */
+  private static final int MAX_VARINT = 10;
+
+  /**
+   * Don't allow instantiation of the class.
+   *
+   * <p>
+   * Since the class only contains static fields and methods, we never want to
+   * instantiate the class. We therefore define a private constructor so that
+   * noone can create instances of the class other than the class itself.
+   */
+  private CoordinateCodec() {
+    super();
+  }
+
+  /**
+   * Encode a sequence of coordinates.
+   *
+   * @param coordinates The coordinates to encode, with the coordinates of the
+   *                    i'th point at positions {@code 2i} and {@code 2i + 1}.
+   * @param size        The number of points to encode.
+   * @param originX     The x-coordinate that the first point is relative to.
+   * @param originY     The y-coordinate that the first point is relative to.
+   * @return            The encoded coordinates or {@code null} if any of the
+   *                    coordinates, or the origin, doesn't lie on the grid.
+   */
+  public static byte[] encode(
+    final float[] coordinates,
+    final int size,
+    final float originX,
+    final float originY
+  ) {
+    long[] deltas = new long[2 * size];
+
+    long x = CoordinateCodec.quantise(originX);
+    long y = CoordinateCodec.quantise(originY);
+
+    if (x == Long.MIN_VALUE || y == Long.MIN_VALUE) {
+      return null;
+    }
+
+    long bits = 0;
+
+    for (int i = 0; i < 2 * size; i += 2) {
+      long nextX = CoordinateCodec.quantise(coordinates[i]);
+      long nextY = CoordinateCodec.quantise(coordinates[i + 1]);
+
+      if (nextX == Long.MIN_VALUE || nextY == Long.MIN_VALUE) {
+        return null;
+      }
+
+      deltas[i] = nextX - x;
+      deltas[i + 1] = nextY - y;
+
+      bits |= deltas[i] | deltas[i + 1];
+
+      x = nextX;
+      y = nextY;
+    }
+
+    int shift = bits == 0 ? 0 : Long.numberOfTrailingZeros(bits);
+
+    byte[] data = new byte[1 + MAX_VARINT * deltas.length];
+    int position = 0;
+
+    data[position++] = (byte) shift;
+
+    for (long delta: deltas) {
+      long value = delta >> shift;
+
+      // Zig-zag encode the value so that small negative values are small too.
+      long zigzag = (value << 1) ^ (value >> (Long.SIZE - 1));
+
+      while ((zigzag & ~0x7FL) != 0) {
+        data[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+
+      data[position++] = (byte) zigzag;
+    }
+
+    return Arrays.copyOf(data, position);
+  }
+
+  /**
+   * Decode a sequence of coordinates.
+   *
+   * <p>
+   * Decoding stops after the specified number of points, which may be fewer
+   * than were encoded.
+   *
+   * @param data        The encoded coordinates.
+   * @param size        The number of points to decode.
+   * @param originX     The x-coordinate that the first point is relative to.
+   * @param originY     The y-coordinate that the first point is relative to.
+   * @param coordinates The array to decode the coordinates into, with the
+   *                    coordinates of the i'th point at positions {@code 2i}
+   *                    and {@code 2i + 1}.
+   */
+  public static void decode(
+    final byte[] data,
+    final int size,
+    final float originX,
+    final float originY,
+    final float[] coordinates
+  ) {
+    int shift = data[0];
+    int position = 1;
+
+    long x = CoordinateCodec.quantise(originX);
+    long y = CoordinateCodec.quantise(originY);
+
+    for (int i = 0; i < 2 * size; i++) {
+      long zigzag = 0;
+      int offset = 0;
+      byte b;
+
+      do {
+        b = data[position++];
+        zigzag |= (long) (b & 0x7F) << offset;
+        offset += 7;
+      }
+      while (b < 0);
+
+      long delta = ((zigzag >>> 1) ^ -(zigzag & 1)) << shift;
+
+      if (i % 2 == 0) {
+        x += delta;
+        coordinates[i] = (float) (x / SCALE);
+      }
+      else {
+        y += delta;
+        coordinates[i] = (float) (y / SCALE);
+      }
+    }
+  }
+
+  /**
+   * Quantise a coordinate to the grid.
+   *
+   * @param coordinate  The coordinate to quantise.
+   * @return            The index of the coordinate on the grid or
+   *                    {@link Long#MIN_VALUE} if the coordinate doesn't lie
+   *                    exactly on the grid.
+   */
+  private static long quantise(final float coordinate) {
+    double scaled = coordinate * SCALE;
+
+    // Coordinates this large would overflow the differences between them.
+    if (Double.isNaN(scaled) || Math.abs(scaled) > (1L << 52)) {
+      return Long.MIN_VALUE;
+    }
+
+    long index = Math.round(scaled);
+
+    // Compare the bits so that negative zero isn't decoded as positive zero.
+    if (
+      Float.floatToIntBits((float) (index / SCALE))
+      != Float.floatToIntBits(coordinate)
+    ) {
+      return Long.MIN_VALUE;
+    }
+
+    return index;
+  }
+}
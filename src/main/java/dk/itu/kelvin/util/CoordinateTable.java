@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// General utilities
+import java.util.Arrays;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Coordinate table class.
+ *
+ * <p>
+ * The coordinate table maps IDs to 2-dimensional coordinates using nothing but
+ * primitive arrays: a sorted array of IDs and a packed array of coordinates in
+ * which the coordinates of the i'th ID are stored at positions {@code 2i} and
+ * {@code 2i + 1}. Lookups are done using binary search.
+ *
+ * <p>
+ * Compared to keeping an object per coordinate in a hash table, this cuts the
+ * cost of an entry down to 16 bytes. The coordinates can optionally be kept
+ * off the Java heap altogether, in which case they are stored in direct
+ * buffers allocated in fixed-size pages.
+ *
+ * <p>
+ * IDs are expected to be added in ascending order, which is the case for both
+ * OSM XML and PBF files. If they're not, the table is sorted on the first
+ * lookup following an out-of-order addition.
+ */
+public final class CoordinateTable {
+  /**
+   * The initial capacity of the table.
+   */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The number of coordinate pairs stored in each off-heap page.
+   */
+  private static final int PAGE_SIZE = 1 << 20;
+
+  /**
+   * The number of elements below which insertion sort is used rather than
+   * quicksort.
+   */
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  /**
+   * The sorted IDs of the table.
+   */
+  private long[] ids = new long[INITIAL_CAPACITY];
+
+  /**
+   * The packed coordinates of the table when kept on the heap.
+   */
+  private float[] coordinates;
+
+  /**
+   * The pages of packed coordinates of the table when kept off the heap.
+   */
+  private FloatBuffer[] pages;
+
+  /**
+   * The size of the table.
+   */
+  private int size;
+
+  /**
+   * Whether or not the IDs of the table are currently sorted.
+   */
+  private boolean sorted = true;
+
+  /**
+   * Initialize a new coordinate table kept on the heap.
+   */
+  public CoordinateTable() {
+    this(false);
+  }
+
+  /**
+   * Initialize a new coordinate table.
+   *
+   * @param offHeap Whether or not to keep the coordinates off the heap.
+   */
+  public CoordinateTable(final boolean offHeap) {
+    if (offHeap) {
+      this.pages = new FloatBuffer[0];
+    }
+    else {
+      this.coordinates = new float[2 * INITIAL_CAPACITY];
+    }
+  }
+
+  /**
+   * Get the size of the table.
+   *
+   * @return The size of the table.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Check if the table is empty.
+   *
+   * @return A boolean indicating whether or not the table is empty.
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Add a coordinate to the table.
+   *
+   * @param id  The ID of the coordinate.
+   * @param x   The x-coordinate.
+   * @param y   The y-coordinate.
+   */
+  public void put(final long id, final float x, final float y) {
+    this.grow(this.size + 1);
+
+    if (this.size > 0 && this.ids[this.size - 1] >= id) {
+      this.sorted = false;
+    }
+
+    this.ids[this.size] = id;
+    this.x(this.size, x);
+    this.y(this.size, y);
+
+    this.size++;
+  }
+
+  /**
+   * Find the index of the specified ID.
+   *
+   * @param id  The ID to look for.
+   * @return    The index of the ID or a negative number if the ID is not in the
+   *            table.
+   */
+  public int find(final long id) {
+    if (!this.sorted) {
+      this.sort(0, this.size - 1);
+      this.sorted = true;
+    }
+
+    int i = Arrays.binarySearch(this.ids, 0, this.size, id);
+
+    return i >= 0 ? i : -1;
+  }
+
+  /**
+   * Check if the table contains the specified ID.
+   *
+   * @param id  The ID to look for.
+   * @return    A boolean indicating whether or not the table contains the ID.
+   */
+  public boolean contains(final long id) {
+    return this.find(id) >= 0;
+  }
+
+  /**
+   * Get the ID at the specified index.
+   *
+   * @param index The index of the ID.
+   * @return      The ID at the specified index.
+   */
+  public long id(final int index) {
+    return this.ids[index];
+  }
+
+  /**
+   * Get the x-coordinate at the specified index.
+   *
+   * @param index The index of the coordinate.
+   * @return      The x-coordinate at the specified index.
+   */
+  public float x(final int index) {
+    if (this.coordinates != null) {
+      return this.coordinates[2 * index];
+    }
+
+    return this.pages[index / PAGE_SIZE].get(2 * (index % PAGE_SIZE));
+  }
+
+  /**
+   * Get the y-coordinate at the specified index.
+   *
+   * @param index The index of the coordinate.
+   * @return      The y-coordinate at the specified index.
+   */
+  public float y(final int index) {
+    if (this.coordinates != null) {
+      return this.coordinates[2 * index + 1];
+    }
+
+    return this.pages[index / PAGE_SIZE].get(2 * (index % PAGE_SIZE) + 1);
+  }
+
+  /**
+   * Change the coordinate at the specified index.
+   *
+   * @param index The index of the coordinate.
+   * @param x     The new x-coordinate.
+   * @param y     The new y-coordinate.
+   */
+  public void set(final int index, final float x, final float y) {
+    this.x(index, x);
+    this.y(index, y);
+  }
+
+  /**
+   * Set the x-coordinate at the specified index.
+   *
+   * @param index The index of the coordinate.
+   * @param x     The x-coordinate.
+   */
+  private void x(final int index, final float x) {
+    if (this.coordinates != null) {
+      this.coordinates[2 * index] = x;
+    }
+    else {
+      this.pages[index / PAGE_SIZE].put(2 * (index % PAGE_SIZE), x);
+    }
+  }
+
+  /**
+   * Set the y-coordinate at the specified index.
+   *
+   * @param index The index of the coordinate.
+   * @param y     The y-coordinate.
+   */
+  private void y(final int index, final float y) {
+    if (this.coordinates != null) {
+      this.coordinates[2 * index + 1] = y;
+    }
+    else {
+      this.pages[index / PAGE_SIZE].put(2 * (index % PAGE_SIZE) + 1, y);
+    }
+  }
+
+  /**
+   * Ensure that the table can hold at least the specified number of entries.
+   *
+   * @param capacity The required capacity of the table.
+   */
+  private void grow(final int capacity) {
+    if (capacity > this.ids.length) {
+      this.ids = Arrays.copyOf(this.ids, 2 * this.ids.length);
+    }
+
+    if (this.coordinates != null) {
+      if (2 * capacity > this.coordinates.length) {
+        this.coordinates = Arrays.copyOf(
+          this.coordinates, 2 * this.coordinates.length
+        );
+      }
+    }
+    else if (capacity > this.pages.length * PAGE_SIZE) {
+      // Off-heap coordinates are allocated a page at a time so that growing
+      // the table never requires copying the existing coordinates.
+      this.pages = Arrays.copyOf(this.pages, this.pages.length + 1);
+      this.pages[this.pages.length - 1] = ByteBuffer
+        .allocateDirect(2 * PAGE_SIZE * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    }
+  }
+
+  /**
+   * Sort the entries between the specified indices by ID.
+   *
+   * @param lo  The lowest index to sort, inclusive.
+   * @param hi  The highest index to sort, inclusive.
+   */
+  private void sort(final int lo, final int hi) {
+    int l = lo;
+    int h = hi;
+
+    // Recurse on the smaller partition and loop on the larger one to keep the
+    // depth of the stack logarithmic.
+    while (h - l > INSERTION_SORT_THRESHOLD) {
+      long pivot = this.ids[l + (h - l) / 2];
+
+      int i = l;
+      int j = h;
+
+      while (i <= j) {
+        while (this.ids[i] < pivot) {
+          i++;
+        }
+
+        while (this.ids[j] > pivot) {
+          j--;
+        }
+
+        if (i <= j) {
+          this.swap(i++, j--);
+        }
+      }
+
+      if (j - l < h - i) {
+        this.sort(l, j);
+        l = i;
+      }
+      else {
+        this.sort(i, h);
+        h = j;
+      }
+    }
+
+    for (int i = l + 1; i <= h; i++) {
+      for (int j = i; j > l && this.ids[j - 1] > this.ids[j]; j--) {
+        this.swap(j - 1, j);
+      }
+    }
+  }
+
+  /**
+   * Swap the entries at the specified indices.
+   *
+   * @param i The first index.
+   * @param j The second index.
+   */
+  private void swap(final int i, final int j) {
+    long id = this.ids[i];
+    this.ids[i] = this.ids[j];
+    this.ids[j] = id;
+
+    float x = this.x(i);
+    this.x(i, this.x(j));
+    this.x(j, x);
+
+    float y = this.y(i);
+    this.y(i, this.y(j));
+    this.y(j, y);
+  }
+}
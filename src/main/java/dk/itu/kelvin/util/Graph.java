@@ -29,6 +29,15 @@ public interface Graph<N extends Graph.Node, E extends Graph.Edge<N>>
    */
   boolean add(final E edge);
 
+  /**
+   * Remove an edge from the graph.
+   *
+   * @param edge  The edge to remove from the graph.
+   * @return      A boolean indicating whether or not the edge was removed from
+   *              the graph.
+   */
+  boolean remove(final E edge);
+
   /**
    * Get the edges of the graph.
    *
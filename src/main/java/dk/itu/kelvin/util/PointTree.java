@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.PriorityQueue;
 
 // I/O utilities
 import java.io.Serializable;
@@ -65,7 +66,7 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
       array[i++] = element;
     }
 
-    this.root = this.partition(array, 0, 0, array.length);
+    this.root = PointTree.partition(array, 0, 0, array.length);
     this.size = array.length;
   }
 
@@ -102,6 +103,56 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
     return this.root.contains(0, element);
   }
 
+  /**
+   * Add an element to the point tree in place.
+   *
+   * <p>
+   * The element is added to the bucket it falls within, which is partitioned
+   * anew once it has grown to twice its maximum size.
+   *
+   * @param element The element to add.
+   */
+  public final void add(final E element) {
+    if (element == null) {
+      return;
+    }
+
+    if (this.root == null) {
+      this.root = PointTree.bucket(element);
+    }
+    else {
+      this.root = this.root.add(0, element);
+    }
+
+    this.size++;
+  }
+
+  /**
+   * Remove an element from the point tree in place.
+   *
+   * <p>
+   * Elements are compared by identity. Elements stored in buckets are removed
+   * from the bucket whereas elements used for partitioning the tree are only
+   * marked as removed, keeping the structure of the tree intact.
+   *
+   * @param element The element to remove.
+   * @return        A boolean indicating whether or not the element was
+   *                removed from the point tree.
+   */
+  public final boolean remove(final E element) {
+    if (this.root == null || element == null) {
+      return false;
+    }
+
+    if (!this.root.remove(0, element)) {
+      return false;
+    }
+
+    this.size--;
+
+    return true;
+  }
+
   /**
    * Find all elements within the range of the specified bounds.
    *
@@ -142,7 +193,9 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
    * @return      The element closest to the specified point.
    */
   public final E nearest(final Point point) {
-    throw new UnsupportedOperationException();
+    return this.nearest(point, (element) -> {
+      return true;
+    });
   }
 
   /**
@@ -153,20 +206,79 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
    * @return        The element closest to the specified point.
    */
   public final E nearest(final Point point, final Filter<E> filter) {
-    throw new UnsupportedOperationException();
+    List<E> nearest = this.nearest(point, 1, filter);
+
+    if (nearest.isEmpty()) {
+      return null;
+    }
+
+    return nearest.get(0);
+  }
+
+  /**
+   * Find the k elements included in the filter closest to the specified point
+   * and within the specified radius of it.
+   *
+   * <p>
+   * The tree is searched depth-first, visiting the side of each branch that
+   * the point lies on before the other side. The other side is skipped if the
+   * distance between the point and the cell of the tree that it covers is
+   * larger than the distance to the k-th closest element found so far, or
+   * than the radius. The distance to a cell is kept up to date incrementally
+   * from the distance to its parent cell along each axis.
+   *
+   * @see <a href="http://www.cs.umd.edu/~mount/Papers/dcc.pdf">
+   *      http://www.cs.umd.edu/~mount/Papers/dcc.pdf</a>
+   *
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param radius  The maximum distance between the point and the elements.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements closest to the specified point, closest
+   *                first.
+   */
+  public final List<E> nearest(
+    final Point point,
+    final int k,
+    final double radius,
+    final Filter<E> filter
+  ) {
+    if (this.root == null || point == null || filter == null || k <= 0) {
+      return new ArrayList<>();
+    }
+
+    Neighbours<E> neighbours = new Neighbours<>(k, radius);
+
+    this.root.nearest(0, point, new double[2], 0, filter, neighbours);
+
+    return neighbours.toList();
+  }
+
+  /**
+   * Find all elements within the specified radius of a point.
+   *
+   * @param point   The point to look for elements near.
+   * @param radius  The maximum distance between the point and the elements.
+   * @return        The elements within the radius of the point, closest first.
+   */
+  public final List<E> range(final Point point, final double radius) {
+    return this.nearest(point, Integer.MAX_VALUE, radius, (element) -> {
+      return true;
+    });
   }
 
   /**
    * Partition the given elements at the specified depth between the given
    * indices.
    *
+   * @param <E>       The type of elements to partition.
    * @param elements  The elements to partition.
    * @param depth     The current depth of the tree.
    * @param start     The starting index of the operation.
    * @param end       The ending index of the operation.
    * @return          A partitioned {@link Node} instance.
    */
-  private Node<E> partition(
+  private static <E extends Index> Node<E> partition(
     final E[] elements,
     final int depth,
     final int start,
@@ -202,13 +314,27 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
       elements[median],
 
       // Recursively partition all elements before the median.
-      this.partition(elements, depth + 1, start, median),
+      PointTree.partition(elements, depth + 1, start, median),
 
       // Recursively partition all elements after the median.
-      this.partition(elements, depth + 1, median + 1, end)
+      PointTree.partition(elements, depth + 1, median + 1, end)
     );
   }
 
+  /**
+   * Create a bucket containing a single element.
+   *
+   * @param <E>     The type of element to store in the bucket.
+   * @param element The element to store in the bucket.
+   * @return        The bucket.
+   */
+  private static <E extends Index> Bucket<E> bucket(final E element) {
+    @SuppressWarnings("unchecked")
+    E[] elements = (E[]) new Index[] {element};
+
+    return new Bucket<E>(elements);
+  }
+
   /**
    * Compare two elements at the specified tree depth.
    *
@@ -253,7 +379,10 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
    * @param element The element.
    * @param bounds  The bounds.
    * @return        A negative integer, zero, or a positive integer as the
-   *                element is smaller, within, or larger than the bounds.
+   *                element is larger than, within, or smaller than the bounds,
+   *                that is as only elements to the left of, on both sides
+   *                of, or only to the right of the element can be within the
+   *                bounds.
    */
   private static <E extends Index> int compare(
     final int depth,
@@ -273,20 +402,20 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
     }
 
     if (depth % 2 == 0) {
-      if (element.x() > bounds.min().x()) {
+      if (element.x() > bounds.max().x()) {
         return -1;
       }
 
-      if (element.x() < bounds.max().x()) {
+      if (element.x() < bounds.min().x()) {
         return 1;
       }
     }
     else {
-      if (element.y() > bounds.min().y()) {
+      if (element.y() > bounds.max().y()) {
         return -1;
       }
 
-      if (element.y() < bounds.max().y()) {
+      if (element.y() < bounds.min().y()) {
         return 1;
       }
     }
@@ -294,6 +423,50 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
     return 0;
   }
 
+  /**
+   * Get the coordinate of a point along the axis of the specified depth.
+   *
+   * @param depth The tree depth.
+   * @param point The point.
+   * @return      The coordinate of the point.
+   */
+  private static double coordinate(final int depth, final Point point) {
+    return (depth % 2 == 0) ? point.x() : point.y();
+  }
+
+  /**
+   * Get the coordinate of an element along the axis of the specified depth.
+   *
+   * @param <E>     The type of the element.
+   * @param depth   The tree depth.
+   * @param element The element.
+   * @return        The coordinate of the element.
+   */
+  private static <E extends Index> double coordinate(
+    final int depth,
+    final E element
+  ) {
+    return (depth % 2 == 0) ? element.x() : element.y();
+  }
+
+  /**
+   * Compute the squared distance between a point and an element.
+   *
+   * @param <E>     The type of the element.
+   * @param point   The point.
+   * @param element The element.
+   * @return        The squared distance between the point and the element.
+   */
+  private static <E extends Index> double distance(
+    final Point point,
+    final E element
+  ) {
+    double dx = point.x() - element.x();
+    double dy = point.y() - element.y();
+
+    return dx * dx + dy * dy;
+  }
+
   /**
    * Check if an element intersects the specified bounds.
    *
@@ -368,6 +541,48 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
       final Bounds bounds,
       final Filter<E> filter
     );
+
+    /**
+     * Add an element to the node.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to add.
+     * @return        The node to replace the current node with.
+     */
+    public abstract Node<E> add(final int depth, final E element);
+
+    /**
+     * Offer the elements of the node included in the filter to a nearest
+     * neighbour search.
+     *
+     * @param depth       The current tree depth.
+     * @param point       The point to look for elements near.
+     * @param offsets     The distance between the point and the cell of the
+     *                    node along each axis, which is 0 along the axes on
+     *                    which the point lies within the cell.
+     * @param distance    The squared distance between the point and the cell
+     *                    of the node.
+     * @param filter      The filter to apply to the search.
+     * @param neighbours  The elements found so far.
+     */
+    public abstract void nearest(
+      final int depth,
+      final Point point,
+      final double[] offsets,
+      final double distance,
+      final Filter<E> filter,
+      final Neighbours<E> neighbours
+    );
+
+    /**
+     * Remove an element from the node.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the node.
+     */
+    public abstract boolean remove(final int depth, final E element);
   }
 
   /**
@@ -390,12 +605,18 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
     /**
      * The left neighbouring node.
      */
-    private final Node<E> left;
+    private Node<E> left;
 
     /**
      * The right neighbouring node.
      */
-    private final Node<E> right;
+    private Node<E> right;
+
+    /**
+     * Indicates whether or not the element associated with the branch has
+     * been removed from the tree.
+     */
+    private boolean removed;
 
     /**
      * Initialize a new branch.
@@ -423,35 +644,30 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
         return false;
       }
 
-      if (this.element.equals(element)) {
+      if (!this.removed && this.element.equals(element)) {
         return true;
       }
 
       // Check if the element is "contained" within the element associated with
       // the current node.
-      int contains = PointTree.compare(depth, this.element, element);
+      int contains = PointTree.compare(depth, element, this.element);
 
       // Look in the left child of the node if the element we're looking for
-      // lies to the left of the element we're currently looking at.
-      if (contains < 0) {
-        if (this.left == null) {
-          return false;
-        }
-
-        return this.left.contains(depth + 1, element);
+      // lies to the left of the element we're currently looking at. Elements
+      // on the same line as the current element may lie on either side.
+      if (
+        contains <= 0
+        && this.left != null
+        && this.left.contains(depth + 1, element)
+      ) {
+        return true;
       }
 
       // Look in the right child of the node if the element we're looking for
       // lies to the right of the element we're currently looking at.
-      if (contains > 0) {
-        if (this.right == null) {
-          return false;
-        }
-
-        return this.right.contains(depth + 1, element);
-      }
-
-      return false;
+      return contains >= 0
+        && this.right != null
+        && this.right.contains(depth + 1, element);
     }
 
     /**
@@ -493,6 +709,8 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
 
       if (
         contains == 0
+        // Has the element been removed?
+        && !this.removed
         // Is the element included in the filter?
         && filter.include(this.element)
         // Does the element intersect with the search bounds?
@@ -503,6 +721,115 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
 
       return elements;
     }
+
+    /**
+     * Add an element to the side of the branch that it lies on.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to add.
+     * @return        The current branch.
+     */
+    public Node<E> add(final int depth, final E element) {
+      if (PointTree.compare(depth, element, this.element) < 0) {
+        this.left = (this.left == null)
+          ? PointTree.bucket(element)
+          : this.left.add(depth + 1, element);
+      }
+      else {
+        this.right = (this.right == null)
+          ? PointTree.bucket(element)
+          : this.right.add(depth + 1, element);
+      }
+
+      return this;
+    }
+
+    /**
+     * Offer the elements of the branch included in the filter to a nearest
+     * neighbour search, skipping the side of the branch that the point doesn't
+     * lie on if its cell is too far from the point.
+     *
+     * <p>
+     * Elements on the line of the branch may lie on either side, but no
+     * element lies further towards the other side than the line itself.
+     *
+     * @param depth       The current tree depth.
+     * @param point       The point to look for elements near.
+     * @param offsets     The distance between the point and the cell of the
+     *                    branch along each axis.
+     * @param distance    The squared distance between the point and the cell
+     *                    of the branch.
+     * @param filter      The filter to apply to the search.
+     * @param neighbours  The elements found so far.
+     */
+    public void nearest(
+      final int depth,
+      final Point point,
+      final double[] offsets,
+      final double distance,
+      final Filter<E> filter,
+      final Neighbours<E> neighbours
+    ) {
+      if (!this.removed && filter.include(this.element)) {
+        neighbours.offer(this.element, PointTree.distance(point, this.element));
+      }
+
+      int axis = depth % 2;
+
+      double offset = PointTree.coordinate(depth, point)
+        - PointTree.coordinate(depth, this.element);
+
+      Node<E> near = offset < 0 ? this.left : this.right;
+      Node<E> far = offset < 0 ? this.right : this.left;
+
+      if (near != null) {
+        near.nearest(depth + 1, point, offsets, distance, filter, neighbours);
+      }
+
+      if (far == null) {
+        return;
+      }
+
+      double previous = offsets[axis];
+      double farDistance = distance - previous * previous + offset * offset;
+
+      if (farDistance > neighbours.bound()) {
+        return;
+      }
+
+      offsets[axis] = offset;
+      far.nearest(depth + 1, point, offsets, farDistance, filter, neighbours);
+      offsets[axis] = previous;
+    }
+
+    /**
+     * Remove an element from the branch.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the branch.
+     */
+    public boolean remove(final int depth, final E element) {
+      if (!this.removed && this.element == element) {
+        this.removed = true;
+        return true;
+      }
+
+      int contains = PointTree.compare(depth, element, this.element);
+
+      if (
+        contains <= 0
+        && this.left != null
+        && this.left.remove(depth + 1, element)
+      ) {
+        return true;
+      }
+
+      return contains >= 0
+        && this.right != null
+        && this.right.remove(depth + 1, element);
+    }
   }
 
   /**
@@ -520,7 +847,7 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
     /**
      * The elements associated with the bucket.
      */
-    private final E[] elements;
+    private E[] elements;
 
     /**
      * Initialize a new bucket.
@@ -589,5 +916,200 @@ public class PointTree<E extends PointTree.Index> implements SpatialIndex<E> {
 
       return elements;
     }
+
+    /**
+     * Add an element to the bucket, partitioning the bucket once it has grown
+     * to twice its maximum size.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to add.
+     * @return        The current bucket or the partitioned bucket.
+     */
+    public Node<E> add(final int depth, final E element) {
+      int n = this.elements.length;
+
+      this.elements = Arrays.copyOf(this.elements, n + 1);
+      this.elements[n] = element;
+
+      if (this.elements.length <= 2 * BUCKET_MAXIMUM) {
+        return this;
+      }
+
+      return PointTree.partition(
+        this.elements, depth, 0, this.elements.length
+      );
+    }
+
+    /**
+     * Offer the elements of the bucket included in the filter to a nearest
+     * neighbour search.
+     *
+     * @param depth       The current tree depth.
+     * @param point       The point to look for elements near.
+     * @param offsets     The distance between the point and the cell of the
+     *                    bucket along each axis.
+     * @param distance    The squared distance between the point and the cell
+     *                    of the bucket.
+     * @param filter      The filter to apply to the search.
+     * @param neighbours  The elements found so far.
+     */
+    public void nearest(
+      final int depth,
+      final Point point,
+      final double[] offsets,
+      final double distance,
+      final Filter<E> filter,
+      final Neighbours<E> neighbours
+    ) {
+      for (E found: this.elements) {
+        double d = PointTree.distance(point, found);
+
+        if (d <= neighbours.bound() && filter.include(found)) {
+          neighbours.offer(found, d);
+        }
+      }
+    }
+
+    /**
+     * Remove an element from the bucket.
+     *
+     * @param depth   The current tree depth.
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the bucket.
+     */
+    public boolean remove(final int depth, final E element) {
+      int n = this.elements.length;
+
+      for (int i = 0; i < n; i++) {
+        if (this.elements[i] != element) {
+          continue;
+        }
+
+        this.elements[i] = this.elements[n - 1];
+        this.elements = Arrays.copyOf(this.elements, n - 1);
+
+        return true;
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * The {@link Neighbours} class describes the k closest elements found so far
+   * during a nearest neighbour search.
+   *
+   * @param <E> The type of elements stored within the point tree.
+   */
+  private static final class Neighbours<E extends Index> {
+    /**
+     * The maximum number of elements to find.
+     */
+    private final int k;
+
+    /**
+     * The squared maximum distance between the point and the elements.
+     */
+    private final double radius;
+
+    /**
+     * The elements found so far, furthest first.
+     */
+    private final PriorityQueue<Neighbour<E>> queue;
+
+    /**
+     * Initialize a new set of neighbours.
+     *
+     * @param k       The maximum number of elements to find.
+     * @param radius  The maximum distance between the point and the elements.
+     */
+    Neighbours(final int k, final double radius) {
+      this.k = k;
+      this.radius = radius * radius;
+      this.queue = new PriorityQueue<>(11, (a, b) -> {
+        return Double.compare(b.distance, a.distance);
+      });
+    }
+
+    /**
+     * Get the squared distance beyond which elements can't be among the
+     * closest elements.
+     *
+     * @return The squared distance beyond which elements can't be among the
+     *         closest elements.
+     */
+    double bound() {
+      if (this.queue.size() < this.k) {
+        return this.radius;
+      }
+
+      return Math.min(this.radius, this.queue.peek().distance);
+    }
+
+    /**
+     * Offer an element, keeping it if it's among the closest elements.
+     *
+     * @param element   The element.
+     * @param distance  The squared distance between the point and the element.
+     */
+    void offer(final E element, final double distance) {
+      if (distance > this.radius) {
+        return;
+      }
+
+      if (this.queue.size() < this.k) {
+        this.queue.add(new Neighbour<E>(element, distance));
+      }
+      else if (distance < this.queue.peek().distance) {
+        this.queue.poll();
+        this.queue.add(new Neighbour<E>(element, distance));
+      }
+    }
+
+    /**
+     * Get the elements found, closest first.
+     *
+     * @return The elements found, closest first.
+     */
+    List<E> toList() {
+      @SuppressWarnings("unchecked")
+      E[] elements = (E[]) new Index[this.queue.size()];
+
+      for (int i = elements.length - 1; i >= 0; i--) {
+        elements[i] = this.queue.poll().element;
+      }
+
+      return Arrays.asList(elements);
+    }
+  }
+
+  /**
+   * The {@link Neighbour} class describes an element found during a nearest
+   * neighbour search along with its distance to the point.
+   *
+   * @param <E> The type of elements stored within the point tree.
+   */
+  private static final class Neighbour<E extends Index> {
+    /**
+     * The element.
+     */
+    private final E element;
+
+    /**
+     * The squared distance between the point and the element.
+     */
+    private final double distance;
+
+    /**
+     * Initialize a new neighbour.
+     *
+     * @param element   The element.
+     * @param distance  The squared distance between the point and the element.
+     */
+    Neighbour(final E element, final double distance) {
+      this.element = element;
+      this.distance = distance;
+    }
   }
 }
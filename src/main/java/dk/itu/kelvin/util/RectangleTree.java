@@ -7,7 +7,10 @@ package dk.itu.kelvin.util;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
 
 // I/O utilities
 import java.io.Serializable;
@@ -111,6 +114,69 @@ public class RectangleTree<E extends RectangleTree.Index>
     return this.root.contains(element);
   }
 
+  /**
+   * Add an element to the rectangle tree in place.
+   *
+   * <p>
+   * The element is added to the bucket whose bounds need the least
+   * enlargement to include it. Buckets and pages that overflow are split in
+   * two along their longest axis, growing a new root if the root is split.
+   *
+   * @param element The element to add.
+   */
+  public final void add(final E element) {
+    if (element == null) {
+      return;
+    }
+
+    if (this.root == null) {
+      this.root = new Bucket<E>(Collections.singletonList(element));
+    }
+    else {
+      Node<E> split = this.root.add(element);
+
+      if (split != null) {
+        List<Node<E>> nodes = new ArrayList<>();
+        nodes.add(this.root);
+        nodes.add(split);
+
+        this.root = new Page<E>(nodes);
+      }
+    }
+
+    this.size++;
+  }
+
+  /**
+   * Remove an element from the rectangle tree in place.
+   *
+   * <p>
+   * Only nodes whose bounds intersect the bounds of the element are visited.
+   * The bounds of the nodes on the way back up are shrunk to fit their
+   * remaining contents and nodes left empty are dropped.
+   *
+   * @param element The element to remove.
+   * @return        A boolean indicating whether or not the element was
+   *                removed from the rectangle tree.
+   */
+  public final boolean remove(final E element) {
+    if (this.root == null || element == null) {
+      return false;
+    }
+
+    if (!this.root.remove(element)) {
+      return false;
+    }
+
+    this.size--;
+
+    if (this.root.isEmpty()) {
+      this.root = null;
+    }
+
+    return true;
+  }
+
   /**
    * Find all elements within the range of the specified bounds.
    *
@@ -138,7 +204,7 @@ public class RectangleTree<E extends RectangleTree.Index>
    *                specified bounds.
    */
   public final List<E> range(final Bounds bounds, final Filter<E> filter) {
-    if (bounds == null || filter == null) {
+    if (this.root == null || bounds == null || filter == null) {
       return null;
     }
 
@@ -169,11 +235,86 @@ public class RectangleTree<E extends RectangleTree.Index>
    * @return        The element closest to the specified point.
    */
   public final E nearest(final Point point, final Filter<E> filter) {
-    if (this.root == null || point == null || filter == null) {
+    List<E> nearest = this.nearest(point, 1, filter);
+
+    if (nearest.isEmpty()) {
       return null;
     }
 
-    return this.root.nearest(point, filter);
+    return nearest.get(0);
+  }
+
+  /**
+   * Find the k elements included in the filter closest to the specified point
+   * and within the specified radius of it.
+   *
+   * <p>
+   * Nodes and elements are visited best-first, in order of the minimum
+   * distance between their bounding boxes and the point, using a priority
+   * queue. The actual distance to an element is only computed once its
+   * bounding box is the closest candidate left, after which the element is
+   * queued again by its actual distance. As nothing is closer to the point
+   * than its bounding box, the search ends as soon as k elements have left
+   * the queue by their actual distance or the closest candidate left is
+   * beyond the radius, and only the nodes that may contain any of the k
+   * elements are expanded.
+   *
+   * @see <a href="http://www.cs.umd.edu/~hjs/pubs/incnear2.pdf">
+   *      http://www.cs.umd.edu/~hjs/pubs/incnear2.pdf</a>
+   *
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param radius  The maximum distance between the point and the elements.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements closest to the specified point, closest
+   *                first.
+   */
+  public final List<E> nearest(
+    final Point point,
+    final int k,
+    final double radius,
+    final Filter<E> filter
+  ) {
+    List<E> nearest = new ArrayList<>();
+
+    if (this.root == null || point == null || filter == null || k <= 0) {
+      return nearest;
+    }
+
+    PriorityQueue<Candidate<E>> queue = new PriorityQueue<>(11, (a, b) -> {
+      return Double.compare(a.distance, b.distance);
+    });
+
+    queue.add(new Candidate<E>(
+      RectangleTree.minimumDistance(point, this.root.bounds()),
+      this.root,
+      null,
+      false
+    ));
+
+    while (!queue.isEmpty() && nearest.size() < k) {
+      Candidate<E> next = queue.poll();
+
+      if (next.distance > radius) {
+        break;
+      }
+
+      if (next.node != null) {
+        next.node.expand(point, radius, filter, queue);
+      }
+      else if (next.exact) {
+        nearest.add(next.element);
+      }
+      else {
+        double distance = next.element.distance(point);
+
+        if (distance <= radius) {
+          queue.add(new Candidate<E>(distance, null, next.element, true));
+        }
+      }
+    }
+
+    return nearest;
   }
 
   /**
@@ -293,6 +434,29 @@ public class RectangleTree<E extends RectangleTree.Index>
     return bounds.intersects(element.bounds());
   }
 
+  /**
+   * Sort the specified list of nodes or elements and move the upper half of
+   * the list into a new list.
+   *
+   * @param <T>         The type of nodes or elements to split.
+   * @param items       The nodes or elements to split.
+   * @param comparator  The comparator to sort the nodes or elements by.
+   * @return            The upper half of the list.
+   */
+  private static <T> List<T> split(
+    final List<T> items,
+    final Comparator<T> comparator
+  ) {
+    Collections.sort(items, comparator);
+
+    List<T> upper = items.subList(items.size() / 2, items.size());
+    List<T> split = new ArrayList<>(upper);
+
+    upper.clear();
+
+    return split;
+  }
+
   /**
    * @see <a href="http://www.cs.umd.edu/~nick/papers/nnpaper.pdf">
    *      http://www.cs.umd.edu/~nick/papers/nnpaper.pdf</a>
@@ -332,72 +496,28 @@ public class RectangleTree<E extends RectangleTree.Index>
   }
 
   /**
-   * @see <a href="http://www.cs.umd.edu/~nick/papers/nnpaper.pdf">
-   *      http://www.cs.umd.edu/~nick/papers/nnpaper.pdf</a>
+   * Compute the minimum distance between a point and a bounding box without
+   * allocating any points.
    *
-   * @param point   The point to calculate the minimax distance to.
-   * @param bounds  The bounds to calculate the minimax distance from.
-   * @return        The minimax distance between the specified bounds and the
-   *                given point.
+   * @param point The point to calculate the minimum distance to.
+   * @param minX  The smallest x-coordinate of the bounding box.
+   * @param minY  The smallest y-coordinate of the bounding box.
+   * @param maxX  The largest x-coordinate of the bounding box.
+   * @param maxY  The largest y-coordinate of the bounding box.
+   * @return      The minimum distance between the bounding box and the point,
+   *              which is 0 if the point lies within the bounding box.
    */
-  private static double minimaxDistance(
+  private static double minimumDistance(
     final Point point,
-    final Bounds bounds
+    final float minX,
+    final float minY,
+    final float maxX,
+    final float maxY
   ) {
-    if (point == null || bounds == null) {
-      return Double.POSITIVE_INFINITY;
-    }
-
-    double rm1;
-    double rm2;
-
-    if (Epsilon.lessOrEqual(
-      point.x(), (bounds.min().x() + bounds.max().x()) / 2.0
-    )) {
-      rm1 = bounds.min().x();
-    }
-    else {
-      rm1 = bounds.max().x();
-    }
-
-    if (Epsilon.lessOrEqual(
-      point.y(), (bounds.min().y() + bounds.max().y()) / 2.0
-    )) {
-      rm2 = bounds.min().y();
-    }
-    else {
-      rm2 = bounds.max().y();
-    }
-
-    double rM1;
-    double rM2;
-
-    if (Epsilon.greaterOrEqual(
-      point.x(), (bounds.min().x() + bounds.max().x()) / 2.0
-    )) {
-      rM1 = bounds.min().x();
-    }
-    else {
-      rM1 = bounds.max().x();
-    }
+    double dx = Math.max(Math.max(minX - point.x(), point.x() - maxX), 0);
+    double dy = Math.max(Math.max(minY - point.y(), point.y() - maxY), 0);
 
-    if (Epsilon.greaterOrEqual(
-      point.y(), (bounds.min().y() + bounds.max().y()) / 2.0
-    )) {
-      rM2 = bounds.min().y();
-    }
-    else {
-      rM2 = bounds.max().x();
-    }
-
-    double s = Geometry.distance(point, new Point(rM1, rM2));
-
-    double distance = Math.min(
-      Math.pow(Math.abs(point.x() - rm1), 2) + s,
-      Math.pow(Math.abs(point.y() - rm2), 2) + s
-    );
-
-    return Math.sqrt(distance);
+    return Math.sqrt(dx * dx + dy * dy);
   }
 
   /**
@@ -466,25 +586,25 @@ public class RectangleTree<E extends RectangleTree.Index>
      * The smallest x-coordinate of the nodes or elements contained within this
      * node.
      */
-    private float minX;
+    private float minX = Float.POSITIVE_INFINITY;
 
     /**
      * The smallest y-coordinate of the nodes or elements contained within this
      * node.
      */
-    private float minY;
+    private float minY = Float.POSITIVE_INFINITY;
 
     /**
      * The largest x-coordinate of the nodes or elements contained within this
      * node.
      */
-    private float maxX;
+    private float maxX = Float.NEGATIVE_INFINITY;
 
     /**
      * The largest y-coordinate of the nodes or elements contained within this
      * node.
      */
-    private float maxY;
+    private float maxY = Float.NEGATIVE_INFINITY;
 
     /**
      * Get the bounds of the node.
@@ -552,13 +672,93 @@ public class RectangleTree<E extends RectangleTree.Index>
     public abstract List<E> range(final Bounds bounds, final Filter<E> filter);
 
     /**
-     * Find the element in the node closest to the specified point.
+     * Add the children of the node within the specified radius of a point to
+     * the queue of a nearest neighbour search.
      *
      * @param point   The point to look for elements near.
+     * @param radius  The maximum distance between the point and the elements.
      * @param filter  The filter to apply to the search.
-     * @return        The element closest to the specified point.
+     * @param queue   The queue of candidates to add the children to.
+     */
+    public abstract void expand(
+      final Point point,
+      final double radius,
+      final Filter<E> filter,
+      final Queue<Candidate<E>> queue
+    );
+
+    /**
+     * Add an element to the node.
+     *
+     * @param element The element to add.
+     * @return        The node split off from the current node if it overflowed,
+     *                or {@code null}.
+     */
+    public abstract Node<E> add(final E element);
+
+    /**
+     * Remove an element from the node.
+     *
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the node.
      */
-    public abstract E nearest(final Point point, final Filter<E> filter);
+    public abstract boolean remove(final E element);
+
+    /**
+     * Recompute the bounds of the node from its contents.
+     */
+    protected abstract void refit();
+
+    /**
+     * Reset the bounds of the node so that they contain nothing.
+     */
+    protected final void reset() {
+      this.minX = Float.POSITIVE_INFINITY;
+      this.minY = Float.POSITIVE_INFINITY;
+      this.maxX = Float.NEGATIVE_INFINITY;
+      this.maxY = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Get the longest axis of the node.
+     *
+     * @return 0 if the node is wider than it is tall, otherwise 1.
+     */
+    protected final int axis() {
+      return (this.maxX - this.minX >= this.maxY - this.minY) ? 0 : 1;
+    }
+
+    /**
+     * Get the center of the node along the specified axis.
+     *
+     * @param axis  The axis, 0 being the x-axis and 1 the y-axis.
+     * @return      The center of the node along the axis.
+     */
+    protected final float center(final int axis) {
+      return (axis == 0)
+        ? (this.minX + this.maxX) / 2
+        : (this.minY + this.maxY) / 2;
+    }
+
+    /**
+     * Compute the area by which the bounds of the node would grow if the
+     * specified element was added to it.
+     *
+     * @param element The element to compute the enlargement for.
+     * @return        The enlargement of the area of the node.
+     */
+    protected final double enlargement(final E element) {
+      double width = this.maxX - this.minX;
+      double height = this.maxY - this.minY;
+
+      double minX = Math.min(this.minX, element.minX());
+      double minY = Math.min(this.minY, element.minY());
+      double maxX = Math.max(this.maxX, element.maxX());
+      double maxY = Math.max(this.maxY, element.maxY());
+
+      return (maxX - minX) * (maxY - minY) - width * height;
+    }
 
     /**
      * Union the bounds of the current node with the bounds of the specified
@@ -572,12 +772,10 @@ public class RectangleTree<E extends RectangleTree.Index>
         return;
       }
 
-      boolean empty = this.isEmpty();
-
-      this.minX = !empty ? Math.min(this.minX, element.minX()) : element.minX();
-      this.minY = !empty ? Math.min(this.minY, element.minY()) : element.minY();
-      this.maxX = !empty ? Math.max(this.maxX, element.maxX()) : element.maxX();
-      this.maxY = !empty ? Math.max(this.maxY, element.maxY()) : element.maxY();
+      this.minX = Math.min(this.minX, element.minX());
+      this.minY = Math.min(this.minY, element.minY());
+      this.maxX = Math.max(this.maxX, element.maxX());
+      this.maxY = Math.max(this.maxY, element.maxY());
     }
 
     /**
@@ -592,12 +790,10 @@ public class RectangleTree<E extends RectangleTree.Index>
         return;
       }
 
-      boolean empty = this.isEmpty();
-
-      this.minX = !empty ? Math.min(this.minX, node.minX) : node.minX;
-      this.minY = !empty ? Math.min(this.minY, node.minY) : node.minY;
-      this.maxX = !empty ? Math.max(this.maxX, node.maxX) : node.maxX;
-      this.maxY = !empty ? Math.max(this.maxY, node.maxY) : node.maxY;
+      this.minX = Math.min(this.minX, node.minX);
+      this.minY = Math.min(this.minY, node.minY);
+      this.maxX = Math.max(this.maxX, node.maxX);
+      this.maxY = Math.max(this.maxY, node.maxY);
     }
   }
 
@@ -700,97 +896,127 @@ public class RectangleTree<E extends RectangleTree.Index>
     }
 
     /**
-     * Find the element in the page closest to the specified point.
+     * Add an element to the child of the page whose bounds need the least
+     * enlargement to include it.
      *
-     * @param point   The point to look for elements near.
-     * @param filter  The filter to apply to the search.
-     * @return        The element closest to the specified point.
+     * @param element The element to add.
+     * @return        The page split off from the current page if it
+     *                overflowed, or {@code null}.
      */
-    public E nearest(final Point point, final Filter<E> filter) {
-      if (point == null || filter == null) {
-        return null;
-      }
-
-      // "During the descending phase, at each newly visited nonleaf node, the
-      // algorithm computes the ordering metric bounds (e.g. MINDIST, Definition
-      // 2) for all its MBRs and sorts them (associated with their corresponding
-      // node) into an Active Branch List (ABL).
-      List<Node<E>> abl = new ArrayList<>(this.nodes);
+    public Node<E> add(final E element) {
+      Node<E> best = null;
+      double enlargement = Double.POSITIVE_INFINITY;
 
-      Collections.sort(abl, (a, b) -> {
-        if (a == b) {
-          return 0;
+      for (Node<E> node: this.nodes) {
+        if (node == null) {
+          continue;
         }
 
-        if (a == null) {
-          return -1;
-        }
+        double e = node.enlargement(element);
 
-        if (b == null) {
-          return 1;
+        if (e < enlargement) {
+          best = node;
+          enlargement = e;
         }
+      }
 
-        return Double.compare(
-          RectangleTree.minimumDistance(point, a.bounds()),
-          RectangleTree.minimumDistance(point, b.bounds())
-        );
-      });
-
-      // Keep track of the smallest minimax distance.
-      double minimumMinimaxDistance = Double.POSITIVE_INFINITY;
+      this.union(element);
 
-      for (Node<E> node: abl) {
-        double minimaxDistance = RectangleTree.minimaxDistance(
-          point, node.bounds()
-        );
+      Node<E> split = best.add(element);
 
-        if (minimumMinimaxDistance > minimaxDistance) {
-          minimumMinimaxDistance = minimaxDistance;
-        }
+      if (split == null) {
+        return null;
       }
 
-      // Search pruning, strategy 1: "an MBR M with MINDIST(P,M) greater than
-      // the MINMAXDIST(P,M') of another MBR M' is discarded because it cannot
-      // contain the NN (theorems 1 and 2). We use this in downward pruning."
-      for (int i = 0; i < abl.size(); i++) {
-        double minimumDistance = RectangleTree.minimumDistance(
-          point, abl.get(i).bounds()
-        );
+      this.nodes.add(split);
 
-        if (minimumDistance > minimumMinimaxDistance) {
-          abl.remove(i--);
-        }
+      if (this.nodes.size() <= PAGE_MAXIMUM) {
+        return null;
       }
 
-      E nearest = null;
+      int axis = this.axis();
 
-      while (abl.size() > 0) {
-        Node<E> next = abl.remove(0);
+      Page<E> page = new Page<>(RectangleTree.split(this.nodes, (a, b) -> {
+        return Float.compare(a.center(axis), b.center(axis));
+      }));
 
-        if (next == null) {
+      this.refit();
+
+      return page;
+    }
+
+    /**
+     * Remove an element from the children of the page that intersect it.
+     *
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the page.
+     */
+    public boolean remove(final E element) {
+      if (!this.intersects(element)) {
+        return false;
+      }
+
+      for (int i = 0; i < this.nodes.size(); i++) {
+        Node<E> node = this.nodes.get(i);
+
+        if (
+          node == null
+          || !node.intersects(element)
+          || !node.remove(element)
+        ) {
           continue;
         }
 
-        E estimate = next.nearest(point, filter);
+        if (node.isEmpty()) {
+          this.nodes.remove(i);
+        }
+
+        this.refit();
+
+        return true;
+      }
 
-        if (estimate == null) {
+      return false;
+    }
+
+    /**
+     * Recompute the bounds of the page from its children.
+     */
+    protected void refit() {
+      this.reset();
+
+      for (Node<E> node: this.nodes) {
+        this.union(node);
+      }
+    }
+
+    /**
+     * Add the nodes of the page within the specified radius of a point to the
+     * queue of a nearest neighbour search.
+     *
+     * @param point   The point to look for elements near.
+     * @param radius  The maximum distance between the point and the elements.
+     * @param filter  The filter to apply to the search.
+     * @param queue   The queue of candidates to add the nodes to.
+     */
+    public void expand(
+      final Point point,
+      final double radius,
+      final Filter<E> filter,
+      final Queue<Candidate<E>> queue
+    ) {
+      for (Node<E> node: this.nodes) {
+        if (node == null) {
           continue;
         }
 
-        if (nearest == null) {
-          nearest = estimate;
-        }
-        else {
-          double distNearest = nearest.distance(point);
-          double distEstimate = estimate.distance(point);
+        double distance = RectangleTree.minimumDistance(point, node.bounds());
 
-          if (distNearest > distEstimate) {
-            nearest = estimate;
-          }
+        if (distance <= radius) {
+          queue.add(new Candidate<E>(distance, node, null, false));
         }
       }
-
-      return nearest;
     }
   }
 
@@ -895,38 +1121,147 @@ public class RectangleTree<E extends RectangleTree.Index>
     }
 
     /**
-     * Find the element in the bucket closest to the specified point.
+     * Add an element to the bucket.
      *
-     * @param point   The point to look for elements near.
-     * @param filter  The filter to apply to the search.
-     * @return        The element closest to the specified point.
+     * @param element The element to add.
+     * @return        The bucket split off from the current bucket if it
+     *                overflowed, or {@code null}.
      */
-    public E nearest(final Point point, final Filter<E> filter) {
-      if (this.size() == 0 || point == null || filter == null) {
+    public Node<E> add(final E element) {
+      this.elements.add(element);
+      this.union(element);
+
+      if (this.elements.size() <= BUCKET_MAXIMUM) {
         return null;
       }
 
-      E nearest = null;
+      int axis = this.axis();
+
+      Bucket<E> bucket = new Bucket<>(RectangleTree.split(
+        this.elements, (a, b) -> {
+          return Float.compare(
+            (axis == 0) ? a.minX() + a.maxX() : a.minY() + a.maxY(),
+            (axis == 0) ? b.minX() + b.maxX() : b.minY() + b.maxY()
+          );
+        }
+      ));
+
+      this.refit();
+
+      return bucket;
+    }
+
+    /**
+     * Remove an element from the bucket.
+     *
+     * @param element The element to remove.
+     * @return        A boolean indicating whether or not the element was
+     *                removed from the bucket.
+     */
+    public boolean remove(final E element) {
+      for (int i = 0; i < this.elements.size(); i++) {
+        if (!element.equals(this.elements.get(i))) {
+          continue;
+        }
+
+        this.elements.remove(i);
+        this.refit();
+
+        return true;
+      }
+
+      return false;
+    }
+
+    /**
+     * Recompute the bounds of the bucket from its elements.
+     */
+    protected void refit() {
+      this.reset();
 
+      for (E element: this.elements) {
+        this.union(element);
+      }
+    }
+
+    /**
+     * Add the elements of the bucket included in the filter and within the
+     * specified radius of a point to the queue of a nearest neighbour search.
+     *
+     * @param point   The point to look for elements near.
+     * @param radius  The maximum distance between the point and the elements.
+     * @param filter  The filter to apply to the search.
+     * @param queue   The queue of candidates to add the elements to.
+     */
+    public void expand(
+      final Point point,
+      final double radius,
+      final Filter<E> filter,
+      final Queue<Candidate<E>> queue
+    ) {
       for (E element: this.elements) {
         if (element == null || !filter.include(element)) {
           continue;
         }
 
-        if (nearest == null) {
-          nearest = element;
-        }
-        else {
-          double distNearest = nearest.distance(point);
-          double distElement = element.distance(point);
+        double distance = RectangleTree.minimumDistance(
+          point, element.minX(), element.minY(), element.maxX(), element.maxY()
+        );
 
-          if (distNearest > distElement) {
-            nearest = element;
-          }
+        if (distance <= radius) {
+          queue.add(new Candidate<E>(distance, null, element, false));
         }
       }
+    }
+  }
 
-      return nearest;
+  /**
+   * The {@link Candidate} class describes a node or an element waiting to be
+   * visited during a nearest neighbour search.
+   *
+   * @param <E> The type of elements stored within the rectangle tree.
+   */
+  private static final class Candidate<E extends Index> {
+    /**
+     * The distance to the candidate; the minimum distance to its bounding box
+     * unless the actual distance to the element is known.
+     */
+    private final double distance;
+
+    /**
+     * The node, if the candidate is a node.
+     */
+    private final Node<E> node;
+
+    /**
+     * The element, if the candidate is an element.
+     */
+    private final E element;
+
+    /**
+     * Whether or not the distance is the actual distance to the element.
+     */
+    private final boolean exact;
+
+    /**
+     * Initialize a new candidate.
+     *
+     * @param distance  The distance to the candidate.
+     * @param node      The node, if the candidate is a node.
+     * @param element   The element, if the candidate is an element.
+     * @param exact     Whether or not the distance is the actual distance to
+     *                  the element.
+     */
+    Candidate(
+      final double distance,
+      final Node<E> node,
+      final E element,
+      final boolean exact
+    ) {
+      this.distance = distance;
+      this.node = node;
+      this.element = element;
+      this.exact = exact;
     }
   }
 }
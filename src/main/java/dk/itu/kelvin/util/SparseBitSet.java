@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// Fast utils
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Sparse bit set class.
+ *
+ * <p>
+ * The sparse bit set keeps track of a set of non-negative long values, such as
+ * OpenStreetMap IDs, using a single bit per possible value. Unlike a plain bit
+ * set, the bits are split into fixed-size pages that are only allocated once a
+ * bit within them is set. This keeps the set compact even when the values are
+ * spread across a huge range, as long as they tend to cluster together, which
+ * is the case for the IDs of the nodes referenced by ways in a region.
+ */
+public final class SparseBitSet {
+  /**
+   * The number of bits used for addressing a bit within a page.
+   */
+  private static final int PAGE_BITS = 16;
+
+  /**
+   * The number of words in each page.
+   */
+  private static final int PAGE_WORDS = (1 << PAGE_BITS) / Long.SIZE;
+
+  /**
+   * The allocated pages of the set mapped to their indices.
+   */
+  private final Long2ObjectOpenHashMap<long[]> pages =
+    new Long2ObjectOpenHashMap<>();
+
+  /**
+   * The number of bits set.
+   */
+  private long cardinality;
+
+  /**
+   * Get the number of bits set.
+   *
+   * @return The number of bits set.
+   */
+  public long cardinality() {
+    return this.cardinality;
+  }
+
+  /**
+   * Check if no bits are set.
+   *
+   * @return A boolean indicating whether or not no bits are set.
+   */
+  public boolean isEmpty() {
+    return this.cardinality == 0;
+  }
+
+  /**
+   * Set the specified bit.
+   *
+   * @param index The index of the bit to set.
+   */
+  public void set(final long index) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    long key = index >>> PAGE_BITS;
+
+    long[] page = this.pages.get(key);
+
+    if (page == null) {
+      page = new long[PAGE_WORDS];
+      this.pages.put(key, page);
+    }
+
+    int word = (int) (index & ((1 << PAGE_BITS) - 1)) >>> 6;
+    long mask = 1L << index;
+
+    if ((page[word] & mask) == 0) {
+      page[word] |= mask;
+      this.cardinality++;
+    }
+  }
+
+  /**
+   * Get the specified bit.
+   *
+   * @param index The index of the bit to get.
+   * @return      A boolean indicating whether or not the bit is set.
+   */
+  public boolean get(final long index) {
+    if (index < 0) {
+      return false;
+    }
+
+    long[] page = this.pages.get(index >>> PAGE_BITS);
+
+    if (page == null) {
+      return false;
+    }
+
+    int word = (int) (index & ((1 << PAGE_BITS) - 1)) >>> 6;
+
+    return (page[word] & (1L << index)) != 0;
+  }
+
+  /**
+   * Clear all bits of the set.
+   */
+  public void clear() {
+    this.pages.clear();
+    this.cardinality = 0;
+  }
+}
@@ -44,6 +44,26 @@ public interface SpatialIndex<E> extends Serializable {
    */
   boolean contains(final E element);
 
+  /**
+   * Add an element to the spatial index in place.
+   *
+   * @param element The element to add.
+   */
+  void add(final E element);
+
+  /**
+   * Remove an element from the spatial index in place.
+   *
+   * <p>
+   * The element is located using its current position, so it must be removed
+   * before it is moved.
+   *
+   * @param element The element to remove.
+   * @return        A boolean indicating whether or not the element was
+   *                removed from the spatial index.
+   */
+  boolean remove(final E element);
+
   /**
    * Find all elements within the range of the specified bounds.
    *
@@ -81,6 +101,42 @@ public interface SpatialIndex<E> extends Serializable {
    */
   E nearest(final Point point, final Filter<E> filter);
 
+  /**
+   * Find the k elements included in the filter closest to the specified
+   * point.
+   *
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements closest to the specified point, closest
+   *                first.
+   */
+  default List<E> nearest(
+    final Point point,
+    final int k,
+    final Filter<E> filter
+  ) {
+    return this.nearest(point, k, Double.POSITIVE_INFINITY, filter);
+  }
+
+  /**
+   * Find the k elements included in the filter closest to the specified point
+   * and within the specified radius of it.
+   *
+   * @param point   The point to look for elements near.
+   * @param k       The maximum number of elements to find.
+   * @param radius  The maximum distance between the point and the elements.
+   * @param filter  The filter to apply to the search.
+   * @return        The elements closest to the specified point, closest
+   *                first.
+   */
+  List<E> nearest(
+    final Point point,
+    final int k,
+    final double radius,
+    final Filter<E> filter
+  );
+
   /**
    * The {@link Point} class describes a 2-dimensional point in a spatial index.
    */
@@ -100,6 +100,67 @@ public final class WeightedGraph<N extends Node, E extends Edge<N>>
     return true;
   }
 
+  /**
+   * Remove an edge from the weighted graph.
+   *
+   * <p>
+   * Only the links between consecutive nodes of the edge are visited, so the
+   * cost of removing an edge depends on the length of the edge rather than
+   * the size of the graph.
+   *
+   * @param edge  The edge to remove from the weighted graph.
+   * @return      A boolean indicating whether or not the edge was removed from
+   *              the weighted graph.
+   */
+  public boolean remove(final E edge) {
+    if (edge == null) {
+      return false;
+    }
+
+    List<N> nodes = edge.nodes();
+
+    if (nodes == null) {
+      return false;
+    }
+
+    boolean removed = false;
+
+    for (int i = 0; i < nodes.size() - 1; i++) {
+      N a = nodes.get(i);
+      N b = nodes.get(i + 1);
+
+      removed |= this.unlink(a, b, edge);
+      removed |= this.unlink(b, a, edge);
+    }
+
+    return removed;
+  }
+
+  /**
+   * Remove the link from one node to another if it belongs to the specified
+   * edge.
+   *
+   * @param a     The node to remove the link from.
+   * @param b     The node to remove the link to.
+   * @param edge  The edge that the link must belong to.
+   * @return      A boolean indicating whether or not the link was removed.
+   */
+  private boolean unlink(final N a, final N b, final E edge) {
+    Map<N, E> links = this.neighbours.get(a);
+
+    if (links == null || links.get(b) != edge) {
+      return false;
+    }
+
+    links.remove(b);
+
+    if (links.isEmpty()) {
+      this.neighbours.remove(a);
+    }
+
+    return true;
+  }
+
   /**
    * Get all edges incident on the specified node.
    *
@@ -4,10 +4,14 @@
 package dk.itu.kelvin.model;
 
 // General utilities
+import java.util.Arrays;
+
 // JUnit annotations
 // JUnit assertions
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -31,4 +35,101 @@ public final class LandTest {
     land.add(way);
     assertTrue(1 == land.coastlines().size());
   }
+
+  /**
+   * Test stitching fragments that arrive out of order into an island.
+   */
+  @Test
+  public void testStitchIsland() {
+    Land land = new Land(new BoundingBox(0, 0, 10, 10));
+
+    Way first = new Way();
+    first.add(Arrays.asList(new Node(5, 5), new Node(6, 5)));
+
+    Way second = new Way();
+    second.add(Arrays.asList(new Node(7, 6), new Node(6, 7), new Node(5, 5)));
+
+    Way third = new Way();
+    third.add(Arrays.asList(new Node(6, 5), new Node(7, 5), new Node(7, 6)));
+
+    land.add(first);
+    land.add(second);
+    land.add(third);
+
+    assertEquals(1, land.coastlines().size());
+
+    Way island = land.coastlines().get(0);
+    assertTrue(island.isClosed());
+
+    // The nodes shared by the fragments only appear once.
+    assertEquals(6, island.nodes().size());
+    assertEquals("yes", island.tag("land"));
+  }
+
+  /**
+   * Test that open coastlines are only closed against the bounds once all
+   * fragments have arrived.
+   */
+  @Test
+  public void testCloseOpenCoastline() {
+    Land land = new Land(new BoundingBox(0, 0, 10, 10));
+
+    // A coastline crossing the bounds from the left to the right, arriving
+    // in three fragments with the middle one last.
+    Way left = new Way();
+    left.add(Arrays.asList(new Node(-1, 5), new Node(3, 5)));
+
+    Way right = new Way();
+    right.add(Arrays.asList(new Node(7, 5), new Node(11, 5)));
+
+    Way middle = new Way();
+    middle.add(Arrays.asList(new Node(3, 5), new Node(5, 6), new Node(7, 5)));
+
+    land.add(left);
+    land.add(right);
+    land.add(middle);
+
+    assertEquals(1, land.coastlines().size());
+
+    Way coastline = land.coastlines().get(0);
+    assertFalse(coastline.nodes().isEmpty());
+
+    for (Node node: coastline.nodes()) {
+      assertTrue(node.x() >= 0 && node.x() <= 10);
+      assertTrue(node.y() >= 0 && node.y() <= 10);
+    }
+
+    // All interior nodes of the coastline are kept.
+    boolean interior = false;
+
+    for (Node node: coastline.nodes()) {
+      interior |= node.x() == 5 && node.y() == 6;
+    }
+
+    assertTrue(interior);
+  }
+
+  /**
+   * Test stitching a large number of fragments in reverse order.
+   */
+  @Test
+  public void testStitchMany() {
+    Land land = new Land(new BoundingBox(0, 0, 100000, 10));
+
+    for (int i = 50000 - 1; i >= 0; i--) {
+      Way fragment = new Way();
+      fragment.add(Arrays.asList(new Node(i, 5), new Node(i + 1, 5)));
+      land.add(fragment);
+    }
+
+    Way last = new Way();
+    last.add(Arrays.asList(
+      new Node(50000, 5), new Node(50000, 6), new Node(0, 6), new Node(0, 5)
+    ));
+    land.add(last);
+
+    assertEquals(1, land.coastlines().size());
+    assertTrue(land.coastlines().get(0).isClosed());
+    assertEquals(50004, land.coastlines().get(0).nodes().size());
+  }
 }
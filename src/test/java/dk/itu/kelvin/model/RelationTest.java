@@ -6,6 +6,8 @@ package dk.itu.kelvin.model;
 // JUnit annotations
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 // JUnit assertions
@@ -62,4 +64,23 @@ public final class RelationTest {
     Way w2 = new Way();
     r1.add(w2);
   }
+
+  /**
+   * The same element may take on different roles in different relations.
+   */
+  @Test
+  public void testRoles() {
+    Relation r1 = new Relation();
+    Relation r2 = new Relation();
+    Node n1 = new Node(3, 3);
+
+    r1.add(n1, "outer");
+    r1.add(n1);
+    r2.add(n1, "inner");
+
+    assertEquals("outer", r1.role(0));
+    assertNull(r1.role(1));
+    assertEquals("inner", r2.role(0));
+    assertNull(n1.tag("role"));
+  }
 }
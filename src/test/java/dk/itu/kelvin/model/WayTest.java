@@ -347,4 +347,81 @@ public final class WayTest {
     prop2.put("bicycle", "yes");
     assertTrue(Graph.Direction.BI == w2.direction(prop2));
   }
+
+  /**
+   * Test packing the nodes of a way.
+   */
+  @Test
+  public void testPack() {
+    Way way = new Way();
+    assertFalse(way.pack());
+
+    way.add(new Node(377190, -2019876));
+    way.add(new Node(377200.5f, -2019870));
+    way.add(new Node(377190, -2019876));
+
+    assertTrue(way.pack());
+    assertTrue(way.geometry() != null);
+    assertEquals(3, way.size());
+    assertTrue(way.isClosed());
+    assertEquals(new Node(377200.5f, -2019870), way.nodes().get(1));
+    assertEquals(377200.5f, way.maxX(), 0);
+
+    // Moving a node keeps the way packed.
+    assertTrue(way.move(
+      new Node(377200.5f, -2019870), new Node(377300, -2019860)
+    ));
+    assertTrue(way.geometry() != null);
+    assertEquals(377300, way.maxX(), 0);
+    assertEquals(new Node(377300, -2019860), way.nodes().get(1));
+
+    // Adding a node unpacks the way.
+    way.add(new Node(377400, -2019850));
+    assertTrue(way.geometry() == null);
+    assertEquals(4, way.nodes().size());
+    assertEquals(new Node(377190, -2019876), way.start());
+
+    // Ways off the grid aren't packed.
+    Way off = new Way();
+    off.add(new Node(0.1f, 0.1f));
+    assertFalse(off.pack());
+    assertEquals(1, off.nodes().size());
+  }
+
+  /**
+   * Test the ends of packed ways.
+   */
+  @Test
+  public void testPackedEnds() {
+    Way way = new Way();
+    way.add(new Node(10, 10));
+    way.add(new Node(20, 10));
+    way.add(new Node(20, 20));
+    assertTrue(way.pack());
+
+    Way next = new Way();
+    next.add(new Node(20, 20));
+    next.add(new Node(30, 20));
+    assertTrue(next.pack());
+
+    assertEquals(new Node(10, 10), way.start());
+    assertEquals(new Node(20, 20), way.end());
+    assertFalse(way.isClosed());
+    assertTrue(way.endsIn(next));
+    assertTrue(next.startsIn(way));
+    assertFalse(way.startsIn(next));
+    assertFalse(next.endsIn(way));
+
+    assertTrue(way.contains(new Node(20, 10)));
+    assertFalse(way.contains(new Node(10, 20)));
+    assertFalse(way.contains(null));
+
+    // Empty ways have no ends.
+    Way empty = new Way();
+    empty.nodes();
+    assertTrue(empty.start() == null);
+    assertTrue(empty.end() == null);
+    assertFalse(empty.isClosed());
+    assertFalse(way.startsIn(empty));
+  }
 }
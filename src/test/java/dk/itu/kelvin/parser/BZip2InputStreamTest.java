@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.Arrays;
+
+// I/O utilities
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+// JUnit annotations
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link BZip2InputStream} test suite.
+ */
+public final class BZip2InputStreamTest {
+  /**
+   * The uncompressed text of {@link #STREAM}.
+   */
+  private static final String TEXT =
+    "Kelvin Maps: aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!\n";
+
+  /**
+   * The text compressed using {@code bzip2 -9}.
+   */
+  private static final int[] STREAM = {
+    0x42, 0x5a, 0x68, 0x39, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59, 0x0e, 0xb9,
+    0xd2, 0x87, 0x00, 0x00, 0x03, 0x5d, 0x80, 0x00, 0x10, 0x60, 0x00, 0x00,
+    0x10, 0x00, 0x0a, 0x22, 0x25, 0x49, 0x00, 0x20, 0x00, 0x22, 0x13, 0x47,
+    0x94, 0xd3, 0x1a, 0x84, 0x00, 0x00, 0x83, 0x40, 0x61, 0x80, 0xfa, 0x99,
+    0x55, 0x65, 0x2f, 0x8b, 0xb9, 0x22, 0x9c, 0x28, 0x48, 0x07, 0x5c, 0xe9,
+    0x43, 0x80
+  };
+
+  /**
+   * An empty stream compressed using {@code bzip2 -9}.
+   */
+  private static final int[] EMPTY = {
+    0x42, 0x5a, 0x68, 0x39, 0x17, 0x72, 0x45, 0x38, 0x50, 0x90, 0x00, 0x00,
+    0x00, 0x00
+  };
+
+  /**
+   * Temporary folder for compressed files.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * Convert unsigned byte values to bytes.
+   *
+   * @param values  The unsigned byte values.
+   * @return        The bytes.
+   */
+  private static byte[] bytes(final int[] values) {
+    byte[] bytes = new byte[values.length];
+
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Decompress the specified bytes.
+   *
+   * @param bytes The bytes to decompress.
+   * @return      The decompressed text.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static String decompress(final byte[] bytes) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    try (InputStream input = new BZip2InputStream(
+      new ByteArrayInputStream(bytes)
+    )) {
+      byte[] buffer = new byte[7];
+      int n;
+
+      while ((n = input.read(buffer)) != -1) {
+        output.write(buffer, 0, n);
+      }
+    }
+
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test decompressing a single stream.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testDecompress() throws IOException {
+    assertEquals(TEXT, decompress(bytes(STREAM)));
+    assertEquals("", decompress(bytes(EMPTY)));
+  }
+
+  /**
+   * Test decompressing concatenated streams.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testConcatenated() throws IOException {
+    byte[] stream = bytes(STREAM);
+    byte[] empty = bytes(EMPTY);
+
+    byte[] bytes = new byte[2 * stream.length + empty.length];
+    System.arraycopy(stream, 0, bytes, 0, stream.length);
+    System.arraycopy(empty, 0, bytes, stream.length, empty.length);
+    System.arraycopy(
+      stream, 0, bytes, stream.length + empty.length, stream.length
+    );
+
+    assertEquals(TEXT + TEXT, decompress(bytes));
+  }
+
+  /**
+   * Test that corrupt and truncated streams are rejected.
+   */
+  @Test
+  public void testInvalid() {
+    byte[] corrupt = bytes(STREAM);
+    corrupt[30] ^= 0x10;
+
+    byte[][] invalid = {
+      corrupt,
+      Arrays.copyOf(bytes(STREAM), 40),
+      "Kelvin Maps".getBytes(StandardCharsets.UTF_8)
+    };
+
+    for (byte[] bytes: invalid) {
+      try {
+        decompress(bytes);
+        fail();
+      }
+      catch (IOException ex) {
+        continue;
+      }
+    }
+  }
+
+  /**
+   * Test that the parser reads bzip2 compressed files through the stream.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testOpen() throws IOException {
+    File file = FOLDER.newFile("map.osm.bz2");
+
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      output.write(bytes(STREAM));
+    }
+
+    assertEquals(XMLParser.class, Parser.probe(file).getClass());
+
+    try (InputStream input = new XMLParser().open(file)) {
+      byte[] buffer = new byte[TEXT.length()];
+      int n = 0;
+
+      while (n < buffer.length) {
+        n += input.read(buffer, n, buffer.length - n);
+      }
+
+      assertEquals(TEXT, new String(buffer, StandardCharsets.UTF_8));
+      assertEquals(-1, input.read());
+    }
+  }
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Concurrency utilities
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// I/O utilities
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+// JUnit annotations
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link Parser} test suite.
+ */
+public final class ParserTest {
+  /**
+   * The number of nodes in the generated file.
+   */
+  private static final int NODES = 1000;
+
+  /**
+   * The number of seconds to wait for a parse to finish.
+   */
+  private static final int TIMEOUT = 10;
+
+  /**
+   * The number of nodes referenced by each way in files written by
+   * {@link #write(File, int)}.
+   */
+  private static final int WAY_SIZE = 10;
+
+  /**
+   * Temporary folder for the generated file.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * The generated OSM file.
+   */
+  private static File file;
+
+  /**
+   * Generate an OSM file of tagged nodes.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @BeforeClass
+  public static void generate() throws IOException {
+    ParserTest.file = FOLDER.newFile("nodes.osm");
+
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(ParserTest.file), StandardCharsets.UTF_8
+    ))) {
+      out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      out.println("<osm version=\"0.6\">");
+
+      for (int i = 1; i <= NODES; i++) {
+        out.println(String.format(Locale.ROOT,
+          " <node id=\"%d\" lat=\"55.%04d\" lon=\"12.%04d\">", i, i, i
+        ));
+        out.println("  <tag k=\"amenity\" v=\"cafe\"/>");
+        out.println(" </node>");
+      }
+
+      out.println("</osm>");
+    }
+  }
+
+  /**
+   * Write an OSM file of the specified number of nodes, exercising most of
+   * what the XML parser handles.
+   *
+   * <p>
+   * Every tenth node is tagged as an amenity, with entities in its name,
+   * every twentieth node is an address and the nodes are strung together by
+   * ways.
+   *
+   * @param file  The file to write.
+   * @param nodes The number of nodes to write.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  static void write(final File file, final int nodes) throws IOException {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(file), StandardCharsets.UTF_8
+    ))) {
+      out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      out.println("<osm version=\"0.6\" generator=\"kelvin\">");
+      out.println(
+        " <bounds minlat=\"55.6\" minlon=\"12.4\" maxlat=\"55.8\""
+        + " maxlon=\"12.7\"/>"
+      );
+
+      for (int i = 1; i <= nodes; i++) {
+        double lat = 55.6 + 0.2 * (i % 1000) / 1000;
+        double lon = 12.4 + 0.3 * i / nodes;
+
+        out.print(String.format(Locale.ROOT,
+          " <node id=\"%d\" visible=\"true\" version=\"1\" changeset=\"1\""
+          + " timestamp=\"2015-01-01T00:00:00Z\" user=\"kelvin\" uid=\"1\""
+          + " lat=\"%.7f\" lon=\"%.7f\"", i, lat, lon
+        ));
+
+        if (i % 20 == 0) {
+          out.println(">");
+          out.println("  <tag k=\"addr:street\" v=\"Rued Langgaards Vej\"/>");
+          out.println("  <tag k=\"addr:housenumber\" v=\"" + i + "\"/>");
+          out.println(" </node>");
+        }
+        else if (i % 10 == 0) {
+          out.println(">");
+          out.println("  <tag k=\"amenity\" v=\"cafe\"/>");
+          out.println(
+            "  <tag k=\"name\" v=\"Caf&#233; &amp; Bar " + i + "\"/>"
+          );
+          out.println(" </node>");
+        }
+        else {
+          out.println("/>");
+        }
+      }
+
+      for (int i = 1; i + WAY_SIZE <= nodes; i += WAY_SIZE) {
+        out.println(" <way id=\"" + i + "\" version=\"1\">");
+
+        for (int j = i; j <= i + WAY_SIZE; j++) {
+          out.println("  <nd ref=\"" + j + "\"/>");
+        }
+
+        out.println("  <tag k=\"highway\" v=\"residential\"/>");
+        out.println(" </way>");
+      }
+
+      out.println("</osm>");
+    }
+  }
+
+  /**
+   * Test reading a file to completion.
+   *
+   * @throws InterruptedException In case the test is interrupted.
+   */
+  @Test
+  public void testRead() throws InterruptedException {
+    Parser parser = new XMLParser();
+    CountDownLatch finished = new CountDownLatch(1);
+
+    Parser.Handle handle = parser.read(ParserTest.file, () -> {
+      finished.countDown();
+    });
+
+    assertTrue(finished.await(TIMEOUT, TimeUnit.SECONDS));
+    assertTrue(handle.done());
+    assertFalse(handle.cancelled());
+    assertTrue(handle.succeeded());
+    assertNull(handle.error());
+    assertSame(handle, parser.handle());
+    assertEquals(NODES, parser.nodes().size());
+    assertEquals(NODES, handle.progress().count(Filter.Type.NODE));
+    assertEquals(ParserTest.file.length(), handle.progress().bytes());
+  }
+
+  /**
+   * Test cancelling a parse while it's running.
+   *
+   * @throws InterruptedException In case the test is interrupted.
+   */
+  @Test
+  public void testCancel() throws InterruptedException {
+    Parser parser = new XMLParser();
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(1);
+    AtomicInteger nodes = new AtomicInteger();
+
+    Parser.Handle handle = parser.read(ParserTest.file, new Parser.Sink() {
+      @Override
+      public void onNode(final long id, final Node node) {
+        nodes.incrementAndGet();
+        started.countDown();
+
+        // Hold up the parser until it has been cancelled.
+        try {
+          cancelled.await(TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+          return;
+        }
+      }
+    }, () -> {
+      finished.countDown();
+    });
+
+    assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+    handle.cancel();
+    cancelled.countDown();
+
+    assertTrue(finished.await(TIMEOUT, TimeUnit.SECONDS));
+    assertTrue(handle.cancelled());
+    assertTrue(handle.done());
+    assertFalse(handle.succeeded());
+
+    // The parser stops at the next element.
+    assertEquals(1, nodes.get());
+  }
+
+  /**
+   * Test resolving the members of relations that reference elements further
+   * ahead in the file.
+   *
+   * @throws Exception In case of an exception during parsing.
+   */
+  @Test
+  public void testRelations() throws Exception {
+    File file = FOLDER.newFile("relations.osm");
+
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(file), StandardCharsets.UTF_8
+    ))) {
+      out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      out.println("<osm version=\"0.6\">");
+      out.println(" <node id=\"1\" lat=\"55.1\" lon=\"12.1\"/>");
+      out.println(" <node id=\"2\" lat=\"55.2\" lon=\"12.2\"/>");
+      out.println(" <relation id=\"1\">");
+      out.println("  <member type=\"way\" ref=\"1\" role=\"outer\"/>");
+      out.println("  <member type=\"relation\" ref=\"2\" role=\"sub\"/>");
+      out.println("  <member type=\"way\" ref=\"9\" role=\"inner\"/>");
+      out.println("  <tag k=\"type\" v=\"multipolygon\"/>");
+      out.println(" </relation>");
+      out.println(" <relation id=\"2\">");
+      out.println("  <member type=\"node\" ref=\"2\" role=\"\"/>");
+      out.println("  <member type=\"way\" ref=\"1\" role=\"inner\"/>");
+      out.println("  <tag k=\"type\" v=\"multipolygon\"/>");
+      out.println(" </relation>");
+      out.println(" <way id=\"1\">");
+      out.println("  <nd ref=\"1\"/>");
+      out.println("  <nd ref=\"2\"/>");
+      out.println("  <tag k=\"highway\" v=\"primary\"/>");
+      out.println(" </way>");
+      out.println("</osm>");
+    }
+
+    Parser parser = new XMLParser();
+    parser.parse(file);
+
+    // Relations are emitted in the order they appear in the file.
+    List<Relation> relations = new ArrayList<>(parser.relations());
+    assertEquals(2, relations.size());
+
+    Relation first = relations.get(0);
+    Relation second = relations.get(1);
+
+    // The member referencing a way that doesn't exist is left out.
+    assertEquals(2, first.members().size());
+    assertSame(second, first.members().get(1));
+    assertEquals("outer", first.role(0));
+    assertEquals("sub", first.role(1));
+
+    assertEquals(2, second.members().size());
+    assertEquals("", second.role(0));
+    assertEquals("inner", second.role(1));
+
+    // The way is shared between the relations, but its role isn't.
+    Way way = (Way) first.members().get(0);
+    assertSame(way, second.members().get(1));
+    assertNull(way.tag("role"));
+    assertEquals(2, way.nodes().size());
+  }
+
+  /**
+   * Test that the byte-level scanner of the XML parser produces the same
+   * results as its SAX engine.
+   *
+   * @throws Exception In case of an error during parsing.
+   */
+  @Test
+  public void testEquivalence() throws Exception {
+    File osm = FOLDER.newFile("equivalence.osm");
+    ParserTest.write(osm, NODES);
+
+    XMLParser scanner = new XMLParser();
+    scanner.sax(false);
+    scanner.parse(osm);
+
+    XMLParser sax = new XMLParser();
+    sax.sax(true);
+    sax.parse(osm);
+
+    assertEquals(sax.bounds().minX(), scanner.bounds().minX(), 0);
+    assertEquals(sax.bounds().minY(), scanner.bounds().minY(), 0);
+    assertEquals(sax.bounds().maxX(), scanner.bounds().maxX(), 0);
+    assertEquals(sax.bounds().maxY(), scanner.bounds().maxY(), 0);
+
+    assertEquals(sax.nodes().size(), scanner.nodes().size());
+    assertEquals(sax.ways().size(), scanner.ways().size());
+    assertEquals(sax.addresses().size(), scanner.addresses().size());
+
+    List<Node> saxNodes = new ArrayList<>(sax.nodes());
+    List<Node> scannerNodes = new ArrayList<>(scanner.nodes());
+
+    for (int i = 0; i < saxNodes.size(); i++) {
+      Node a = saxNodes.get(i);
+      Node b = scannerNodes.get(i);
+
+      assertEquals(a.x(), b.x(), 0);
+      assertEquals(a.y(), b.y(), 0);
+      assertEquals(a.tags(), b.tags());
+    }
+
+    List<Way> saxWays = new ArrayList<>(sax.ways());
+    List<Way> scannerWays = new ArrayList<>(scanner.ways());
+
+    for (int i = 0; i < saxWays.size(); i++) {
+      Way a = saxWays.get(i);
+      Way b = scannerWays.get(i);
+
+      assertEquals(a.tags(), b.tags());
+      assertEquals(a.nodes().size(), b.nodes().size());
+
+      for (int j = 0; j < a.nodes().size(); j++) {
+        assertEquals(a.nodes().get(j).x(), b.nodes().get(j).x(), 0);
+        assertEquals(a.nodes().get(j).y(), b.nodes().get(j).y(), 0);
+      }
+    }
+
+    List<Address> saxAddresses = new ArrayList<>(sax.addresses());
+    List<Address> scannerAddresses = new ArrayList<>(scanner.addresses());
+
+    for (int i = 0; i < saxAddresses.size(); i++) {
+      Address a = saxAddresses.get(i);
+      Address b = scannerAddresses.get(i);
+
+      assertEquals(a.street(), b.street());
+      assertEquals(a.number(), b.number());
+      assertEquals(a.x(), b.x(), 0);
+      assertEquals(a.y(), b.y(), 0);
+    }
+  }
+}
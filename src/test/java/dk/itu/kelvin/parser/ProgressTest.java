@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.parser;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link Progress} test suite.
+ */
+public final class ProgressTest {
+  /**
+   * Test the fraction of consumed bytes.
+   */
+  @Test
+  public void testFraction() {
+    Progress progress = new Progress();
+    assertEquals(-1, progress.fraction(), 0);
+
+    progress.start(200);
+    assertEquals(0, progress.fraction(), 0);
+
+    progress.consume(50);
+    assertEquals(0.25, progress.fraction(), 0);
+
+    progress.total(400);
+    assertEquals(0.125, progress.fraction(), 0);
+
+    progress.consume(1000);
+    assertEquals(1, progress.fraction(), 0);
+    assertFalse(progress.done());
+
+    progress.finish();
+    assertTrue(progress.done());
+    assertEquals(1050, progress.bytes());
+  }
+
+  /**
+   * Test counting elements.
+   */
+  @Test
+  public void testCount() {
+    Progress progress = new Progress();
+    progress.start(0);
+
+    progress.increment(Filter.Type.NODE);
+    progress.increment(Filter.Type.NODE);
+    progress.increment(Filter.Type.WAY);
+    progress.finish();
+
+    assertEquals(2, progress.count(Filter.Type.NODE));
+    assertEquals(1, progress.count(Filter.Type.WAY));
+    assertEquals(0, progress.count(Filter.Type.RELATION));
+
+    assertTrue(progress.rate(Filter.Type.NODE) > 0);
+    assertEquals(
+      2 * progress.rate(Filter.Type.WAY), progress.rate(Filter.Type.NODE), 1e-6
+    );
+  }
+
+  /**
+   * Test that time is attributed to the innermost phase only.
+   *
+   * @throws InterruptedException In case the test is interrupted.
+   */
+  @Test
+  public void testPhases() throws InterruptedException {
+    Progress progress = new Progress();
+
+    assertNull(progress.enter(Progress.Phase.DECODE));
+    Thread.sleep(20);
+
+    assertEquals(Progress.Phase.DECODE, progress.enter(Progress.Phase.STORE));
+    Thread.sleep(20);
+
+    assertEquals(Progress.Phase.STORE, progress.enter(Progress.Phase.DECODE));
+    assertEquals(Progress.Phase.DECODE, progress.enter(null));
+
+    long decode = progress.time(Progress.Phase.DECODE);
+    long store = progress.time(Progress.Phase.STORE);
+
+    assertTrue(decode >= 20_000_000);
+    assertTrue(store >= 20_000_000);
+    assertEquals(0, progress.time(Progress.Phase.READ));
+
+    // Time spent outside of any phase isn't attributed.
+    Thread.sleep(10);
+    assertNull(progress.enter(null));
+    assertEquals(decode, progress.time(Progress.Phase.DECODE));
+  }
+}
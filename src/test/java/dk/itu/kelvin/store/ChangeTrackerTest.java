@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.List;
+import java.util.Locale;
+
+// Concurrency utilities
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// I/O utilities
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+// NIO utilities
+import java.nio.charset.StandardCharsets;
+
+// JUnit annotations
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Threading
+import dk.itu.kelvin.thread.TaskQueue;
+
+// Utilities
+import dk.itu.kelvin.util.CoordinateTable;
+
+// Math
+import dk.itu.kelvin.math.Mercator;
+import dk.itu.kelvin.math.Projection;
+
+// Parser
+import dk.itu.kelvin.parser.Filter;
+import dk.itu.kelvin.parser.Parser;
+import dk.itu.kelvin.parser.XMLParser;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link ChangeTracker} test suite.
+ */
+public final class ChangeTrackerTest {
+  /**
+   * Temporary folder for the generated files.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * The projection used by the parser.
+   */
+  private static final Projection PROJECTION = new Mercator();
+
+  /**
+   * Start up the task queue before the tests.
+   */
+  @BeforeClass
+  public static void before() {
+    TaskQueue.startup();
+  }
+
+  /**
+   * Shut down the task queue after the tests.
+   */
+  @AfterClass
+  public static void after() {
+    TaskQueue.shutdown();
+  }
+
+  /**
+   * Write an XML file.
+   *
+   * @param name  The name of the file.
+   * @param lines The lines of the file.
+   * @return      The file.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static File write(
+    final String name,
+    final String... lines
+  ) throws IOException {
+    File file = FOLDER.newFile(name);
+
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(file), StandardCharsets.UTF_8
+    ))) {
+      out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+
+      for (String line: lines) {
+        out.println(line);
+      }
+    }
+
+    return file;
+  }
+
+  /**
+   * Get a node element at the specified coordinates.
+   *
+   * @param id    The ID of the node.
+   * @param lat   The latitude of the node.
+   * @param lon   The longitude of the node.
+   * @param tags  The key-value pairs of the tags of the node.
+   * @return      The node element.
+   */
+  private static String node(
+    final long id,
+    final double lat,
+    final double lon,
+    final String... tags
+  ) {
+    StringBuilder node = new StringBuilder(String.format(Locale.ROOT,
+      "<node id=\"%d\" lat=\"%f\" lon=\"%f\">", id, lat, lon
+    ));
+
+    for (int i = 0; i < tags.length; i += 2) {
+      node.append(String.format(
+        "<tag k=\"%s\" v=\"%s\"/>", tags[i], tags[i + 1]
+      ));
+    }
+
+    return node.append("</node>").toString();
+  }
+
+  /**
+   * Get a way element.
+   *
+   * @param id    The ID of the way.
+   * @param tag   The key-value pair of the tag of the way.
+   * @param refs  The IDs of the nodes of the way.
+   * @return      The way element.
+   */
+  private static String way(
+    final long id,
+    final String tag,
+    final long... refs
+  ) {
+    StringBuilder way = new StringBuilder("<way id=\"" + id + "\">");
+
+    for (long ref: refs) {
+      way.append("<nd ref=\"" + ref + "\"/>");
+    }
+
+    String[] kv = tag.split("=");
+
+    return way.append(String.format(
+      "<tag k=\"%s\" v=\"%s\"/></way>", kv[0], kv[1]
+    )).toString();
+  }
+
+  /**
+   * Read a file into a sink and wait for it to finish.
+   *
+   * @param file  The file to read.
+   * @param sink  The sink to read the file into.
+   * @return      The handle of the parse.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private static Parser.Handle read(
+    final File file,
+    final Parser.Sink sink
+  ) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+
+    Parser parser = new XMLParser();
+
+    parser.read(file, sink, () -> {
+      latch.countDown();
+    });
+
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+    return parser.handle();
+  }
+
+  /**
+   * Import an OSM file into an element store and an address store,
+   * registering the imported elements with a change tracker.
+   *
+   * @param file      The OSM file to import.
+   * @param elements  The element store to import elements into.
+   * @param addresses The address store to import addresses into.
+   * @param tracker   The change tracker to register the elements with.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private static void load(
+    final File file,
+    final ElementStore elements,
+    final AddressStore addresses,
+    final ChangeTracker tracker
+  ) throws InterruptedException {
+    assertTrue(read(file, new Parser.Sink() {
+      @Override
+      public void onNode(final long id, final Node node) {
+        elements.add(node);
+        tracker.track(id, node);
+      }
+
+      @Override
+      public void onWay(final long id, final Way way) {
+        elements.add(way);
+        tracker.track(id, way);
+      }
+
+      @Override
+      public void onRelation(final long id, final Relation relation) {
+        elements.add(relation);
+        tracker.track(id, relation);
+      }
+
+      @Override
+      public void onAddress(final long id, final Address address) {
+        addresses.add(address);
+        tracker.track(id, address);
+      }
+
+      @Override
+      public void onLocations(final CoordinateTable locations) {
+        tracker.track(locations);
+      }
+    }).succeeded());
+  }
+
+  /**
+   * Start a search of an element store around the specified coordinates.
+   *
+   * @param elements  The element store to search.
+   * @param lat       The latitude.
+   * @param lon       The longitude.
+   * @return          The search query.
+   */
+  private static ElementStore.Query around(
+    final ElementStore elements,
+    final double lat,
+    final double lon
+  ) {
+    float x = (float) PROJECTION.lonToX(lon);
+    float y = (float) PROJECTION.latToY(lat);
+
+    return elements.find().bounds(x - 1, y - 1, x + 1, y + 1);
+  }
+
+  /**
+   * Test applying a change file to stores imported from an OSM file.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testCommit() throws Exception {
+    File map = write("map.osm",
+      "<osm version=\"0.6\">",
+      "<bounds minlat=\"55\" minlon=\"12\" maxlat=\"56\" maxlon=\"13\"/>",
+      node(1, 55.1, 12.1),
+      node(2, 55.2, 12.2),
+      node(3, 55.3, 12.3),
+      node(4, 55.4, 12.4),
+      node(5, 55.5, 12.5, "amenity", "cafe"),
+      node(6, 55.6, 12.6,
+        "addr:street", "Rued Langgaards Vej",
+        "addr:housenumber", "7",
+        "addr:postcode", "2300"
+      ),
+      way(10, "highway=primary", 1, 2, 3),
+      way(12, "building=yes", 3, 4),
+      "<relation id=\"20\">",
+      "<member type=\"way\" ref=\"12\" role=\"outer\"/>",
+      "<tag k=\"type\" v=\"multipolygon\"/>",
+      "</relation>",
+      "</osm>"
+    );
+
+    ElementStore elements = new ElementStore();
+    AddressStore addresses = new AddressStore();
+
+    ChangeTracker tracker = new ChangeTracker(elements, addresses, (node) -> {
+      return node.tag("amenity") != null;
+    });
+
+    load(map, elements, addresses, tracker);
+
+    assertEquals(1, around(elements, 55.5, 12.5)
+      .types("poi").tag("cafe").get().size()
+    );
+    assertEquals(1, around(elements, 55.4, 12.4).types("way").get().size());
+    assertEquals(1, addresses.search("Rued Langgaards Vej 7").size());
+
+    // Query the indexes once so that the changes are applied to built
+    // indexes.
+    assertEquals(1, around(elements, 55.2, 12.2)
+      .types("transportWay").get().size()
+    );
+
+    File changes = write("changes.osc",
+      "<osmChange version=\"0.6\">",
+      "<modify>",
+      node(2, 55.25, 12.25),
+      node(6, 55.6, 12.6,
+        "addr:street", "Rued Langgaards Vej",
+        "addr:housenumber", "9",
+        "addr:postcode", "2300"
+      ),
+      "</modify>",
+      "<create>",
+      node(100, 55.7, 12.7, "amenity", "cafe"),
+      node(101, 55.0, 12.0),
+      way(11, "highway=residential", 1, 101),
+      "</create>",
+      "<delete>",
+      "<node id=\"5\"/>",
+      "<way id=\"12\"/>",
+      "<relation id=\"20\"/>",
+      "</delete>",
+      "</osmChange>"
+    );
+
+    assertTrue(read(changes, tracker).succeeded());
+    tracker.commit();
+
+    // The deleted and created points of interest.
+    assertEquals(0, around(elements, 55.5, 12.5)
+      .types("poi").tag("cafe").get().size()
+    );
+    assertEquals(1, around(elements, 55.7, 12.7)
+      .types("poi").tag("cafe").get().size()
+    );
+
+    // The deleted way and relation.
+    assertEquals(0, around(elements, 55.4, 12.4)
+      .types("way", "relation").get().size()
+    );
+
+    // The created road references both an existing and a created node.
+    List<Element> created = around(elements, 55.0, 12.0)
+      .types("transportWay").get();
+
+    assertEquals(1, created.size());
+    assertEquals(2, ((Way) created.get(0)).nodes().size());
+
+    // The road whose node was moved.
+    List<Element> moved = around(elements, 55.25, 12.25)
+      .types("transportWay").get();
+
+    assertEquals(1, moved.size());
+
+    Node to = ((Way) moved.get(0)).nodes().get(1);
+
+    assertEquals((float) PROJECTION.lonToX(12.25), to.x(), 0);
+    assertNotNull(elements.carGraph().neighbours(to));
+    assertFalse(elements.carGraph().neighbours(to).isEmpty());
+
+    Node from = new Node(
+      (float) PROJECTION.lonToX(12.2), (float) PROJECTION.latToY(55.2)
+    );
+
+    assertNull(elements.carGraph().neighbours(from));
+
+    // The modified address.
+    assertEquals(0, addresses.search("Rued Langgaards Vej 7").size());
+    assertEquals(1, addresses.search("Rued Langgaards Vej 9").size());
+  }
+
+  /**
+   * Test that the changes of a malformed change file can be thrown away,
+   * leaving the stores and the tracked elements as they were.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testDiscard() throws Exception {
+    File map = write("discard.osm",
+      "<osm version=\"0.6\">",
+      "<bounds minlat=\"55\" minlon=\"12\" maxlat=\"56\" maxlon=\"13\"/>",
+      node(1, 55.1, 12.1),
+      node(2, 55.2, 12.2),
+      node(5, 55.5, 12.5, "amenity", "cafe"),
+      way(10, "highway=primary", 1, 2),
+      "</osm>"
+    );
+
+    ElementStore elements = new ElementStore();
+    AddressStore addresses = new AddressStore();
+
+    ChangeTracker tracker = new ChangeTracker(elements, addresses, (node) -> {
+      return node.tag("amenity") != null;
+    });
+
+    load(map, elements, addresses, tracker);
+
+    File broken = write("broken.osc",
+      "<osmChange version=\"0.6\">",
+      "<create>",
+      node(100, 55.7, 12.7, "amenity", "cafe"),
+      "</create>",
+      "<modify>",
+      node(2, 55.25, 12.25),
+      "</modify>",
+      "<delete>",
+      "<node id=\"5\"/>",
+      "<way id=\"10\"/>",
+      "</delete>",
+      "<modify>",
+      "<node id=\"1\" lat=\"north\" lon=\"12.1\"/>",
+      "</modify>",
+      "</osmChange>"
+    );
+
+    Parser.Handle handle = read(broken, tracker);
+
+    assertFalse(handle.succeeded());
+    assertNotNull(handle.error());
+
+    tracker.discard();
+    tracker.commit();
+
+    assertEquals(1, around(elements, 55.5, 12.5)
+      .types("poi").tag("cafe").get().size()
+    );
+    assertEquals(0, around(elements, 55.7, 12.7)
+      .types("poi").tag("cafe").get().size()
+    );
+    assertEquals(1, around(elements, 55.2, 12.2)
+      .types("transportWay").get().size()
+    );
+
+    // The tracked elements and coordinates are left as they were.
+    assertNull(tracker.resolve(Filter.Type.NODE, 100));
+    assertNotNull(tracker.resolve(Filter.Type.WAY, 10));
+    assertEquals(
+      (float) PROJECTION.lonToX(12.2),
+      ((Node) tracker.resolve(Filter.Type.NODE, 2)).x(),
+      0
+    );
+  }
+}
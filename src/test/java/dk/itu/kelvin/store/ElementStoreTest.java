@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Random;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+// Utilities
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Models
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link ElementStore} test suite.
+ */
+public final class ElementStoreTest {
+  /**
+   * Create a road between two points.
+   *
+   * @param x The x-coordinate of the start of the road.
+   * @param y The y-coordinate of the start of the road.
+   * @return  The road.
+   */
+  private static Way road(final float x, final float y) {
+    Way way = new Way();
+    way.add(new Node(x, y));
+    way.add(new Node(x + 1, y + 1));
+    way.tag("highway", "residential");
+
+    return way;
+  }
+
+  /**
+   * Test that elements added to a store after it has been searched are
+   * added to its indexes in place, and that the indexes are only built anew
+   * once the store has grown enough.
+   */
+  @Test
+  public void testGrowInPlace() {
+    Random random = new Random(42);
+    ElementStore elements = new ElementStore();
+
+    for (int i = 0; i < 1000; i++) {
+      elements.add(road(random.nextFloat() * 100, random.nextFloat() * 100));
+    }
+
+    SpatialIndex<Way> tree = elements.transportWaysTree();
+
+    assertEquals(1000, tree.size());
+
+    for (int i = 0; i < 500; i++) {
+      elements.add(road(random.nextFloat() * 100, random.nextFloat() * 100));
+    }
+
+    // The new roads are found by searches without the index being rebuilt.
+    assertEquals(1500, elements.find()
+      .types("transportWay")
+      .bounds(-1, -1, 102, 102)
+      .get()
+      .size()
+    );
+
+    assertSame(tree, elements.transportWaysTree());
+    assertEquals(1500, tree.size());
+
+    for (int i = 0; i < 500; i++) {
+      elements.add(road(random.nextFloat() * 100, random.nextFloat() * 100));
+    }
+
+    // The store has now doubled in size, so the index is built anew.
+    assertNotSame(tree, elements.transportWaysTree());
+    assertEquals(2000, elements.transportWaysTree().size());
+  }
+}
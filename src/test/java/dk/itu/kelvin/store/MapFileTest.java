@@ -0,0 +1,501 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// I/O utilities
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// JUnit annotations
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+// Utilities
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Main
+import dk.itu.kelvin.Main;
+
+/**
+ * {@link MapFile} test suite.
+ */
+public final class MapFileTest {
+  /**
+   * Temporary folder for map files.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * Write a map file to memory and read it back.
+   *
+   * @param map The map file to write.
+   * @return    The map file read back.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static MapFile roundTrip(final MapFile map) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    map.write(output);
+
+    return MapFile.read(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  /**
+   * Test that elements, tags, roles, addresses and graphs survive a round
+   * trip.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    Node a = new Node(1, 1);
+    Node b = new Node(2, 1);
+    Node c = new Node(2, 2);
+
+    Way road = new Way();
+    road.add(Arrays.asList(a, b, c));
+    road.tag("highway", "primary");
+    road.tag("name", "Rued Langgaards Vej");
+
+    Way building = new Way();
+    building.add(Arrays.asList(a, c, b, a));
+    building.tag("building", "yes");
+
+    Node cafe = new Node(1.5f, 1.5f);
+    cafe.tag("amenity", "cafe");
+
+    Relation relation = new Relation();
+    relation.add(building, "outer");
+    relation.add(cafe);
+    relation.tag("type", "multipolygon");
+
+    ElementStore elements = new ElementStore();
+    elements.add(road);
+    elements.add(building);
+    elements.add(cafe);
+    elements.add(relation);
+
+    AddressStore addresses = new AddressStore();
+    Address address = Address.parse("Rued Langgaards Vej 7, 2300 København");
+    address.x(1);
+    address.y(2);
+    addresses.add(address);
+
+    BoundingBox bounds = new BoundingBox(0, 0, 3, 3);
+
+    MapFile map = roundTrip(new MapFile(bounds, elements, addresses));
+
+    assertEquals(0, map.bounds().minX(), 0);
+    assertEquals(3, map.bounds().maxY(), 0);
+
+    List<Element> found = map.elements().find()
+      .types("transportWay", "way", "relation")
+      .bounds(0, 0, 3, 3)
+      .get();
+
+    assertEquals(3, found.size());
+
+    Way readRoad = (Way) found.get(0);
+    Way readBuilding = (Way) found.get(1);
+    Relation readRelation = (Relation) found.get(2);
+
+    assertEquals("primary", readRoad.tag("highway"));
+    assertEquals("Rued Langgaards Vej", readRoad.tag("name"));
+    assertEquals(3, readRoad.nodes().size());
+    assertEquals(2, readRoad.maxX(), 0);
+
+    // The nodes of ways are read back as packed coordinates, so nodes shared
+    // between ways are equal rather than the same.
+    assertNotNull(readRoad.geometry());
+    assertEquals(readRoad.nodes().get(0), readBuilding.nodes().get(0));
+    assertEquals(readBuilding.nodes().get(0), readBuilding.nodes().get(3));
+
+    assertSame(readBuilding, readRelation.members().get(0));
+    assertEquals("outer", readRelation.role(0));
+    assertNull(readRelation.role(1));
+    assertEquals("cafe", readRelation.members().get(1).tag("amenity"));
+    assertFalse(readRelation.members().get(1) == cafe);
+
+    // Untagged nodes are read back without tags.
+    assertFalse(readRoad.nodes().get(1).isTagged());
+
+    assertEquals(1, map.elements().find()
+      .types("poi")
+      .tag("cafe")
+      .bounds(0, 0, 3, 3)
+      .get()
+      .size()
+    );
+
+    assertTrue(map.elements().carGraph().neighbours(new Node(1, 1)) != null);
+    assertEquals(1, map.elements().carGraph().edges().size());
+    assertEquals(1, map.elements().bycicleGraph().edges().size());
+
+    List<Address> results = map.addresses().search("Rued Langgaards Vej 7");
+    assertEquals(1, results.size());
+    assertEquals("2300", results.get(0).postcode());
+    assertEquals(2, results.get(0).y(), 0);
+  }
+
+  /**
+   * Test that the routing graphs are read as packed graphs, which are
+   * replaced by mutable graphs once the store is changed, and that reading a
+   * map file into a store that already has elements adds to its graphs.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testGraphs() throws IOException {
+    Way first = new Way();
+    first.add(Arrays.asList(new Node(0, 0), new Node(1, 0)));
+    first.tag("highway", "residential");
+
+    ElementStore elements = new ElementStore();
+    elements.add(first);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new MapFile(null, elements, new AddressStore()).write(output);
+
+    // Only the packed graphs are written, not their edges.
+    ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+    buffer.position(8);
+
+    int count = buffer.getInt();
+
+    for (int i = 0; i < count; i++) {
+      int id = buffer.getInt();
+      int length = buffer.getInt();
+
+      assertNotNull(MapFile.Section.of(id));
+      buffer.position(buffer.position() + length);
+    }
+
+    ElementStore read = MapFile.read(
+      new ByteArrayInputStream(output.toByteArray())
+    ).elements();
+
+    assertTrue(read.carGraph() instanceof PackedGraph);
+    assertEquals(1, read.carGraph().edges().size());
+
+    // The edges of a map file read into a store that already has elements
+    // are added to those of the store.
+    Way distant = new Way();
+    distant.add(Arrays.asList(new Node(5, 5), new Node(6, 6)));
+    distant.tag("highway", "residential");
+
+    ElementStore other = new ElementStore();
+    other.add(distant);
+
+    output.reset();
+    new MapFile(null, other, new AddressStore()).write(output);
+
+    read.read(new ByteArrayInputStream(output.toByteArray()));
+
+    assertFalse(read.carGraph() instanceof PackedGraph);
+    assertEquals(2, read.carGraph().edges().size());
+    assertNotNull(read.carGraph().neighbours(new Node(5, 5)));
+
+    Way second = new Way();
+    second.add(Arrays.asList(new Node(1, 0), new Node(1, 1)));
+    second.tag("highway", "residential");
+
+    read.add(second);
+
+    assertEquals(3, read.carGraph().edges().size());
+    assertEquals(2, read.bycicleGraph().neighbours(new Node(1, 0)).size());
+  }
+
+  /**
+   * Test that a mapped map file is searched, routed and saved like one read
+   * into memory, and that it's read-only.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testMapped() throws IOException {
+    Node a = new Node(1, 1);
+    Node b = new Node(2, 1);
+    Node c = new Node(5, 5);
+
+    Way road = new Way();
+    road.add(Arrays.asList(a, b));
+    road.tag("highway", "residential");
+
+    Way street = new Way();
+    street.add(Arrays.asList(b, c));
+    street.tag("highway", "primary");
+
+    Way building = new Way();
+    building.add(Arrays.asList(a, b, c, a));
+    building.tag("building", "yes");
+
+    Relation relation = new Relation();
+    relation.add(building, "outer");
+    relation.tag("type", "multipolygon");
+
+    Node cafe = new Node(4, 4);
+    cafe.tag("amenity", "cafe");
+
+    ElementStore elements = new ElementStore();
+    elements.add(road);
+    elements.add(street);
+    elements.add(building);
+    elements.add(relation);
+    elements.add(cafe);
+
+    File file = FOLDER.newFile("mapped.bin");
+
+    try (OutputStream output = new FileOutputStream(file)) {
+      new MapFile(
+        new BoundingBox(0, 0, 6, 6), elements, new AddressStore()
+      ).write(output);
+    }
+
+    MapFile map = MapFile.map(file);
+
+    assertEquals(6, map.bounds().maxX(), 0);
+
+    // Only the road's bounding box intersects these bounds.
+    List<Element> found = map.elements().find()
+      .types("transportWay")
+      .bounds(0, 0, 1.5f, 1.5f)
+      .get();
+
+    assertEquals(1, found.size());
+    assertEquals("residential", found.get(0).tag("highway"));
+
+    found = map.elements().find()
+      .types("way", "relation")
+      .bounds(0, 0, 6, 6)
+      .get();
+
+    assertEquals(2, found.size());
+    assertEquals("yes", found.get(0).tag("building"));
+    assertEquals(4, ((Way) found.get(0)).nodes().size());
+    assertEquals("outer", ((Relation) found.get(1)).role(0));
+
+    assertEquals(1, map.elements().find()
+      .types("poi")
+      .tag("cafe")
+      .bounds(3, 3, 6, 6)
+      .get()
+      .size()
+    );
+
+    Way nearest = map.elements().transportWaysTree().nearest(
+      new SpatialIndex.Point(5, 4)
+    );
+
+    assertEquals("primary", nearest.tag("highway"));
+
+    // The graphs are decoded on first use and connect ways by coordinates.
+    assertEquals(2, map.elements().carGraph().edges().size());
+    assertTrue(map.elements().carGraph().neighbours(new Node(2, 1)) != null);
+
+    // Mapped stores are read-only.
+    boolean readOnly = false;
+
+    try {
+      map.elements().add(new Node(0, 0));
+    }
+    catch (UnsupportedOperationException ex) {
+      readOnly = true;
+    }
+
+    assertTrue(readOnly);
+
+    // Saving a mapped map file copies it as-is.
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    map.write(output);
+
+    assertEquals(file.length(), output.size());
+    assertEquals(2, roundTrip(map).elements().find()
+      .types("transportWay")
+      .bounds(0, 0, 6, 6)
+      .get()
+      .size()
+    );
+  }
+
+  /**
+   * Test that the bundled default map can be read.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testDefaultMap() throws IOException {
+    MapFile map;
+
+    try (InputStream input = Main.class.getResourceAsStream("defaultMap.bin")) {
+      map = MapFile.read(input);
+    }
+
+    assertTrue(map.bounds() != null);
+
+    // The indexes are restored from the map file rather than rebuilt.
+    assertTrue(map.elements().transportWaysTree() instanceof PackedIndex);
+    assertFalse(map.elements().find()
+      .types("way")
+      .bounds(map.bounds().minX(), map.bounds().minY(),
+              map.bounds().maxX(), map.bounds().maxY())
+      .get()
+      .isEmpty()
+    );
+  }
+
+  /**
+   * Test that the stores are handed to a listener in stages, the land first.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testListener() throws IOException {
+    Way land = new Way();
+    land.add(Arrays.asList(
+      new Node(0, 0), new Node(3, 0), new Node(3, 3), new Node(0, 0)
+    ));
+    land.tag("land", "yes");
+
+    Way road = new Way();
+    road.add(Arrays.asList(new Node(1, 1), new Node(2, 1)));
+    road.tag("highway", "primary");
+
+    Node cafe = new Node(1.5f, 1.5f);
+    cafe.tag("amenity", "cafe");
+
+    ElementStore elements = new ElementStore();
+    elements.addLand(land);
+    elements.add(road);
+    elements.add(cafe);
+
+    AddressStore addresses = new AddressStore();
+    Address address = Address.parse("Rued Langgaards Vej 7, 2300 København");
+    address.x(1);
+    address.y(2);
+    addresses.add(address);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new MapFile(new BoundingBox(0, 0, 3, 3), elements, addresses)
+      .write(output);
+
+    List<String> stages = new ArrayList<>();
+
+    MapFile map = MapFile.read(
+      new ByteArrayInputStream(output.toByteArray()),
+      new MapFile.Listener() {
+        @Override
+        public void onLand(
+          final BoundingBox bounds,
+          final ElementStore elements
+        ) {
+          assertEquals(3, bounds.maxX(), 0);
+
+          // The land can be searched before the remaining elements arrive.
+          assertEquals(1, elements.find()
+            .types("land").bounds(0, 0, 3, 3).get().size()
+          );
+          assertEquals(0, elements.find()
+            .types("transportWay").bounds(0, 0, 3, 3).get().size()
+          );
+
+          stages.add("land");
+        }
+
+        @Override
+        public void onElements(final ElementStore elements) {
+          stages.add("elements");
+        }
+
+        @Override
+        public void onAddresses(final AddressStore addresses) {
+          assertEquals(1, addresses.search("Rued Langgaards Vej").size());
+
+          stages.add("addresses");
+        }
+      }
+    );
+
+    assertEquals(Arrays.asList(
+      "land", "elements", "elements", "elements", "elements", "addresses"
+    ), stages);
+
+    assertEquals(1, map.elements().find()
+      .types("transportWay").bounds(0, 0, 3, 3).get().size()
+    );
+    assertEquals(1, map.elements().find()
+      .types("poi").tag("cafe").bounds(0, 0, 3, 3).get().size()
+    );
+  }
+
+  /**
+   * Test that invalid map files are rejected.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testInvalid() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new MapFile(null, new ElementStore(), new AddressStore()).write(output);
+    byte[] valid = output.toByteArray();
+
+    byte[] magic = valid.clone();
+    magic[0] = 0;
+
+    byte[] version = valid.clone();
+    version[7]++;
+
+    byte[][] invalid = {
+      magic,
+      version,
+      Arrays.copyOf(valid, valid.length - 1),
+      new byte[0]
+    };
+
+    for (byte[] bytes: invalid) {
+      try {
+        MapFile.read(new ByteArrayInputStream(bytes));
+        fail();
+      }
+      catch (IOException ex) {
+        continue;
+      }
+    }
+
+    assertNull(MapFile.read(new ByteArrayInputStream(valid)).bounds());
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// I/O utilities
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+// Utilities
+import dk.itu.kelvin.util.Graph;
+import dk.itu.kelvin.util.ShortestPath;
+import dk.itu.kelvin.util.WeightedGraph;
+
+// Models
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link PackedGraph} test suite.
+ */
+public final class PackedGraphTest {
+  /**
+   * Test that packed graphs hold the same links as the graphs they were
+   * packed from.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testPackAndRead() throws IOException {
+    Way main = new Way();
+    main.add(Arrays.asList(
+      new Node(0, 0), new Node(10, 0), new Node(20, 0), new Node(30, 0)
+    ));
+    main.tag("highway", "residential");
+
+    Way side = new Way();
+    side.add(Arrays.asList(new Node(10, 0), new Node(10, 10)));
+    side.tag("highway", "residential");
+
+    Way oneway = new Way();
+    oneway.add(Arrays.asList(
+      new Node(20, 0), new Node(20, 10), new Node(10, 10)
+    ));
+    oneway.tag("highway", "residential");
+    oneway.tag("oneway", "yes");
+
+    List<Way> ways = Arrays.asList(main, side, oneway);
+
+    Properties car = new Properties();
+    car.setProperty("bicycle", "no");
+
+    Properties bicycle = new Properties();
+    bicycle.setProperty("bicycle", "yes");
+
+    List<Graph<Node, Way>> graphs = new ArrayList<>();
+    graphs.add(new WeightedGraph<>(car));
+    graphs.add(new WeightedGraph<>(bicycle));
+
+    for (Graph<Node, Way> graph: graphs) {
+      for (Way way: ways) {
+        graph.add(way);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    PackedGraph.pack(graphs, ways, (way) -> {
+      return ways.indexOf(way);
+    }, new DataOutputStream(bytes));
+
+    List<PackedGraph> packed = PackedGraph.read(
+      ByteBuffer.wrap(bytes.toByteArray()), (index) -> {
+        return ways.get(index);
+      }
+    );
+
+    assertEquals(2, packed.size());
+
+    for (int i = 0; i < graphs.size(); i++) {
+      for (Way way: ways) {
+        for (Node node: way.nodes()) {
+          assertEquals(
+            graphs.get(i).neighbours(node), packed.get(i).neighbours(node)
+          );
+        }
+      }
+
+      assertEquals(3, packed.get(i).edges().size());
+    }
+
+    // Cars can't leave the end of the one-way street the wrong way.
+    Node end = new Node(20, 10);
+    Map<Node, Way> links = packed.get(0).neighbours(end);
+
+    assertEquals(1, links.size());
+    assertSame(oneway, links.get(new Node(10, 10)));
+    assertEquals(2, packed.get(1).neighbours(end).size());
+
+    assertNull(packed.get(0).neighbours(new Node(5, 5)));
+    assertNull(packed.get(0).neighbours(null));
+
+    // Routes are the same as on the original graph.
+    List<Node> path = new ShortestPath<>(
+      packed.get(0), new Node(0, 0), new Node(10, 10), car
+    ).path();
+
+    assertEquals(
+      new ShortestPath<>(
+        graphs.get(0), new Node(0, 0), new Node(10, 10), car
+      ).path(),
+      path
+    );
+  }
+
+  /**
+   * Test that empty graphs can be packed and that packed graphs can't be
+   * changed.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testReadOnly() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    List<Graph<Node, Way>> graphs = new ArrayList<>();
+    graphs.add(new WeightedGraph<>());
+
+    PackedGraph.pack(graphs, new ArrayList<>(), (way) -> {
+      return 0;
+    }, new DataOutputStream(bytes));
+
+    PackedGraph graph = PackedGraph.read(
+      ByteBuffer.wrap(bytes.toByteArray()), (index) -> {
+        return null;
+      }
+    ).get(0);
+
+    assertEquals(0, graph.edges().size());
+    assertNull(graph.neighbours(new Node(0, 0)));
+
+    Way road = new Way();
+    road.add(Arrays.asList(new Node(0, 0), new Node(1, 1)));
+    road.tag("highway", "residential");
+
+    try {
+      graph.add(road);
+      fail();
+    }
+    catch (UnsupportedOperationException ex) {
+      assertEquals("Packed graphs are read-only", ex.getMessage());
+    }
+  }
+
+  /**
+   * Test that nodes whose coordinates cannot be encoded are packed as they
+   * are.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testUnencodedNodes() throws IOException {
+    Way way = new Way();
+    way.add(Arrays.asList(new Node(0.1f, 0.2f), new Node(1.3f, 0.2f)));
+    way.tag("highway", "residential");
+    List<Way> ways = Arrays.asList(way);
+
+    List<Graph<Node, Way>> graphs = new ArrayList<>();
+    graphs.add(new WeightedGraph<>());
+    graphs.get(0).add(way);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    PackedGraph.pack(graphs, ways, (edge) -> {
+      return 0;
+    }, new DataOutputStream(bytes));
+
+    PackedGraph graph = PackedGraph.read(
+      ByteBuffer.wrap(bytes.toByteArray()), (index) -> {
+        return ways.get(index);
+      }
+    ).get(0);
+
+    assertSame(way, graph.neighbours(new Node(0.1f, 0.2f)).get(
+      new Node(1.3f, 0.2f)
+    ));
+  }
+}
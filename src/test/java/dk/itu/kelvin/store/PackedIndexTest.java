@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// I/O utilities
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// NIO utilities
+import java.nio.ByteBuffer;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// Utilities
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Models
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link PackedIndex} test suite.
+ */
+public final class PackedIndexTest {
+  /**
+   * Pack a list of elements into an index, reordering the list in the order
+   * in which the elements were packed.
+   *
+   * @param <E>       The type of elements to pack.
+   * @param elements  The elements to pack.
+   * @return          The packed index.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static <E extends Way> PackedIndex<E> pack(
+    final List<E> elements
+  ) throws IOException {
+    float[] boxes = new float[4 * elements.size()];
+
+    for (int i = 0; i < elements.size(); i++) {
+      for (int c = 0; c < 4; c++) {
+        boxes[4 * i + c] = PackedIndex.coordinate(elements.get(i), c);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int[] order = PackedIndex.pack(boxes, new DataOutputStream(bytes));
+
+    List<E> packed = new ArrayList<>();
+
+    for (int i: order) {
+      packed.add(elements.get(i));
+    }
+
+    elements.clear();
+    elements.addAll(packed);
+
+    return PackedIndex.of(ByteBuffer.wrap(bytes.toByteArray()), 0, elements);
+  }
+
+  /**
+   * Create a list of random, short ways.
+   *
+   * @param n The number of ways to create.
+   * @return  The list of ways.
+   */
+  private static List<Way> ways(final int n) {
+    Random random = new Random(42);
+    List<Way> ways = new ArrayList<>();
+
+    for (int i = 0; i < n; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      float dx = random.nextFloat() * 10;
+      float dy = random.nextFloat() * 10;
+
+      Way way = new Way();
+      way.add(new Node(x, y));
+      way.add(new Node(x + dx, y + dy));
+      ways.add(way);
+    }
+
+    return ways;
+  }
+
+  /**
+   * Test that range queries find exactly the elements whose bounding boxes
+   * intersect the bounds.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testRange() throws IOException {
+    List<Way> ways = ways(5000);
+    PackedIndex<Way> index = pack(ways);
+
+    assertEquals(5000, index.size());
+
+    Random random = new Random(7);
+
+    for (int i = 0; i < 50; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      SpatialIndex.Bounds bounds = new SpatialIndex.Bounds(
+        x, y, x + random.nextFloat() * 100, y + random.nextFloat() * 100
+      );
+
+      int expected = 0;
+
+      for (Way way: ways) {
+        if (bounds.intersects(way.bounds())) {
+          expected++;
+        }
+      }
+
+      assertEquals(expected, index.range(bounds).size());
+    }
+
+    assertTrue(index.contains(ways.get(1234)));
+    assertFalse(index.contains(ways(1).get(0)));
+  }
+
+  /**
+   * Test that nearest neighbour queries find the closest included element.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testNearest() throws IOException {
+    List<Way> ways = ways(2000);
+    PackedIndex<Way> index = pack(ways);
+
+    Random random = new Random(7);
+
+    for (int i = 0; i < 50; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 1000, random.nextFloat() * 1000
+      );
+
+      double expected = Double.POSITIVE_INFINITY;
+
+      for (Way way: ways) {
+        expected = Math.min(expected, way.distance(point));
+      }
+
+      assertEquals(expected, index.nearest(point).distance(point), 1e-9);
+    }
+
+    Way last = ways.get(ways.size() - 1);
+
+    assertSame(last, index.nearest(new SpatialIndex.Point(0, 0), (way) -> {
+      return way == last;
+    }));
+  }
+
+  /**
+   * Test that k-nearest neighbour queries find the k closest included
+   * elements within the radius, closest first.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testNearestK() throws IOException {
+    List<Way> ways = ways(2000);
+    PackedIndex<Way> index = pack(ways);
+
+    Random random = new Random(7);
+
+    for (int i = 0; i < 50; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 1000, random.nextFloat() * 1000
+      );
+
+      List<Double> expected = new ArrayList<>();
+
+      for (Way way: ways) {
+        expected.add(way.distance(point));
+      }
+
+      Collections.sort(expected);
+
+      List<Way> nearest = index.nearest(point, 8, (way) -> {
+        return true;
+      });
+
+      assertEquals(8, nearest.size());
+
+      for (int j = 0; j < nearest.size(); j++) {
+        assertEquals(expected.get(j), nearest.get(j).distance(point), 1e-9);
+      }
+
+      assertEquals(3, index.nearest(point, 8, expected.get(2), (way) -> {
+        return true;
+      }).size());
+    }
+  }
+
+  /**
+   * Test that empty indexes and trees of a single leaf are handled.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testSmall() throws IOException {
+    PackedIndex<Way> empty = pack(new ArrayList<>());
+
+    assertTrue(empty.isEmpty());
+    assertTrue(empty.range(new SpatialIndex.Bounds(0, 0, 1, 1)).isEmpty());
+    assertNull(empty.nearest(new SpatialIndex.Point(0, 0)));
+
+    List<Way> ways = ways(PackedIndex.FANOUT);
+    PackedIndex<Way> leaf = pack(ways);
+
+    assertEquals(
+      PackedIndex.FANOUT,
+      leaf.range(new SpatialIndex.Bounds(0, 0, 2000, 2000)).size()
+    );
+  }
+}
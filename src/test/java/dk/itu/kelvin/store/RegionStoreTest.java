@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// I/O utilities
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// JUnit annotations
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Utilities
+import dk.itu.kelvin.util.ShortestPath;
+import dk.itu.kelvin.util.SpatialIndex;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link RegionStore} test suite.
+ */
+public final class RegionStoreTest {
+  /**
+   * Temporary folder for map files.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * The map file of the western region.
+   */
+  private static File west;
+
+  /**
+   * The map file of the eastern region.
+   */
+  private static File east;
+
+  /**
+   * Write the map file of a region spanning 10 units from the specified
+   * x-coordinate, containing a road across the region and a cafe.
+   *
+   * @param name    The name of the file.
+   * @param minX    The minimum x-coordinate of the region.
+   * @param street  The street of the address of the region.
+   * @return        The map file.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static File region(
+    final String name,
+    final float minX,
+    final String street
+  ) throws IOException {
+    Way road = new Way();
+    road.add(Arrays.asList(new Node(minX, 1), new Node(minX + 10, 1)));
+    road.tag("highway", "primary");
+
+    Node cafe = new Node(minX + 5, 2);
+    cafe.tag("amenity", "cafe");
+
+    ElementStore elements = new ElementStore();
+    elements.add(road);
+    elements.add(cafe);
+
+    AddressStore addresses = new AddressStore();
+    Address address = Address.parse(street + " 7, 2300 København");
+    address.x(minX + 5);
+    address.y(3);
+    addresses.add(address);
+
+    BoundingBox bounds = new BoundingBox(minX, 0, minX + 10, 10);
+
+    File file = FOLDER.newFile(name);
+
+    try (OutputStream out = new FileOutputStream(file)) {
+      new MapFile(bounds, elements, addresses).write(out);
+    }
+
+    return file;
+  }
+
+  /**
+   * Get a region store of the western and eastern regions.
+   *
+   * @param budget  The memory budget of the store.
+   * @return        The region store.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static RegionStore regions(final long budget) throws IOException {
+    if (west == null) {
+      west = region("west.bin", 0, "Rued Langgaards Vej");
+      east = region("east.bin", 10, "Njalsgade");
+    }
+
+    RegionStore regions = new RegionStore(budget);
+    regions.add(west);
+    regions.add(east);
+
+    return regions;
+  }
+
+  /**
+   * Test that searches are routed to the regions they intersect, which are
+   * only loaded when searched.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testRange() throws IOException {
+    RegionStore regions = regions(Long.MAX_VALUE);
+    ElementStore elements = regions.elements();
+
+    assertEquals(2, regions.size());
+    assertEquals(0, regions.loaded());
+
+    assertEquals(0, regions.bounds().minX(), 0);
+    assertEquals(20, regions.bounds().maxX(), 0);
+
+    // The addresses of all regions are available up front.
+    assertEquals(1, regions.addresses().search("Njalsgade").size());
+    assertEquals(0, regions.loaded());
+
+    List<Element> cafes = elements.find()
+      .types("poi").tag("cafe").bounds(0, 0, 8, 10).get();
+
+    assertEquals(1, cafes.size());
+    assertEquals(5, ((Node) cafes.get(0)).x(), 0);
+    assertEquals(1, regions.loaded());
+
+    assertEquals(2, elements.find()
+      .types("transportWay").bounds(8, 0, 12, 10).get().size()
+    );
+    assertEquals(2, regions.loaded());
+  }
+
+  /**
+   * Test that the least recently used regions are unloaded when the loaded
+   * regions exceed the budget.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testEviction() throws IOException {
+    RegionStore probe = regions(Long.MAX_VALUE);
+    probe.elements().find().types("poi").bounds(0, 0, 20, 10).get();
+
+    // Room for one region only.
+    long budget = probe.used() / 2 + 1;
+
+    RegionStore regions = regions(budget);
+    ElementStore elements = regions.elements();
+
+    elements.find().types("poi").tag("cafe").bounds(0, 0, 8, 10).get();
+    assertEquals(1, regions.loaded());
+
+    List<Element> cafes = elements.find()
+      .types("poi").tag("cafe").bounds(12, 0, 20, 10).get();
+
+    assertEquals(1, cafes.size());
+    assertEquals(15, ((Node) cafes.get(0)).x(), 0);
+    assertEquals(1, regions.loaded());
+    assertTrue(regions.used() <= budget);
+
+    // A single search spanning both regions keeps both loaded until the next
+    // search.
+    assertEquals(2, elements.find()
+      .types("poi").tag("cafe").bounds(0, 0, 20, 10).get().size()
+    );
+  }
+
+  /**
+   * Test that nearest neighbour searches find elements in other regions.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testNearest() throws IOException {
+    RegionStore regions = regions(Long.MAX_VALUE);
+    SpatialIndex<Way> roads = regions.elements().transportWaysTree();
+
+    Way road = roads.nearest(new SpatialIndex.Point(17, 30));
+
+    assertNotNull(road);
+    assertEquals(10, road.minX(), 0);
+  }
+
+  /**
+   * Test that routes cross the border between regions.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testRouting() throws IOException {
+    RegionStore regions = regions(Long.MAX_VALUE);
+    ElementStore elements = regions.elements();
+
+    Node border = new Node(10, 1);
+    Map<Node, Way> neighbours = elements.carGraph().neighbours(border);
+
+    assertNotNull(neighbours);
+    assertEquals(2, neighbours.size());
+
+    Properties properties = new Properties();
+    properties.setProperty("bicycle", "no");
+
+    List<Node> path = new ShortestPath<>(
+      elements.carGraph(), new Node(0, 1), new Node(20, 1), properties
+    ).path();
+
+    assertNotNull(path);
+    assertEquals(3, path.size());
+  }
+}
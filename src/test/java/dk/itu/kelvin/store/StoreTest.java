@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Arrays;
+import java.util.Random;
+
+// Functional utilities
+import java.util.function.Function;
+
+// Concurrency utilities
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// I/O utilities
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// JUnit annotations
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Threading
+import dk.itu.kelvin.thread.TaskQueue;
+
+// Functional utilities
+import dk.itu.kelvin.util.function.Callback;
+
+// Models
+import dk.itu.kelvin.model.Address;
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link Store} test suite.
+ */
+public final class StoreTest {
+  /**
+   * Temporary folder for saved stores.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * The number of points of interest in the test store, enough for the saved
+   * store to span several chunks.
+   */
+  private static final int POIS = 100000;
+
+  /**
+   * Start up the task queue before the tests.
+   */
+  @BeforeClass
+  public static void before() {
+    TaskQueue.startup();
+  }
+
+  /**
+   * Shut down the task queue after the tests.
+   */
+  @AfterClass
+  public static void after() {
+    TaskQueue.shutdown();
+  }
+
+  /**
+   * Create an element store with a road and a large number of cafes.
+   *
+   * @return The element store.
+   */
+  private static ElementStore store() {
+    ElementStore elements = new ElementStore();
+    Random random = new Random(42);
+
+    for (int i = 0; i < POIS; i++) {
+      Node cafe = new Node(random.nextFloat() * 100, random.nextFloat() * 100);
+      cafe.tag("amenity", "cafe");
+      elements.add(cafe);
+    }
+
+    Way road = new Way();
+    road.add(Arrays.asList(new Node(1, 1), new Node(2, 1)));
+    road.tag("highway", "primary");
+    elements.add(road);
+
+    return elements;
+  }
+
+  /**
+   * Run a save or load and wait for it to finish.
+   *
+   * @param operation The save or load to run, given its callback.
+   * @return          The handle of the save or load.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private static Store.Handle await(
+    final Function<Callback, Store.Handle> operation
+  ) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+
+    Store.Handle handle = operation.apply(() -> {
+      latch.countDown();
+    });
+
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    assertTrue(handle.done());
+
+    return handle;
+  }
+
+  /**
+   * Test that a saved element store can be loaded into another store.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testElementStore() throws Exception {
+    File file = new File(FOLDER.getRoot(), "elements.bin");
+    ElementStore elements = store();
+
+    Store.Handle saved = await((callback) -> {
+      return elements.save(file, callback);
+    });
+
+    assertNull(saved.error());
+    assertEquals(1, saved.fraction(), 0);
+    assertTrue(file.exists());
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    ElementStore loaded = new ElementStore();
+
+    Store.Handle handle = await((callback) -> {
+      return loaded.load(file, callback);
+    });
+
+    assertNull(handle.error());
+    assertEquals(1, handle.fraction(), 0);
+
+    assertEquals(POIS, loaded.find()
+      .types("poi")
+      .tag("cafe")
+      .bounds(0, 0, 100, 100)
+      .get()
+      .size()
+    );
+
+    assertEquals(1, loaded.find()
+      .types("transportWay")
+      .bounds(0, 0, 3, 3)
+      .get()
+      .size()
+    );
+
+    assertEquals(1, loaded.carGraph().edges().size());
+  }
+
+  /**
+   * Test that a saved address store can be loaded into another store.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testAddressStore() throws Exception {
+    File file = new File(FOLDER.getRoot(), "addresses.bin");
+
+    AddressStore addresses = new AddressStore();
+    addresses.add(Address.parse("Rued Langgaards Vej 7, 2300 København"));
+
+    assertNull(await((callback) -> {
+      return addresses.save(file, callback);
+    }).error());
+
+    AddressStore loaded = new AddressStore();
+
+    assertNull(await((callback) -> {
+      return loaded.load(file, callback);
+    }).error());
+
+    assertEquals(1, loaded.search("Rued Langgaards Vej 7").size());
+  }
+
+  /**
+   * Test that corrupt chunks are detected when loading.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testCorrupt() throws Exception {
+    File file = new File(FOLDER.getRoot(), "corrupt.bin");
+    ElementStore elements = store();
+
+    assertNull(await((callback) -> {
+      return elements.save(file, callback);
+    }).error());
+
+    try (RandomAccessFile bytes = new RandomAccessFile(file, "rw")) {
+      long position = file.length() / 2;
+
+      bytes.seek(position);
+      int b = bytes.read();
+      bytes.seek(position);
+      bytes.write(b ^ 0xFF);
+    }
+
+    Store.Handle handle = await((callback) -> {
+      return new ElementStore().load(file, callback);
+    });
+
+    assertTrue(handle.error() instanceof IOException);
+
+    File missing = new File(FOLDER.getRoot(), "missing.bin");
+
+    assertTrue(await((callback) -> {
+      return new ElementStore().load(missing, callback);
+    }).error() instanceof IOException);
+  }
+
+  /**
+   * Test that a saved map file can be mapped and saved over while mapped, and
+   * that failed saves are reported through the handle.
+   *
+   * @throws Exception In case of an error.
+   */
+  @Test
+  public void testMapFile() throws Exception {
+    File file = new File(FOLDER.getRoot(), "map.bin");
+    MapFile map = new MapFile(
+      new BoundingBox(0, 0, 100, 100), store(), new AddressStore()
+    );
+
+    Store.Handle saved = await((callback) -> {
+      return map.save(file, callback);
+    });
+
+    assertNull(saved.error());
+    assertTrue(saved.done());
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    MapFile mapped = MapFile.map(file);
+
+    assertNull(await((callback) -> {
+      return mapped.save(file, callback);
+    }).error());
+
+    assertEquals(POIS, MapFile.map(file).elements().find()
+      .types("poi")
+      .tag("cafe")
+      .bounds(0, 0, 100, 100)
+      .get()
+      .size()
+    );
+
+    File missing = new File(new File(FOLDER.getRoot(), "missing"), "map.bin");
+
+    assertTrue(await((callback) -> {
+      return map.save(missing, callback);
+    }).error() instanceof IOException);
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.store;
+
+// General utilities
+import java.util.Arrays;
+import java.util.List;
+
+// I/O utilities
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// JUnit annotations
+import org.junit.ClassRule;
+import org.junit.Test;
+
+// JUnit rules
+import org.junit.rules.TemporaryFolder;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Models
+import dk.itu.kelvin.model.BoundingBox;
+import dk.itu.kelvin.model.Element;
+import dk.itu.kelvin.model.Node;
+import dk.itu.kelvin.model.Relation;
+import dk.itu.kelvin.model.Way;
+
+/**
+ * {@link TileCache} test suite.
+ */
+public final class TileCacheTest {
+  /**
+   * Temporary folder for tile caches.
+   */
+  @ClassRule
+  public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+  /**
+   * Generate and map the tile cache of an element store.
+   *
+   * @param elements  The element store.
+   * @return          The tile cache of the element store.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  private static TileCache tiles(
+    final ElementStore elements
+  ) throws IOException {
+    File file = FOLDER.newFile();
+
+    try (OutputStream out = new FileOutputStream(file)) {
+      TileCache.write(elements, 256, out);
+    }
+
+    return TileCache.map(file);
+  }
+
+  /**
+   * Test that tiles hold the elements intersecting them in the order in which
+   * they're drawn, and that closed ways are clipped to the tiles.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testTiles() throws IOException {
+    Way land = new Way();
+    land.add(Arrays.asList(
+      new Node(0, 0),
+      new Node(1000, 0),
+      new Node(1000, 1000),
+      new Node(0, 1000),
+      new Node(0, 0)
+    ));
+
+    Way building = new Way();
+    building.add(Arrays.asList(
+      new Node(10, 10),
+      new Node(20, 10),
+      new Node(20, 20),
+      new Node(10, 20),
+      new Node(10, 10)
+    ));
+    building.tag("building", "yes");
+
+    Way road = new Way();
+    road.add(Arrays.asList(new Node(10, 30), new Node(600, 30)));
+    road.tag("highway", "primary");
+    road.tag("name", "Njalsgade");
+
+    ElementStore elements = new ElementStore();
+    elements.add(new BoundingBox(0, 0, 1000, 1000));
+    elements.addLand(land);
+    elements.add(road);
+    elements.add(building);
+
+    TileCache tiles = tiles(elements);
+
+    assertEquals(256, tiles.tileSize());
+
+    List<Element> first = tiles.tile(0, 0);
+
+    assertEquals(3, first.size());
+
+    for (int i = 1; i < first.size(); i++) {
+      assertTrue(
+        Element.COMPARATOR.compare(first.get(i - 1), first.get(i)) <= 0
+      );
+    }
+
+    for (Element element: first) {
+      if ("primary".equals(element.tag("highway"))) {
+        assertEquals("Njalsgade", element.tag("name"));
+
+        // Open ways are kept whole.
+        assertEquals(600, ((Way) element).maxX(), 0);
+      }
+    }
+
+    // The road reaches into the third tile, the building doesn't.
+    assertEquals(2, tiles.tile(512, 0).size());
+
+    // The land is clipped to the tile and its margin.
+    List<Element> middle = tiles.tile(256, 256);
+
+    assertEquals(1, middle.size());
+
+    Way clipped = (Way) middle.get(0);
+
+    assertTrue(clipped.isClosed());
+    assertEquals(256 - 16, clipped.minX(), 0);
+    assertEquals(256 - 16, clipped.minY(), 0);
+    assertEquals(512 + 16, clipped.maxX(), 0);
+    assertEquals(512 + 16, clipped.maxY(), 0);
+
+    // Tiles outside the bounds of the map are left out.
+    assertTrue(tiles.tile(1024, 0).isEmpty());
+    assertTrue(tiles.tile(-4096, 0).isEmpty());
+  }
+
+  /**
+   * Test that multipolygon relations are kept along with the roles of their
+   * members, and that other relations are left out.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testRelations() throws IOException {
+    Way outer = new Way();
+    outer.add(Arrays.asList(
+      new Node(10, 10),
+      new Node(90, 10),
+      new Node(90, 90),
+      new Node(10, 90),
+      new Node(10, 10)
+    ));
+
+    Way inner = new Way();
+    inner.add(Arrays.asList(
+      new Node(40, 40),
+      new Node(60, 40),
+      new Node(60, 60),
+      new Node(40, 60),
+      new Node(40, 40)
+    ));
+
+    Relation lake = new Relation();
+    lake.tag("type", "multipolygon");
+    lake.tag("natural", "water");
+    lake.add(outer, "outer");
+    lake.add(inner, "inner");
+
+    Way way = new Way();
+    way.add(Arrays.asList(new Node(10, 50), new Node(90, 50)));
+
+    Relation route = new Relation();
+    route.tag("type", "route");
+    route.add(way);
+
+    ElementStore elements = new ElementStore();
+    elements.add(lake);
+    elements.add(route);
+
+    List<Element> tile = tiles(elements).tile(0, 0);
+
+    assertEquals(1, tile.size());
+
+    Relation relation = (Relation) tile.get(0);
+
+    assertEquals("water", relation.tag("natural"));
+    assertEquals(2, relation.members().size());
+    assertEquals("outer", relation.role(0));
+    assertEquals("inner", relation.role(1));
+    assertEquals(40, ((Way) relation.members().get(1)).minX(), 0);
+  }
+
+  /**
+   * Test that files that aren't tile caches are rejected.
+   *
+   * @throws IOException In case of an I/O error.
+   */
+  @Test
+  public void testInvalid() throws IOException {
+    File file = FOLDER.newFile();
+
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(Arrays.copyOf(new byte[] {'K', 'M', 'A', 'P'}, 64));
+    }
+
+    try {
+      TileCache.map(file);
+      fail();
+    }
+    catch (IOException ex) {
+      assertTrue(ex.getMessage().contains("tile cache"));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// General utilities
+import java.util.Random;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CoordinateCodec} test suite.
+ */
+public final class CoordinateCodecTest {
+  /**
+   * Test that projected coordinates survive a round trip exactly and take up
+   * fewer bytes than floats.
+   */
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(19);
+
+    int n = 2000;
+    float[] coordinates = new float[2 * n];
+
+    // A random walk in the range of projected coordinates in Denmark.
+    float x = 377190;
+    float y = -2019876;
+
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+
+    for (int i = 0; i < n; i++) {
+      x += (random.nextFloat() - 0.5f) * 20;
+      y += (random.nextFloat() - 0.5f) * 20;
+
+      coordinates[2 * i] = x;
+      coordinates[2 * i + 1] = y;
+
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+    }
+
+    byte[] data = CoordinateCodec.encode(coordinates, n, minX, minY);
+
+    assertTrue(data.length < 4 * n);
+
+    float[] decoded = new float[2 * n];
+    CoordinateCodec.decode(data, n, minX, minY, decoded);
+
+    assertArrayEquals(coordinates, decoded, 0);
+
+    // Decoding may stop early.
+    float[] first = new float[2];
+    CoordinateCodec.decode(data, 1, minX, minY, first);
+
+    assertEquals(coordinates[0], first[0], 0);
+    assertEquals(coordinates[1], first[1], 0);
+  }
+
+  /**
+   * Test that coordinates that don't lie on the grid aren't encoded.
+   */
+  @Test
+  public void testOffGrid() {
+    assertNull(CoordinateCodec.encode(new float[] {0.1f, 0}, 1, 0, 0));
+    assertNull(CoordinateCodec.encode(new float[] {1, -0f}, 1, 0, 0));
+    assertNull(CoordinateCodec.encode(new float[] {Float.NaN, 0}, 1, 0, 0));
+    assertNull(CoordinateCodec.encode(new float[] {1, 1}, 1, 0.1f, 0));
+
+    // Coordinates on the grid are encoded even when close to the origin.
+    float[] coordinates = {0.5f, -1.25f, 3, 2};
+    byte[] data = CoordinateCodec.encode(coordinates, 2, 0.5f, -1.25f);
+
+    float[] decoded = new float[4];
+    CoordinateCodec.decode(data, 2, 0.5f, -1.25f, decoded);
+
+    assertArrayEquals(coordinates, decoded, 0);
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CoordinateTable} test suite.
+ */
+public final class CoordinateTableTest {
+  /**
+   * Test adding and finding coordinates in ascending order.
+   */
+  @Test
+  public void testPutAndFind() {
+    CoordinateTable table = new CoordinateTable();
+    assertTrue(table.isEmpty());
+    assertEquals(-1, table.find(1));
+
+    for (int i = 0; i < 5000; i++) {
+      table.put(2 * i, i, -i);
+    }
+
+    assertEquals(5000, table.size());
+    assertFalse(table.isEmpty());
+
+    int i = table.find(2468);
+    assertEquals(2468, table.id(i));
+    assertEquals(1234, table.x(i), 0);
+    assertEquals(-1234, table.y(i), 0);
+
+    assertFalse(table.contains(2467));
+    assertFalse(table.contains(10000));
+  }
+
+  /**
+   * Test finding coordinates added out of order.
+   */
+  @Test
+  public void testUnsorted() {
+    CoordinateTable table = new CoordinateTable();
+
+    for (int i = 1; i <= 3000; i++) {
+      long id = (i * 7919L) % 3001;
+      table.put(id, id, id + 1);
+    }
+
+    for (long id = 1; id < 3001; id++) {
+      int i = table.find(id);
+      assertTrue(i >= 0);
+      assertEquals(id, table.x(i), 0);
+      assertEquals(id + 1, table.y(i), 0);
+    }
+
+    assertFalse(table.contains(0));
+  }
+
+  /**
+   * Test keeping coordinates off the heap across several pages.
+   */
+  @Test
+  public void testOffHeap() {
+    CoordinateTable table = new CoordinateTable(true);
+    int n = (1 << 20) + 10;
+
+    for (int i = n - 1; i >= 0; i--) {
+      table.put(i, i, 2 * i);
+    }
+
+    assertEquals(n, table.size());
+
+    for (int id : new int[] {0, 1, (1 << 20) - 1, 1 << 20, n - 1}) {
+      int i = table.find(id);
+      assertEquals(id, table.id(i));
+      assertEquals(id, table.x(i), 0);
+      assertEquals(2 * id, table.y(i), 0);
+    }
+  }
+}
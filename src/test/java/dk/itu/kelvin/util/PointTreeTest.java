@@ -2,14 +2,18 @@ package dk.itu.kelvin.util;
 
 // General utilities
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 // JUnit annotations
 import dk.itu.kelvin.model.Node;
 import org.junit.Test;
 
 // JUnit assertions
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -141,9 +145,7 @@ public final class PointTreeTest {
     }
 
     PointTree<Node> pointTree = new PointTree<>(nodes);
-    // Bug, when the PointTree size exceed Maximum Bucket size(2048) the
-    // contains method doesn't work.
-    assertFalse(pointTree.contains(new Node(75, 75)));
+    assertTrue(pointTree.contains(new Node(75, 75)));
 
     assertFalse(pointTree.contains(new Node(75, 74)));
     List<Node> expected = new ArrayList<>();
@@ -204,4 +206,282 @@ public final class PointTreeTest {
     assertTrue(result.contains(n1));
     assertFalse(result.contains(n2));
   }
+
+  /**
+   * Count the nodes within the specified bounds.
+   *
+   * @param nodes   The nodes to count.
+   * @param bounds  The bounds.
+   * @return        The number of nodes within the bounds.
+   */
+  private static int count(
+    final List<Node> nodes,
+    final SpatialIndex.Bounds bounds
+  ) {
+    int count = 0;
+
+    for (Node node: nodes) {
+      if (bounds.contains(new SpatialIndex.Point(node.x(), node.y()))) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Test that range queries find exactly the nodes within the bounds, also
+   * after nodes have been added and removed in place.
+   */
+  @Test
+  public void testAddRemove() {
+    Random random = new Random(42);
+    List<Node> nodes = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      nodes.add(new Node(random.nextFloat() * 1000, random.nextFloat() * 1000));
+    }
+
+    PointTree<Node> pointTree = new PointTree<>(nodes.subList(0, 10000));
+
+    for (Node node: nodes.subList(10000, nodes.size())) {
+      pointTree.add(node);
+    }
+
+    List<Node> remaining = new ArrayList<>();
+
+    for (int i = 0; i < nodes.size(); i++) {
+      if (i % 3 == 0) {
+        assertTrue(pointTree.remove(nodes.get(i)));
+      }
+      else {
+        remaining.add(nodes.get(i));
+      }
+    }
+
+    assertFalse(pointTree.remove(nodes.get(0)));
+    assertEquals(remaining.size(), pointTree.size());
+
+    for (Node node: remaining.subList(0, 100)) {
+      assertTrue(pointTree.contains(node));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      SpatialIndex.Bounds bounds = new SpatialIndex.Bounds(
+        x, y, x + random.nextFloat() * 100, y + random.nextFloat() * 100
+      );
+
+      assertEquals(count(remaining, bounds), pointTree.range(bounds).size());
+    }
+  }
+
+  /**
+   * Compute the distance between a node and a point.
+   *
+   * @param node  The node.
+   * @param point The point.
+   * @return      The distance between the node and the point.
+   */
+  private static double distance(
+    final Node node,
+    final SpatialIndex.Point point
+  ) {
+    return Math.hypot(node.x() - point.x(), node.y() - point.y());
+  }
+
+  /**
+   * Test that nearest neighbour searches find the same nodes as a brute force
+   * search, also when filtering nodes and after nodes have been removed.
+   */
+  @Test
+  public void testNearest() {
+    PointTree<Node> pointTree = new PointTree<>(new ArrayList<>());
+    SpatialIndex.Point origin = new SpatialIndex.Point(0, 0);
+
+    assertNull(pointTree.nearest(origin));
+    assertNull(pointTree.nearest(null));
+
+    Random random = new Random(42);
+    List<Node> nodes = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      nodes.add(new Node(random.nextFloat() * 1000, random.nextFloat() * 1000));
+    }
+
+    pointTree = new PointTree<>(nodes);
+
+    List<Node> remaining = new ArrayList<>();
+
+    for (int i = 0; i < nodes.size(); i++) {
+      if (i % 4 == 0) {
+        pointTree.remove(nodes.get(i));
+      }
+      else {
+        remaining.add(nodes.get(i));
+      }
+    }
+
+    for (int i = 0; i < 100; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 1200 - 100, random.nextFloat() * 1200 - 100
+      );
+
+      double closest = Double.POSITIVE_INFINITY;
+      double closestLeft = Double.POSITIVE_INFINITY;
+
+      for (Node node: remaining) {
+        closest = Math.min(closest, distance(node, point));
+
+        if (node.x() < 500) {
+          closestLeft = Math.min(closestLeft, distance(node, point));
+        }
+      }
+
+      assertEquals(closest, distance(pointTree.nearest(point), point), 1e-9);
+
+      Node left = pointTree.nearest(point, (node) -> {
+        return node.x() < 500;
+      });
+
+      assertTrue(left.x() < 500);
+      assertEquals(closestLeft, distance(left, point), 1e-9);
+    }
+
+    assertNull(pointTree.nearest(origin, (node) -> {
+      return false;
+    }));
+  }
+
+  /**
+   * Test that k-nearest neighbour and radius searches find the same nodes as
+   * a brute force search, closest first.
+   */
+  @Test
+  public void testNearestK() {
+    Random random = new Random(42);
+    List<Node> nodes = new ArrayList<>();
+
+    for (int i = 0; i < 5000; i++) {
+      // Round the coordinates to get plenty of nodes on the splitting lines.
+      nodes.add(new Node(random.nextInt(200), random.nextInt(200)));
+    }
+
+    PointTree<Node> pointTree = new PointTree<>(nodes);
+
+    for (int i = 0; i < 50; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 200, random.nextFloat() * 200
+      );
+
+      List<Double> expected = new ArrayList<>();
+
+      for (Node node: nodes) {
+        if (node.y() >= 50) {
+          expected.add(distance(node, point));
+        }
+      }
+
+      Collections.sort(expected);
+
+      List<Node> nearest = pointTree.nearest(point, 20, (node) -> {
+        return node.y() >= 50;
+      });
+
+      assertEquals(20, nearest.size());
+
+      for (int j = 0; j < nearest.size(); j++) {
+        assertTrue(nearest.get(j).y() >= 50);
+        assertEquals(expected.get(j), distance(nearest.get(j), point), 1e-9);
+      }
+
+      // Only the nodes within the radius are found.
+      double radius = 10 + random.nextFloat() * 10;
+      int within = 0;
+
+      for (Node node: nodes) {
+        if (distance(node, point) <= radius) {
+          within++;
+        }
+      }
+
+      List<Node> range = pointTree.range(point, radius);
+
+      assertEquals(within, range.size());
+
+      for (int j = 1; j < range.size(); j++) {
+        assertTrue(
+          distance(range.get(j - 1), point) <= distance(range.get(j), point)
+        );
+      }
+    }
+
+    SpatialIndex.Point origin = new SpatialIndex.Point(0, 0);
+
+    assertEquals(nodes.size(), pointTree.nearest(origin, 10000, (node) -> {
+      return true;
+    }).size());
+
+    assertTrue(pointTree.nearest(origin, 0, (node) -> {
+      return true;
+    }).isEmpty());
+  }
+
+  /**
+   * Test that nearest and k-nearest neighbour searches among tagged points of
+   * interest find the same points of interest as a brute force search.
+   */
+  @Test
+  public void testEquivalence() {
+    String[] amenities = {"cafe", "restaurant", "bar", "pharmacy", "atm"};
+
+    Random random = new Random(42);
+    List<Node> pois = new ArrayList<>();
+
+    for (int i = 0; i < 10000; i++) {
+      Node node = new Node(
+        random.nextFloat() * 10000, random.nextFloat() * 10000
+      );
+      node.tag("amenity", amenities[i % amenities.length]);
+
+      pois.add(node);
+    }
+
+    PointTree<Node> pointTree = new PointTree<>(pois);
+
+    for (int i = 0; i < 50; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 10000, random.nextFloat() * 10000
+      );
+      String amenity = amenities[i % amenities.length];
+
+      double closest = Double.POSITIVE_INFINITY;
+      List<Double> expected = new ArrayList<>();
+
+      for (Node node: pois) {
+        closest = Math.min(closest, distance(node, point));
+
+        if (amenity.equals(node.tag("amenity"))) {
+          expected.add(distance(node, point));
+        }
+      }
+
+      Collections.sort(expected);
+
+      assertEquals(closest, distance(pointTree.nearest(point), point), 1e-9);
+
+      List<Node> nearest = pointTree.nearest(point, 10, (node) -> {
+        return amenity.equals(node.tag("amenity"));
+      });
+
+      assertEquals(10, nearest.size());
+
+      for (int j = 0; j < nearest.size(); j++) {
+        assertEquals(amenity, nearest.get(j).tag("amenity"));
+        assertEquals(expected.get(j), distance(nearest.get(j), point), 1e-9);
+      }
+    }
+  }
 }
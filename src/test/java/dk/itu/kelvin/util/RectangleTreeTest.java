@@ -5,12 +5,15 @@ package dk.itu.kelvin.util;
 
 // General utilities
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 // JUnit annotations
 import org.junit.Test;
 
 // JUnit assertions
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -356,4 +359,148 @@ public final class RectangleTreeTest {
     assertTrue(result.contains(w1));
     assertFalse(result.contains(w2));
   }
+
+  /**
+   * Test that elements added and removed in place are found exactly like the
+   * elements of a bulk-loaded tree.
+   */
+  @Test
+  public void testAddRemove() {
+    Random random = new Random(42);
+    List<Way> ways = new ArrayList<>();
+
+    for (int i = 0; i < 3000; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      Way way = new Way();
+      way.add(new Node(x, y));
+      way.add(new Node(
+        x + random.nextFloat() * 10, y + random.nextFloat() * 10
+      ));
+      ways.add(way);
+    }
+
+    RectangleTree<Way> rectTree = new RectangleTree<>(ways.subList(0, 1000));
+
+    for (Way way: ways.subList(1000, ways.size())) {
+      rectTree.add(way);
+    }
+
+    List<Way> remaining = new ArrayList<>();
+
+    for (int i = 0; i < ways.size(); i++) {
+      if (i % 3 == 0) {
+        assertTrue(rectTree.remove(ways.get(i)));
+      }
+      else {
+        remaining.add(ways.get(i));
+      }
+    }
+
+    assertFalse(rectTree.remove(ways.get(0)));
+    assertEquals(remaining.size(), rectTree.size());
+    assertTrue(rectTree.contains(ways.get(1)));
+    assertFalse(rectTree.contains(ways.get(0)));
+
+    for (int i = 0; i < 50; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      SpatialIndex.Bounds bounds = new SpatialIndex.Bounds(
+        x, y, x + random.nextFloat() * 100, y + random.nextFloat() * 100
+      );
+
+      int expected = 0;
+
+      for (Way way: remaining) {
+        if (bounds.intersects(way.bounds())) {
+          expected++;
+        }
+      }
+
+      assertEquals(expected, rectTree.range(bounds).size());
+    }
+
+    for (Way way: remaining) {
+      rectTree.remove(way);
+    }
+
+    assertTrue(rectTree.isEmpty());
+    assertTrue(rectTree.range(new SpatialIndex.Bounds(0, 0, 1, 1)) == null);
+  }
+
+  /**
+   * Test that k-nearest neighbour queries find the k closest included
+   * elements within the radius, closest first.
+   */
+  @Test
+  public void testNearestK() {
+    Random random = new Random(42);
+    List<Way> ways = new ArrayList<>();
+
+    for (int i = 0; i < 3000; i++) {
+      float x = random.nextFloat() * 1000;
+      float y = random.nextFloat() * 1000;
+
+      Way way = new Way();
+      way.add(new Node(x, y));
+      way.add(new Node(
+        x + random.nextFloat() * 10, y + random.nextFloat() * 10
+      ));
+      ways.add(way);
+    }
+
+    RectangleTree<Way> rectTree = new RectangleTree<>(ways);
+
+    for (int i = 0; i < 50; i++) {
+      SpatialIndex.Point point = new SpatialIndex.Point(
+        random.nextFloat() * 1000, random.nextFloat() * 1000
+      );
+
+      List<Double> expected = new ArrayList<>();
+
+      for (Way way: ways) {
+        if (way.minX() < 500) {
+          expected.add(way.distance(point));
+        }
+      }
+
+      Collections.sort(expected);
+
+      List<Way> nearest = rectTree.nearest(point, 10, (way) -> {
+        return way.minX() < 500;
+      });
+
+      assertEquals(10, nearest.size());
+
+      for (int j = 0; j < nearest.size(); j++) {
+        assertTrue(nearest.get(j).minX() < 500);
+        assertEquals(expected.get(j), nearest.get(j).distance(point), 1e-9);
+      }
+
+      // Only the elements within the radius are found.
+      double radius = expected.get(4);
+
+      List<Way> within = rectTree.nearest(point, 10, radius, (way) -> {
+        return way.minX() < 500;
+      });
+
+      assertEquals(5, within.size());
+    }
+
+    SpatialIndex.Point origin = new SpatialIndex.Point(0, 0);
+
+    assertEquals(ways.size(), rectTree.nearest(origin, 5000, (way) -> {
+      return true;
+    }).size());
+
+    assertTrue(rectTree.nearest(origin, 0, (way) -> {
+      return true;
+    }).isEmpty());
+
+    assertTrue(rectTree.nearest(origin, 1, 0, (way) -> {
+      return true;
+    }).isEmpty());
+  }
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2015 The Authors.
+ */
+package dk.itu.kelvin.util;
+
+// JUnit annotations
+import org.junit.Test;
+
+// JUnit assertions
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SparseBitSet} test suite.
+ */
+public final class SparseBitSetTest {
+  /**
+   * Test setting and getting bits.
+   */
+  @Test
+  public void testSetAndGet() {
+    SparseBitSet set = new SparseBitSet();
+    assertTrue(set.isEmpty());
+    assertFalse(set.get(0));
+    assertFalse(set.get(-1));
+
+    set.set(0);
+    set.set(63);
+    set.set(64);
+    set.set(65535);
+    set.set(65536);
+    set.set(3_400_000_000L);
+
+    assertTrue(set.get(0));
+    assertTrue(set.get(63));
+    assertTrue(set.get(64));
+    assertTrue(set.get(65535));
+    assertTrue(set.get(65536));
+    assertTrue(set.get(3_400_000_000L));
+
+    assertFalse(set.get(1));
+    assertFalse(set.get(62));
+    assertFalse(set.get(65537));
+    assertFalse(set.get(3_400_000_001L));
+    assertFalse(set.get(3_400_000_000L + 65536));
+  }
+
+  /**
+   * Test the cardinality of the set.
+   */
+  @Test
+  public void testCardinality() {
+    SparseBitSet set = new SparseBitSet();
+
+    for (long i = 0; i < 1000; i++) {
+      set.set(i * 997);
+      set.set(i * 997);
+    }
+
+    assertEquals(1000, set.cardinality());
+    assertFalse(set.isEmpty());
+
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.get(997));
+  }
+}
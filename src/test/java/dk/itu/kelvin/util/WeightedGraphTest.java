@@ -11,6 +11,8 @@ import dk.itu.kelvin.model.Way;
 import org.junit.Test;
 
 // JUnit assertions
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -86,4 +88,36 @@ public final class WeightedGraphTest {
     assertTrue(wg.neighbours(n5).containsKey(n6));
     assertTrue(wg.neighbours(n5).size() == 2);
   }
+
+  /**
+   * Test that removing an edge leaves the edges sharing its nodes be.
+   */
+  @Test
+  public void testRemove() {
+    Node n1 = new Node(1, 1);
+    Node n2 = new Node(2, 2);
+    Node n3 = new Node(3, 3);
+
+    Way w1 = new Way();
+    w1.add(n1);
+    w1.add(n2);
+
+    Way w2 = new Way();
+    w2.add(n2);
+    w2.add(n3);
+
+    WeightedGraph<Node, Way> wg = new WeightedGraph<>();
+    wg.add(w1);
+    wg.add(w2);
+
+    assertTrue(wg.remove(w1));
+    assertFalse(wg.remove(w1));
+
+    assertFalse(wg.edges().contains(w1));
+    assertTrue(wg.edges().contains(w2));
+
+    assertNull(wg.neighbours(n1));
+    assertTrue(wg.neighbours(n2).containsKey(n3));
+    assertFalse(wg.neighbours(n2).containsKey(n1));
+  }
 }